@@ -1,42 +1,107 @@
 package com.fragment.io.aio.project;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fragment.io.aio.project.HostConnectionPool.PooledConnection;
 
 /**
  * 异步HTTP客户端
- * 
+ *
  * <p>功能特性：
  * <ul>
  *   <li>异步HTTP GET/POST请求</li>
  *   <li>请求头和请求体支持</li>
- *   <li>响应解析</li>
+ *   <li>响应解析（Content-Length、chunked、读到连接关闭）</li>
  *   <li>超时控制</li>
- *   <li>连接池（简化版）</li>
- *   <li>重试机制</li>
+ *   <li>按主机的Keep-Alive连接池（见{@link HostConnectionPool}）</li>
+ *   <li>复用的连接失效时重试</li>
+ * </ul>
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：原来靠"读到&lt;/html&gt;或者超过100字节"判断响应结束，只能读完就关连接？
+ *       解决：按Content-Length或chunked编码增量解析，响应正好读完时连接还能接着用；
+ *       两者都没有时读到服务端关闭为止，这种连接不复用</li>
+ *   <li>问题2：复用的连接可能在空闲时被服务端关掉，请求发出去才发现？
+ *       解决：复用的连接上一个响应字节都没收到就断了，对幂等的请求换一个新连接重试一次</li>
+ *   <li>问题3：每个请求都建一个ScheduledThreadPool做超时？
+ *       解决：整个客户端共用一个定时线程，请求完成就取消超时任务；空闲连接回收也在这个线程上</li>
  * </ul>
- * 
+ *
  * <p>注意：这是一个教学示例，生产环境请使用成熟的HTTP客户端库（如Apache HttpClient、OkHttp等）
- * 
+ *
  * @author fragment
  */
-public class AsyncHttpClient {
+public class AsyncHttpClient implements Closeable {
 
     private static final int DEFAULT_TIMEOUT = 30000; // 30秒
-    private static final int BUFFER_SIZE = 8192;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000; // 30秒
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
     private static final String DEFAULT_USER_AGENT = "AsyncHttpClient/1.0";
 
+    /**
+     * 并发请求演示里，请求数不超过这个值才逐个打印结果
+     */
+    private static final int PRINT_LIMIT = 20;
+
+    private final int maxConnectionsPerHost;
+    private final long idleTimeoutMs;
+    private final boolean keepAlive;
+    private final Map<String, HostConnectionPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timer;
+    private final AtomicLong staleRetries = new AtomicLong();
+    private volatile boolean verbose = true;
+
+    public AsyncHttpClient() {
+        this(DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT, true);
+    }
+
+    /**
+     * @param maxConnectionsPerHost 每个主机最多同时打开的连接数，超过的请求排队
+     * @param idleTimeoutMs         连接空闲多久后关闭
+     * @param keepAlive             false时每个请求都发Connection: close，用完就关（原来的做法）
+     */
+    public AsyncHttpClient(int maxConnectionsPerHost, long idleTimeoutMs, boolean keepAlive) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.keepAlive = keepAlive;
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "async-http-client-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 请求正常完成时取消的超时任务立即移出队列，不然1万个请求就有1万个任务等30秒
+        timer.setRemoveOnCancelPolicy(true);
+        long evictPeriod = Math.max(100, idleTimeoutMs / 2);
+        timer.scheduleWithFixedDelay(this::evictIdleConnections, evictPeriod, evictPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 是否打印每个请求的连接、发送、接收过程
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     /**
      * 异步GET请求
      */
@@ -68,46 +133,33 @@ public class AsyncHttpClient {
     /**
      * 通用HTTP请求
      */
-    private CompletableFuture<HttpResponse> request(HttpMethod method, String url, 
+    private CompletableFuture<HttpResponse> request(HttpMethod method, String url,
                                                     Map<String, String> headers, String body) {
         CompletableFuture<HttpResponse> future = new CompletableFuture<>();
 
         try {
             // 解析URL
             UrlInfo urlInfo = parseUrl(url);
-            
-            // 打开异步Socket连接
-            AsynchronousSocketChannel channel = AsynchronousSocketChannel.open();
-            
-            System.out.println("🔗 连接到 " + urlInfo.host + ":" + urlInfo.port);
-
-            // 异步连接
-            channel.connect(new InetSocketAddress(urlInfo.host, urlInfo.port), null, 
-                new CompletionHandler<Void, Void>() {
-                @Override
-                public void completed(Void result, Void attachment) {
-                    System.out.println("✅ 连接成功");
-                    
-                    // 构建HTTP请求
-                    String request = buildHttpRequest(method, urlInfo, headers, body);
-                    System.out.println("📤 发送请求:\n" + request);
-                    
-                    ByteBuffer requestBuffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8));
-                    
-                    // 异步发送请求
-                    sendRequest(channel, requestBuffer, future);
-                }
 
-                @Override
-                public void failed(Throwable exc, Void attachment) {
-                    System.err.println("❌ 连接失败: " + exc.getMessage());
-                    future.completeExceptionally(exc);
-                    closeChannel(channel);
+            // 构建HTTP请求
+            String request = buildHttpRequest(method, urlInfo, headers, body);
+            if (verbose) {
+                System.out.println("📤 发送请求:\n" + request);
+            }
+
+            HostConnectionPool pool = pools.computeIfAbsent(urlInfo.host + ":" + urlInfo.port,
+                key -> new HostConnectionPool(urlInfo.host, urlInfo.port, maxConnectionsPerHost, idleTimeoutMs));
+            Exchange exchange = new Exchange(method, request.getBytes(StandardCharsets.UTF_8), pool, future);
+
+            // 设置超时
+            exchange.timeout = timer.schedule(() -> {
+                if (finish(exchange, false)) {
+                    future.completeExceptionally(new TimeoutException("请求超时"));
+                    System.err.println("❌ 请求超时");
                 }
-            });
+            }, DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
 
-            // 设置超时（Java 8兼容方式）
-            scheduleTimeout(future, channel, DEFAULT_TIMEOUT);
+            execute(exchange);
 
         } catch (Exception e) {
             future.completeExceptionally(e);
@@ -116,173 +168,167 @@ public class AsyncHttpClient {
         return future;
     }
 
+    /**
+     * 从连接池取连接，取到后发送请求
+     */
+    private void execute(Exchange exchange) {
+        exchange.pool.acquire(exchange.future).whenComplete((connection, error) -> {
+            if (error != null) {
+                System.err.println("❌ 连接失败: " + error.getMessage());
+                if (finish(exchange, false)) {
+                    exchange.future.completeExceptionally(error);
+                }
+                return;
+            }
+            if (exchange.finished.get()) {
+                // 排队期间已经超时，连接原样还回去
+                exchange.pool.release(connection, true);
+                return;
+            }
+            exchange.connection = connection;
+            if (exchange.finished.get()) {
+                // 和超时撞在一起，超时那边可能没看到这个连接
+                exchange.pool.release(connection, false);
+                return;
+            }
+            if (verbose) {
+                System.out.println((connection.isReused() ? "♻️ 复用连接 " : "🔗 新建连接 ")
+                    + exchange.pool.getAddress() + "（第" + connection.requests + "个请求）");
+            }
+            exchange.parser = new ResponseParser(exchange.method == HttpMethod.HEAD);
+            sendRequest(exchange, connection, ByteBuffer.wrap(exchange.request));
+        });
+    }
+
     /**
      * 异步发送请求
      */
-    private void sendRequest(AsynchronousSocketChannel channel, ByteBuffer requestBuffer, 
-                            CompletableFuture<HttpResponse> future) {
-        channel.write(requestBuffer, requestBuffer, new CompletionHandler<Integer, ByteBuffer>() {
+    private void sendRequest(Exchange exchange, PooledConnection connection, ByteBuffer requestBuffer) {
+        connection.channel.write(requestBuffer, requestBuffer, new CompletionHandler<Integer, ByteBuffer>() {
             @Override
             public void completed(Integer bytesWritten, ByteBuffer attachment) {
                 if (attachment.hasRemaining()) {
                     // 继续写入剩余数据
-                    channel.write(attachment, attachment, this);
+                    connection.channel.write(attachment, attachment, this);
                 } else {
-                    System.out.println("✅ 请求发送完成");
+                    if (verbose) {
+                        System.out.println("✅ 请求发送完成");
+                    }
                     // 开始读取响应
-                    readResponse(channel, future);
+                    readResponse(exchange, connection);
                 }
             }
 
             @Override
             public void failed(Throwable exc, ByteBuffer attachment) {
-                System.err.println("❌ 发送请求失败: " + exc.getMessage());
-                future.completeExceptionally(exc);
-                closeChannel(channel);
+                fail(exchange, connection, exc, "发送请求失败");
             }
         });
     }
 
     /**
-     * 异步读取响应
+     * 异步读取响应，边读边解析，解析器说完整了就停
      */
-    private void readResponse(AsynchronousSocketChannel channel, CompletableFuture<HttpResponse> future) {
-        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
-        List<ByteBuffer> buffers = new ArrayList<>();
-
-        readResponseChunk(channel, buffer, buffers, future);
-    }
-
-    /**
-     * 递归读取响应数据块
-     */
-    private void readResponseChunk(AsynchronousSocketChannel channel, ByteBuffer buffer, 
-                                   List<ByteBuffer> buffers, CompletableFuture<HttpResponse> future) {
-        channel.read(buffer, buffer, new CompletionHandler<Integer, ByteBuffer>() {
+    private void readResponse(Exchange exchange, PooledConnection connection) {
+        ByteBuffer buffer = connection.readBuffer;
+        buffer.clear();
+        connection.channel.read(buffer, exchange.parser, new CompletionHandler<Integer, ResponseParser>() {
             @Override
-            public void completed(Integer bytesRead, ByteBuffer attachment) {
-                if (bytesRead == -1) {
-                    // 读取完成
-                    System.out.println("✅ 响应接收完成");
-                    closeChannel(channel);
-                    
-                    // 解析响应
-                    try {
-                        HttpResponse response = parseResponse(buffers);
-                        future.complete(response);
-                    } catch (Exception e) {
-                        future.completeExceptionally(e);
+            public void completed(Integer bytesRead, ResponseParser parser) {
+                try {
+                    if (bytesRead == -1) {
+                        if (parser.finishOnClose()) {
+                            complete(exchange, parser, false);
+                        } else {
+                            fail(exchange, connection, new IOException(parser.getReceived() == 0
+                                ? "连接已被服务端关闭" : "响应不完整，连接被关闭"), "读取响应失败");
+                        }
+                        return;
                     }
-                    return;
-                }
-
-                // 保存当前buffer
-                attachment.flip();
-                ByteBuffer copy = ByteBuffer.allocate(attachment.remaining());
-                copy.put(attachment);
-                copy.flip();
-                buffers.add(copy);
-
-                // 检查是否读取完整响应（简化判断）
-                String currentData = StandardCharsets.UTF_8.decode(copy).toString();
-                if (isResponseComplete(buffers, currentData)) {
-                    System.out.println("✅ 响应接收完成");
-                    closeChannel(channel);
-                    
-                    try {
-                        HttpResponse response = parseResponse(buffers);
-                        future.complete(response);
-                    } catch (Exception e) {
-                        future.completeExceptionally(e);
+                    buffer.flip();
+                    parser.feed(buffer);
+                    if (parser.isComplete()) {
+                        // 服务端多发了数据（不应该出现）时，连接的状态说不清楚，不再复用
+                        boolean reusable = keepAlive && parser.isKeepAlive() && !buffer.hasRemaining();
+                        if (reusable) {
+                            connection.keepAliveLimits(parser.getKeepAliveTimeout(), parser.getKeepAliveMax());
+                        }
+                        complete(exchange, parser, reusable);
+                        return;
                     }
-                    return;
+                    // 继续读取
+                    buffer.clear();
+                    connection.channel.read(buffer, parser, this);
+                } catch (IOException e) {
+                    fail(exchange, connection, e, "解析响应失败");
                 }
-
-                // 继续读取
-                ByteBuffer nextBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-                readResponseChunk(channel, nextBuffer, buffers, future);
             }
 
             @Override
-            public void failed(Throwable exc, ByteBuffer attachment) {
-                System.err.println("❌ 读取响应失败: " + exc.getMessage());
-                future.completeExceptionally(exc);
-                closeChannel(channel);
+            public void failed(Throwable exc, ResponseParser parser) {
+                fail(exchange, connection, exc, "读取响应失败");
             }
         });
     }
 
-    /**
-     * 判断响应是否完整（简化版）
-     */
-    private boolean isResponseComplete(List<ByteBuffer> buffers, String currentData) {
-        // 简化判断：如果包含完整的HTTP响应头和Content-Length指定的body
-        // 实际应该根据Content-Length或Transfer-Encoding: chunked来判断
-        
-        // 检查是否有响应头结束标记
-        String allData = getAllData(buffers);
-        if (!allData.contains("\r\n\r\n")) {
-            return false;
+    private void complete(Exchange exchange, ResponseParser parser, boolean reusable) {
+        HttpResponse response = parser.toResponse();
+        if (finish(exchange, reusable)) {
+            if (verbose) {
+                System.out.println("📥 收到响应 (" + parser.getReceived() + " 字节)"
+                    + (reusable ? "，连接放回池中" : "，关闭连接"));
+            }
+            exchange.future.complete(response);
         }
-
-        // 简单判断：如果读取到的数据较小或包含HTML结束标签
-        return allData.contains("</html>") || 
-               allData.contains("</body>") || 
-               allData.length() > 100; // 简化判断
     }
 
-    /**
-     * 获取所有已读取的数据
-     */
-    private String getAllData(List<ByteBuffer> buffers) {
-        StringBuilder sb = new StringBuilder();
-        for (ByteBuffer buffer : buffers) {
-            buffer.rewind();
-            sb.append(StandardCharsets.UTF_8.decode(buffer));
+    private void fail(Exchange exchange, PooledConnection connection, Throwable error, String action) {
+        if (connection.isReused() && !exchange.retried && exchange.method.isIdempotent()
+            && exchange.parser.getReceived() == 0 && !exchange.finished.get()) {
+            // 服务端在连接空闲时把它关了，请求还没被处理，换个新连接再发一次
+            exchange.retried = true;
+            staleRetries.incrementAndGet();
+            exchange.connection = null;
+            exchange.pool.release(connection, false);
+            if (verbose) {
+                System.out.println("🔁 复用的连接已失效（" + error.getMessage() + "），换新连接重试");
+            }
+            execute(exchange);
+            return;
+        }
+        if (finish(exchange, false)) {
+            System.err.println("❌ " + action + ": " + error.getMessage());
+            exchange.future.completeExceptionally(error);
         }
-        return sb.toString();
     }
 
     /**
-     * 解析HTTP响应
+     * 请求结束（完成、失败、超时只有一个能成功）：取消超时，还回连接
      */
-    private HttpResponse parseResponse(List<ByteBuffer> buffers) {
-        String responseText = getAllData(buffers);
-        
-        System.out.println("📥 收到响应 (" + responseText.length() + " 字节)");
-
-        // 分离响应头和响应体
-        String[] parts = responseText.split("\r\n\r\n", 2);
-        String headerPart = parts[0];
-        String bodyPart = parts.length > 1 ? parts[1] : "";
-
-        // 解析状态行
-        String[] lines = headerPart.split("\r\n");
-        String statusLine = lines[0];
-        String[] statusParts = statusLine.split(" ", 3);
-        
-        int statusCode = Integer.parseInt(statusParts[1]);
-        String statusMessage = statusParts.length > 2 ? statusParts[2] : "";
-
-        // 解析响应头
-        Map<String, String> headers = new HashMap<>();
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i];
-            int colonIndex = line.indexOf(':');
-            if (colonIndex > 0) {
-                String key = line.substring(0, colonIndex).trim();
-                String value = line.substring(colonIndex + 1).trim();
-                headers.put(key, value);
-            }
+    private boolean finish(Exchange exchange, boolean reusable) {
+        if (!exchange.finished.compareAndSet(false, true)) {
+            return false;
+        }
+        if (exchange.timeout != null) {
+            exchange.timeout.cancel(false);
+        }
+        PooledConnection connection = exchange.connection;
+        if (connection != null) {
+            exchange.pool.release(connection, reusable);
         }
+        return true;
+    }
 
-        return new HttpResponse(statusCode, statusMessage, headers, bodyPart);
+    private void evictIdleConnections() {
+        for (HostConnectionPool pool : pools.values()) {
+            pool.evictIdle();
+        }
     }
 
     /**
      * 构建HTTP请求
      */
-    private String buildHttpRequest(HttpMethod method, UrlInfo urlInfo, 
+    private String buildHttpRequest(HttpMethod method, UrlInfo urlInfo,
                                     Map<String, String> headers, String body) {
         StringBuilder request = new StringBuilder();
 
@@ -290,10 +336,14 @@ public class AsyncHttpClient {
         request.append(method.name()).append(" ").append(urlInfo.path).append(" HTTP/1.1\r\n");
 
         // 必需的请求头
-        request.append("Host: ").append(urlInfo.host).append("\r\n");
+        request.append("Host: ").append(urlInfo.host);
+        if (urlInfo.port != 80) {
+            request.append(':').append(urlInfo.port);
+        }
+        request.append("\r\n");
         request.append("User-Agent: ").append(DEFAULT_USER_AGENT).append("\r\n");
         request.append("Accept: */*\r\n");
-        request.append("Connection: close\r\n");
+        request.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
 
         // 自定义请求头
         for (Map.Entry<String, String> entry : headers.entrySet()) {
@@ -324,7 +374,7 @@ public class AsyncHttpClient {
         }
 
         url = url.substring(7); // 移除 "http://"
-        
+
         int pathIndex = url.indexOf('/');
         String hostPort;
         String path;
@@ -352,15 +402,25 @@ public class AsyncHttpClient {
     }
 
     /**
-     * 关闭通道
+     * 各主机连接池的统计
      */
-    private void closeChannel(AsynchronousSocketChannel channel) {
-        if (channel != null && channel.isOpen()) {
-            try {
-                channel.close();
-            } catch (IOException e) {
-                // Ignore
-            }
+    public String getPoolStats() {
+        StringBuilder sb = new StringBuilder();
+        for (HostConnectionPool pool : pools.values()) {
+            sb.append(pool).append('\n');
+        }
+        sb.append("失效重试: ").append(staleRetries.get());
+        return sb.toString();
+    }
+
+    /**
+     * 关闭所有空闲连接，停止定时线程
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (HostConnectionPool pool : pools.values()) {
+            pool.close();
         }
     }
 
@@ -370,7 +430,14 @@ public class AsyncHttpClient {
      * HTTP方法
      */
     private enum HttpMethod {
-        GET, POST, PUT, DELETE, HEAD, OPTIONS
+        GET, POST, PUT, DELETE, HEAD, OPTIONS;
+
+        /**
+         * 重发不会产生额外副作用的方法，连接失效时才能重试
+         */
+        boolean isIdempotent() {
+            return this != POST;
+        }
     }
 
     /**
@@ -388,6 +455,300 @@ public class AsyncHttpClient {
         }
     }
 
+    /**
+     * 一次请求的状态，重试时换连接、换解析器，其余不变
+     */
+    private static final class Exchange {
+        final HttpMethod method;
+        final byte[] request;
+        final HostConnectionPool pool;
+        final CompletableFuture<HttpResponse> future;
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile PooledConnection connection;
+        volatile ScheduledFuture<?> timeout;
+        ResponseParser parser;
+        boolean retried;
+
+        Exchange(HttpMethod method, byte[] request, HostConnectionPool pool, CompletableFuture<HttpResponse> future) {
+            this.method = method;
+            this.request = request;
+            this.pool = pool;
+            this.future = future;
+        }
+    }
+
+    /**
+     * 增量的HTTP/1.1响应解析器，数据分几次到达都可以
+     *
+     * <p>响应结束的判断：HEAD请求和1xx/204/304没有响应体；有Transfer-Encoding: chunked按块读到长度为0的块；
+     * 有Content-Length读够长度；都没有就读到连接关闭。1xx中间响应（如100 Continue）直接跳过。
+     */
+    static final class ResponseParser {
+
+        private enum State {
+            HEAD, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+        }
+
+        private final boolean headRequest;
+        private State state = State.HEAD;
+        private final StringBuilder line = new StringBuilder();
+        private final List<String> headLines = new ArrayList<>();
+        private int headBytes;
+        private long remaining;
+        private long received;
+        private byte[] body = new byte[0];
+        private int bodyLength;
+
+        private String version;
+        private int statusCode;
+        private String statusMessage;
+        private Map<String, String> headers;
+        private boolean keepAlive;
+        private int keepAliveTimeout = -1;
+        private int keepAliveMax = -1;
+
+        ResponseParser(boolean headRequest) {
+            this.headRequest = headRequest;
+        }
+
+        /**
+         * 消费buffer里的数据，响应完整后剩下的数据留在buffer里
+         */
+        void feed(ByteBuffer buffer) throws IOException {
+            int start = buffer.position();
+            while (buffer.hasRemaining() && state != State.DONE) {
+                switch (state) {
+                    case HEAD:
+                        if (readLine(buffer)) {
+                            headBytes += line.length() + 2;
+                            if (headBytes > MAX_HEADER_SIZE) {
+                                throw new IOException("响应头超过" + MAX_HEADER_SIZE + "字节");
+                            }
+                            if (line.length() > 0) {
+                                headLines.add(line.toString());
+                            } else if (!headLines.isEmpty()) {
+                                onHead();
+                            }
+                            line.setLength(0);
+                        }
+                        break;
+                    case BODY:
+                    case CHUNK_DATA:
+                        int n = (int) Math.min(remaining, buffer.remaining());
+                        appendBody(buffer, n);
+                        remaining -= n;
+                        if (remaining == 0) {
+                            state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                        }
+                        break;
+                    case UNTIL_CLOSE:
+                        appendBody(buffer, buffer.remaining());
+                        break;
+                    case CHUNK_SIZE:
+                        if (readLine(buffer)) {
+                            onChunkSize();
+                        }
+                        break;
+                    case CHUNK_END:
+                        if (readLine(buffer)) {
+                            if (line.length() != 0) {
+                                throw new IOException("chunk后面缺少CRLF");
+                            }
+                            state = State.CHUNK_SIZE;
+                        }
+                        break;
+                    case TRAILERS:
+                        if (readLine(buffer)) {
+                            if (line.length() == 0) {
+                                state = State.DONE;
+                            }
+                            line.setLength(0);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException(state.name());
+                }
+            }
+            received += buffer.position() - start;
+        }
+
+        /**
+         * 读一行到line里（不含CRLF），这次的数据不够一行时返回false，下次接着读
+         */
+        private boolean readLine(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == '\n') {
+                    int last = line.length() - 1;
+                    if (last >= 0 && line.charAt(last) == '\r') {
+                        line.setLength(last);
+                    }
+                    return true;
+                }
+                if (line.length() >= MAX_HEADER_SIZE) {
+                    throw new IOException("响应行超过" + MAX_HEADER_SIZE + "字节");
+                }
+                line.append((char) (b & 0xFF));
+            }
+            return false;
+        }
+
+        private void onHead() throws IOException {
+            String statusLine = headLines.get(0);
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("无效的状态行: " + statusLine);
+            }
+            int code;
+            try {
+                code = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("无效的状态码: " + statusLine);
+            }
+
+            Map<String, String> parsed = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 1; i < headLines.size(); i++) {
+                String header = headLines.get(i);
+                int colonIndex = header.indexOf(':');
+                if (colonIndex > 0) {
+                    parsed.put(header.substring(0, colonIndex).trim(), header.substring(colonIndex + 1).trim());
+                }
+            }
+            headLines.clear();
+            if (code >= 100 && code < 200 && code != 101) {
+                // 中间响应，真正的响应在后面
+                return;
+            }
+
+            version = parts[0];
+            statusCode = code;
+            statusMessage = parts.length > 2 ? parts[2] : "";
+            headers = parsed;
+            String connection = parsed.get("Connection");
+            keepAlive = "HTTP/1.0".equals(version)
+                ? containsToken(connection, "keep-alive")
+                : !containsToken(connection, "close");
+            parseKeepAlive(parsed.get("Keep-Alive"));
+
+            String contentLength = parsed.get("Content-Length");
+            if (headRequest || code == 204 || code == 304) {
+                state = State.DONE;
+            } else if (code == 101) {
+                // 协议升级后连接不再是HTTP
+                keepAlive = false;
+                state = State.DONE;
+            } else if (containsToken(parsed.get("Transfer-Encoding"), "chunked")) {
+                state = State.CHUNK_SIZE;
+            } else if (contentLength != null) {
+                try {
+                    remaining = Long.parseLong(contentLength);
+                } catch (NumberFormatException e) {
+                    throw new IOException("无效的Content-Length: " + contentLength);
+                }
+                if (remaining < 0 || remaining > Integer.MAX_VALUE - 8) {
+                    throw new IOException("无效的Content-Length: " + contentLength);
+                }
+                body = new byte[(int) Math.min(remaining, 1 << 20)];
+                state = remaining == 0 ? State.DONE : State.BODY;
+            } else {
+                keepAlive = false;
+                state = State.UNTIL_CLOSE;
+            }
+        }
+
+        private void onChunkSize() throws IOException {
+            int end = line.indexOf(";");
+            String size = (end < 0 ? line.toString() : line.substring(0, end)).trim();
+            line.setLength(0);
+            try {
+                remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("无效的chunk大小: " + size);
+            }
+            if (remaining < 0 || bodyLength + remaining > Integer.MAX_VALUE - 8) {
+                throw new IOException("无效的chunk大小: " + size);
+            }
+            state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+        }
+
+        private void parseKeepAlive(String value) {
+            if (value == null) {
+                return;
+            }
+            for (String param : value.split(",")) {
+                String[] kv = param.trim().split("=", 2);
+                if (kv.length != 2) {
+                    continue;
+                }
+                try {
+                    if ("timeout".equalsIgnoreCase(kv[0].trim())) {
+                        keepAliveTimeout = Integer.parseInt(kv[1].trim());
+                    } else if ("max".equalsIgnoreCase(kv[0].trim())) {
+                        keepAliveMax = Integer.parseInt(kv[1].trim());
+                    }
+                } catch (NumberFormatException ignored) {
+                    // 不认识的值按没有处理
+                }
+            }
+        }
+
+        private static boolean containsToken(String value, String token) {
+            if (value == null) {
+                return false;
+            }
+            for (String part : value.split(",")) {
+                if (part.trim().equalsIgnoreCase(token)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void appendBody(ByteBuffer buffer, int n) {
+            if (bodyLength + n > body.length) {
+                body = Arrays.copyOf(body, Math.max(bodyLength + n, Math.max(256, body.length * 2)));
+            }
+            buffer.get(body, bodyLength, n);
+            bodyLength += n;
+        }
+
+        /**
+         * 连接被服务端关闭：读到关闭为止的响应到此完整，其余情况都是响应被截断
+         */
+        boolean finishOnClose() {
+            if (state == State.UNTIL_CLOSE) {
+                state = State.DONE;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isComplete() {
+            return state == State.DONE;
+        }
+
+        boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        int getKeepAliveTimeout() {
+            return keepAliveTimeout;
+        }
+
+        int getKeepAliveMax() {
+            return keepAliveMax;
+        }
+
+        long getReceived() {
+            return received;
+        }
+
+        HttpResponse toResponse() {
+            return new HttpResponse(statusCode, statusMessage, headers,
+                new String(body, 0, bodyLength, StandardCharsets.UTF_8));
+        }
+    }
+
     /**
      * HTTP响应
      */
@@ -397,7 +758,7 @@ public class AsyncHttpClient {
         private final Map<String, String> headers;
         private final String body;
 
-        public HttpResponse(int statusCode, String statusMessage, 
+        public HttpResponse(int statusCode, String statusMessage,
                           Map<String, String> headers, String body) {
             this.statusCode = statusCode;
             this.statusMessage = statusMessage;
@@ -463,10 +824,17 @@ public class AsyncHttpClient {
         Thread.sleep(3000);
 
         // 示例4: 并发请求
-        demonstrateConcurrentRequests(client);
+        List<String> urls = new ArrayList<>();
+        urls.add("http://httpbin.org/delay/1");
+        urls.add("http://httpbin.org/delay/2");
+        urls.add("http://httpbin.org/get");
+        demonstrateConcurrentRequests(client, urls);
 
         Thread.sleep(5000);
 
+        System.out.println("\n连接池统计:\n" + client.getPoolStats());
+        client.close();
+
         System.out.println("\n========== 演示完成 ==========");
     }
 
@@ -481,7 +849,7 @@ public class AsyncHttpClient {
                   System.out.println("响应头数量: " + response.getHeaders().size());
                   System.out.println("响应体长度: " + response.getBody().length());
                   System.out.println("\n响应体预览:");
-                  System.out.println(response.getBody().substring(0, 
+                  System.out.println(response.getBody().substring(0,
                       Math.min(200, response.getBody().length())) + "...");
               })
               .exceptionally(ex -> {
@@ -503,13 +871,13 @@ public class AsyncHttpClient {
               .thenAccept(response -> {
                   System.out.println("\n✅ 请求成功");
                   System.out.println("状态码: " + response.getStatusCode());
-                  
+
                   if (response.isSuccess()) {
                       System.out.println("✅ 请求成功 (2xx)");
                   }
-                  
+
                   System.out.println("\n响应头:");
-                  response.getHeaders().forEach((key, value) -> 
+                  response.getHeaders().forEach((key, value) ->
                       System.out.println("  " + key + ": " + value));
               })
               .exceptionally(ex -> {
@@ -531,7 +899,7 @@ public class AsyncHttpClient {
                   System.out.println("状态码: " + response.getStatusCode());
                   System.out.println("Content-Type: " + response.getHeader("Content-Type"));
                   System.out.println("\n响应体预览:");
-                  System.out.println(response.getBody().substring(0, 
+                  System.out.println(response.getBody().substring(0,
                       Math.min(300, response.getBody().length())) + "...");
               })
               .exceptionally(ex -> {
@@ -542,74 +910,57 @@ public class AsyncHttpClient {
         System.out.println("\n" + createSeparator(60) + "\n");
     }
 
-    private static void demonstrateConcurrentRequests(AsyncHttpClient client) {
+    /**
+     * 同时发起所有请求，返回成功（2xx）的请求数
+     */
+    static CompletableFuture<Long> demonstrateConcurrentRequests(AsyncHttpClient client, List<String> urls) {
         System.out.println("========== 示例4: 并发请求 ==========\n");
 
-        List<String> urls = new ArrayList<>();
-        urls.add("http://httpbin.org/delay/1");
-        urls.add("http://httpbin.org/delay/2");
-        urls.add("http://httpbin.org/get");
-
         System.out.println("同时发起 " + urls.size() + " 个请求...\n");
 
         long startTime = System.currentTimeMillis();
+        boolean printEach = urls.size() <= PRINT_LIMIT;
 
         List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
         for (int i = 0; i < urls.size(); i++) {
             final int index = i + 1;
             String url = urls.get(i);
-            
+
             CompletableFuture<HttpResponse> future = client.get(url)
                 .thenApply(response -> {
-                    long duration = System.currentTimeMillis() - startTime;
-                    System.out.println("✅ 请求 #" + index + " 完成 (耗时: " + duration + "ms)");
+                    if (printEach) {
+                        long duration = System.currentTimeMillis() - startTime;
+                        System.out.println("✅ 请求 #" + index + " 完成 (耗时: " + duration + "ms)");
+                    }
                     return response;
                 })
                 .exceptionally(ex -> {
-                    System.err.println("❌ 请求 #" + index + " 失败: " + ex.getMessage());
+                    if (printEach) {
+                        System.err.println("❌ 请求 #" + index + " 失败: " + ex.getMessage());
+                    }
                     return null;
                 });
-            
+
             futures.add(future);
         }
 
         // 等待所有请求完成
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-            .thenRun(() -> {
+        CompletableFuture<Long> result = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+            .thenApply(v -> {
                 long totalDuration = System.currentTimeMillis() - startTime;
                 System.out.println("\n✅ 所有请求完成！总耗时: " + totalDuration + "ms");
-                
+
                 long successCount = futures.stream()
                     .map(CompletableFuture::join)
                     .filter(r -> r != null && r.isSuccess())
                     .count();
-                
+
                 System.out.println("成功: " + successCount + "/" + urls.size());
-            })
-            .exceptionally(ex -> {
-                System.err.println("❌ 并发请求失败: " + ex.getMessage());
-                return null;
+                return successCount;
             });
 
         System.out.println("\n" + createSeparator(60) + "\n");
-    }
-
-    /**
-     * 设置超时（Java 8兼容方式）
-     */
-    private void scheduleTimeout(CompletableFuture<HttpResponse> future, 
-                                 AsynchronousSocketChannel channel, long timeoutMs) {
-        java.util.concurrent.ScheduledExecutorService scheduler = 
-            java.util.concurrent.Executors.newScheduledThreadPool(1);
-        
-        scheduler.schedule(() -> {
-            if (!future.isDone()) {
-                future.completeExceptionally(new TimeoutException("请求超时"));
-                closeChannel(channel);
-                System.err.println("❌ 请求超时");
-            }
-            scheduler.shutdown();
-        }, timeoutMs, TimeUnit.MILLISECONDS);
+        return result;
     }
 
     /**
@@ -0,0 +1,319 @@
+package com.fragment.io.aio.project;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AsyncHttpClient连接池的本机压测
+ *
+ * <p>在127.0.0.1上起一个支持Keep-Alive的AIO HTTP服务器（一半路径用Content-Length，一半用chunked），
+ * 用{@link AsyncHttpClient#demonstrateConcurrentRequests}同时发起N个请求（默认1万），比较：
+ * <ul>
+ *   <li>不复用、不限连接数：原来的做法，每个请求一个新连接</li>
+ *   <li>不复用、每主机最多64个连接：只限并发，还是每次握手</li>
+ *   <li>连接池，每主机最多64个 / 8个</li>
+ * </ul>
+ * 统计耗时、每秒请求数和服务端一共接受了多少个连接。
+ *
+ * <p>之后验证连接的回收：一直有请求在跑的连接不能被当成空闲超时关掉；客户端空闲超时后回收；
+ * 服务端先把空闲连接关掉，客户端取出后发现并重试。
+ *
+ * <p>纯JDK。启动方式：java AsyncHttpClientLoadTest [请求数]
+ *
+ * @author fragment
+ */
+public class AsyncHttpClientLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+
+        try (LoopbackHttpServer server = new LoopbackHttpServer(0)) {
+            List<String> urls = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                urls.add("http://127.0.0.1:" + server.getPort() + (i % 2 == 0 ? "/get?i=" : "/chunked?i=") + i);
+            }
+            // 先热身，JIT和线程池都准备好
+            run(server, new AsyncHttpClient(64, 30000, true), urls.subList(0, Math.min(2000, requests)));
+
+            List<String> results = new ArrayList<>();
+            results.add(run(server, new AsyncHttpClient(64, 30000, true), urls).label("连接池，每主机64"));
+            results.add(run(server, new AsyncHttpClient(8, 30000, true), urls).label("连接池，每主机8"));
+            results.add(run(server, new AsyncHttpClient(64, 30000, false), urls).label("不复用，每主机64"));
+            results.add(run(server, new AsyncHttpClient(Integer.MAX_VALUE, 30000, false), urls).label("不复用，不限（原做法）"));
+
+            System.out.println("=== " + requests + "个并发请求（本机回环） ===\n");
+            System.out.println(String.format("%-22s %10s %12s %8s %14s", "做法", "耗时ms", "请求/秒", "成功", "服务端连接数"));
+            for (String line : results) {
+                System.out.println(line);
+            }
+        }
+
+        System.out.println("\n=== 连接失效 ===\n");
+        testBusyConnectionsKept();
+        testIdleEviction();
+        testServerClosedIdleConnection();
+    }
+
+    private static Result run(LoopbackHttpServer server, AsyncHttpClient client, List<String> urls) throws Exception {
+        client.setVerbose(false);
+        int before = server.connections.get();
+        long start = System.nanoTime();
+        long success = AsyncHttpClient.demonstrateConcurrentRequests(client, urls).get(120, TimeUnit.SECONDS);
+        long nanos = System.nanoTime() - start;
+        System.out.println("连接池统计:\n" + client.getPoolStats() + "\n");
+        client.close();
+        return new Result(nanos, urls.size(), success, server.connections.get() - before);
+    }
+
+    /**
+     * 每主机2个连接、空闲超时300ms，16个请求的滑动窗口持续跑3秒（一个完成马上补一个）：
+     * 连接一直在忙，从来没有空闲过，整个过程应该只建2个连接
+     */
+    private static void testBusyConnectionsKept() throws Exception {
+        try (LoopbackHttpServer server = new LoopbackHttpServer(0);
+             AsyncHttpClient client = new AsyncHttpClient(2, 300, true)) {
+            client.setVerbose(false);
+            String url = "http://127.0.0.1:" + server.getPort() + "/get";
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+            AtomicLong completed = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            CountDownLatch finished = new CountDownLatch(16);
+            for (int i = 0; i < 16; i++) {
+                sendUntil(client, url, deadline, completed, failed, finished);
+            }
+            finished.await(30, TimeUnit.SECONDS);
+            System.out.println("持续3秒的滑动窗口（16个在途，每主机2个连接，空闲超时300ms）: 完成"
+                + completed.get() + "个，失败" + failed.get() + "个");
+            System.out.println(client.getPoolStats());
+            System.out.println("服务端一共接受连接: " + server.connections.get() + "\n");
+        }
+    }
+
+    private static void sendUntil(AsyncHttpClient client, String url, long deadline, AtomicLong completed,
+                                  AtomicLong failed, CountDownLatch finished) {
+        if (System.nanoTime() - deadline >= 0) {
+            finished.countDown();
+            return;
+        }
+        client.get(url).whenComplete((response, error) -> {
+            (error == null ? completed : failed).incrementAndGet();
+            sendUntil(client, url, deadline, completed, failed, finished);
+        });
+    }
+
+    /**
+     * 客户端空闲超时300ms：4个连接空闲1秒后应该全部被回收，下一个请求重新建连
+     */
+    private static void testIdleEviction() throws Exception {
+        try (LoopbackHttpServer server = new LoopbackHttpServer(0);
+             AsyncHttpClient client = new AsyncHttpClient(4, 300, true)) {
+            client.setVerbose(false);
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                urls.add("http://127.0.0.1:" + server.getPort() + "/get?i=" + i);
+            }
+            AsyncHttpClient.demonstrateConcurrentRequests(client, urls).get(10, TimeUnit.SECONDS);
+            Thread.sleep(1000);
+            String afterIdle = client.getPoolStats();
+            client.get(urls.get(0)).get(10, TimeUnit.SECONDS);
+            System.out.println("空闲1秒后:\n" + afterIdle);
+            System.out.println("再发一个请求后:\n" + client.getPoolStats());
+            System.out.println("服务端一共接受连接: " + server.connections.get() + "\n");
+        }
+    }
+
+    /**
+     * 服务端200ms不来请求就关连接（不发Keep-Alive头，客户端不知道）：客户端取出的连接已经失效，
+     * 发送后读到连接关闭，换新连接重试，调用方看到的还是成功
+     */
+    private static void testServerClosedIdleConnection() throws Exception {
+        try (LoopbackHttpServer server = new LoopbackHttpServer(200);
+             AsyncHttpClient client = new AsyncHttpClient(4, 30000, true)) {
+            client.setVerbose(true);
+            String url = "http://127.0.0.1:" + server.getPort() + "/get";
+            client.get(url).get(10, TimeUnit.SECONDS);
+            Thread.sleep(500);
+            AsyncHttpClient.HttpResponse response = client.get(url).get(10, TimeUnit.SECONDS);
+            System.out.println("\n服务端关掉空闲连接后再请求: " + response);
+            System.out.println(client.getPoolStats());
+            System.out.println("服务端一共接受连接: " + server.connections.get());
+        }
+    }
+
+    private static final class Result {
+        final long nanos;
+        final int requests;
+        final long success;
+        final int connections;
+
+        Result(long nanos, int requests, long success, int connections) {
+            this.nanos = nanos;
+            this.requests = requests;
+            this.success = success;
+            this.connections = connections;
+        }
+
+        String label(String name) {
+            return String.format(Locale.ROOT, "%-22s %10.1f %12.0f %8d %14d", name, nanos / 1e6,
+                requests / (nanos / 1e9), success, connections);
+        }
+    }
+
+    /**
+     * 本机回环上的最小HTTP/1.1服务器：支持Keep-Alive，请求头里有Connection: close时响应后关闭
+     *
+     * <p>/chunked开头的路径用chunked编码分两块返回，其余用Content-Length。
+     * idleCloseMs大于0时，连接上这么久没有新请求就由服务端关闭。
+     */
+    static final class LoopbackHttpServer implements Closeable {
+
+        private final AsynchronousChannelGroup group;
+        private final AsynchronousServerSocketChannel server;
+        private final long idleCloseMs;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicLong requests = new AtomicLong();
+
+        LoopbackHttpServer(long idleCloseMs) throws IOException {
+            this.idleCloseMs = idleCloseMs;
+            this.group = AsynchronousChannelGroup.withFixedThreadPool(2, Executors.defaultThreadFactory());
+            this.server = AsynchronousServerSocketChannel.open(group)
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+            accept();
+        }
+
+        int getPort() throws IOException {
+            return ((InetSocketAddress) server.getLocalAddress()).getPort();
+        }
+
+        private void accept() {
+            server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+                @Override
+                public void completed(AsynchronousSocketChannel channel, Void attachment) {
+                    connections.incrementAndGet();
+                    server.accept(null, this);
+                    new Connection(channel).read();
+                }
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    if (server.isOpen()) {
+                        server.accept(null, this);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            group.shutdownNow();
+        }
+
+        private final class Connection {
+            final AsynchronousSocketChannel channel;
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+            final StringBuilder pending = new StringBuilder();
+
+            Connection(AsynchronousSocketChannel channel) {
+                this.channel = channel;
+            }
+
+            void read() {
+                buffer.clear();
+                CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer bytesRead, Void attachment) {
+                        if (bytesRead == -1) {
+                            close();
+                            return;
+                        }
+                        buffer.flip();
+                        pending.append(StandardCharsets.ISO_8859_1.decode(buffer));
+                        int end = pending.indexOf("\r\n\r\n");
+                        if (end < 0) {
+                            read();
+                            return;
+                        }
+                        String head = pending.substring(0, end);
+                        pending.delete(0, end + 4);
+                        respond(head);
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        // InterruptedByTimeoutException：空闲超时，主动关闭
+                        close();
+                    }
+                };
+                if (idleCloseMs > 0) {
+                    channel.read(buffer, idleCloseMs, TimeUnit.MILLISECONDS, null, handler);
+                } else {
+                    channel.read(buffer, null, handler);
+                }
+            }
+
+            void respond(String head) {
+                long n = requests.incrementAndGet();
+                String path = head.substring(head.indexOf(' ') + 1, head.indexOf(' ', head.indexOf(' ') + 1));
+                boolean close = head.toLowerCase(Locale.ROOT).contains("\nconnection: close");
+                String body = "{\"path\":\"" + path + "\",\"n\":" + n + "}";
+                StringBuilder response = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n");
+                if (close) {
+                    response.append("Connection: close\r\n");
+                }
+                if (path.startsWith("/chunked")) {
+                    int half = body.length() / 2;
+                    response.append("Transfer-Encoding: chunked\r\n\r\n")
+                        .append(Integer.toHexString(half)).append("\r\n").append(body, 0, half).append("\r\n")
+                        .append(Integer.toHexString(body.length() - half)).append(";ext=1\r\n")
+                        .append(body, half, body.length()).append("\r\n")
+                        .append("0\r\n\r\n");
+                } else {
+                    response.append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+                }
+                ByteBuffer out = ByteBuffer.wrap(response.toString().getBytes(StandardCharsets.UTF_8));
+                channel.write(out, null, new CompletionHandler<Integer, Void>() {
+                    @Override
+                    public void completed(Integer written, Void attachment) {
+                        if (out.hasRemaining()) {
+                            channel.write(out, null, this);
+                        } else if (close) {
+                            close();
+                        } else {
+                            read();
+                        }
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        close();
+                    }
+                });
+            }
+
+            void close() {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 已经关闭
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.fragment.io.aio.project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个主机（host:port）的Keep-Alive连接池
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：每个请求都新建连接，多一次TCP握手，主动关闭的一方还要留下TIME_WAIT，
+ *       突发请求很快把本地临时端口用光？
+ *       解决：响应读完、服务端没说要关闭时，连接还回池里给下一个请求用</li>
+ *   <li>问题2：突发1万个请求就同时建1万个连接？
+ *       解决：每个主机最多maxConnections个连接（包括正在建立的），都在用时请求按先来后到排队，
+ *       有连接还回来就直接交给队头，不经过空闲栈</li>
+ *   <li>问题3：拿到的空闲连接可能已经被服务端关掉了？
+ *       解决：取出时检查：通道还开着、空闲没超过idleTimeout、没超过服务端Keep-Alive头里给的timeout和max；
+ *       检查不出来的（服务端刚好关了），由客户端在没收到任何响应字节时换一个新连接重试一次</li>
+ *   <li>问题4：空闲连接一直占着两端的socket？
+ *       解决：{@link #evictIdle()}定期关掉空闲超时的连接；空闲栈后进先出，常用的连接保持热，
+ *       多出来的连接沉在栈底，自然被回收</li>
+ * </ul>
+ *
+ * <p>所有状态由池对象的锁保护，建立、关闭连接和唤醒排队者都在锁外进行。
+ *
+ * @author fragment
+ */
+public class HostConnectionPool {
+
+    private final InetSocketAddress address;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private int total;              // 已建立 + 正在建立
+    private int maxWaiting;
+    private boolean closed;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public HostConnectionPool(String host, int port, int maxConnections, long idleTimeoutMs) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections必须大于0: " + maxConnections);
+        }
+        this.address = new InetSocketAddress(host, port);
+        this.maxConnections = maxConnections;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    }
+
+    /**
+     * 取一个连接：有健康的空闲连接就直接用，没有且没到上限就新建，否则排队
+     *
+     * @param owner 借连接的请求，排队期间它已经结束（比如超时）时，不再把连接交给它
+     */
+    public CompletableFuture<PooledConnection> acquire(CompletableFuture<?> owner) {
+        List<PooledConnection> stale = null;
+        PooledConnection found = null;
+        CompletableFuture<PooledConnection> result = new CompletableFuture<>();
+        boolean connect = false;
+        synchronized (this) {
+            if (closed) {
+                result.completeExceptionally(new IOException("连接池已关闭: " + address));
+                return result;
+            }
+            long now = System.nanoTime();
+            PooledConnection connection;
+            while ((connection = idle.pollFirst()) != null) {
+                if (connection.isHealthy(now, idleTimeoutNanos)) {
+                    found = connection;
+                    break;
+                }
+                if (stale == null) {
+                    stale = new ArrayList<>();
+                }
+                stale.add(connection);
+                total--;
+            }
+            if (found == null) {
+                if (total < maxConnections) {
+                    total++;
+                    connect = true;
+                } else {
+                    waiters.addLast(new Waiter(result, owner));
+                    maxWaiting = Math.max(maxWaiting, waiters.size());
+                }
+            }
+        }
+        if (stale != null) {
+            for (PooledConnection connection : stale) {
+                connection.close();
+                discarded.incrementAndGet();
+            }
+        }
+        if (found != null) {
+            reused.incrementAndGet();
+            found.requests++;
+            result.complete(found);
+        } else if (connect) {
+            connect(result);
+        }
+        return result;
+    }
+
+    /**
+     * 还回连接：reusable为false时（响应没读完、服务端要求关闭、出错）关闭连接
+     *
+     * <p>同一个连接可以被重复地以reusable=false还回，只有第一次生效。
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        Waiter handOff = null;
+        Waiter connectFor = null;
+        synchronized (this) {
+            // 刚用完的连接不看空闲时间：idleSince是上次放进空闲栈的时间，一直忙着的连接按它算会被误当成空闲超时
+            if (reusable && !closed && connection.isReusable(System.nanoTime())) {
+                handOff = pollWaiter();
+                if (handOff == null) {
+                    connection.idleSince = System.nanoTime();
+                    idle.addFirst(connection);
+                    return;
+                }
+            } else {
+                if (!connection.markClosed()) {
+                    return;
+                }
+                total--;
+                if (!closed && total < maxConnections) {
+                    connectFor = pollWaiter();
+                    if (connectFor != null) {
+                        total++;
+                    }
+                }
+            }
+        }
+        if (handOff != null) {
+            reused.incrementAndGet();
+            connection.requests++;
+            handOff.future.complete(connection);
+            return;
+        }
+        connection.closeChannel();
+        if (connectFor != null) {
+            connect(connectFor.future);
+        }
+    }
+
+    /**
+     * 关掉空闲超时的连接，返回关掉的个数
+     */
+    public int evictIdle() {
+        List<PooledConnection> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            // 栈底是最久没用的
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection connection = it.next();
+                if (connection.isHealthy(now, idleTimeoutNanos)) {
+                    break;
+                }
+                it.remove();
+                total--;
+                expired.add(connection);
+            }
+        }
+        for (PooledConnection connection : expired) {
+            connection.close();
+        }
+        evicted.addAndGet(expired.size());
+        return expired.size();
+    }
+
+    /**
+     * 关闭空闲连接、让排队的请求失败；正在用的连接还回来时关闭
+     */
+    public void close() {
+        List<PooledConnection> connections;
+        List<Waiter> pending;
+        synchronized (this) {
+            closed = true;
+            connections = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            pending = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        for (PooledConnection connection : connections) {
+            connection.close();
+        }
+        for (Waiter waiter : pending) {
+            waiter.future.completeExceptionally(new IOException("连接池已关闭: " + address));
+        }
+    }
+
+    /**
+     * 队头第一个还在等的请求（已经超时的直接丢掉）
+     */
+    private Waiter pollWaiter() {
+        Waiter waiter;
+        while ((waiter = waiters.pollFirst()) != null) {
+            if (waiter.owner == null || !waiter.owner.isDone()) {
+                return waiter;
+            }
+        }
+        return null;
+    }
+
+    private void connect(CompletableFuture<PooledConnection> result) {
+        AsynchronousSocketChannel channel;
+        try {
+            channel = AsynchronousSocketChannel.open();
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            connectFailed(result, e);
+            return;
+        }
+        channel.connect(address, null, new CompletionHandler<Void, Void>() {
+            @Override
+            public void completed(Void v, Void attachment) {
+                created.incrementAndGet();
+                PooledConnection connection = new PooledConnection(HostConnectionPool.this, channel);
+                connection.requests = 1;
+                result.complete(connection);
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // 连接都没建立起来
+                }
+                connectFailed(result, exc);
+            }
+        });
+    }
+
+    /**
+     * 建连失败：让出名额，有人排队就替他再试一次
+     */
+    private void connectFailed(CompletableFuture<PooledConnection> result, Throwable cause) {
+        Waiter next;
+        synchronized (this) {
+            total--;
+            next = closed ? null : pollWaiter();
+            if (next != null) {
+                total++;
+            }
+        }
+        result.completeExceptionally(cause);
+        if (next != null) {
+            connect(next.future);
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s：新建%d，复用%d，空闲回收%d，取出时丢弃%d，当前%d个（空闲%d），排队峰值%d",
+            address, created.get(), reused.get(), evicted.get(), discarded.get(), total, idle.size(), maxWaiting);
+    }
+
+    private static final class Waiter {
+        final CompletableFuture<PooledConnection> future;
+        final CompletableFuture<?> owner;
+
+        Waiter(CompletableFuture<PooledConnection> future, CompletableFuture<?> owner) {
+            this.future = future;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * 池里的一个连接，同一时间只属于一个请求
+     */
+    public static final class PooledConnection {
+        final HostConnectionPool pool;
+        final AsynchronousSocketChannel channel;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        /**
+         * 包括当前这个在内，这个连接上发过的请求数
+         */
+        int requests;
+        long idleSince = System.nanoTime();
+        /**
+         * 服务端Keep-Alive头给出的限制，没有时不限
+         */
+        long expiresAtNanos = Long.MAX_VALUE;
+        int maxRequests = Integer.MAX_VALUE;
+
+        PooledConnection(HostConnectionPool pool, AsynchronousSocketChannel channel) {
+            this.pool = pool;
+            this.channel = channel;
+        }
+
+        /**
+         * 这个连接之前已经用过（不是为这个请求新建的）
+         */
+        boolean isReused() {
+            return requests > 1;
+        }
+
+        /**
+         * 按服务端的Keep-Alive: timeout=N, max=M设置这个连接还能用多久、还能发几个请求
+         */
+        void keepAliveLimits(int timeoutSeconds, int max) {
+            if (timeoutSeconds > 0) {
+                // 留1秒余量，免得正好撞上服务端关闭
+                expiresAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds - 1);
+            }
+            if (max > 0) {
+                maxRequests = requests + max;
+            }
+        }
+
+        /**
+         * 空闲栈里的连接能不能取出来用
+         */
+        boolean isHealthy(long now, long idleTimeoutNanos) {
+            return isReusable(now) && now - idleSince < idleTimeoutNanos;
+        }
+
+        /**
+         * 通道还开着，也没超过服务端给的Keep-Alive限制
+         */
+        boolean isReusable(long now) {
+            return !closed.get() && channel.isOpen()
+                && now - expiresAtNanos < 0
+                && requests < maxRequests;
+        }
+
+        boolean markClosed() {
+            return closed.compareAndSet(false, true);
+        }
+
+        void close() {
+            markClosed();
+            closeChannel();
+        }
+
+        void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 关闭失败没有什么可做的
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.fragment.io.netty.project.http;
 
+import com.fragment.io.optimization.project.cache.StaticContentCache;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -8,6 +9,8 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.stream.ChunkedWriteHandler;
 
+import java.nio.file.Paths;
+
 /**
  * HTTP文件服务器
  * 
@@ -16,6 +19,7 @@ import io.netty.handler.stream.ChunkedWriteHandler;
  * 2. 文件下载
  * 3. 零拷贝传输
  * 4. 目录列表
+ * 5. 热点小文件缓存（所有连接共享，ETag/304）
  * 
  * 使用方式：
  * 1. 修改FILE_ROOT为你的文件目录
@@ -30,10 +34,16 @@ public class HttpFileServer {
     // 文件根目录（请修改为实际路径）
     private static final String FILE_ROOT = System.getProperty("user.home");
     private static final int PORT = 8888;
+    private static final long CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int CACHE_MAX_FILE_SIZE = 1024 * 1024;
     
     public static void main(String[] args) throws Exception {
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
+        StaticContentCache contentCache = new StaticContentCache(
+            Paths.get(FILE_ROOT), CACHE_MAX_BYTES, CACHE_MAX_FILE_SIZE,
+            path -> HttpFileServerHandler.contentTypeOf(path.toFile())
+        );
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
@@ -46,7 +56,7 @@ public class HttpFileServer {
                             .addLast(new HttpServerCodec())
                             .addLast(new HttpObjectAggregator(65536))
                             .addLast(new ChunkedWriteHandler())
-                            .addLast(new HttpFileServerHandler(FILE_ROOT));
+                            .addLast(new HttpFileServerHandler(FILE_ROOT, contentCache));
                     }
                 });
             
@@ -60,6 +70,7 @@ public class HttpFileServer {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            contentCache.close();
         }
     }
 }
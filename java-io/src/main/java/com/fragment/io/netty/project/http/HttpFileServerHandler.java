@@ -1,5 +1,7 @@
 package com.fragment.io.netty.project.http;
 
+import com.fragment.io.optimization.project.cache.StaticContentCache;
+import com.fragment.io.optimization.project.zerocopy.ByteRanges;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
@@ -14,15 +16,30 @@ import java.net.URLDecoder;
 /**
  * HTTP文件服务器处理器
  * 
+ * <p>热点小文件优先从共享的{@link StaticContentCache}返回：命中时不再stat()/open()，
+ * Body直接包装缓存中的直接内存，条件请求（If-None-Match/If-Modified-Since）命中时返回304。
+ * 
+ * <p>Range请求（断点续传、视频拖动）由{@link ByteRanges}解析后返回206，每个区间都是一个
+ * {@link DefaultFileRegion}；多区间时在区间之间插入multipart/byteranges的分段头。
+ * 
  * @author fragment
  * @date 2026-01-14
  */
 public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     
     private final String fileRoot;
+    private final StaticContentCache contentCache;
     
     public HttpFileServerHandler(String fileRoot) {
+        this(fileRoot, null);
+    }
+    
+    /**
+     * @param contentCache 所有连接共享的静态资源缓存，为null时不使用缓存
+     */
+    public HttpFileServerHandler(String fileRoot, StaticContentCache contentCache) {
         this.fileRoot = fileRoot;
+        this.contentCache = contentCache;
     }
     
     @Override
@@ -35,13 +52,25 @@ public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpR
         
         // 获取请求路径
         String uri = request.uri();
-        String path = sanitizeUri(uri);
+        String cleanUri = cleanUri(uri);
         
-        if (path == null) {
+        if (cleanUri == null) {
             sendError(ctx, HttpResponseStatus.FORBIDDEN);
             return;
         }
         
+        // 热点文件：直接从缓存返回（Range请求走文件，按区间零拷贝）
+        boolean rangeRequest = request.headers().contains(HttpHeaderNames.RANGE);
+        if (contentCache != null && !rangeRequest) {
+            StaticContentCache.Entry entry = contentCache.get(cleanUri);
+            if (entry != null) {
+                sendCachedFile(ctx, request, entry);
+                return;
+            }
+        }
+        
+        String path = fileRoot + File.separator + cleanUri.replace('/', File.separatorChar);
+        
         File file = new File(path);
         
         // 检查文件是否存在
@@ -63,30 +92,126 @@ public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpR
         }
         
         // 发送文件
-        sendFile(ctx, file);
+        sendFile(ctx, request, file);
     }
     
     /**
-     * 发送文件
+     * 发送文件（整文件200，或按Range返回206）
      */
-    private void sendFile(ChannelHandlerContext ctx, File file) throws Exception {
-        RandomAccessFile raf = new RandomAccessFile(file, "r");
-        long fileLength = raf.length();
+    private void sendFile(ChannelHandlerContext ctx, FullHttpRequest request, File file) throws Exception {
+        long fileLength = file.length();
+        String etag = StaticContentCache.etag(fileLength, file.lastModified());
+        String lastModified = StaticContentCache.httpDate(file.lastModified());
         
-        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-        HttpUtil.setContentLength(response, fileLength);
-        setContentTypeHeader(response, file);
+        // If-Range不匹配（文件已变化）时忽略Range，返回整文件
+        ByteRanges ranges = null;
+        String range = request.headers().get(HttpHeaderNames.RANGE);
+        if (range != null && ByteRanges.ifRangeMatches(
+                request.headers().get(HttpHeaderNames.IF_RANGE), etag, lastModified)) {
+            ranges = ByteRanges.parse(range, fileLength);
+        }
+        if (ranges == ByteRanges.UNSATISFIABLE) {
+            FullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE
+            );
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, ByteRanges.unsatisfiedContentRange(fileLength));
+            HttpUtil.setContentLength(response, 0);
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        
+        HttpResponse response;
+        if (ranges == null) {
+            response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            HttpUtil.setContentLength(response, fileLength);
+            setContentTypeHeader(response, file);
+        } else {
+            response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.PARTIAL_CONTENT);
+            if (ranges.isMultipart()) {
+                String boundary = ByteRanges.newBoundary();
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+                HttpUtil.setContentLength(response, ranges.multipartLength(boundary, contentTypeOf(file), fileLength));
+                setValidatorHeaders(response, etag, lastModified);
+                ctx.write(response);
+                sendMultipartRanges(ctx, file, ranges, boundary, fileLength);
+                return;
+            }
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, ranges.contentRange(0, fileLength));
+            HttpUtil.setContentLength(response, ranges.length(0));
+            setContentTypeHeader(response, file);
+        }
+        setValidatorHeaders(response, etag, lastModified);
         
         ctx.write(response);
         
-        // 使用零拷贝发送文件
-        ctx.write(new DefaultFileRegion(raf.getChannel(), 0, fileLength));
+        // 使用零拷贝发送文件（或其中一个区间）
+        long position = ranges == null ? 0 : ranges.start(0);
+        long count = ranges == null ? fileLength : ranges.length(0);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ctx.write(new DefaultFileRegion(raf.getChannel(), position, count));
         
         // 发送结束标记
         ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
         future.addListener(ChannelFutureListener.CLOSE);
         
-        System.out.println("[下载] " + file.getName() + " (" + fileLength + " 字节)");
+        System.out.println("[下载] " + file.getName() + " (" + count + "/" + fileLength + " 字节)");
+    }
+    
+    /**
+     * 发送multipart/byteranges响应体：分段头是很小的ByteBuf，区间本身仍是DefaultFileRegion
+     * 
+     * <p>每个区间用按文件构造的DefaultFileRegion，发送时才打开文件、发送完即关闭，
+     * 区间之间不共享FileChannel，避免前一个Region释放时关掉后面还要用的通道。
+     */
+    private void sendMultipartRanges(ChannelHandlerContext ctx, File file, ByteRanges ranges,
+                                     String boundary, long fileLength) {
+        String contentType = contentTypeOf(file);
+        for (int i = 0; i < ranges.count(); i++) {
+            ctx.write(new DefaultHttpContent(Unpooled.copiedBuffer(
+                ranges.partHeader(i, boundary, contentType, fileLength), CharsetUtil.US_ASCII
+            )));
+            ctx.write(new DefaultFileRegion(file, ranges.start(i), ranges.length(i)));
+        }
+        ChannelFuture future = ctx.writeAndFlush(new DefaultLastHttpContent(Unpooled.copiedBuffer(
+            ByteRanges.closeDelimiter(boundary), CharsetUtil.US_ASCII
+        )));
+        future.addListener(ChannelFutureListener.CLOSE);
+        
+        System.out.println("[下载] " + file.getName() + " (" + ranges.count() + "个区间)");
+    }
+    
+    /**
+     * 设置Accept-Ranges和校验头（ETag/Last-Modified，客户端续传时用作If-Range）
+     */
+    private void setValidatorHeaders(HttpResponse response, String etag, String lastModified) {
+        response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        response.headers().set(HttpHeaderNames.ETAG, etag);
+        response.headers().set(HttpHeaderNames.LAST_MODIFIED, lastModified);
+    }
+    
+    /**
+     * 发送缓存中的文件
+     */
+    private void sendCachedFile(ChannelHandlerContext ctx, FullHttpRequest request, StaticContentCache.Entry entry) {
+        boolean notModified = entry.isNotModified(
+            request.headers().get(HttpHeaderNames.IF_NONE_MATCH),
+            request.headers().get(HttpHeaderNames.IF_MODIFIED_SINCE)
+        );
+        
+        FullHttpResponse response;
+        if (notModified) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_MODIFIED);
+        } else {
+            // 包装缓存中的只读直接内存，不拷贝
+            response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.OK, Unpooled.wrappedBuffer(entry.content())
+            );
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, entry.contentType());
+            HttpUtil.setContentLength(response, entry.length());
+        }
+        setValidatorHeaders(response, entry.etag(), entry.lastModified());
+        
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
     }
     
     /**
@@ -166,9 +291,9 @@ public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpR
     }
     
     /**
-     * 清理URI
+     * 清理URI：解码、去掉查询参数并做目录遍历检查，返回以/开头的路径
      */
-    private String sanitizeUri(String uri) {
+    private String cleanUri(String uri) {
         try {
             uri = URLDecoder.decode(uri, "UTF-8");
         } catch (UnsupportedEncodingException e) {
@@ -186,33 +311,40 @@ public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpR
             return null;
         }
         
-        return fileRoot + File.separator + uri.replace('/', File.separatorChar);
+        return uri;
     }
     
     /**
      * 设置Content-Type
      */
     private void setContentTypeHeader(HttpResponse response, File file) {
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentTypeOf(file));
+    }
+    
+    /**
+     * 根据文件扩展名获取Content-Type（也供StaticContentCache预渲染响应头使用）
+     */
+    static String contentTypeOf(File file) {
         String fileName = file.getName().toLowerCase();
         
         if (fileName.endsWith(".html") || fileName.endsWith(".htm")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
+            return "text/html; charset=UTF-8";
         } else if (fileName.endsWith(".txt")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+            return "text/plain; charset=UTF-8";
         } else if (fileName.endsWith(".css")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/css; charset=UTF-8");
+            return "text/css; charset=UTF-8";
         } else if (fileName.endsWith(".js")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/javascript; charset=UTF-8");
+            return "application/javascript; charset=UTF-8";
         } else if (fileName.endsWith(".jpg") || fileName.endsWith(".jpeg")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "image/jpeg");
+            return "image/jpeg";
         } else if (fileName.endsWith(".png")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "image/png");
+            return "image/png";
         } else if (fileName.endsWith(".gif")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "image/gif");
+            return "image/gif";
         } else if (fileName.endsWith(".pdf")) {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/pdf");
+            return "application/pdf";
         } else {
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/octet-stream");
+            return "application/octet-stream";
         }
     }
     
@@ -0,0 +1,157 @@
+package com.fragment.io.netty.project.push;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import io.netty.util.DefaultAttributeMap;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空闲连接的内存占用：每个连接的登记信息要多少字节
+ *
+ * <p>模拟N个（默认100万）已登录、没有任何数据往来的连接，只统计"登记"这部分内存，不含Channel本身和缓冲区：
+ * <ul>
+ *   <li>原来的做法：用户名 -> Channel、Channel -> 用户名两个ConcurrentHashMap，一个ChannelGroup（按Channel的Map模拟），
+ *       每个连接各new一个IdleStateHandler、StringDecoder、StringEncoder和业务Handler，
+ *       再加IdleStateHandler在EventLoop里挂的定时任务（用ScheduledThreadPoolExecutor模拟）。
+ *       pipeline里每个Handler的Context没有算进来，所以这一列是偏小的</li>
+ *   <li>{@link ConnectionRegistry}：整数ID、开放寻址的用户名索引、Channel属性、共享心跳时间轮，
+ *       编解码器和业务Handler所有连接共用</li>
+ * </ul>
+ *
+ * <p>Channel用动态代理模拟，只实现attr()；用户名字符串两种做法都要，提前建好、不计入。
+ *
+ * <p>启动方式：java -Xmx4g ConnectionFootprintBenchmark [连接数]
+ *
+ * @author fragment
+ */
+public class ConnectionFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        System.out.println("=== 空闲连接登记内存：" + connections + "个连接 ===\n");
+        String[] users = new String[connections];
+        Channel[] channels = new Channel[connections];
+        for (int i = 0; i < connections; i++) {
+            users[i] = "user" + i;
+            channels[i] = simulatedChannel();
+        }
+
+        testMaps(channels, users);
+        testRegistry(channels, users);
+    }
+
+    /**
+     * 原来的做法
+     */
+    private static void testMaps(Channel[] channels, String[] users) throws Exception {
+        int n = channels.length;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        long before = usedMemory();
+        Map<String, Channel> userChannelMap = new ConcurrentHashMap<>();
+        Map<Channel, String> channelUserMap = new ConcurrentHashMap<>();
+        Map<Channel, Boolean> channelGroup = new ConcurrentHashMap<>();
+        List<Object> handlers = new ArrayList<>(n * 4);
+        List<ScheduledFuture<?>> timers = new ArrayList<>(n);
+        long listBytes = (long) n * 4 * 5;
+        Runnable task = () -> { };
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            channelGroup.put(channels[i], Boolean.TRUE);
+            userChannelMap.put(users[i], channels[i]);
+            channelUserMap.put(channels[i], users[i]);
+            handlers.add(new IdleStateHandler(60, 0, 0, TimeUnit.SECONDS));
+            handlers.add(new StringDecoder(CharsetUtil.UTF_8));
+            handlers.add(new StringEncoder(CharsetUtil.UTF_8));
+            handlers.add(new PushServer.PushServerHandler(null, null));
+            timers.add(executor.schedule(task, 60, TimeUnit.SECONDS));
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = usedMemory() - before - listBytes;
+        report("Map + ChannelGroup + 每连接Handler", bytes, nanos, n);
+        // 测量之后还要用到这些结构，免得被提前回收
+        System.out.println(String.format("  用户%d/%d，Channel组%d，Handler%d，定时任务%d",
+            userChannelMap.size(), channelUserMap.size(), channelGroup.size(), handlers.size(), timers.size()));
+        executor.shutdownNow();
+    }
+
+    /**
+     * ConnectionRegistry
+     */
+    private static void testRegistry(Channel[] channels, String[] users) throws Exception {
+        int n = channels.length;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        long before = usedMemory();
+        ConnectionRegistry registry = new ConnectionRegistry(60, executor);
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            registry.register(channels[i]);
+            registry.bindUser(channels[i], users[i]);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = usedMemory() - before;
+        report("ConnectionRegistry", bytes, nanos, n);
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            registry.touch(channels[i]);
+        }
+        System.out.println(String.format("  touch %.1f ns/次", (double) (System.nanoTime() - start) / n));
+
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            if (registry.channelOf(users[i]) == channels[i]) {
+                found++;
+            }
+        }
+        System.out.println(String.format("  channelOf %.1f ns/次，命中%d", (double) (System.nanoTime() - start) / n, found));
+        registry.close();
+        executor.shutdownNow();
+    }
+
+    private static void report(String name, long bytes, long nanos, int n) {
+        System.out.println(String.format("%-36s %8.1f B/连接  登记 %6.1f ns/连接", name, (double) bytes / n, (double) nanos / n));
+    }
+
+    /**
+     * 只有属性表的Channel，hashCode/equals按对象身份
+     */
+    private static Channel simulatedChannel() {
+        DefaultAttributeMap attributes = new DefaultAttributeMap();
+        return (Channel) Proxy.newProxyInstance(ConnectionFootprintBenchmark.class.getClassLoader(),
+            new Class<?>[]{Channel.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "attr":
+                        return attributes.attr((AttributeKey<?>) args[0]);
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
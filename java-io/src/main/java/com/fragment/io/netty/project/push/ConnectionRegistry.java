@@ -0,0 +1,403 @@
+package com.fragment.io.netty.project.push;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 紧凑的连接注册表：整数连接ID、用户名开放寻址索引、共享心跳时间轮
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：用户名 -> Channel、Channel -> 用户名两个ConcurrentHashMap，再加一个ChannelGroup，
+ *       每个连接三个Node、一个ChannelId键，空闲连接还没分配缓冲区就先花掉几百字节？
+ *       解决：每个连接分配一个整数ID（槽位，断开后复用），按ID存在几个数组里；
+ *       反向映射不用Map，ID直接存在Channel属性上；用户名 -> ID是开放寻址表（String[] + int[]），
+ *       没有Entry对象、没有装箱</li>
+ *   <li>问题2：每个连接一个IdleStateHandler，每个都在EventLoop里挂着定时任务，读一次还要更新一次？
+ *       解决：所有连接共用一个按秒走的时间轮，桶里只存连接ID（int数组）；读的时候只把当前秒数写进
+ *       lastRead数组，不碰定时器；桶到期时再看一次lastRead，没超时就挂到新的截止秒上（惰性续期，
+ *       和{@code nio.timer.HashedTimingWheel}一样），超时才关闭连接</li>
+ *   <li>问题3：ID复用后，时间轮里还留着旧连接的ID？
+ *       解决：每个槽位记录它当前挂在哪一秒（deadline），桶到期时只处理deadline等于这一秒的ID，
+ *       其余是过期条目，直接跳过</li>
+ * </ul>
+ *
+ * <p>注册、注销、绑定用户名、时间轮推进都在一把锁下（它们的频率远低于读）；{@link #touch}不加锁，
+ * lastRead按页存放、页不搬迁，扩容时并发的touch也不会写丢。
+ *
+ * @author fragment
+ * @date 2026-01-14
+ */
+public class ConnectionRegistry {
+
+    private static final AttributeKey<Integer> CONNECTION_ID = AttributeKey.valueOf("connectionId");
+
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int NOT_SCHEDULED = -1;
+
+    private final int idleTimeoutSeconds;
+    private final long startNanos = System.nanoTime();
+
+    // 按连接ID索引
+    private Channel[] channels = new Channel[PAGE_SIZE];
+    private String[] users = new String[PAGE_SIZE];
+    private int[] deadlines = new int[PAGE_SIZE];
+    private volatile AtomicIntegerArray[] lastRead = {new AtomicIntegerArray(PAGE_SIZE)};
+
+    // 空闲ID栈，没有空闲ID时用nextId
+    private int[] freeIds = new int[64];
+    private int freeCount;
+    private int nextId;
+    private int size;
+
+    private final UserIndex userIndex = new UserIndex();
+
+    // 时间轮：桶i存截止秒对wheel长度取模为i的连接ID
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+    private int processedTick;
+    private long expired;
+    private ScheduledFuture<?> ticker;
+
+    /**
+     * 不做心跳检测
+     */
+    public ConnectionRegistry() {
+        this(0, null);
+    }
+
+    /**
+     * @param idleTimeoutSeconds 读空闲超过这么多秒就关闭连接，0表示不检测
+     * @param scheduler          每秒推进一次时间轮的线程（可以用bossGroup）
+     */
+    public ConnectionRegistry(int idleTimeoutSeconds, ScheduledExecutorService scheduler) {
+        if (idleTimeoutSeconds < 0 || (idleTimeoutSeconds > 0 && scheduler == null)) {
+            throw new IllegalArgumentException("idleTimeoutSeconds=" + idleTimeoutSeconds + ", scheduler=" + scheduler);
+        }
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        int wheelSize = idleTimeoutSeconds > 0 ? idleTimeoutSeconds + 1 : 0;
+        this.buckets = new int[wheelSize][];
+        this.bucketSizes = new int[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new int[16];
+        }
+        if (idleTimeoutSeconds > 0) {
+            ticker = scheduler.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 连接建立时调用，返回连接ID
+     */
+    public int register(Channel channel) {
+        int id;
+        synchronized (this) {
+            id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+            ensureCapacity(id);
+            channels[id] = channel;
+            size++;
+            int now = now();
+            lastReadPage(id).set(id & (PAGE_SIZE - 1), now);
+            if (idleTimeoutSeconds > 0) {
+                schedule(id, now + idleTimeoutSeconds);
+            } else {
+                deadlines[id] = NOT_SCHEDULED;
+            }
+        }
+        channel.attr(CONNECTION_ID).set(id);
+        return id;
+    }
+
+    /**
+     * 连接关闭时调用，同时解除用户名绑定
+     */
+    public void unregister(Channel channel) {
+        Integer id = channel.attr(CONNECTION_ID).getAndSet(null);
+        if (id == null) {
+            return;
+        }
+        synchronized (this) {
+            String user = users[id];
+            if (user != null) {
+                userIndex.remove(user);
+                users[id] = null;
+            }
+            channels[id] = null;
+            deadlines[id] = NOT_SCHEDULED;
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+            }
+            freeIds[freeCount++] = id;
+            size--;
+        }
+    }
+
+    /**
+     * 收到数据时调用：只记下当前秒数，不加锁
+     */
+    public void touch(Channel channel) {
+        Integer id = channel.attr(CONNECTION_ID).get();
+        if (id != null) {
+            AtomicIntegerArray page = lastReadPage(id);
+            int index = id & (PAGE_SIZE - 1);
+            int now = now();
+            if (page.get(index) != now) {
+                page.lazySet(index, now);
+            }
+        }
+    }
+
+    /**
+     * 连接ID，未注册时返回-1
+     */
+    public int idOf(Channel channel) {
+        Integer id = channel.attr(CONNECTION_ID).get();
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 给连接绑定用户名（替换原来的用户名），用户名已被其他连接占用时返回false
+     */
+    public boolean bindUser(Channel channel, String user) {
+        Integer id = channel.attr(CONNECTION_ID).get();
+        if (id == null) {
+            return false;
+        }
+        synchronized (this) {
+            int owner = userIndex.get(user);
+            if (owner == id) {
+                return true;
+            }
+            if (owner >= 0) {
+                return false;
+            }
+            if (users[id] != null) {
+                userIndex.remove(users[id]);
+            }
+            users[id] = user;
+            userIndex.put(user, id);
+            return true;
+        }
+    }
+
+    public String userOf(Channel channel) {
+        Integer id = channel.attr(CONNECTION_ID).get();
+        if (id == null) {
+            return null;
+        }
+        synchronized (this) {
+            return users[id];
+        }
+    }
+
+    public synchronized Channel channelOf(String user) {
+        int id = userIndex.get(user);
+        return id < 0 ? null : channels[id];
+    }
+
+    public synchronized List<String> users() {
+        List<String> list = new ArrayList<>(userIndex.size);
+        for (String user : userIndex.keys) {
+            if (user != null) {
+                list.add(user);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 在线连接数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 因读空闲被关闭的连接数
+     */
+    public synchronized long getExpired() {
+        return expired;
+    }
+
+    /**
+     * 停止时间轮
+     */
+    public void close() {
+        if (ticker != null) {
+            ticker.cancel(false);
+        }
+    }
+
+    /**
+     * 推进时间轮到当前秒：到期的连接没有新数据就关闭，有就按lastRead重新挂上
+     */
+    void tick() {
+        List<Channel> idle = new ArrayList<>();
+        synchronized (this) {
+            int now = now();
+            while (processedTick < now) {
+                processedTick++;
+                expire(processedTick, idle);
+            }
+            expired += idle.size();
+        }
+        // 关闭会触发channelInactive -> unregister，放在锁外
+        for (Channel channel : idle) {
+            channel.close();
+        }
+    }
+
+    private void expire(int tick, List<Channel> idle) {
+        int bucket = tick % buckets.length;
+        int[] ids = buckets[bucket];
+        int count = bucketSizes[bucket];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            int deadline = deadlines[id];
+            if (deadline != tick) {
+                // 时间轮推进落后时，新注册的连接可能挂在下一圈的同一个桶里，留着
+                if (deadline > tick && deadline % buckets.length == bucket) {
+                    ids[kept++] = id;
+                }
+                continue;
+            }
+            int due = lastReadPage(id).get(id & (PAGE_SIZE - 1)) + idleTimeoutSeconds;
+            if (due > tick) {
+                schedule(id, due);
+            } else {
+                deadlines[id] = NOT_SCHEDULED;
+                idle.add(channels[id]);
+            }
+        }
+        // 重新挂上的截止秒都在(tick, tick + idleTimeoutSeconds]之内，不会落回这个桶
+        bucketSizes[bucket] = kept;
+        // 桶里的过期条目多时数组会变得很大，处理完后缩回去
+        if (ids.length > 1024 && ids.length > kept * 4) {
+            buckets[bucket] = Arrays.copyOf(ids, Math.max(16, ids.length / 2));
+        }
+    }
+
+    private void schedule(int id, int tick) {
+        deadlines[id] = tick;
+        int bucket = tick % buckets.length;
+        int[] ids = buckets[bucket];
+        int count = bucketSizes[bucket];
+        if (count == ids.length) {
+            ids = buckets[bucket] = Arrays.copyOf(ids, count * 2);
+        }
+        ids[count] = id;
+        bucketSizes[bucket] = count + 1;
+    }
+
+    private int now() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+    }
+
+    private AtomicIntegerArray lastReadPage(int id) {
+        return lastRead[id >>> PAGE_BITS];
+    }
+
+    private void ensureCapacity(int id) {
+        if (id >= channels.length) {
+            int capacity = channels.length * 2;
+            channels = Arrays.copyOf(channels, capacity);
+            users = Arrays.copyOf(users, capacity);
+            deadlines = Arrays.copyOf(deadlines, capacity);
+        }
+        AtomicIntegerArray[] pages = lastRead;
+        int page = id >>> PAGE_BITS;
+        if (page >= pages.length) {
+            pages = Arrays.copyOf(pages, page + 1);
+            pages[page] = new AtomicIntegerArray(PAGE_SIZE);
+            lastRead = pages;
+        }
+    }
+
+    /**
+     * 用户名 -> 连接ID的开放寻址表（线性探测，删除时回移），由外层的锁保护
+     */
+    static final class UserIndex {
+        private String[] keys = new String[64];
+        private int[] values = new int[64];
+        private int size;
+
+        int get(String key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (keys[i].equals(key)) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(String key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null) {
+                if (keys[i].equals(key)) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void remove(String key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != null && !keys[i].equals(key)) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == null) {
+                return;
+            }
+            // 把后面同一探测链上的元素往前移，保证查找不会在空位提前结束
+            int hole = i;
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = null;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            String[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new String[capacity];
+            values = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int hash(String key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
 import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
 import io.netty.handler.timeout.IdleState;
@@ -12,6 +13,8 @@ import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -22,6 +25,7 @@ import java.util.concurrent.TimeUnit;
  * 2. 发送心跳
  * 3. 接收推送
  * 4. 自动重连
+ * 5. 连接后订阅主题（重连后重新订阅）
  * 
  * @author fragment
  * @date 2026-01-14
@@ -30,9 +34,17 @@ public class PushClient {
     
     private static final String HOST = "localhost";
     private static final int PORT = 9999;
+    private final List<String> topics;
     private EventLoopGroup workerGroup;
     private Channel channel;
     
+    /**
+     * @param topics 连接后订阅的主题，如 price.BTC
+     */
+    public PushClient(List<String> topics) {
+        this.topics = topics;
+    }
+    
     /**
      * 连接服务器
      */
@@ -49,6 +61,7 @@ public class PushClient {
                     ch.pipeline()
                         // 30秒写空闲检测
                         .addLast(new IdleStateHandler(0, 30, 0, TimeUnit.SECONDS))
+                        .addLast(new LineBasedFrameDecoder(4096))
                         .addLast(new StringDecoder(CharsetUtil.UTF_8))
                         .addLast(new StringEncoder(CharsetUtil.UTF_8))
                         .addLast(new PushClientHandler(PushClient.this));
@@ -102,6 +115,14 @@ public class PushClient {
             this.client = client;
         }
         
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            for (String topic : client.topics) {
+                ctx.write("SUB " + topic + "\n");
+            }
+            ctx.flush();
+        }
+        
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, String msg) {
             System.out.println("[接收] " + msg.trim());
@@ -133,10 +154,10 @@ public class PushClient {
     }
     
     /**
-     * 测试
+     * 测试：java PushClient [主题...]，如 java PushClient price.BTC price.ETH
      */
     public static void main(String[] args) {
-        PushClient client = new PushClient();
+        PushClient client = new PushClient(Arrays.asList(args));
         client.connect();
     }
 }
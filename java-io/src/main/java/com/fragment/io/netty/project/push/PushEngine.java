@@ -0,0 +1,442 @@
+package com.fragment.io.netty.project.push;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按主题订阅的推送引擎：订阅者按主题分组、按EventLoop分片
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：所有连接在一个ChannelGroup里，推送线程对20万个Channel逐个writeAndFlush，
+ *       每次都跨线程提交一个写任务，推送线程成了瓶颈，且每个Channel都要各自编码一遍？
+ *       解决：消息只编码一次成ByteBuf；每个EventLoop一个分片，分片里是"主题 -> 本线程的订阅者列表"，
+ *       发布时只给有订阅者的分片提交一个任务，由分片所在的EventLoop给自己的Channel逐个写
+ *       （retainedDuplicate，共享同一块内存），写操作都在本线程，不加锁、不跨线程</li>
+ *   <li>问题2：每条消息每个Channel一次flush（一次系统调用），高频行情下系统调用比数据还多？
+ *       解决：分片写的时候只write不flush，记下待flush的Channel；本轮任务执行完后由一个flush任务
+ *       统一flush，同一轮里多个主题的消息发给同一个Channel只flush一次</li>
+ *   <li>问题3：慢客户端的出站缓冲区无限增长，拖垮整个服务？
+ *       解决：Channel不可写（超过高水位）时不再写入，每个主题只保留最新一条（行情类数据旧的没有意义），
+ *       新消息覆盖旧消息；恢复可写后把保留的消息写出</li>
+ *   <li>问题4：从发布到最后一个订阅者收到，延迟是多少？
+ *       解决：{@link Stats}记录每条消息从发布到最后一个分片写完（已交给flush）的时间</li>
+ * </ul>
+ *
+ * <p>除{@link #publish}外，方法都应在Channel自己的EventLoop上调用（ChannelHandler里直接调用即可），
+ * 否则转到该EventLoop执行。
+ *
+ * @author fragment
+ * @date 2026-01-14
+ */
+public class PushEngine {
+
+    private static final AttributeKey<Session> SESSION = AttributeKey.valueOf("pushSession");
+
+    private final ByteBufAllocator alloc;
+    private final Shard[] shards;
+    private final Map<EventExecutor, Shard> shardByLoop = new IdentityHashMap<>();
+    private final Map<String, Topic> topics = new ConcurrentHashMap<>();
+    private final Stats stats = new Stats();
+
+    /**
+     * @param workerGroup 接收连接的EventLoopGroup，每个EventLoop一个分片
+     */
+    public PushEngine(EventLoopGroup workerGroup, ByteBufAllocator alloc) {
+        this.alloc = alloc;
+        List<Shard> list = new ArrayList<>();
+        for (EventExecutor executor : workerGroup) {
+            Shard shard = new Shard(list.size(), (EventLoop) executor);
+            list.add(shard);
+            shardByLoop.put(executor, shard);
+        }
+        this.shards = list.toArray(new Shard[0]);
+    }
+
+    /**
+     * 连接建立时调用
+     */
+    public void register(Channel channel) {
+        channel.attr(SESSION).set(new Session(channel));
+    }
+
+    /**
+     * 连接关闭时调用：退订所有主题，释放保留的消息
+     */
+    public void unregister(Channel channel) {
+        onLoop(channel, () -> {
+            Session session = channel.attr(SESSION).getAndSet(null);
+            if (session != null) {
+                Shard shard = shardOf(channel);
+                for (String topic : new ArrayList<>(session.positions.keySet())) {
+                    shard.remove(topic, session);
+                }
+                session.releasePending();
+            }
+        });
+    }
+
+    public void subscribe(Channel channel, String topic) {
+        onLoop(channel, () -> {
+            Session session = channel.attr(SESSION).get();
+            if (session != null && !session.positions.containsKey(topic)) {
+                shardOf(channel).add(topic(topic), session);
+            }
+        });
+    }
+
+    public void unsubscribe(Channel channel, String topic) {
+        onLoop(channel, () -> {
+            Session session = channel.attr(SESSION).get();
+            if (session != null && session.positions.containsKey(topic)) {
+                shardOf(channel).remove(topic, session);
+                session.dropPending(topic);
+            }
+        });
+    }
+
+    /**
+     * Channel恢复可写时调用（channelWritabilityChanged）：写出不可写期间保留的最新消息
+     */
+    public void writable(Channel channel) {
+        onLoop(channel, () -> {
+            Session session = channel.attr(SESSION).get();
+            if (session != null && channel.isWritable() && session.drainPending()) {
+                shardOf(channel).markDirty(session);
+            }
+        });
+    }
+
+    /**
+     * 发布一行文本（UTF-8编码一次，末尾加换行），可以在任意线程调用
+     *
+     * @return 收到这条消息的分片数
+     */
+    public int publish(String topic, String message) {
+        ByteBuf payload = alloc.directBuffer(ByteBufUtil.utf8MaxBytes(message) + 1);
+        ByteBufUtil.writeUtf8(payload, message);
+        payload.writeByte('\n');
+        return publish(topic, payload);
+    }
+
+    /**
+     * 发布已编码的消息，payload的引用归引擎所有
+     */
+    public int publish(String topic, ByteBuf payload) {
+        Topic t = topics.get(topic);
+        stats.published.increment();
+        if (t == null) {
+            payload.release();
+            return 0;
+        }
+        long publishTime = System.nanoTime();
+        List<Shard> targets = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            if (t.subscribers.get(shard.id) > 0) {
+                targets.add(shard);
+            }
+        }
+        if (targets.isEmpty()) {
+            payload.release();
+            return 0;
+        }
+        AtomicInteger remaining = new AtomicInteger(targets.size());
+        for (Shard shard : targets) {
+            ByteBuf shared = payload.retainedDuplicate();
+            shard.loop.execute(() -> {
+                try {
+                    shard.fanOut(topic, shared);
+                } finally {
+                    shared.release();
+                    if (remaining.decrementAndGet() == 0) {
+                        stats.recordFanOut(System.nanoTime() - publishTime);
+                    }
+                }
+            });
+        }
+        payload.release();
+        return targets.size();
+    }
+
+    /**
+     * 某个主题当前的订阅者数（各分片计数之和）
+     */
+    public int subscriberCount(String topic) {
+        Topic t = topics.get(topic);
+        if (t == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < shards.length; i++) {
+            count += t.subscribers.get(i);
+        }
+        return count;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    private Topic topic(String name) {
+        return topics.computeIfAbsent(name, n -> new Topic(n, shards.length));
+    }
+
+    private Shard shardOf(Channel channel) {
+        Shard shard = shardByLoop.get(channel.eventLoop());
+        if (shard == null) {
+            throw new IllegalStateException("Channel不属于引擎的EventLoopGroup: " + channel);
+        }
+        return shard;
+    }
+
+    private static void onLoop(Channel channel, Runnable task) {
+        if (channel.eventLoop().inEventLoop()) {
+            task.run();
+        } else {
+            channel.eventLoop().execute(task);
+        }
+    }
+
+    /**
+     * 主题：各分片的订阅者数，发布时据此跳过没有订阅者的分片（主题创建后不删除）
+     */
+    static final class Topic {
+        final String name;
+        final AtomicIntegerArray subscribers;
+
+        Topic(String name, int shardCount) {
+            this.name = name;
+            this.subscribers = new AtomicIntegerArray(shardCount);
+        }
+    }
+
+    /**
+     * 一个EventLoop的分片：下面所有字段只在这个EventLoop上访问
+     */
+    final class Shard {
+        final int id;
+        final EventLoop loop;
+        private final Map<String, List<Session>> subscribers = new HashMap<>();
+        private final List<Session> dirty = new ArrayList<>();
+        private boolean flushScheduled;
+        private final Runnable flushTask = this::flushDirty;
+
+        Shard(int id, EventLoop loop) {
+            this.id = id;
+            this.loop = loop;
+        }
+
+        void add(Topic topic, Session session) {
+            List<Session> list = subscribers.computeIfAbsent(topic.name, k -> new ArrayList<>());
+            session.positions.put(topic.name, list.size());
+            list.add(session);
+            topic.subscribers.incrementAndGet(id);
+        }
+
+        /**
+         * 和最后一个交换后删除，O(1)
+         */
+        void remove(String topic, Session session) {
+            Integer position = session.positions.remove(topic);
+            List<Session> list = subscribers.get(topic);
+            if (position == null || list == null) {
+                return;
+            }
+            Session last = list.remove(list.size() - 1);
+            if (last != session) {
+                list.set(position, last);
+                last.positions.put(topic, position);
+            }
+            if (list.isEmpty()) {
+                subscribers.remove(topic);
+            }
+            topics.get(topic).subscribers.decrementAndGet(id);
+        }
+
+        void fanOut(String topic, ByteBuf payload) {
+            List<Session> list = subscribers.get(topic);
+            if (list == null) {
+                return;
+            }
+            for (int i = 0, n = list.size(); i < n; i++) {
+                Session session = list.get(i);
+                Channel channel = session.channel;
+                if (channel.isWritable()) {
+                    // 刚恢复可写、writable()还没来得及写出保留的旧消息：旧的直接丢掉，不能排在新消息后面
+                    if (session.dropPending(topic)) {
+                        stats.coalesced.increment();
+                    }
+                    channel.write(payload.retainedDuplicate(), channel.voidPromise());
+                    stats.delivered.increment();
+                    markDirty(session);
+                } else if (channel.isActive()) {
+                    if (session.keepLatest(topic, payload.retainedDuplicate())) {
+                        stats.coalesced.increment();
+                    }
+                }
+            }
+        }
+
+        /**
+         * 记下待flush的Channel；本轮第一次时提交flush任务，它排在已提交的发布任务之后执行
+         */
+        void markDirty(Session session) {
+            if (!session.dirty) {
+                session.dirty = true;
+                dirty.add(session);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                loop.execute(flushTask);
+            }
+        }
+
+        private void flushDirty() {
+            flushScheduled = false;
+            for (int i = 0, n = dirty.size(); i < n; i++) {
+                Session session = dirty.get(i);
+                session.dirty = false;
+                session.channel.flush();
+            }
+            stats.flushes.add(dirty.size());
+            dirty.clear();
+        }
+    }
+
+    /**
+     * 一个连接的订阅状态，只在连接的EventLoop上访问
+     */
+    static final class Session {
+        final Channel channel;
+        // 主题 -> 在分片订阅者列表中的下标
+        final Map<String, Integer> positions = new HashMap<>();
+        // 不可写期间每个主题保留的最新一条消息，第一次不可写时才创建（空闲连接不占这块内存）
+        private Map<String, ByteBuf> pending;
+        boolean dirty;
+
+        Session(Channel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * 保留最新一条，返回是否覆盖了更早的消息
+         */
+        boolean keepLatest(String topic, ByteBuf payload) {
+            if (pending == null) {
+                pending = new LinkedHashMap<>();
+            }
+            ByteBuf previous = pending.put(topic, payload);
+            if (previous != null) {
+                previous.release();
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 写出保留的消息（不flush），返回是否写了
+         */
+        boolean drainPending() {
+            if (pending == null || pending.isEmpty()) {
+                return false;
+            }
+            Iterator<ByteBuf> it = pending.values().iterator();
+            while (it.hasNext()) {
+                channel.write(it.next(), channel.voidPromise());
+                it.remove();
+            }
+            return true;
+        }
+
+        /**
+         * 丢掉这个主题保留的消息，返回是否有
+         */
+        boolean dropPending(String topic) {
+            ByteBuf payload = pending == null ? null : pending.remove(topic);
+            if (payload != null) {
+                payload.release();
+                return true;
+            }
+            return false;
+        }
+
+        void releasePending() {
+            if (pending == null) {
+                return;
+            }
+            for (ByteBuf payload : pending.values()) {
+                payload.release();
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * 推送统计
+     */
+    public static final class Stats {
+        private final LongAdder published = new LongAdder();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final LongAdder flushes = new LongAdder();
+        private final LongAdder fanOuts = new LongAdder();
+        private final LongAdder fanOutNanos = new LongAdder();
+        private final AtomicLong maxFanOutNanos = new AtomicLong();
+
+        void recordFanOut(long nanos) {
+            fanOuts.increment();
+            fanOutNanos.add(nanos);
+            maxFanOutNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        public long getPublished() {
+            return published.sum();
+        }
+
+        public long getDelivered() {
+            return delivered.sum();
+        }
+
+        public long getCoalesced() {
+            return coalesced.sum();
+        }
+
+        public long getFlushes() {
+            return flushes.sum();
+        }
+
+        /**
+         * 发布到最后一个分片写完的最大耗时
+         */
+        public long getMaxFanOutNanos() {
+            return maxFanOutNanos.get();
+        }
+
+        @Override
+        public String toString() {
+            long n = fanOuts.sum();
+            return String.format("发布%d条，写出%d次，flush%d次，慢连接覆盖%d条，扇出耗时平均%.2fms/最大%.2fms",
+                published.sum(), delivered.sum(), flushes.sum(), coalesced.sum(),
+                n == 0 ? 0.0 : fanOutNanos.sum() / 1e6 / n, maxFanOutNanos.get() / 1e6);
+        }
+    }
+}
@@ -2,20 +2,16 @@ package com.fragment.io.netty.project.push;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
 import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
-import io.netty.handler.timeout.IdleState;
-import io.netty.handler.timeout.IdleStateEvent;
-import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.CharsetUtil;
-import io.netty.util.concurrent.GlobalEventExecutor;
 
-import java.util.concurrent.TimeUnit;
+import java.util.Random;
 
 /**
  * TCP长连接推送服务器
@@ -25,11 +21,18 @@ import java.util.concurrent.TimeUnit;
  * 2. 心跳检测
  * 3. 消息推送
  * 4. 自动重连
+ * 5. 按主题订阅推送（{@link PushEngine}）
+ * 6. 连接注册表（{@link ConnectionRegistry}）：整数连接ID、用户名索引、共享心跳时间轮
+ * 
+ * 协议（按行）：
+ * - SUB 主题 / UNSUB 主题：订阅 / 退订，所有连接默认订阅主题 all
+ * - LOGIN 用户名：绑定用户名
+ * - PING：心跳，回复PONG
  * 
  * 使用方式：
  * 1. 启动服务器
- * 2. 客户端连接
- * 3. 服务器定期推送消息
+ * 2. 客户端连接，订阅感兴趣的主题（如 price.BTC）
+ * 3. 服务器定期向 all 推送消息，行情主题持续推送报价
  * 
  * @author fragment
  * @date 2026-01-14
@@ -37,25 +40,35 @@ import java.util.concurrent.TimeUnit;
 public class PushServer {
     
     private static final int PORT = 9999;
-    private static final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    static final String BROADCAST_TOPIC = "all";
+    private static final String[] SYMBOLS = {"BTC", "ETH", "SOL"};
+    private static final int READ_IDLE_SECONDS = 60;
     
     public static void main(String[] args) throws Exception {
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
+        PushEngine engine = new PushEngine(workerGroup, PooledByteBufAllocator.DEFAULT);
+        // 60秒读空闲检测：所有连接共用一个时间轮，由boss线程每秒推进
+        ConnectionRegistry registry = new ConnectionRegistry(READ_IDLE_SECONDS, bossGroup);
+        // 无状态的处理器所有连接共用一个实例
+        StringDecoder decoder = new StringDecoder(CharsetUtil.UTF_8);
+        StringEncoder encoder = new StringEncoder(CharsetUtil.UTF_8);
+        PushServerHandler handler = new PushServerHandler(engine, registry);
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
                 .channel(NioServerSocketChannel.class)
+                // 连接数多，每个连接的出站缓冲区要小；超过高水位后按"只保留最新"处理
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(8 * 1024, 32 * 1024))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel ch) {
                         ch.pipeline()
-                            // 60秒读空闲检测
-                            .addLast(new IdleStateHandler(60, 0, 0, TimeUnit.SECONDS))
-                            .addLast(new StringDecoder(CharsetUtil.UTF_8))
-                            .addLast(new StringEncoder(CharsetUtil.UTF_8))
-                            .addLast(new PushServerHandler());
+                            .addLast(new LineBasedFrameDecoder(1024))
+                            .addLast(decoder)
+                            .addLast(encoder)
+                            .addLast(handler);
                     }
                 });
             
@@ -65,10 +78,12 @@ public class PushServer {
             System.out.println("===========================\n");
             
             // 启动推送任务
-            startPushTask();
+            startPushTask(engine, registry);
+            startPriceTask(engine);
             
             future.channel().closeFuture().sync();
         } finally {
+            registry.close();
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
         }
@@ -77,17 +92,20 @@ public class PushServer {
     /**
      * 启动推送任务
      */
-    private static void startPushTask() {
+    private static void startPushTask(PushEngine engine, ConnectionRegistry registry) {
         new Thread(() -> {
             int count = 0;
             while (true) {
                 try {
                     Thread.sleep(10000);  // 每10秒推送一次
                     
-                    if (channels.size() > 0) {
+                    int online = engine.subscriberCount(BROADCAST_TOPIC);
+                    if (online > 0) {
                         String message = String.format("[推送] 这是第 %d 条推送消息", ++count);
-                        channels.writeAndFlush(message + "\n");
-                        System.out.println(message + " (在线: " + channels.size() + ")");
+                        engine.publish(BROADCAST_TOPIC, message);
+                        System.out.println(message + " (在线: " + online + ")");
+                        System.out.println("[统计] " + engine.getStats()
+                            + "，心跳超时关闭" + registry.getExpired() + "个连接");
                     }
                 } catch (InterruptedException e) {
                     break;
@@ -96,52 +114,102 @@ public class PushServer {
         }).start();
     }
     
+    /**
+     * 启动行情任务：每100毫秒给每个 price.XXX 主题推一条报价，只有订阅者会收到
+     */
+    private static void startPriceTask(PushEngine engine) {
+        Thread thread = new Thread(() -> {
+            Random random = new Random();
+            double[] prices = {60000, 3000, 150};
+            while (true) {
+                try {
+                    Thread.sleep(100);
+                    for (int i = 0; i < SYMBOLS.length; i++) {
+                        prices[i] *= 1 + (random.nextDouble() - 0.5) / 1000;
+                        engine.publish("price." + SYMBOLS[i],
+                            String.format("[行情] %s %.2f %d", SYMBOLS[i], prices[i], System.currentTimeMillis()));
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }, "price-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
     /**
      * 推送服务器处理器
      */
+    @ChannelHandler.Sharable
     static class PushServerHandler extends SimpleChannelInboundHandler<String> {
         
+        private final PushEngine engine;
+        private final ConnectionRegistry registry;
+        
+        PushServerHandler(PushEngine engine, ConnectionRegistry registry) {
+            this.engine = engine;
+            this.registry = registry;
+        }
+        
         @Override
         public void channelActive(ChannelHandlerContext ctx) {
-            channels.add(ctx.channel());
+            int id = registry.register(ctx.channel());
+            engine.register(ctx.channel());
+            engine.subscribe(ctx.channel(), BROADCAST_TOPIC);
             System.out.println("[连接] 客户端连接: " + ctx.channel().remoteAddress() 
-                + " (在线: " + channels.size() + ")");
+                + " #" + id + " (在线: " + registry.size() + ")");
             
             ctx.writeAndFlush("[系统] 欢迎连接到推送服务器！\n");
         }
         
         @Override
         public void channelInactive(ChannelHandlerContext ctx) {
+            String user = registry.userOf(ctx.channel());
+            registry.unregister(ctx.channel());
+            engine.unregister(ctx.channel());
             System.out.println("[断开] 客户端断开: " + ctx.channel().remoteAddress() 
-                + " (在线: " + channels.size() + ")");
+                + (user != null ? " " + user : "") + " (在线: " + registry.size() + ")");
+        }
+        
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable()) {
+                engine.writable(ctx.channel());
+            }
+            ctx.fireChannelWritabilityChanged();
         }
         
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, String msg) {
+            // 任何数据都算心跳
+            registry.touch(ctx.channel());
             String text = msg.trim();
             
             if ("PING".equals(text)) {
                 // 心跳响应
                 ctx.writeAndFlush("PONG\n");
+            } else if (text.startsWith("SUB ")) {
+                String topic = text.substring(4).trim();
+                engine.subscribe(ctx.channel(), topic);
+                ctx.writeAndFlush("[系统] 已订阅: " + topic + "\n");
+            } else if (text.startsWith("UNSUB ")) {
+                String topic = text.substring(6).trim();
+                engine.unsubscribe(ctx.channel(), topic);
+                ctx.writeAndFlush("[系统] 已退订: " + topic + "\n");
+            } else if (text.startsWith("LOGIN ")) {
+                String user = text.substring(6).trim();
+                if (registry.bindUser(ctx.channel(), user)) {
+                    ctx.writeAndFlush("[系统] 登录成功: " + user + "\n");
+                } else {
+                    ctx.writeAndFlush("[系统] 用户名已在其他连接登录: " + user + "\n");
+                }
             } else {
                 System.out.println("[消息] " + ctx.channel().remoteAddress() + ": " + text);
                 ctx.writeAndFlush("[回复] 收到消息: " + text + "\n");
             }
         }
         
-        @Override
-        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
-            if (evt instanceof IdleStateEvent) {
-                IdleStateEvent event = (IdleStateEvent) evt;
-                
-                if (event.state() == IdleState.READER_IDLE) {
-                    System.out.println("[超时] 60秒未收到心跳，关闭连接: " 
-                        + ctx.channel().remoteAddress());
-                    ctx.close();
-                }
-            }
-        }
-        
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
             System.err.println("[异常] " + cause.getMessage());
@@ -0,0 +1,87 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务隔舱：一个服务独占的有界线程池
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：所有服务共用一个业务线程池，一个慢服务占满线程后其他服务也排队？
+ *       解决：每个服务一个线程池，线程数和队列长度按服务单独配置</li>
+ *   <li>问题2：无界队列让请求越积越多，排队时间远超客户端超时，执行完的结果已经没人要？
+ *       解决：有界队列，满了立刻拒绝（{@link #tryExecute(Runnable)}返回false），服务端回BUSY，
+ *       客户端马上知道，可以换个节点或降级</li>
+ * </ul>
+ *
+ * @author fragment
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    public Bulkhead(String name, int threads, int queueCapacity) {
+        this.name = name;
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<Runnable>(queueCapacity)
+                : new SynchronousQueue<Runnable>();
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, r -> {
+            Thread thread = new Thread(r, "rpc-" + name + "-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交任务；线程和队列都满时返回false，不阻塞调用方（I/O线程）
+     */
+    public boolean tryExecute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * 不再接收新任务，已排队的任务执行完
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{threads=" + executor.getMaximumPoolSize() + ", active=" + getActiveCount()
+                + ", queued=" + getQueueSize() + ", rejected=" + getRejectedCount() + "}";
+    }
+}
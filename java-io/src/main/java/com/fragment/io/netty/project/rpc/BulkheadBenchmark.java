@@ -0,0 +1,135 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 一个服务变慢时，同一I/O线程上其他服务的延迟：全部内联执行 vs 慢服务放进隔舱
+ *
+ * <p>不经过网络：单线程Executor充当Netty的I/O线程，派发逻辑与RpcServerHandler相同。
+ * 按固定速率（开环）到达两类请求：
+ * <ul>
+ *   <li>QueryService.get：很快，内联执行</li>
+ *   <li>ReportService.build：下游变慢，每次耗时slowMillis毫秒</li>
+ * </ul>
+ * 延迟从请求"到达"算起到响应"写出"为止，包含在I/O线程上的排队时间。
+ *
+ * <p>启动方式：java BulkheadBenchmark [秒数] [慢调用耗时ms]
+ *
+ * @author fragment
+ */
+public class BulkheadBenchmark {
+
+    public interface QueryService {
+        long get(long key);
+    }
+
+    public interface ReportService {
+        String build(int id);
+    }
+
+    private static final int FAST_PER_SECOND = 2000;
+    private static final int SLOW_PER_SECOND = 20;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int slowMillis = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        System.out.println("=== 慢服务隔离（" + seconds + "秒，快请求" + FAST_PER_SECOND + "/s，慢请求"
+                + SLOW_PER_SECOND + "/s × " + slowMillis + "ms）===\n");
+        run("全部内联执行", ExecutionPolicy.inline(), seconds, slowMillis);
+        run("慢服务隔舱 bulkhead(1, 2)", ExecutionPolicy.bulkhead(1, 2), seconds, slowMillis);
+    }
+
+    private static void run(String name, ExecutionPolicy slowPolicy, int seconds, int slowMillis)
+            throws Exception {
+        MethodDispatcher dispatcher = new MethodDispatcher();
+        dispatcher.register(QueryService.class, (QueryService) key -> key * 31, ExecutionPolicy.inline());
+        dispatcher.register(ReportService.class, (ReportService) id -> {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(slowMillis));
+            return "report-" + id;
+        }, slowPolicy);
+
+        Method get = QueryService.class.getMethod("get", long.class);
+        Method build = ReportService.class.getMethod("build", int.class);
+        MethodDispatcher.Invoker fast = dispatcher.find(MethodDispatcher.methodId(QueryService.class, get));
+        MethodDispatcher.Invoker slow = dispatcher.find(MethodDispatcher.methodId(ReportService.class, build));
+
+        MethodStats.Latency fastLatency = new MethodStats.Latency();
+        MethodStats.Latency slowLatency = new MethodStats.Latency();
+        AtomicLong busy = new AtomicLong();
+
+        int fastTotal = FAST_PER_SECOND * seconds;
+        int slowTotal = SLOW_PER_SECOND * seconds;
+        CountDownLatch done = new CountDownLatch(fastTotal + slowTotal);
+        ExecutorService ioThread = Executors.newSingleThreadExecutor();
+
+        long fastInterval = TimeUnit.SECONDS.toNanos(1) / FAST_PER_SECOND;
+        int slowEvery = FAST_PER_SECOND / SLOW_PER_SECOND;
+        long start = System.nanoTime();
+        for (int i = 0; i < fastTotal; i++) {
+            long arrival = start + i * fastInterval;
+            long delay;
+            while ((delay = arrival - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            ioThread.execute(() -> dispatch(fast, new Object[]{7L}, arrival, fastLatency, busy, done));
+            if (i % slowEvery == 0) {
+                ioThread.execute(() -> dispatch(slow, new Object[]{1}, arrival, slowLatency, busy, done));
+            }
+        }
+        done.await();
+        ioThread.shutdown();
+        dispatcher.shutdown();
+
+        System.out.println("[" + name + "] 用时 " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        System.out.println(String.format("  快请求  %d 次  p50=%.2fms p99=%.2fms max=%.2fms",
+                fastLatency.getCount(), ms(fastLatency.getPercentileNanos(50)),
+                ms(fastLatency.getPercentileNanos(99)), ms(fastLatency.getMaxNanos())));
+        System.out.println(String.format("  慢请求  完成 %d 次  BUSY %d 次  p99=%.2fms",
+                slowLatency.getCount(), busy.get(), ms(slowLatency.getPercentileNanos(99))));
+        System.out.println("  " + slow.getStats());
+        System.out.println();
+    }
+
+    /**
+     * 与RpcServerHandler相同的派发：内联执行，或交给隔舱，隔舱满时立即回BUSY
+     */
+    private static void dispatch(MethodDispatcher.Invoker invoker, Object[] args, long arrival,
+                                 MethodStats.Latency latency, AtomicLong busy, CountDownLatch done) {
+        Bulkhead bulkhead = invoker.getBulkhead();
+        if (bulkhead == null) {
+            invoke(invoker, args, System.nanoTime(), arrival, latency, done);
+            return;
+        }
+        long enqueueTime = System.nanoTime();
+        if (!bulkhead.tryExecute(() -> invoke(invoker, args, enqueueTime, arrival, latency, done))) {
+            invoker.getStats().recordRejected();
+            busy.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    private static void invoke(MethodDispatcher.Invoker invoker, Object[] args, long enqueueTime, long arrival,
+                               MethodStats.Latency latency, CountDownLatch done) {
+        long startTime = System.nanoTime();
+        try {
+            invoker.invoke(args);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        long end = System.nanoTime();
+        invoker.getStats().record(startTime - enqueueTime, end - startTime);
+        latency.record(end - arrival);
+        done.countDown();
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
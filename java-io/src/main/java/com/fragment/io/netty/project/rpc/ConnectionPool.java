@@ -0,0 +1,344 @@
+package com.fragment.io.netty.project.rpc;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RPC连接池：多个服务端节点，每个节点N条连接，每条连接上同时有多个在途请求（按请求ID匹配响应）
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：一个客户端只有一条连接，吞吐受限于单个TCP连接（一个EventLoop线程、一个拥塞窗口）？
+ *       解决：每个节点建立N条连接，分散在EventLoopGroup的不同线程上；连接是多路复用的，
+ *       调用方线程数不决定并发度</li>
+ *   <li>问题2：轮询选连接，慢节点、慢连接上的请求越积越多？
+ *       解决：选在途请求最少的连接（least outstanding），慢的连接在途数高，自然分到的请求少；
+ *       写缓冲区超过高水位（不可写）的连接只在没有其他选择时才用，避免在客户端内存里堆积</li>
+ *   <li>问题3：连接断开后，在途请求要等到超时才失败？
+ *       解决：连接关闭时立即让它的在途请求失败，调用方可以马上重试其他连接</li>
+ *   <li>问题4：节点宕机时不停地重连？
+ *       解决：后台指数退避重连（100ms起，每次翻倍，最多10s，加±20%抖动，避免所有客户端同时重连）；
+ *       连接不可用期间不参与选择</li>
+ * </ul>
+ *
+ * <p>每条连接的在途请求放在{@link PendingRequests}中，池内所有连接共用一个时间轮做超时。
+ *
+ * @author fragment
+ */
+public class ConnectionPool {
+
+    private static final long INITIAL_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    // 不可写的连接在选择时相当于多了这么多在途请求
+    private static final int UNWRITABLE_PENALTY = 1 << 20;
+
+    private final int connectionsPerEndpoint;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    private final Timer timer = new HashedWheelTimer(new DefaultThreadFactory("rpc-timeout", true),
+            10, TimeUnit.MILLISECONDS, 512);
+    private final AtomicInteger cursor = new AtomicInteger();
+    private volatile PooledConnection[] connections = new PooledConnection[0];
+    private volatile boolean closed;
+    private volatile int flushConsolidation;
+
+    public ConnectionPool(int connectionsPerEndpoint) {
+        if (connectionsPerEndpoint <= 0) {
+            throw new IllegalArgumentException("connectionsPerEndpoint=" + connectionsPerEndpoint);
+        }
+        this.connectionsPerEndpoint = connectionsPerEndpoint;
+        this.group = new NioEventLoopGroup();
+        this.bootstrap = new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.SO_KEEPALIVE, true)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+            .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(256 * 1024, 1024 * 1024));
+    }
+
+    /**
+     * 合并flush（对之后建立的连接生效）：积累n次flush、或EventLoop处理完当前这批写任务时才真正flush，
+     * 多个线程同时发出的小请求合并成一次系统调用；0表示每次都flush
+     */
+    public void setFlushConsolidation(int explicitFlushAfterFlushes) {
+        this.flushConsolidation = explicitFlushAfterFlushes;
+    }
+    
+    /**
+     * 添加节点，建立N条连接；至少一条连接成功才返回，全部失败时抛出ConnectException
+     * （之后断开的连接在后台重连）
+     */
+    public void addEndpoint(String host, int port) throws Exception {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        List<PooledConnection> added = new ArrayList<>();
+        List<ChannelFuture> attempts = new ArrayList<>();
+        for (int i = 0; i < connectionsPerEndpoint; i++) {
+            PooledConnection connection = new PooledConnection(address);
+            added.add(connection);
+            attempts.add(connection.connect());
+        }
+
+        boolean connected = false;
+        for (ChannelFuture attempt : attempts) {
+            attempt.await();
+            connected |= attempt.isSuccess();
+        }
+        if (!connected) {
+            for (PooledConnection connection : added) {
+                connection.close();
+            }
+            throw new ConnectException("无法连接: " + address);
+        }
+
+        synchronized (this) {
+            PooledConnection[] current = connections;
+            PooledConnection[] updated = Arrays.copyOf(current, current.length + added.size());
+            for (int i = 0; i < added.size(); i++) {
+                updated[current.length + i] = added.get(i);
+            }
+            connections = updated;
+        }
+    }
+
+    /**
+     * 选在途请求最少的可用连接；起点轮转，在途数相同时请求均匀分布
+     */
+    public PooledConnection select() {
+        PooledConnection[] all = connections;
+        int n = all.length;
+        int start = cursor.getAndIncrement();
+        PooledConnection best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            PooledConnection connection = all[Math.floorMod(start + i, n)];
+            Channel channel = connection.channel;
+            if (channel == null || !channel.isActive()) {
+                continue;
+            }
+            int load = connection.pending.size();
+            if (!channel.isWritable()) {
+                load += UNWRITABLE_PENALTY;
+            }
+            if (load < bestLoad) {
+                best = connection;
+                bestLoad = load;
+                if (load == 0) {
+                    break;
+                }
+            }
+        }
+        if (best == null) {
+            throw new RuntimeException("没有可用的连接（" + n + "条连接都已断开，正在重连）");
+        }
+        return best;
+    }
+
+    /**
+     * 关闭所有连接，不再重连；在途请求立即失败
+     */
+    public void close() {
+        closed = true;
+        for (PooledConnection connection : connections) {
+            connection.close();
+            connection.pending.failAll(new IllegalStateException("客户端已关闭"));
+        }
+        timer.stop();
+        group.shutdownGracefully();
+    }
+
+    public List<PooledConnection> getConnections() {
+        return Arrays.asList(connections);
+    }
+
+    /**
+     * 池中的一条连接
+     */
+    public class PooledConnection {
+        private final InetSocketAddress address;
+        private final PendingRequests<RpcResponse> pending = new PendingRequests<>(timer);
+        private volatile Channel channel;
+        private volatile int failedAttempts;
+        private volatile boolean connectionClosed;
+
+        PooledConnection(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        ChannelFuture connect() {
+            ChannelFuture future = bootstrap.clone()
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if (flushConsolidation > 0) {
+                            // 没有读事件进行中时也合并：客户端的flush来自业务线程提交的写任务
+                            ch.pipeline().addLast(new FlushConsolidationHandler(flushConsolidation, true));
+                        }
+                        ch.pipeline()
+                            .addLast(new RpcEncoder(RpcRequest.class))
+                            .addLast(new RpcDecoder(RpcResponse.class))
+                            .addLast(new ResponseHandler(PooledConnection.this));
+                    }
+                })
+                .connect(address);
+            future.addListener((ChannelFutureListener) f -> {
+                if (f.isSuccess()) {
+                    failedAttempts = 0;
+                    channel = f.channel();
+                    if (connectionClosed) {
+                        channel.close();
+                    }
+                } else {
+                    scheduleReconnect();
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 发送请求，返回的future在收到响应、超时、写失败或连接断开时完成
+         */
+        public CompletableFuture<RpcResponse> send(RpcRequest request, long timeoutMillis) {
+            long requestId = request.getRequestId();
+            CompletableFuture<RpcResponse> future = pending.register(requestId, timeoutMillis);
+            Channel ch = channel;
+            if (ch == null) {
+                pending.fail(requestId, new RuntimeException("连接已断开: " + address));
+                return future;
+            }
+            ch.writeAndFlush(request).addListener((ChannelFutureListener) f -> {
+                if (!f.isSuccess()) {
+                    pending.fail(requestId, f.cause());
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 批量发送：所有请求放进一帧，每个请求仍有自己的future和超时
+         */
+        public List<CompletableFuture<RpcResponse>> sendBatch(List<RpcRequest> requests, long timeoutMillis) {
+            List<CompletableFuture<RpcResponse>> futures = new ArrayList<>(requests.size());
+            for (RpcRequest request : requests) {
+                futures.add(pending.register(request.getRequestId(), timeoutMillis));
+            }
+            Channel ch = channel;
+            if (ch == null) {
+                failAll(requests, new RuntimeException("连接已断开: " + address));
+                return futures;
+            }
+            ch.writeAndFlush(RpcBatch.ofRequests(requests)).addListener((ChannelFutureListener) f -> {
+                if (!f.isSuccess()) {
+                    failAll(requests, f.cause());
+                }
+            });
+            return futures;
+        }
+        
+        private void failAll(List<RpcRequest> requests, Throwable cause) {
+            for (RpcRequest request : requests) {
+                pending.fail(request.getRequestId(), cause);
+            }
+        }
+        
+        void complete(RpcResponse response) {
+            pending.complete(response.getRequestId(), response);
+        }
+
+        void onInactive() {
+            channel = null;
+            pending.failAll(new RuntimeException("连接已断开: " + address));
+            scheduleReconnect();
+        }
+
+        private void scheduleReconnect() {
+            if (closed || connectionClosed) {
+                return;
+            }
+            int attempts = failedAttempts++;
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempts, 16));
+            long delay = backoff * (80 + ThreadLocalRandom.current().nextInt(41)) / 100;
+            System.out.println("[客户端] " + address + " 连接不可用，" + delay + "ms后重连（第" + (attempts + 1) + "次）");
+            group.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+
+        void close() {
+            connectionClosed = true;
+            Channel ch = channel;
+            if (ch != null) {
+                ch.close();
+            }
+        }
+
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        public boolean isActive() {
+            Channel ch = channel;
+            return ch != null && ch.isActive();
+        }
+
+        public int getOutstanding() {
+            return pending.size();
+        }
+
+        @Override
+        public String toString() {
+            return address + "{active=" + isActive() + ", outstanding=" + pending.size() + "}";
+        }
+    }
+
+    /**
+     * 把响应交给所属连接；连接关闭时让在途请求失败并安排重连
+     */
+    static class ResponseHandler extends SimpleChannelInboundHandler<Object> {
+
+        private final PooledConnection connection;
+
+        ResponseHandler(PooledConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof RpcResponse) {
+                connection.complete((RpcResponse) msg);
+            } else if (msg instanceof RpcBatch && !((RpcBatch) msg).isRequest()) {
+                for (RpcResponse response : ((RpcBatch) msg).getResponses()) {
+                    connection.complete(response);
+                }
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            connection.onInactive();
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.err.println("[客户端] 连接异常: " + connection.getAddress() + ", " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.lang.reflect.Method;
+
+/**
+ * 服务端派发方式对比（ns/op），不经过网络，只测"请求 -> 调用目标方法"这一段
+ *
+ * <p>对比三种方式：
+ * <ul>
+ *   <li>每次getMethod + Method.invoke（原RpcServerHandler的写法）</li>
+ *   <li>缓存Method，每次Method.invoke</li>
+ *   <li>{@link MethodDispatcher}：按方法ID查表 + MethodHandle.invokeExact</li>
+ * </ul>
+ *
+ * <p>启动方式：java DispatchBenchmark [每轮迭代次数]
+ *
+ * @author fragment
+ */
+public class DispatchBenchmark {
+
+    public interface CalculatorService {
+        int add(int a, int b);
+
+        String echo(String message);
+    }
+
+    public static class CalculatorServiceImpl implements CalculatorService {
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public String echo(String message) {
+            return message;
+        }
+    }
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Throwable {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        CalculatorService service = new CalculatorServiceImpl();
+        MethodDispatcher dispatcher = new MethodDispatcher();
+        dispatcher.register(CalculatorService.class, service);
+
+        Method add = CalculatorService.class.getMethod("add", int.class, int.class);
+        RpcRequest request = new RpcRequest();
+        request.setInterfaceName(CalculatorService.class.getName());
+        request.setMethodName("add");
+        request.setParameterTypes(add.getParameterTypes());
+        request.setParameters(new Object[]{1, 2});
+        request.setMethodId(MethodDispatcher.methodId(CalculatorService.class, add));
+
+        System.out.println("=== 服务端派发方式对比（每轮 " + iterations + " 次，取最后一轮）===\n");
+        long[] nanos = new long[3];
+        for (int round = 0; round < ROUNDS; round++) {
+            nanos[0] = lookupAndInvoke(service, request, iterations);
+            nanos[1] = cachedInvoke(service, add, request, iterations);
+            nanos[2] = dispatch(dispatcher, request, iterations);
+        }
+        System.out.println(String.format("%-34s %10.1f ns/op", "getMethod + Method.invoke", (double) nanos[0] / iterations));
+        System.out.println(String.format("%-34s %10.1f ns/op", "缓存Method + Method.invoke", (double) nanos[1] / iterations));
+        System.out.println(String.format("%-34s %10.1f ns/op", "MethodDispatcher（ID查表 + MethodHandle）", (double) nanos[2] / iterations));
+    }
+
+    private static long lookupAndInvoke(Object service, RpcRequest request, int iterations) throws Exception {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Method method = service.getClass().getMethod(request.getMethodName(), request.getParameterTypes());
+            sum += (Integer) method.invoke(service, request.getParameters());
+        }
+        return elapsed(start, sum, iterations);
+    }
+
+    private static long cachedInvoke(Object service, Method method, RpcRequest request, int iterations) throws Exception {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sum += (Integer) method.invoke(service, request.getParameters());
+        }
+        return elapsed(start, sum, iterations);
+    }
+
+    private static long dispatch(MethodDispatcher dispatcher, RpcRequest request, int iterations) throws Throwable {
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sum += (Integer) dispatcher.find(request).invoke(request.getParameters());
+        }
+        return elapsed(start, sum, iterations);
+    }
+
+    private static long elapsed(long start, long sum, int iterations) {
+        long nanos = System.nanoTime() - start;
+        // 使用结果，避免被JIT当成死代码消除
+        if (sum != 3L * iterations) {
+            throw new IllegalStateException("结果不正确: " + sum);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 服务方法在哪里执行
+ *
+ * <ul>
+ *   <li>{@link #inline()}：直接在Netty的I/O线程里执行，只适合确定很快、不阻塞的方法</li>
+ *   <li>{@link #bulkhead(int, int)}：服务独占一个有界线程池（隔舱），队列满时立刻返回BUSY；
+ *       一个服务变慢只会占满它自己的线程和队列，不会拖住I/O线程上的其他连接</li>
+ * </ul>
+ *
+ * <p>隔舱策略下可以用{@link #inlineMethods(String...)}把少数很快的方法留在I/O线程执行，省掉线程切换：
+ * <pre>
+ * server.registerService(UserService.class, impl,
+ *         ExecutionPolicy.bulkhead(8, 64).inlineMethods("getUserAge"));
+ * </pre>
+ *
+ * @author fragment
+ */
+public final class ExecutionPolicy {
+
+    private static final ExecutionPolicy INLINE = new ExecutionPolicy(0, 0, Collections.<String>emptySet());
+
+    private final int threads;
+    private final int queueCapacity;
+    private final Set<String> inlineMethods;
+
+    private ExecutionPolicy(int threads, int queueCapacity, Set<String> inlineMethods) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.inlineMethods = inlineMethods;
+    }
+
+    /**
+     * 所有方法都在I/O线程执行
+     */
+    public static ExecutionPolicy inline() {
+        return INLINE;
+    }
+
+    /**
+     * 服务独占threads个线程，最多queueCapacity个请求排队（0表示不排队，线程都忙就返回BUSY）
+     */
+    public static ExecutionPolicy bulkhead(int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException("threads=" + threads + ", queueCapacity=" + queueCapacity);
+        }
+        return new ExecutionPolicy(threads, queueCapacity, Collections.<String>emptySet());
+    }
+
+    /**
+     * 默认策略：CPU核数（至少2个）线程，队列256
+     */
+    public static ExecutionPolicy defaultPolicy() {
+        return bulkhead(Math.max(2, Runtime.getRuntime().availableProcessors()), 256);
+    }
+
+    /**
+     * 指定的方法（按方法名，所有重载）仍在I/O线程执行
+     */
+    public ExecutionPolicy inlineMethods(String... methodNames) {
+        Set<String> names = new HashSet<>(inlineMethods);
+        names.addAll(Arrays.asList(methodNames));
+        return new ExecutionPolicy(threads, queueCapacity, Collections.unmodifiableSet(names));
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    boolean isInline() {
+        return threads == 0;
+    }
+
+    boolean isInline(Method method) {
+        return threads == 0 || inlineMethods.contains(method.getName());
+    }
+
+    @Override
+    public String toString() {
+        if (isInline()) {
+            return "inline";
+        }
+        return "bulkhead(threads=" + threads + ", queue=" + queueCapacity
+                + (inlineMethods.isEmpty() ? "" : ", inline=" + inlineMethods) + ")";
+    }
+}
@@ -0,0 +1,319 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 服务端方法派发表
+ *
+ * <p>注册服务时为接口的每个方法生成一个已绑定服务实例的MethodHandle，按方法ID放进不可变的派发表；
+ * 处理请求时只需一次数组查找和一次invokeExact，不再每次getMethod + Method.invoke。
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：每个请求都getMethod(name, types)，要遍历方法、比较参数类型数组？
+ *       解决：方法ID是方法签名的哈希（{@link #methodId(Class, Method)}），客户端创建代理时算一次，
+ *       随请求发送；服务端按ID在开放寻址数组中查找，通常一次命中</li>
+ *   <li>问题2：Method.invoke每次都做访问检查、参数数组拷贝和类型检查？
+ *       解决：MethodHandle在注册时bindTo服务实例、asSpreader展开Object[]参数、asType统一成
+ *       (Object[])Object，调用时invokeExact，JIT可以内联到目标方法</li>
+ *   <li>问题3：注册和派发并发？
+ *       解决：派发表不可变，注册时复制一份新表再替换volatile引用，派发路径不加锁</li>
+ *   <li>问题4：方法在哪个线程执行？
+ *       解决：注册时按{@link ExecutionPolicy}给每个方法定好：内联执行的方法没有{@link Bulkhead}，
+ *       其余方法共用服务的隔舱；每个方法一份{@link MethodStats}</li>
+ * </ul>
+ *
+ * <p>不带方法ID的请求（旧客户端）按"接口名#方法名(参数类型)"查找，仍然不做反射查找。
+ *
+ * @author fragment
+ */
+public class MethodDispatcher {
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+    private volatile Table table = new Table(Collections.<Invoker>emptyList());
+    private final Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+    /**
+     * 一个可调用的方法：已绑定服务实例
+     */
+    public static final class Invoker {
+        private final int id;
+        private final String signature;
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+        private final MethodHandle handle;
+        private final Bulkhead bulkhead;
+        private final MethodStats stats;
+
+        Invoker(int id, String signature, Class<?> interfaceClass, Method method, MethodHandle handle,
+                Bulkhead bulkhead) {
+            this.id = id;
+            this.signature = signature;
+            this.interfaceName = interfaceClass.getName();
+            this.methodName = method.getName();
+            this.parameterTypes = method.getParameterTypes();
+            this.handle = handle;
+            this.bulkhead = bulkhead;
+            this.stats = new MethodStats(signature);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getSignature() {
+            return signature;
+        }
+
+        /**
+         * 方法所属服务的隔舱，内联执行的方法返回null
+         */
+        public Bulkhead getBulkhead() {
+            return bulkhead;
+        }
+
+        public MethodStats getStats() {
+            return stats;
+        }
+
+        /**
+         * 是否就是请求的方法（方法ID只是哈希，命中后还要确认一次；逐个比较，不拼接字符串）
+         */
+        boolean matches(String interfaceName, String methodName, Class<?>[] parameterTypes) {
+            return this.methodName.equals(methodName)
+                    && this.interfaceName.equals(interfaceName)
+                    && Arrays.equals(this.parameterTypes, parameterTypes != null ? parameterTypes : NO_TYPES);
+        }
+
+        /**
+         * 调用目标方法；目标方法抛出的异常原样抛出（不包装成InvocationTargetException）
+         */
+        public Object invoke(Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(args != null ? args : NO_ARGS);
+        }
+    }
+
+    /**
+     * 注册服务：所有方法在调用方线程（I/O线程）执行
+     */
+    public void register(Class<?> interfaceClass, Object serviceImpl) {
+        register(interfaceClass, serviceImpl, ExecutionPolicy.inline());
+    }
+
+    /**
+     * 注册服务：为接口的每个方法生成Invoker，按policy决定在哪里执行；重复注册时替换旧的实现，
+     * 旧的隔舱执行完已排队的请求后关闭
+     */
+    public synchronized void register(Class<?> interfaceClass, Object serviceImpl, ExecutionPolicy policy) {
+        if (!interfaceClass.isInstance(serviceImpl)) {
+            throw new IllegalArgumentException(serviceImpl.getClass().getName() + " 没有实现 " + interfaceClass.getName());
+        }
+
+        Bulkhead bulkhead = policy.isInline() ? null
+                : new Bulkhead(interfaceClass.getSimpleName(), policy.getThreads(), policy.getQueueCapacity());
+        Map<String, Invoker> invokers = new HashMap<>(table.bySignature);
+        for (Method method : interfaceClass.getMethods()) {
+            String signature = signature(interfaceClass, method);
+            invokers.put(signature, new Invoker(methodId(signature), signature, interfaceClass, method,
+                    bind(method, serviceImpl), policy.isInline(method) ? null : bulkhead));
+        }
+        table = new Table(invokers.values());
+
+        Bulkhead previous = bulkhead != null
+                ? bulkheads.put(interfaceClass.getName(), bulkhead)
+                : bulkheads.remove(interfaceClass.getName());
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * 关闭所有隔舱（已排队的请求仍会执行完）
+     */
+    public synchronized void shutdown() {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            bulkhead.shutdown();
+        }
+        bulkheads.clear();
+    }
+
+    /**
+     * 按方法ID查找，找不到时返回null
+     */
+    public Invoker find(int methodId) {
+        return table.find(methodId);
+    }
+
+    /**
+     * 按接口名、方法名、参数类型查找（请求没有带方法ID时），找不到时返回null
+     */
+    public Invoker find(String interfaceName, String methodName, Class<?>[] parameterTypes) {
+        return table.bySignature.get(signature(interfaceName, methodName, parameterTypes));
+    }
+
+    /**
+     * 先按方法ID，再按签名查找；ID与签名不一致（哈希冲突、两端接口版本不同）时以签名为准
+     */
+    public Invoker find(RpcRequest request) {
+        return find(request.getMethodId(), request.getInterfaceName(),
+                request.getMethodName(), request.getParameterTypes());
+    }
+
+    /**
+     * 同{@link #find(RpcRequest)}，供其他协议的请求对象使用（methodId为0表示没有ID）
+     */
+    public Invoker find(int methodId, String interfaceName, String methodName, Class<?>[] parameterTypes) {
+        if (methodId != 0) {
+            Invoker invoker = find(methodId);
+            if (invoker != null && invoker.matches(interfaceName, methodName, parameterTypes)) {
+                return invoker;
+            }
+        }
+        return find(interfaceName, methodName, parameterTypes);
+    }
+
+    /**
+     * 所有已注册的方法（统计用）
+     */
+    public Collection<Invoker> getInvokers() {
+        return table.bySignature.values();
+    }
+
+    /**
+     * 已注册的接口名
+     */
+    public Set<String> getServiceNames() {
+        Set<String> names = new LinkedHashSet<>();
+        for (String signature : table.bySignature.keySet()) {
+            names.add(signature.substring(0, signature.indexOf('#')));
+        }
+        return names;
+    }
+
+    /**
+     * 方法ID：方法签名的哈希（String.hashCode由语言规范定义，两端结果一致），0保留表示没有ID
+     */
+    public static int methodId(Class<?> interfaceClass, Method method) {
+        return methodId(signature(interfaceClass, method));
+    }
+
+    /**
+     * 由签名算方法ID；客户端和服务端（包括其他协议的RpcSchema）都必须用这一个实现
+     */
+    public static int methodId(String signature) {
+        int id = signature.hashCode();
+        return id != 0 ? id : 1;
+    }
+
+    /**
+     * 方法签名：接口全名#方法名(参数类型全名,...)
+     */
+    public static String signature(Class<?> interfaceClass, Method method) {
+        return signature(interfaceClass.getName(), method.getName(), method.getParameterTypes());
+    }
+
+    private static String signature(String interfaceName, String methodName, Class<?>[] parameterTypes) {
+        StringBuilder sb = new StringBuilder(interfaceName).append('#').append(methodName).append('(');
+        if (parameterTypes != null) {
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(parameterTypes[i].getName());
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * (args...)R  ->  bindTo(service)  ->  (Object[])Object
+     */
+    private static MethodHandle bind(Method method, Object serviceImpl) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // 接口不是public（例如包内可见的测试接口）
+            method.setAccessible(true);
+            try {
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException ex) {
+                throw new IllegalArgumentException("无法访问方法: " + method, ex);
+            }
+        }
+        return handle.bindTo(serviceImpl)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(INVOKER_TYPE);
+    }
+
+    /**
+     * 不可变的派发表：方法ID -> Invoker 的开放寻址数组
+     */
+    private static final class Table {
+        private final int[] ids;
+        private final Invoker[] invokers;
+        private final int mask;
+        private final Map<String, Invoker> bySignature;
+
+        Table(Iterable<Invoker> all) {
+            Map<String, Invoker> signatures = new HashMap<>();
+            for (Invoker invoker : all) {
+                signatures.put(invoker.signature, invoker);
+            }
+            int capacity = 16;
+            while (capacity < signatures.size() * 2) {
+                capacity <<= 1;
+            }
+            ids = new int[capacity];
+            invokers = new Invoker[capacity];
+            mask = capacity - 1;
+            for (Invoker invoker : signatures.values()) {
+                int i = mix(invoker.id) & mask;
+                while (ids[i] != 0) {
+                    if (ids[i] == invoker.id) {
+                        // 哈希冲突：两个签名同一个ID，都不放进数组，只能按签名查找
+                        invokers[i] = null;
+                        break;
+                    }
+                    i = (i + 1) & mask;
+                }
+                if (ids[i] == 0) {
+                    ids[i] = invoker.id;
+                    invokers[i] = invoker;
+                }
+            }
+            bySignature = Collections.unmodifiableMap(signatures);
+        }
+
+        Invoker find(int id) {
+            int i = mix(id) & mask;
+            int probe;
+            while ((probe = ids[i]) != 0) {
+                if (probe == id) {
+                    return invokers[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
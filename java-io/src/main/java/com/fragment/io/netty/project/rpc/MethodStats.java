@@ -0,0 +1,157 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个服务方法的调用统计：排队时间和执行时间分开记录
+ *
+ * <p>只看总耗时分不清是方法本身变慢（执行时间涨），还是隔舱线程不够（排队时间涨）；
+ * 前者要查下游依赖，后者要加线程或者限流。
+ *
+ * <p>耗时按2的幂分段、每段再均分4个桶，百分位取桶的上界，误差在25%以内；
+ * 记录只是几次原子加，不加锁。
+ *
+ * @author fragment
+ */
+public class MethodStats {
+
+    private final String name;
+    private final Latency queueTime = new Latency();
+    private final Latency executionTime = new Latency();
+    private final LongAdder rejected = new LongAdder();
+
+    public MethodStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次调用（内联执行的方法排队时间为0）
+     */
+    public void record(long queueNanos, long executionNanos) {
+        queueTime.record(queueNanos);
+        executionTime.record(executionNanos);
+    }
+
+    /**
+     * 记录一次因隔舱已满被拒绝的调用
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return executionTime.getCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public Latency getQueueTime() {
+        return queueTime;
+    }
+
+    public Latency getExecutionTime() {
+        return executionTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s calls=%d rejected=%d queue[%s] exec[%s]",
+                name, getCount(), getRejectedCount(), queueTime, executionTime);
+    }
+
+    /**
+     * 耗时分布
+     */
+    public static final class Latency {
+        private static final int SUB_BUCKET_BITS = 2;
+        private static final int BUCKETS = 64 << SUB_BUCKET_BITS;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            count.increment();
+            totalNanos.add(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // 重试
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getAverageNanos() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / n;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        /**
+         * 百分位（0 &lt; p &lt;= 100）的上界估计，不超过最大值
+         */
+        public long getPercentileNanos(double p) {
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                n += buckets.get(i);
+            }
+            long threshold = (long) Math.ceil(n * p / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= threshold && seen > 0) {
+                    return Math.min(upperBound(i), getMaxNanos());
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * 小于4的值各占一个桶；其余按最高位所在的段，再取最高位之后的2位作为段内序号
+         */
+        private static int bucket(long value) {
+            if (value < (1 << SUB_BUCKET_BITS)) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+            return (exponent << SUB_BUCKET_BITS) | sub;
+        }
+
+        private static long upperBound(int bucket) {
+            int exponent = bucket >>> SUB_BUCKET_BITS;
+            if (exponent < SUB_BUCKET_BITS) {
+                return bucket;
+            }
+            if (exponent >= 62) {
+                return Long.MAX_VALUE;
+            }
+            int sub = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+            return (((1L << SUB_BUCKET_BITS) + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("avg=%.1fus p99=%.1fus max=%.1fus",
+                    getAverageNanos() / 1000.0, getPercentileNanos(99) / 1000.0, getMaxNanos() / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.fragment.io.netty.project.rpc;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端在途请求表：请求ID -> 等待响应的CompletableFuture，每个请求挂一个时间轮定时器
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：调用方在CountDownLatch上超时返回后，表里的条目没人删，部分节点无响应时表越来越大？
+ *       解决：注册请求时在{@link io.netty.util.HashedWheelTimer}上挂超时任务，到期时从表中移除并让future失败，
+ *       不依赖调用方线程；时间轮新增/取消都是O(1)，几千个在途请求也只有一个定时线程</li>
+ *   <li>问题2：响应、超时、连接断开、调用方取消可能同时发生，条目被处理两次或一次都没处理？
+ *       解决：谁先用{@code remove(id, entry)}移除成功谁负责完成future，future一旦完成（无论哪种方式）
+ *       都移除条目并取消定时器，在途计数只减一次</li>
+ *   <li>问题3：调用方必须占着一个线程等响应？
+ *       解决：{@link #register}直接返回CompletableFuture，由收到响应的I/O线程（或定时线程）完成；
+ *       一个线程可以同时发出几千个请求</li>
+ * </ul>
+ *
+ * @author fragment
+ */
+public class PendingRequests<R> {
+
+    private final Map<Long, Entry<R>> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Timer timer;
+
+    public PendingRequests(Timer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * 登记一个请求，timeoutMillis毫秒内没有完成则以{@link TimeoutException}失败
+     */
+    public CompletableFuture<R> register(long requestId, long timeoutMillis) {
+        Entry<R> entry = new Entry<>(this, requestId);
+        if (entries.putIfAbsent(requestId, entry) != null) {
+            throw new IllegalStateException("重复的请求ID: " + requestId);
+        }
+        size.incrementAndGet();
+        entry.timeout = timer.newTimeout(entry, timeoutMillis, TimeUnit.MILLISECONDS);
+        // 由调用方取消、或在下面任意一条路径完成时，都清理条目和定时器
+        entry.whenComplete((r, e) -> entry.detach());
+        return entry;
+    }
+
+    /**
+     * 收到响应；请求已超时或已取消时返回false（迟到的响应直接丢弃）
+     */
+    public boolean complete(long requestId, R response) {
+        Entry<R> entry = entries.get(requestId);
+        return entry != null && entry.complete(response);
+    }
+
+    public boolean fail(long requestId, Throwable cause) {
+        Entry<R> entry = entries.get(requestId);
+        return entry != null && entry.completeExceptionally(cause);
+    }
+
+    /**
+     * 让所有在途请求失败（连接断开、客户端关闭）
+     */
+    public void failAll(Throwable cause) {
+        for (Entry<R> entry : entries.values()) {
+            entry.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 在途请求数
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 一个在途请求：本身就是返回给调用方的future，同时是时间轮上的超时任务
+     */
+    static final class Entry<R> extends CompletableFuture<R> implements TimerTask {
+        private final PendingRequests<R> owner;
+        private final long requestId;
+        private volatile Timeout timeout;
+
+        Entry(PendingRequests<R> owner, long requestId) {
+            this.owner = owner;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            completeExceptionally(new TimeoutException("RPC调用超时: requestId=" + requestId));
+        }
+
+        void detach() {
+            if (owner.entries.remove(requestId, this)) {
+                owner.size.decrementAndGet();
+            }
+            Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.fragment.io.netty.project.rpc;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量消息：一帧携带多个请求（或多个响应）
+ *
+ * 每个请求仍有自己的请求ID，服务端全部执行完后用一个批量响应返回，客户端按请求ID逐个完成。
+ * 一串小请求只需一次序列化（类描述信息只写一次）、一个帧头、一次系统调用。
+ *
+ * @author fragment
+ */
+public class RpcBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final RpcRequest[] requests;    // 批量请求时非空
+    private final RpcResponse[] responses;  // 批量响应时非空
+
+    private RpcBatch(RpcRequest[] requests, RpcResponse[] responses) {
+        this.requests = requests;
+        this.responses = responses;
+    }
+
+    public static RpcBatch ofRequests(List<RpcRequest> requests) {
+        return new RpcBatch(requests.toArray(new RpcRequest[0]), null);
+    }
+
+    public static RpcBatch ofResponses(RpcResponse[] responses) {
+        return new RpcBatch(null, responses);
+    }
+
+    public boolean isRequest() {
+        return requests != null;
+    }
+
+    public RpcRequest[] getRequests() {
+        return requests;
+    }
+
+    public RpcResponse[] getResponses() {
+        return responses;
+    }
+
+    @Override
+    public String toString() {
+        return "RpcBatch{" + (isRequest() ? "requests=" + requests.length : "responses=" + responses.length) + '}';
+    }
+}
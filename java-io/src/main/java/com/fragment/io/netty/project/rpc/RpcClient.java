@@ -1,91 +1,117 @@
 package com.fragment.io.netty.project.rpc;
 
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RPC客户端
  * 
  * 功能：
- * 1. 连接RPC服务端
+ * 1. 连接RPC服务端（可以连接多个节点，每个节点多条连接，见{@link ConnectionPool}）
  * 2. 发送RPC请求
  * 3. 接收RPC响应
  * 4. 提供动态代理
  * 
  * 使用方式：
- * 1. 创建RpcClient实例
- * 2. 连接服务器：connect(host, port)
+ * 1. 创建RpcClient实例：new RpcClient(每个节点的连接数)
+ * 2. 连接服务器：connect(host, port)，每个节点调用一次
  * 3. 创建代理：create(接口类)
  * 4. 调用方法：代理对象.方法()
  * 
+ * 请求按在途请求数选择连接，一条连接上同时有多个请求，响应按请求ID匹配；
+ * 请求ID是递增的long，编码时直接写成8字节。
+ * 
+ * 异步调用：sendAsync返回CompletableFuture，接口方法的返回类型是CompletableFuture/CompletionStage时
+ * 代理也不阻塞，直接返回future。future在收到响应的I/O线程上完成，回调里不要做阻塞操作
+ * （需要时用thenApplyAsync等换到自己的线程池）。超时由时间轮统一处理（{@link PendingRequests}）。
+ * 
+ * 小请求很多时：setFlushConsolidation合并多次调用的flush；sendBatchAsync把一组请求放进一帧（{@link RpcBatch}）。
+ * 
  * @author fragment
  * @date 2026-01-14
  */
 public class RpcClient {
     
-    private String host;
-    private int port;
-    private EventLoopGroup workerGroup;
-    private Channel channel;
-    private final Map<String, RpcFuture> futureMap = new ConcurrentHashMap<>();
+    private final ConnectionPool pool;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private volatile long timeoutMillis = 5000;
+    
+    public RpcClient() {
+        this(1);
+    }
+    
+    public RpcClient(int connectionsPerEndpoint) {
+        this.pool = new ConnectionPool(connectionsPerEndpoint);
+    }
     
     /**
-     * 连接服务器
+     * 连接服务器（添加一个节点），可以多次调用连接多个节点
      */
     public void connect(String host, int port) throws Exception {
-        this.host = host;
-        this.port = port;
-        this.workerGroup = new NioEventLoopGroup();
-        
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(workerGroup)
-            .channel(NioSocketChannel.class)
-            .option(ChannelOption.SO_KEEPALIVE, true)
-            .option(ChannelOption.TCP_NODELAY, true)
-            .handler(new ChannelInitializer<SocketChannel>() {
-                @Override
-                protected void initChannel(SocketChannel ch) {
-                    ch.pipeline()
-                        .addLast(new RpcEncoder(RpcRequest.class))
-                        .addLast(new RpcDecoder(RpcResponse.class))
-                        .addLast(new RpcClientHandler(futureMap));
-                }
-            });
-        
-        ChannelFuture future = bootstrap.connect(host, port).sync();
-        this.channel = future.channel();
+        pool.addEndpoint(host, port);
         System.out.println("RPC客户端连接成功: " + host + ":" + port);
     }
     
     /**
-     * 发送请求
+     * 调用超时时间（默认5秒），超时的请求从在途表中移除，future以TimeoutException失败
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * 合并flush（connect前设置），0表示每次调用都flush
+     */
+    public void setFlushConsolidation(int explicitFlushAfterFlushes) {
+        pool.setFlushConsolidation(explicitFlushAfterFlushes);
+    }
+    
+    /**
+     * 异步发送请求（请求ID由客户端分配），不阻塞调用方线程
+     */
+    public CompletableFuture<RpcResponse> sendAsync(RpcRequest request) {
+        request.setRequestId(nextRequestId.incrementAndGet());
+        ConnectionPool.PooledConnection connection;
+        try {
+            connection = pool.select();
+        } catch (RuntimeException e) {
+            CompletableFuture<RpcResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return connection.send(request, timeoutMillis);
+    }
+    
+    /**
+     * 批量发送：一组请求走同一条连接、编码进一帧，返回的future与requests一一对应；
+     * 没有可用连接时直接抛出异常
+     */
+    public List<CompletableFuture<RpcResponse>> sendBatchAsync(List<RpcRequest> requests) {
+        for (RpcRequest request : requests) {
+            request.setRequestId(nextRequestId.incrementAndGet());
+        }
+        return pool.select().sendBatch(requests, timeoutMillis);
+    }
+    
+    /**
+     * 同步发送请求，等待响应或超时
      */
     public RpcResponse send(RpcRequest request) throws Exception {
-        if (channel == null || !channel.isActive()) {
-            throw new RuntimeException("连接未建立或已断开");
+        try {
+            return sendAsync(request).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
         }
-        
-        // 创建Future
-        RpcFuture future = new RpcFuture();
-        futureMap.put(request.getRequestId(), future);
-        
-        // 发送请求
-        channel.writeAndFlush(request);
-        System.out.println("[客户端] 发送RPC请求: " + request);
-        
-        // 等待响应（超时5秒）
-        return future.get(5, TimeUnit.SECONDS);
     }
     
     /**
@@ -104,65 +130,10 @@ public class RpcClient {
      * 关闭客户端
      */
     public void close() {
-        if (channel != null) {
-            channel.close();
-        }
-        if (workerGroup != null) {
-            workerGroup.shutdownGracefully();
-        }
+        pool.close();
         System.out.println("RPC客户端已关闭");
     }
     
-    /**
-     * RPC客户端处理器
-     */
-    static class RpcClientHandler extends SimpleChannelInboundHandler<RpcResponse> {
-        
-        private final Map<String, RpcFuture> futureMap;
-        
-        public RpcClientHandler(Map<String, RpcFuture> futureMap) {
-            this.futureMap = futureMap;
-        }
-        
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, RpcResponse response) {
-            System.out.println("[客户端] 收到RPC响应: " + response);
-            
-            // 获取Future
-            RpcFuture future = futureMap.remove(response.getRequestId());
-            if (future != null) {
-                future.setResponse(response);
-            }
-        }
-        
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            System.err.println("[客户端] 异常: " + cause.getMessage());
-            cause.printStackTrace();
-            ctx.close();
-        }
-    }
-    
-    /**
-     * RPC Future
-     */
-    static class RpcFuture {
-        private RpcResponse response;
-        private CountDownLatch latch = new CountDownLatch(1);
-        
-        public void setResponse(RpcResponse response) {
-            this.response = response;
-            latch.countDown();
-        }
-        
-        public RpcResponse get(long timeout, TimeUnit unit) throws Exception {
-            if (latch.await(timeout, unit)) {
-                return response;
-            }
-            throw new RuntimeException("RPC调用超时");
-        }
-    }
-    
     /**
      * RPC动态代理
      */
@@ -170,21 +141,40 @@ public class RpcClient {
         
         private final RpcClient client;
         private final Class<?> interfaceClass;
+        private final Map<Method, Integer> methodIds = new HashMap<>();
         
         public RpcInvocationHandler(RpcClient client, Class<?> interfaceClass) {
             this.client = client;
             this.interfaceClass = interfaceClass;
+            // 方法ID在创建代理时算好，调用时只查表
+            for (Method method : interfaceClass.getMethods()) {
+                methodIds.put(method, MethodDispatcher.methodId(interfaceClass, method));
+            }
         }
         
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             // 创建RPC请求
             RpcRequest request = new RpcRequest();
-            request.setRequestId(UUID.randomUUID().toString().replace("-", "").substring(0, 16));
             request.setInterfaceName(interfaceClass.getName());
             request.setMethodName(method.getName());
             request.setParameterTypes(method.getParameterTypes());
             request.setParameters(args);
+            Integer methodId = methodIds.get(method);
+            if (methodId != null) {
+                request.setMethodId(methodId);
+            }
+            
+            // 异步方法直接返回future，服务端的异常以CompletionException的形式传给回调
+            Class<?> returnType = method.getReturnType();
+            if (returnType == CompletableFuture.class || returnType == CompletionStage.class) {
+                return client.sendAsync(request).thenApply(response -> {
+                    if (!response.isSuccess()) {
+                        throw new CompletionException(response.getError());
+                    }
+                    return response.getResult();
+                });
+            }
             
             // 发送请求并等待响应
             RpcResponse response = client.send(request);
@@ -202,10 +192,10 @@ public class RpcClient {
      */
     public static void main(String[] args) throws Exception {
         // 创建客户端
-        RpcClient client = new RpcClient();
+        RpcClient client = new RpcClient(2);
         
         try {
-            // 连接服务器
+            // 连接服务器（每个节点2条连接）
             client.connect("localhost", 8888);
             
             // 创建代理
@@ -218,6 +208,11 @@ public class RpcClient {
             int result2 = helloService.add(10, 20);
             System.out.println("\n[结果] 10 + 20 = " + result2);
             
+            // 异步调用：不阻塞当前线程，响应到达后在回调中处理
+            helloService.sayHelloAsync("Async")
+                .thenAccept(result3 -> System.out.println("\n[结果] " + result3))
+                .join();
+            
             // 等待一段时间
             Thread.sleep(1000);
             
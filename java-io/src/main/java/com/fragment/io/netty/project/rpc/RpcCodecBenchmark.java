@@ -0,0 +1,86 @@
+package com.fragment.io.netty.project.rpc;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RpcEncoder / RpcDecoder的JMH微基准：一个请求帧的编码、解码各要多少纳秒
+ *
+ * <p>编解码器直接调用，不经过pipeline（两者都不使用ctx）。消息体是Java序列化，
+ * 和{@code protocol.project.custom.ProtocolCodecBenchmark}对照着看。
+ *
+ * <p>启动方式：java RpcCodecBenchmark
+ *
+ * @author fragment
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RpcCodecBenchmark {
+
+    public interface EchoService {
+        byte[] echo(byte[] payload);
+    }
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private final RpcEncoder encoder = new RpcEncoder(RpcRequest.class);
+    private final RpcDecoder decoder = new RpcDecoder(RpcRequest.class);
+    private RpcRequest request;
+    private ByteBuf out;
+    private ByteBuf frame;
+    private final List<Object> decoded = new ArrayList<>(1);
+
+    @Setup
+    public void setup() throws Exception {
+        request = new RpcRequest();
+        request.setRequestId(1);
+        request.setInterfaceName(EchoService.class.getName());
+        request.setMethodName("echo");
+        request.setParameterTypes(new Class<?>[]{byte[].class});
+        request.setParameters(new Object[]{new byte[payloadSize]});
+        request.setMethodId(MethodDispatcher.methodId(EchoService.class,
+            EchoService.class.getMethod("echo", byte[].class)));
+
+        out = PooledByteBufAllocator.DEFAULT.heapBuffer(payloadSize * 2 + 1024);
+        frame = PooledByteBufAllocator.DEFAULT.heapBuffer(payloadSize * 2 + 1024);
+        encoder.encode(null, request, frame);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+        frame.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() throws Exception {
+        out.clear();
+        encoder.encode(null, request, out);
+        return out;
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        frame.readerIndex(0);
+        decoded.clear();
+        decoder.decode(null, frame, decoded);
+        return decoded.get(0);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RpcCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
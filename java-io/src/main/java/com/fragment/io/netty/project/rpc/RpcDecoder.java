@@ -60,6 +60,15 @@ public class RpcDecoder extends ByteToMessageDecoder {
             return;
         }
         
+        // BUSY响应没有数据
+        if (type == RpcEncoder.TYPE_BUSY) {
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(requestId);
+            response.setError(new ServiceBusyException("服务端繁忙，请求未执行"));
+            out.add(response);
+            return;
+        }
+        
         // 9. 读取数据
         byte[] data = new byte[dataLength];
         in.readBytes(data);
@@ -16,6 +16,9 @@ import java.io.ObjectOutputStream;
  * │ 2字节│1字节│1字节 │ 8字节  │4字节 │ N字节   │
  * └──────┴─────┴──────┴────────┴──────┴─────────┘
  * 
+ * BUSY响应（服务端隔舱已满）只有消息头，长度为0
+ * 批量请求/响应（{@link RpcBatch}）的请求ID为0，每个请求的ID在数据里
+ * 
  * @author fragment
  * @date 2026-01-14
  */
@@ -25,6 +28,9 @@ public class RpcEncoder extends MessageToByteEncoder<Object> {
     private static final byte VERSION = 0x01;
     private static final byte TYPE_REQUEST = 0x01;
     private static final byte TYPE_RESPONSE = 0x02;
+    static final byte TYPE_BUSY = 0x03;
+    private static final byte TYPE_BATCH_REQUEST = 0x04;
+    private static final byte TYPE_BATCH_RESPONSE = 0x05;
     
     private Class<?> genericClass;
     
@@ -34,7 +40,7 @@ public class RpcEncoder extends MessageToByteEncoder<Object> {
     
     @Override
     protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
-        if (genericClass.isInstance(msg)) {
+        if (genericClass.isInstance(msg) || msg instanceof RpcBatch) {
             // 1. 魔数
             out.writeShort(MAGIC_NUMBER);
             
@@ -42,14 +48,24 @@ public class RpcEncoder extends MessageToByteEncoder<Object> {
             out.writeByte(VERSION);
             
             // 3. 类型
-            byte type = msg instanceof RpcRequest ? TYPE_REQUEST : TYPE_RESPONSE;
+            boolean busy = msg instanceof RpcResponse && ((RpcResponse) msg).isBusy();
+            byte type;
+            if (msg instanceof RpcBatch) {
+                type = ((RpcBatch) msg).isRequest() ? TYPE_BATCH_REQUEST : TYPE_BATCH_RESPONSE;
+            } else {
+                type = msg instanceof RpcRequest ? TYPE_REQUEST : busy ? TYPE_BUSY : TYPE_RESPONSE;
+            }
             out.writeByte(type);
             
             // 4. 请求ID
-            String requestId = msg instanceof RpcRequest 
-                ? ((RpcRequest) msg).getRequestId()
-                : ((RpcResponse) msg).getRequestId();
-            out.writeLong(Long.parseLong(requestId));
+            long requestId = msg instanceof RpcRequest ? ((RpcRequest) msg).getRequestId()
+                : msg instanceof RpcResponse ? ((RpcResponse) msg).getRequestId() : 0;
+            out.writeLong(requestId);
+            
+            if (busy) {
+                out.writeInt(0);
+                return;
+            }
             
             // 5. 序列化数据
             byte[] data = serialize(msg);
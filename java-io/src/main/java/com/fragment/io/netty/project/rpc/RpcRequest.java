@@ -12,17 +12,18 @@ import java.util.Arrays;
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    private String requestId;           // 请求ID
+    private long requestId;             // 请求ID
     private String interfaceName;       // 接口名
     private String methodName;          // 方法名
     private Class<?>[] parameterTypes;  // 参数类型
     private Object[] parameters;        // 参数值
+    private int methodId;               // 方法ID（MethodDispatcher.methodId），0表示没有
     
-    public String getRequestId() {
+    public long getRequestId() {
         return requestId;
     }
     
-    public void setRequestId(String requestId) {
+    public void setRequestId(long requestId) {
         this.requestId = requestId;
     }
     
@@ -58,12 +59,21 @@ public class RpcRequest implements Serializable {
         this.parameters = parameters;
     }
     
+    public int getMethodId() {
+        return methodId;
+    }
+    
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
+    
     @Override
     public String toString() {
         return "RpcRequest{" +
-                "requestId='" + requestId + '\'' +
+                "requestId=" + requestId +
                 ", interfaceName='" + interfaceName + '\'' +
                 ", methodName='" + methodName + '\'' +
+                ", methodId=" + methodId +
                 ", parameterTypes=" + Arrays.toString(parameterTypes) +
                 ", parameters=" + Arrays.toString(parameters) +
                 '}';
@@ -11,15 +11,15 @@ import java.io.Serializable;
 public class RpcResponse implements Serializable {
     private static final long serialVersionUID = 1L;
     
-    private String requestId;    // 请求ID
+    private long requestId;      // 请求ID
     private Object result;       // 返回值
     private Throwable error;     // 异常信息
     
-    public String getRequestId() {
+    public long getRequestId() {
         return requestId;
     }
     
-    public void setRequestId(String requestId) {
+    public void setRequestId(long requestId) {
         this.requestId = requestId;
     }
     
@@ -43,10 +43,17 @@ public class RpcResponse implements Serializable {
         return error == null;
     }
     
+    /**
+     * 服务端隔舱已满、没有执行（编码成BUSY类型的帧，不带数据）
+     */
+    public boolean isBusy() {
+        return error instanceof ServiceBusyException;
+    }
+    
     @Override
     public String toString() {
         return "RpcResponse{" +
-                "requestId='" + requestId + '\'' +
+                "requestId=" + requestId +
                 ", result=" + result +
                 ", error=" + error +
                 '}';
@@ -6,21 +6,27 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
-import java.lang.reflect.Method;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * RPC服务端
  * 
  * 功能：
  * 1. 接收RPC请求
- * 2. 反射调用本地方法
- * 3. 返回执行结果
+ * 2. 按方法ID查派发表，用MethodHandle调用本地方法（{@link MethodDispatcher}）
+ * 3. 按服务的{@link ExecutionPolicy}在I/O线程内联执行，或交给服务的隔舱线程池；隔舱满时回BUSY
+ * 4. 返回执行结果；方法返回CompletableFuture/CompletionStage时，在它完成后再返回
+ * 5. 批量请求（{@link RpcBatch}）逐个派发，全部完成后用一个批量响应返回
  * 
  * 使用方式：
  * 1. 创建RpcServer实例
- * 2. 注册服务：registerService(接口类, 实现类实例)
+ * 2. 注册服务：registerService(接口类, 实现类实例[, 执行策略])
  * 3. 启动服务：start(端口)
  * 
  * @author fragment
@@ -28,16 +34,44 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class RpcServer {
     
-    private final Map<String, Object> serviceMap = new ConcurrentHashMap<>();
+    private final MethodDispatcher dispatcher = new MethodDispatcher();
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    private volatile boolean logEnabled = true;
     
     /**
-     * 注册服务
+     * 关闭日志（压测时每个请求打印两行会成为瓶颈），错误仍然输出
+     */
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+    
+    /**
+     * 注册服务：使用默认的隔舱（{@link ExecutionPolicy#defaultPolicy()}），不占用I/O线程
      */
     public void registerService(Class<?> interfaceClass, Object serviceImpl) {
-        serviceMap.put(interfaceClass.getName(), serviceImpl);
-        System.out.println("注册服务: " + interfaceClass.getName());
+        registerService(interfaceClass, serviceImpl, ExecutionPolicy.defaultPolicy());
+    }
+    
+    /**
+     * 注册服务，指定执行策略
+     */
+    public void registerService(Class<?> interfaceClass, Object serviceImpl, ExecutionPolicy policy) {
+        dispatcher.register(interfaceClass, serviceImpl, policy);
+        if (logEnabled) {
+            System.out.println("注册服务: " + interfaceClass.getName() + "，执行策略: " + policy);
+        }
+    }
+    
+    /**
+     * 每个方法的调用统计（排队时间、执行时间、拒绝次数）
+     */
+    public List<MethodStats> getMethodStats() {
+        List<MethodStats> stats = new ArrayList<>();
+        for (MethodDispatcher.Invoker invoker : dispatcher.getInvokers()) {
+            stats.add(invoker.getStats());
+        }
+        return stats;
     }
     
     /**
@@ -60,13 +94,15 @@ public class RpcServer {
                         ch.pipeline()
                             .addLast(new RpcDecoder(RpcRequest.class))
                             .addLast(new RpcEncoder(RpcResponse.class))
-                            .addLast(new RpcServerHandler(serviceMap));
+                            .addLast(new RpcServerHandler(dispatcher, logEnabled));
                     }
                 });
             
             ChannelFuture future = bootstrap.bind(port).sync();
-            System.out.println("RPC服务端启动成功，端口: " + port);
-            System.out.println("已注册服务: " + serviceMap.keySet());
+            if (logEnabled) {
+                System.out.println("RPC服务端启动成功，端口: " + port);
+                System.out.println("已注册服务: " + dispatcher.getServiceNames());
+            }
             
             future.channel().closeFuture().sync();
         } finally {
@@ -84,55 +120,115 @@ public class RpcServer {
         if (workerGroup != null) {
             workerGroup.shutdownGracefully();
         }
-        System.out.println("RPC服务端已关闭");
+        dispatcher.shutdown();
+        if (logEnabled) {
+            System.out.println("RPC服务端已关闭");
+        }
     }
     
     /**
      * RPC服务端处理器
      */
-    static class RpcServerHandler extends SimpleChannelInboundHandler<RpcRequest> {
+    static class RpcServerHandler extends SimpleChannelInboundHandler<Object> {
         
-        private final Map<String, Object> serviceMap;
+        private final MethodDispatcher dispatcher;
+        private final boolean logEnabled;
         
-        public RpcServerHandler(Map<String, Object> serviceMap) {
-            this.serviceMap = serviceMap;
+        public RpcServerHandler(MethodDispatcher dispatcher, boolean logEnabled) {
+            this.dispatcher = dispatcher;
+            this.logEnabled = logEnabled;
         }
         
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, RpcRequest request) {
-            System.out.println("\n[服务端] 收到RPC请求: " + request);
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof RpcRequest) {
+                handle((RpcRequest) msg, ctx::writeAndFlush);
+            } else if (msg instanceof RpcBatch && ((RpcBatch) msg).isRequest()) {
+                RpcRequest[] requests = ((RpcBatch) msg).getRequests();
+                BatchReply reply = new BatchReply(ctx, requests.length);
+                for (int i = 0; i < requests.length; i++) {
+                    int slot = i;
+                    handle(requests[i], response -> reply.set(slot, response));
+                }
+            }
+        }
+        
+        private void handle(RpcRequest request, Consumer<RpcResponse> done) {
+            if (logEnabled) {
+                System.out.println("\n[服务端] 收到RPC请求: " + request);
+            }
             
-            RpcResponse response = new RpcResponse();
-            response.setRequestId(request.getRequestId());
+            // 1. 查派发表（按方法ID一次数组查找）
+            MethodDispatcher.Invoker invoker = dispatcher.find(request);
+            if (invoker == null) {
+                RpcResponse response = new RpcResponse();
+                response.setRequestId(request.getRequestId());
+                response.setError(new RuntimeException("服务或方法不存在: " + request.getInterfaceName() + 
+                    "." + request.getMethodName()));
+                done.accept(response);
+                return;
+            }
             
+            // 2. 内联执行，或交给服务的隔舱；隔舱满了立刻回BUSY，不在I/O线程上等
+            Bulkhead bulkhead = invoker.getBulkhead();
+            if (bulkhead == null) {
+                invoke(invoker, request, System.nanoTime(), done);
+                return;
+            }
+            long enqueueTime = System.nanoTime();
+            if (!bulkhead.tryExecute(() -> invoke(invoker, request, enqueueTime, done))) {
+                invoker.getStats().recordRejected();
+                RpcResponse response = new RpcResponse();
+                response.setRequestId(request.getRequestId());
+                response.setError(new ServiceBusyException("服务繁忙: " + bulkhead));
+                done.accept(response);
+            }
+        }
+        
+        /**
+         * 调用目标方法（目标方法抛出的异常原样返回给客户端），记录排队和执行时间
+         * 
+         * <p>异步方法返回的CompletionStage完成后才写响应，等待期间不占用I/O线程或隔舱线程；
+         * 执行时间记到它完成为止。
+         */
+        private void invoke(MethodDispatcher.Invoker invoker, RpcRequest request, long enqueueTime,
+                            Consumer<RpcResponse> done) {
+            long startTime = System.nanoTime();
+            Object result;
             try {
-                // 1. 获取服务实例
-                Object serviceBean = serviceMap.get(request.getInterfaceName());
-                if (serviceBean == null) {
-                    throw new RuntimeException("服务不存在: " + request.getInterfaceName());
-                }
-                
-                // 2. 获取方法
-                Method method = serviceBean.getClass().getMethod(
-                    request.getMethodName(),
-                    request.getParameterTypes()
-                );
-                
-                // 3. 反射调用
-                Object result = method.invoke(serviceBean, request.getParameters());
-                
-                // 4. 设置返回值
+                result = invoker.invoke(request.getParameters());
+            } catch (Throwable e) {
+                reply(invoker, request, null, e, enqueueTime, startTime, done);
+                return;
+            }
+            if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).whenComplete((value, error) ->
+                    reply(invoker, request, value, unwrap(error), enqueueTime, startTime, done));
+            } else {
+                reply(invoker, request, result, null, enqueueTime, startTime, done);
+            }
+        }
+        
+        private void reply(MethodDispatcher.Invoker invoker, RpcRequest request, Object result,
+                           Throwable error, long enqueueTime, long startTime, Consumer<RpcResponse> done) {
+            invoker.getStats().record(startTime - enqueueTime, System.nanoTime() - startTime);
+            RpcResponse response = new RpcResponse();
+            response.setRequestId(request.getRequestId());
+            if (error == null) {
                 response.setResult(result);
-                System.out.println("[服务端] 执行成功，返回结果: " + result);
-                
-            } catch (Exception e) {
-                System.err.println("[服务端] 执行失败: " + e.getMessage());
-                e.printStackTrace();
-                response.setError(e);
+                if (logEnabled) {
+                    System.out.println("[服务端] 执行成功，返回结果: " + result);
+                }
+            } else {
+                System.err.println("[服务端] 执行失败: " + error.getMessage());
+                error.printStackTrace();
+                response.setError(error);
             }
-            
-            // 5. 返回响应
-            ctx.writeAndFlush(response);
+            done.accept(response);
+        }
+        
+        private static Throwable unwrap(Throwable error) {
+            return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
         }
         
         @Override
@@ -150,19 +246,47 @@ public class RpcServer {
         // 创建服务端
         RpcServer server = new RpcServer();
         
-        // 注册服务
-        server.registerService(HelloService.class, new HelloServiceImpl());
+        // 注册服务：add很快，留在I/O线程；其他方法走4个线程的隔舱
+        server.registerService(HelloService.class, new HelloServiceImpl(),
+            ExecutionPolicy.bulkhead(4, 64).inlineMethods("add"));
         
         // 启动服务
         server.start(8888);
     }
     
+    /**
+     * 批量请求的响应收集：各请求可能在I/O线程、隔舱线程或异步完成，最后一个完成时写出批量响应
+     */
+    static class BatchReply {
+        private final ChannelHandlerContext ctx;
+        private final RpcResponse[] responses;
+        private final AtomicInteger remaining;
+        
+        BatchReply(ChannelHandlerContext ctx, int size) {
+            this.ctx = ctx;
+            this.responses = new RpcResponse[size];
+            this.remaining = new AtomicInteger(size);
+            if (size == 0) {
+                ctx.writeAndFlush(RpcBatch.ofResponses(responses));
+            }
+        }
+        
+        void set(int slot, RpcResponse response) {
+            // 先写数组元素再递减，最后递减到0的线程能看到所有元素
+            responses[slot] = response;
+            if (remaining.decrementAndGet() == 0) {
+                ctx.writeAndFlush(RpcBatch.ofResponses(responses));
+            }
+        }
+    }
+    
     /**
      * 测试服务接口
      */
     public interface HelloService {
         String sayHello(String name);
         int add(int a, int b);
+        CompletableFuture<String> sayHelloAsync(String name);
     }
     
     /**
@@ -178,5 +302,10 @@ public class RpcServer {
         public int add(int a, int b) {
             return a + b;
         }
+        
+        @Override
+        public CompletableFuture<String> sayHelloAsync(String name) {
+            return CompletableFuture.supplyAsync(() -> "Hello, " + name + "! (async)");
+        }
     }
 }
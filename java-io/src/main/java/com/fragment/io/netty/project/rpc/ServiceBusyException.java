@@ -0,0 +1,16 @@
+package com.fragment.io.netty.project.rpc;
+
+/**
+ * 服务端隔舱已满，请求没有执行（服务端回的是BUSY响应）
+ *
+ * <p>和超时不同，收到这个异常时可以确定方法没有执行过，换个节点重试是安全的。
+ *
+ * @author fragment
+ */
+public class ServiceBusyException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ServiceBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,293 @@
+package com.fragment.io.netty.project.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天室房间：成员按EventLoop分片，消息只编码一次
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：全局ChannelGroup广播时每个接收者new一个TextWebSocketFrame，
+ *       编码器再给每个接收者各编码一遍帧头、拷贝一遍内容，房间越大CPU和内存越多？
+ *       解决：广播时把消息直接编码成一个完整的WebSocket文本帧（服务端发出的帧不加掩码，
+ *       所有接收者的字节完全相同），每个接收者写这个ByteBuf的retainedDuplicate，只共享不拷贝；
+ *       写出的是ByteBuf，WebSocket编码器直接放行</li>
+ *   <li>问题2：ChannelGroup在GlobalEventExecutor上，writeAndFlush对每个接收者都是一次跨线程提交？
+ *       解决：房间的成员按所在EventLoop分片，广播时每个有成员的EventLoop只提交一个任务，
+ *       由它给自己的成员逐个write，最后统一flush；分片只在自己的EventLoop上访问，不加锁</li>
+ *   <li>问题3：只有一个全局的"房间"，用户多了所有消息发给所有人？
+ *       解决：房间是独立的对象，按名字创建；一个连接同一时间在一个房间里；
+ *       最后一个成员离开时删除房间，随便起名的房间不会一直留在表里</li>
+ *   <li>问题4：慢客户端读不过来，每条广播都堆进它的出站缓冲区？
+ *       解决：和PushEngine一样看Channel.isWritable()，不可写时这条消息不发给它（聊天消息不能合并，只能丢）；
+ *       连续丢了{@link #MAX_DROPPED_FRAMES}条还没恢复可写，断开这个连接</li>
+ * </ul>
+ *
+ * <p>{@link #join}、{@link #leave}应在Channel自己的EventLoop上调用（ChannelHandler里直接调用即可）。
+ * 只有握手完成的连接才能加入房间，否则预编码的帧会被HTTP编码器拒绝。
+ *
+ * @author fragment
+ * @date 2026-01-14
+ */
+public class ChatRooms {
+
+    public static final String LOBBY = "大厅";
+
+    /** 连续丢弃这么多条广播后断开慢连接 */
+    public static final int MAX_DROPPED_FRAMES = 256;
+
+    private static final AttributeKey<Member> MEMBER = AttributeKey.valueOf("chatRoomMember");
+
+    private final ByteBufAllocator alloc;
+    private final EventLoop[] loops;
+    private final Map<EventExecutor, Integer> loopIndex = new IdentityHashMap<>();
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final LongAdder droppedFrames = new LongAdder();
+    private final LongAdder slowDisconnects = new LongAdder();
+
+    public ChatRooms(EventLoopGroup workerGroup, ByteBufAllocator alloc) {
+        this.alloc = alloc;
+        List<EventLoop> list = new ArrayList<>();
+        for (EventExecutor executor : workerGroup) {
+            loopIndex.put(executor, list.size());
+            list.add((EventLoop) executor);
+        }
+        this.loops = list.toArray(new EventLoop[0]);
+    }
+
+    /**
+     * 按名字查找房间，没有人在的房间不存在，返回null
+     */
+    public Room room(String name) {
+        return rooms.get(name);
+    }
+
+    public Collection<Room> rooms() {
+        return rooms.values();
+    }
+
+    /**
+     * 当前所在的房间，不在任何房间时返回null
+     */
+    public Room roomOf(Channel channel) {
+        Member member = channel.attr(MEMBER).get();
+        return member == null ? null : member.room;
+    }
+
+    /**
+     * 加入房间（先离开当前房间），返回加入的房间
+     */
+    public Room join(Channel channel, String name) {
+        leave(channel);
+        // 在compute里加入，和leave删除空房间互斥：不会加进一个刚被删掉的房间
+        return rooms.compute(name, (key, room) -> {
+            if (room == null) {
+                room = new Room(key);
+            }
+            Member member = new Member(channel, room);
+            channel.attr(MEMBER).set(member);
+            room.shard(channel).add(member);
+            return room;
+        });
+    }
+
+    /**
+     * 离开当前房间，返回离开的房间（不在任何房间时返回null）
+     */
+    public Room leave(Channel channel) {
+        Member member = channel.attr(MEMBER).getAndSet(null);
+        if (member == null) {
+            return null;
+        }
+        Room room = member.room;
+        room.shard(channel).remove(member);
+        rooms.computeIfPresent(room.name, (key, current) -> current == room && current.size() == 0 ? null : current);
+        return room;
+    }
+
+    /**
+     * 因为接收者不可写而没发出去的广播条数
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * 因为连续不可写被断开的连接数
+     */
+    public long getSlowDisconnects() {
+        return slowDisconnects.sum();
+    }
+
+    /**
+     * 把文本编码成一个完整的、不加掩码的WebSocket文本帧（FIN=1，opcode=1）
+     */
+    public static ByteBuf encodeTextFrame(ByteBufAllocator alloc, String text) {
+        int length = ByteBufUtil.utf8Bytes(text);
+        ByteBuf frame = alloc.directBuffer(length + 10);
+        frame.writeByte(0x81);
+        if (length < 126) {
+            frame.writeByte(length);
+        } else if (length <= 0xFFFF) {
+            frame.writeByte(126);
+            frame.writeShort(length);
+        } else {
+            frame.writeByte(127);
+            frame.writeLong(length);
+        }
+        ByteBufUtil.writeUtf8(frame, text);
+        return frame;
+    }
+
+    /**
+     * 一个房间：每个EventLoop一个成员分片
+     */
+    public final class Room {
+        private final String name;
+        private final Shard[] shards;
+
+        Room(String name) {
+            this.name = name;
+            this.shards = new Shard[loops.length];
+            for (int i = 0; i < loops.length; i++) {
+                shards[i] = new Shard(loops[i]);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int size() {
+            int size = 0;
+            for (Shard shard : shards) {
+                size += shard.size.get();
+            }
+            return size;
+        }
+
+        /**
+         * 广播给房间里除exclude以外的所有成员，可以在任意线程调用
+         */
+        public void broadcast(String text, Channel exclude) {
+            ByteBuf frame = encodeTextFrame(alloc, text);
+            try {
+                for (Shard shard : shards) {
+                    if (shard.size.get() > 0) {
+                        ByteBuf shared = frame.retainedDuplicate();
+                        shard.loop.execute(() -> shard.fanOut(shared, exclude));
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        Shard shard(Channel channel) {
+            Integer index = loopIndex.get(channel.eventLoop());
+            if (index == null) {
+                throw new IllegalStateException("Channel不属于聊天室的EventLoopGroup: " + channel);
+            }
+            return shards[index];
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + size() + "人)";
+        }
+    }
+
+    /**
+     * 房间在一个EventLoop上的成员，members只在这个EventLoop上访问
+     */
+    final class Shard {
+        final EventLoop loop;
+        final AtomicInteger size = new AtomicInteger();
+        private final List<Member> members = new ArrayList<>();
+
+        Shard(EventLoop loop) {
+            this.loop = loop;
+        }
+
+        void add(Member member) {
+            member.position = members.size();
+            members.add(member);
+            size.incrementAndGet();
+        }
+
+        /**
+         * 和最后一个交换后删除，O(1)
+         */
+        void remove(Member member) {
+            Member last = members.remove(members.size() - 1);
+            if (last != member) {
+                members.set(member.position, last);
+                last.position = member.position;
+            }
+            size.decrementAndGet();
+        }
+
+        void fanOut(ByteBuf frame, Channel exclude) {
+            try {
+                for (int i = 0, n = members.size(); i < n; i++) {
+                    Member member = members.get(i);
+                    Channel channel = member.channel;
+                    if (channel == exclude || !channel.isActive()) {
+                        continue;
+                    }
+                    if (channel.isWritable()) {
+                        member.dropped = 0;
+                        channel.write(frame.retainedDuplicate(), channel.voidPromise());
+                    } else {
+                        droppedFrames.increment();
+                        if (++member.dropped == MAX_DROPPED_FRAMES) {
+                            // 关闭事件稍后才触发，由处理器leave，这里不改members
+                            slowDisconnects.increment();
+                            channel.close();
+                        }
+                    }
+                }
+                for (int i = 0, n = members.size(); i < n; i++) {
+                    Channel channel = members.get(i).channel;
+                    if (channel != exclude) {
+                        channel.flush();
+                    }
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * 一个连接在房间里的位置
+     */
+    static final class Member {
+        final Channel channel;
+        final Room room;
+        int position;
+        // 连续因为不可写而丢弃的广播条数
+        int dropped;
+
+        Member(Channel channel, Room room) {
+            this.channel = channel;
+            this.room = room;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.fragment.io.netty.project.websocket;
 
+import com.fragment.io.netty.project.push.ConnectionRegistry;
+import com.fragment.io.netty.project.websocket.ChatRooms.Room;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
@@ -12,10 +13,8 @@ import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
-import io.netty.util.concurrent.GlobalEventExecutor;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 
 /**
  * WebSocket聊天室服务器
@@ -26,6 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * 3. 支持查看在线用户
  * 4. 支持私聊
  * 5. 消息广播
+ * 6. 多房间（{@link ChatRooms}，消息只编码一次、由各EventLoop广播）
  * 
  * 使用方式：
  * 1. 启动服务器：运行main方法
@@ -33,7 +33,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * 3. 设置用户名：/name 用户名
  * 4. 查看在线用户：/list
  * 5. 私聊：/to 用户名 消息内容
- * 6. 群聊：直接输入消息
+ * 6. 切换房间：/join 房间名，查看房间：/rooms
+ * 7. 群聊：直接输入消息（发给当前房间）
  * 
  * @author fragment
  * @date 2026-01-14
@@ -45,6 +46,8 @@ public class WebSocketChatServer {
     public static void main(String[] args) throws Exception {
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
+        ChatRooms rooms = new ChatRooms(workerGroup, PooledByteBufAllocator.DEFAULT);
+        ConnectionRegistry registry = new ConnectionRegistry();
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
@@ -61,7 +64,7 @@ public class WebSocketChatServer {
                             // WebSocket支持
                             .addLast(new WebSocketServerProtocolHandler("/ws"))
                             // 聊天处理器
-                            .addLast(new ChatServerHandler());
+                            .addLast(new ChatServerHandler(rooms, registry));
                     }
                 });
             
@@ -83,43 +86,50 @@ public class WebSocketChatServer {
      */
     static class ChatServerHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
         
-        // 存储所有连接的Channel
-        private static final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        private final ChatRooms rooms;
+        // 用户名和Channel的映射
+        private final ConnectionRegistry registry;
         
-        // 存储用户名和Channel的映射
-        private static final Map<String, Channel> userChannelMap = new ConcurrentHashMap<>();
-        private static final Map<Channel, String> channelUserMap = new ConcurrentHashMap<>();
+        ChatServerHandler(ChatRooms rooms, ConnectionRegistry registry) {
+            this.rooms = rooms;
+            this.registry = registry;
+        }
         
         @Override
-        public void handlerAdded(ChannelHandlerContext ctx) {
-            Channel channel = ctx.channel();
-            String channelId = channel.id().asShortText();
-            
-            // 通知所有用户有新用户加入
-            String message = String.format("[系统] 新用户加入：%s (在线人数：%d)", 
-                channelId, channels.size() + 1);
-            channels.writeAndFlush(new TextWebSocketFrame(message));
-            
-            // 添加到Channel组
-            channels.add(channel);
-            
-            System.out.println(message);
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+                // 握手完成后才加入房间，之前的连接还是HTTP
+                Channel channel = ctx.channel();
+                registry.register(channel);
+                Room room = rooms.join(channel, ChatRooms.LOBBY);
+                
+                // 通知房间里的其他用户有新用户加入
+                String message = String.format("[系统] 新用户加入：%s (%s在线人数：%d)", 
+                    channel.id().asShortText(), room.getName(), room.size());
+                room.broadcast(message, channel);
+                
+                System.out.println(message);
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
         }
         
         @Override
         public void handlerRemoved(ChannelHandlerContext ctx) {
             Channel channel = ctx.channel();
-            String username = channelUserMap.remove(channel);
+            String username = registry.userOf(channel);
+            registry.unregister(channel);
             
-            if (username != null) {
-                userChannelMap.remove(username);
+            Room room = rooms.leave(channel);
+            if (room == null) {
+                return;
             }
             
-            // 通知所有用户有用户离开
+            // 通知房间里的用户有用户离开
             String displayName = username != null ? username : channel.id().asShortText();
-            String message = String.format("[系统] 用户离开：%s (在线人数：%d)", 
-                displayName, channels.size());
-            channels.writeAndFlush(new TextWebSocketFrame(message));
+            String message = String.format("[系统] 用户离开：%s (%s在线人数：%d)", 
+                displayName, room.getName(), room.size());
+            room.broadcast(message, null);
             
             System.out.println(message);
         }
@@ -137,11 +147,15 @@ public class WebSocketChatServer {
             if (text.startsWith("/")) {
                 handleCommand(ctx, text);
             } else {
-                // 群聊消息
+                // 群聊消息，发给当前房间
+                Room room = rooms.roomOf(channel);
+                if (room == null) {
+                    return;
+                }
                 String username = getUserName(channel);
                 String message = String.format("[%s] %s", username, text);
-                channels.writeAndFlush(new TextWebSocketFrame(message));
-                System.out.println(message);
+                room.broadcast(message, null);
+                System.out.println("[" + room.getName() + "] " + message);
             }
         }
         
@@ -160,39 +174,57 @@ public class WebSocketChatServer {
                     return;
                 }
                 
-                if (userChannelMap.containsKey(newUsername)) {
+                // 设置新用户名（替换旧用户名）
+                if (!registry.bindUser(channel, newUsername)) {
                     ctx.writeAndFlush(new TextWebSocketFrame("[系统] 用户名已存在"));
                     return;
                 }
                 
-                // 移除旧用户名
-                String oldUsername = channelUserMap.get(channel);
-                if (oldUsername != null) {
-                    userChannelMap.remove(oldUsername);
-                }
-                
-                // 设置新用户名
-                userChannelMap.put(newUsername, channel);
-                channelUserMap.put(channel, newUsername);
-                
                 ctx.writeAndFlush(new TextWebSocketFrame("[系统] 用户名设置为：" + newUsername));
                 
-                // 通知其他用户
+                // 通知房间里的其他用户
                 String message = String.format("[系统] %s 加入聊天室", newUsername);
-                channels.stream()
-                    .filter(ch -> ch != channel)
-                    .forEach(ch -> ch.writeAndFlush(new TextWebSocketFrame(message)));
+                Room room = rooms.roomOf(channel);
+                if (room != null) {
+                    room.broadcast(message, channel);
+                }
                 
                 System.out.println(message);
                 
+            } else if (text.startsWith("/join ")) {
+                // 切换房间
+                String roomName = text.substring(6).trim();
+                if (roomName.isEmpty()) {
+                    ctx.writeAndFlush(new TextWebSocketFrame("[系统] 房间名不能为空"));
+                    return;
+                }
+                
+                String username = getUserName(channel);
+                Room oldRoom = rooms.leave(channel);
+                if (oldRoom != null) {
+                    oldRoom.broadcast(String.format("[系统] %s 去了房间 %s", username, roomName), null);
+                }
+                Room room = rooms.join(channel, roomName);
+                room.broadcast(String.format("[系统] %s 进入房间 %s (房间人数：%d)", 
+                    username, roomName, room.size()), null);
+                
+            } else if (text.equals("/rooms")) {
+                // 列出房间
+                StringBuilder sb = new StringBuilder("[系统] 房间列表：\n");
+                for (Room room : rooms.rooms()) {
+                    sb.append(room).append("\n");
+                }
+                ctx.writeAndFlush(new TextWebSocketFrame(sb.toString().trim()));
+                
             } else if (text.equals("/list")) {
                 // 列出在线用户
                 StringBuilder sb = new StringBuilder("[系统] 在线用户列表：\n");
                 int index = 1;
-                for (String username : userChannelMap.keySet()) {
+                List<String> users = registry.users();
+                for (String username : users) {
                     sb.append(index++).append(". ").append(username).append("\n");
                 }
-                sb.append("总计：").append(userChannelMap.size()).append(" 人");
+                sb.append("总计：").append(users.size()).append(" 人");
                 ctx.writeAndFlush(new TextWebSocketFrame(sb.toString()));
                 
             } else if (text.startsWith("/to ")) {
@@ -206,7 +238,7 @@ public class WebSocketChatServer {
                 String targetUser = parts[0].trim();
                 String message = parts[1].trim();
                 
-                Channel targetChannel = userChannelMap.get(targetUser);
+                Channel targetChannel = registry.channelOf(targetUser);
                 if (targetChannel == null) {
                     ctx.writeAndFlush(new TextWebSocketFrame("[系统] 用户不存在：" + targetUser));
                     return;
@@ -226,6 +258,8 @@ public class WebSocketChatServer {
                     "[系统] 未知命令。可用命令：\n" +
                     "/name 用户名 - 设置用户名\n" +
                     "/list - 查看在线用户\n" +
+                    "/join 房间 - 切换房间\n" +
+                    "/rooms - 查看房间\n" +
                     "/to 用户名 消息 - 私聊"));
             }
         }
@@ -234,7 +268,7 @@ public class WebSocketChatServer {
          * 获取用户名
          */
         private String getUserName(Channel channel) {
-            String username = channelUserMap.get(channel);
+            String username = registry.userOf(channel);
             return username != null ? username : channel.id().asShortText();
         }
         
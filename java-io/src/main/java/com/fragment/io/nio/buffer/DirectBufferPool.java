@@ -0,0 +1,220 @@
+package com.fragment.io.nio.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 直接内存Buffer池（按Selector线程分Arena的Slab分配器）
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：每个连接常驻一个8KB读Buffer + 若干写Buffer，10万个空闲长连接就是GB级内存？
+ *       解决：Buffer只在一次读/写进行期间借出，读写完成立即归还，空闲连接不持有任何Buffer</li>
+ *   <li>问题2：堆内Buffer每次read/write都要被JDK拷贝到临时直接内存？
+ *       解决：池中都是直接内存，Socket读写不再发生堆到直接内存的拷贝</li>
+ *   <li>问题3：allocateDirect()很慢，而且直接内存要等GC才释放？
+ *       解决：一次申请一整块Slab（默认256KB），按固定的大小等级切成slice()复用，Slab从不归还</li>
+ *   <li>问题4：多个Selector线程共享一个池需要加锁？
+ *       解决：每个Selector线程持有自己的{@link Arena}，Arena只被所属线程访问，借还都无锁</li>
+ * </ul>
+ *
+ * <p>大小等级为512B、1KB … 64KB（2的幂），申请大小向上取整到最近的等级；
+ * 超过最大等级的申请直接allocateDirect，归还时丢弃，不进入池。
+ *
+ * <p>使用约定：
+ * <pre>
+ * DirectBufferPool pool = new DirectBufferPool();
+ * DirectBufferPool.Arena arena = pool.newArena();   // 每个Selector线程一个
+ *
+ * ByteBuffer buffer = arena.acquire(8192);
+ * try {
+ *     channel.read(buffer);
+ *     ...
+ * } finally {
+ *     arena.release(buffer);                        // 必须由同一个线程归还
+ * }
+ * </pre>
+ *
+ * @author fragment
+ */
+public class DirectBufferPool {
+
+    public static final int MIN_SIZE_CLASS = 512;
+    public static final int MAX_SIZE_CLASS = 64 * 1024;
+    public static final int DEFAULT_SLAB_SIZE = 256 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE_CLASS);
+    private static final int SIZE_CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_SIZE_CLASS) - MIN_SHIFT + 1;
+
+    private final int slabSize;
+    private final List<Arena> arenas = new CopyOnWriteArrayList<>();
+
+    public DirectBufferPool() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize 每次向操作系统申请的直接内存块大小，至少为最大大小等级
+     */
+    public DirectBufferPool(int slabSize) {
+        if (slabSize < MAX_SIZE_CLASS) {
+            throw new IllegalArgumentException("slabSize must be >= " + MAX_SIZE_CLASS + ": " + slabSize);
+        }
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * 为一个Selector线程创建Arena
+     */
+    public Arena newArena() {
+        Arena arena = new Arena();
+        arenas.add(arena);
+        return arena;
+    }
+
+    /**
+     * 当前借出的字节数（按大小等级计算）
+     */
+    public long getInUseBytes() {
+        long total = 0;
+        for (Arena arena : arenas) {
+            total += arena.inUseBytes;
+        }
+        return total;
+    }
+
+    /**
+     * 借出字节数的峰值（各Arena峰值之和，是全局峰值的上界）
+     */
+    public long getHighWaterBytes() {
+        long total = 0;
+        for (Arena arena : arenas) {
+            total += arena.highWaterBytes;
+        }
+        return total;
+    }
+
+    /**
+     * 已向操作系统申请的Slab字节数（池占用的直接内存）
+     */
+    public long getReservedBytes() {
+        long total = 0;
+        for (Arena arena : arenas) {
+            total += arena.reservedBytes;
+        }
+        return total;
+    }
+
+    public String getStats() {
+        long acquires = 0;
+        long unpooled = 0;
+        for (Arena arena : arenas) {
+            acquires += arena.acquireCount;
+            unpooled += arena.unpooledCount;
+        }
+        return String.format("DirectBufferPool[arenas=%d, inUse=%d bytes, highWater=%d bytes, " +
+                        "reserved=%d bytes, acquires=%d, unpooled=%d]",
+                arenas.size(), getInUseBytes(), getHighWaterBytes(), getReservedBytes(), acquires, unpooled);
+    }
+
+    private static int sizeClassIndex(int size) {
+        if (size <= MIN_SIZE_CLASS) {
+            return 0;
+        }
+        // 向上取整到2的幂
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * 一个Selector线程私有的分配区：每个大小等级一条空闲链表，空闲链表为空时切一块新的Slab
+     *
+     * <p>Arena不是线程安全的，借出和归还必须在所属的Selector线程中进行；
+     * 统计字段只由所属线程写入，声明为volatile供其它线程读取。
+     */
+    public final class Arena {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayDeque<ByteBuffer>[] freeLists = new ArrayDeque[SIZE_CLASS_COUNT];
+
+        private volatile long inUseBytes;
+        private volatile long highWaterBytes;
+        private volatile long reservedBytes;
+        private volatile long acquireCount;
+        private volatile long unpooledCount;
+
+        private Arena() {
+            for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+                freeLists[i] = new ArrayDeque<>();
+            }
+        }
+
+        /**
+         * 借出一个容量不小于size的直接内存Buffer（position=0，limit=capacity）
+         */
+        public ByteBuffer acquire(int size) {
+            acquireCount++;
+
+            if (size > MAX_SIZE_CLASS) {
+                unpooledCount++;
+                return ByteBuffer.allocateDirect(size);
+            }
+
+            int index = sizeClassIndex(size);
+            ArrayDeque<ByteBuffer> freeList = freeLists[index];
+            ByteBuffer buffer = freeList.pollLast();
+            if (buffer == null) {
+                carveSlab(index);
+                buffer = freeList.pollLast();
+            }
+
+            long inUse = inUseBytes + buffer.capacity();
+            inUseBytes = inUse;
+            if (inUse > highWaterBytes) {
+                highWaterBytes = inUse;
+            }
+
+            buffer.clear();
+            return buffer;
+        }
+
+        /**
+         * 归还Buffer；null和超过最大等级的Buffer会被忽略
+         */
+        public void release(ByteBuffer buffer) {
+            if (buffer == null || buffer.capacity() > MAX_SIZE_CLASS) {
+                return;
+            }
+
+            int index = sizeClassIndex(buffer.capacity());
+            inUseBytes -= buffer.capacity();
+            // 后进先出：刚归还的Buffer最可能还在CPU缓存中
+            freeLists[index].addLast(buffer);
+        }
+
+        /**
+         * 申请一块Slab并按大小等级切片
+         */
+        private void carveSlab(int index) {
+            int classSize = MIN_SIZE_CLASS << index;
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+            reservedBytes += slabSize;
+
+            for (int offset = 0; offset + classSize <= slabSize; offset += classSize) {
+                slab.limit(offset + classSize).position(offset);
+                freeLists[index].addLast(slab.slice());
+            }
+        }
+
+        /**
+         * Selector线程退出时调用：丢弃空闲链表，Slab随GC释放
+         */
+        public void close() {
+            for (ArrayDeque<ByteBuffer> freeList : freeLists) {
+                freeList.clear();
+            }
+            reservedBytes = 0;
+            arenas.remove(this);
+        }
+    }
+}
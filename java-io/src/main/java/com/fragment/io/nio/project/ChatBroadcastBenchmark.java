@@ -0,0 +1,234 @@
+package com.fragment.io.nio.project;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 聊天室广播扇出测试（回环地址）
+ *
+ * <p>测试内容：
+ * <ul>
+ *   <li>一个成员连续发送消息，统计所有正常成员收到的消息数，计算广播/秒和投递/秒</li>
+ *   <li>一部分成员把接收缓冲区调小后从不读取，模拟卡住的客户端，
+ *       分别在DROP、COALESCE、DISCONNECT策略下检查正常成员的吞吐和慢客户端计数</li>
+ * </ul>
+ *
+ * <p>每条测试消息带{@value #PAYLOAD_SIZE}个'#'，接收线程按'#'的个数换算收到的消息数，
+ * 登录、加入等系统消息不影响计数。发送者最多领先正常成员{@value #IN_FLIGHT}条消息，
+ * 保证被丢弃、合并或断开的只是卡住的成员，而不是跟不上的接收线程；
+ * 卡住的成员要积压超过内核发送缓冲区（回环地址上可自动增长到4MB）之后，服务端的发送队列才开始增长。
+ *
+ * <p>启动方式：java ChatBroadcastBenchmark [成员数] [卡住的成员数] [消息数]
+ *
+ * @author fragment
+ */
+public class ChatBroadcastBenchmark {
+
+    private static final int BASE_PORT = 18480;
+    private static final int PAYLOAD_SIZE = 900;          // 聊天室一行消息不超过1KB
+    private static final int STALLED_RCVBUF = 4096;
+    private static final int OUTBOUND_LIMIT = 64 * 1024;
+    private static final int IN_FLIGHT = 32;            // 正常成员最多落后的消息数，远小于发送队列上限
+    private static final long IDLE_LIMIT_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int stalled = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 8000;
+
+        System.out.println("=== 聊天室广播扇出测试 ===");
+        System.out.println("成员: " + members + ", 卡住的成员: " + stalled + ", 消息: " + messages + "\n");
+
+        int port = BASE_PORT;
+        System.out.println("--- 没有卡住的成员 ---");
+        run(port++, NIOChatServer.SlowConsumerPolicy.COALESCE, members, 0, messages);
+
+        for (NIOChatServer.SlowConsumerPolicy policy : NIOChatServer.SlowConsumerPolicy.values()) {
+            System.out.println("\n--- " + stalled + " 个卡住的成员, 策略 " + policy + " ---");
+            run(port++, policy, members, stalled, messages);
+        }
+    }
+
+    private static void run(int port, NIOChatServer.SlowConsumerPolicy policy,
+                            int members, int stalled, int messages) throws Exception {
+        NIOChatServer server = new NIOChatServer();
+        server.setLogEnabled(false);
+        server.setOutboundLimit(OUTBOUND_LIMIT, policy);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "chat-server-" + policy);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        NIOServerBenchmark.awaitPort(port);
+
+        Receiver receiver = new Receiver();
+        Thread receiverThread = new Thread(receiver, "chat-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+
+        List<SocketChannel> all = new ArrayList<>(members);
+        SocketChannel sender = null;
+        int active = members - stalled;
+        for (int i = 0; i < members; i++) {
+            SocketChannel channel = SocketChannel.open();
+            boolean isStalled = i >= active;
+            if (isStalled) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, STALLED_RCVBUF);
+            }
+            channel.connect(new InetSocketAddress("localhost", port));
+            channel.write(ByteBuffer.wrap(("m" + i + "\n").getBytes(StandardCharsets.UTF_8)));
+            all.add(channel);
+            if (!isStalled) {
+                channel.configureBlocking(false);
+                receiver.register(channel);
+            }
+            if (i == 0) {
+                sender = channel;
+            }
+        }
+        while (server.getClientCount() < members) {
+            Thread.sleep(10);
+        }
+        receiver.awaitQuiet(500);
+
+        // 发送测试消息：发送者自己也会收到广播，所以由接收线程读它的Socket
+        byte[] line = new byte[PAYLOAD_SIZE + 1];
+        Arrays.fill(line, (byte) '#');
+        line[PAYLOAD_SIZE] = '\n';
+        long expected = (long) messages * active;
+        long start = System.nanoTime();
+        ByteBuffer out = ByteBuffer.allocate(line.length);
+        long inFlightBytes = (long) IN_FLIGHT * active * PAYLOAD_SIZE;
+        for (int i = 0; i < messages; i++) {
+            if (!receiver.awaitPayload((long) i * active * PAYLOAD_SIZE - inFlightBytes)) {
+                break;
+            }
+            out.clear();
+            out.put(line).flip();
+            while (out.hasRemaining()) {
+                if (sender.write(out) == 0) {
+                    Thread.yield();
+                }
+            }
+        }
+        boolean complete = receiver.awaitPayload(expected * PAYLOAD_SIZE);
+        long elapsed = System.nanoTime() - start;
+
+        long delivered = receiver.payloadBytes.get() / PAYLOAD_SIZE;
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format("耗时 %.2f s, 广播 %.0f 条/s, 投递 %.0f 条/s, 正常成员收到 %d / %d%s",
+                seconds, messages / seconds, delivered / seconds, delivered, expected,
+                complete ? "" : "  <-- 未收全"));
+        System.out.println(server.getSlowConsumerStats() + ", 服务端在线连接: " + server.getClientCount());
+
+        receiver.stop();
+        for (SocketChannel channel : all) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 单线程读取所有正常成员的Socket，统计收到的'#'个数
+     */
+    private static class Receiver implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong payloadBytes = new AtomicLong();
+        private volatile long lastReadTime = System.nanoTime();
+        private volatile boolean running = true;
+
+        Receiver() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+            try {
+                while (running) {
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ);
+                    }
+                    selector.select(100);
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        buffer.clear();
+                        int n;
+                        try {
+                            n = ((SocketChannel) key.channel()).read(buffer);
+                        } catch (IOException e) {
+                            n = -1;
+                        }
+                        if (n < 0) {
+                            key.cancel();
+                            continue;
+                        }
+                        long hashes = 0;
+                        for (int i = 0; i < n; i++) {
+                            if (buffer.get(i) == '#') {
+                                hashes++;
+                            }
+                        }
+                        payloadBytes.addAndGet(hashes);
+                        lastReadTime = System.nanoTime();
+                    }
+                }
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * 等到连续quietMillis没有收到数据（登录阶段的系统消息收完）
+         */
+        void awaitQuiet(long quietMillis) throws InterruptedException {
+            while (System.nanoTime() - lastReadTime < quietMillis * 1_000_000L) {
+                Thread.sleep(20);
+            }
+        }
+
+        /**
+         * 等到收齐，或者IDLE_LIMIT_MILLIS毫秒没有进展
+         */
+        boolean awaitPayload(long expectedBytes) throws InterruptedException {
+            while (payloadBytes.get() < expectedBytes) {
+                if (System.nanoTime() - lastReadTime > IDLE_LIMIT_MILLIS * 1_000_000L) {
+                    return false;
+                }
+                Thread.sleep(1);
+            }
+            return true;
+        }
+
+        void stop() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+}
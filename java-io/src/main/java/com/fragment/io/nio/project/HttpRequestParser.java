@@ -0,0 +1,377 @@
+package com.fragment.io.nio.project;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 增量式HTTP请求头解析器（状态机）
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>直接在会话的读Buffer上扫描字节，不再逐字节拷贝到StringBuilder</li>
+ *   <li>请求被拆成多次read()到达时，从上次停下的位置和状态继续解析，已扫描的字节不会重复扫描</li>
+ *   <li>请求行和Header只记录在Buffer中的起止下标，不生成String</li>
+ *   <li>只有处理器真正用到的字段（如URI、某个Header）才会被解码成String</li>
+ * </ul>
+ *
+ * <p>Buffer约定：读Buffer始终处于"写模式"，有效数据位于[0, position)，
+ * 解析器使用绝对下标访问，不修改Buffer的position/limit。
+ * 一个请求处理完后，调用{@link #reset(int) reset(requestEnd())}即可在同一个Buffer中
+ * 继续解析下一个流水线请求；调用方丢弃Buffer头部已处理的字节后，用{@link #shift(int)}修正下标。
+ *
+ * <p>请求带Body时（Content-Length），调用方在reset之后用{@link #skipBody(long)}告诉解析器跳过这么多字节，
+ * 解析器先把Body消耗掉（可以跨多次read），再从Body之后解析下一个请求，Body不会被当成请求行。
+ *
+ * @author fragment
+ */
+public class HttpRequestParser {
+
+    /** 请求头尚未完整，需要继续读取 */
+    public static final int INCOMPLETE = 0;
+    /** 请求头已完整 */
+    public static final int COMPLETE = 1;
+    /** 请求格式错误 */
+    public static final int BAD_REQUEST = 2;
+
+    public static final int MAX_HEADERS = 64;
+
+    private static final int S_METHOD = 0;
+    private static final int S_URI = 1;
+    private static final int S_VERSION = 2;
+    private static final int S_REQUEST_LINE_LF = 3;
+    private static final int S_HEADER_START = 4;
+    private static final int S_HEADER_NAME = 5;
+    private static final int S_HEADER_VALUE_START = 6;
+    private static final int S_HEADER_VALUE = 7;
+    private static final int S_HEADER_LF = 8;
+    private static final int S_FINAL_LF = 9;
+    private static final int S_DONE = 10;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+
+    private ByteBuffer buffer;
+    private int state = S_METHOD;
+    private int pos;
+
+    private int methodStart;
+    private int methodEnd;
+    private int uriStart;
+    private int uriEnd;
+    private int versionStart;
+    private int versionEnd;
+
+    // 每个Header占4个int：nameStart, nameEnd, valueStart, valueEnd
+    private final int[] headers = new int[MAX_HEADERS * 4];
+    private int headerCount;
+    private int requestEnd;
+    // 还要跳过的请求Body字节数，reset()不清零：Buffer被归还后重新借出时接着跳
+    private long bodyRemaining;
+
+    /**
+     * 从上次停下的位置继续解析
+     *
+     * @param buffer 写模式的读Buffer，有效数据位于[0, position)
+     * @return {@link #INCOMPLETE}、{@link #COMPLETE} 或 {@link #BAD_REQUEST}
+     */
+    public int parse(ByteBuffer buffer) {
+        this.buffer = buffer;
+        int limit = buffer.position();
+
+        while (pos < limit) {
+            if (bodyRemaining > 0) {
+                int n = (int) Math.min(bodyRemaining, limit - pos);
+                pos += n;
+                bodyRemaining -= n;
+                // 跳过的字节和已处理的请求一样可以从Buffer头部丢弃
+                methodStart = pos;
+                continue;
+            }
+            byte b = buffer.get(pos);
+
+            switch (state) {
+                case S_METHOD:
+                    if (b == SP) {
+                        if (pos == methodStart) {
+                            return BAD_REQUEST;
+                        }
+                        methodEnd = pos;
+                        uriStart = pos + 1;
+                        state = S_URI;
+                    } else if (b == CR || b == LF) {
+                        return BAD_REQUEST;
+                    }
+                    break;
+
+                case S_URI:
+                    if (b == SP) {
+                        if (pos == uriStart) {
+                            return BAD_REQUEST;
+                        }
+                        uriEnd = pos;
+                        versionStart = pos + 1;
+                        state = S_VERSION;
+                    } else if (b == CR || b == LF) {
+                        return BAD_REQUEST;
+                    }
+                    break;
+
+                case S_VERSION:
+                    if (b == CR || b == LF) {
+                        versionEnd = pos;
+                        state = b == CR ? S_REQUEST_LINE_LF : S_HEADER_START;
+                    }
+                    break;
+
+                case S_REQUEST_LINE_LF:
+                case S_HEADER_LF:
+                    if (b != LF) {
+                        return BAD_REQUEST;
+                    }
+                    state = S_HEADER_START;
+                    break;
+
+                case S_HEADER_START:
+                    if (b == CR) {
+                        state = S_FINAL_LF;
+                    } else if (b == LF) {
+                        return complete(pos + 1);
+                    } else {
+                        if (headerCount == MAX_HEADERS) {
+                            return BAD_REQUEST;
+                        }
+                        headers[headerCount * 4] = pos;
+                        state = S_HEADER_NAME;
+                    }
+                    break;
+
+                case S_HEADER_NAME:
+                    if (b == ':') {
+                        headers[headerCount * 4 + 1] = trimEnd(headers[headerCount * 4], pos);
+                        state = S_HEADER_VALUE_START;
+                    } else if (b == CR || b == LF) {
+                        return BAD_REQUEST;
+                    }
+                    break;
+
+                case S_HEADER_VALUE_START:
+                    if (b == SP || b == HT) {
+                        break;
+                    }
+                    headers[headerCount * 4 + 2] = pos;
+                    state = S_HEADER_VALUE;
+                    // 当前字节可能就是行尾（空值），交给S_HEADER_VALUE处理
+                    continue;
+
+                case S_HEADER_VALUE:
+                    if (b == CR || b == LF) {
+                        int base = headerCount * 4;
+                        headers[base + 3] = trimEnd(headers[base + 2], pos);
+                        headerCount++;
+                        state = b == CR ? S_HEADER_LF : S_HEADER_START;
+                    }
+                    break;
+
+                case S_FINAL_LF:
+                    if (b != LF) {
+                        return BAD_REQUEST;
+                    }
+                    return complete(pos + 1);
+
+                default:
+                    return COMPLETE;
+            }
+            pos++;
+        }
+
+        return state == S_DONE ? COMPLETE : INCOMPLETE;
+    }
+
+    private int complete(int end) {
+        pos = end;
+        requestEnd = end;
+        state = S_DONE;
+        return COMPLETE;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start) {
+            byte b = buffer.get(end - 1);
+            if (b != SP && b != HT) {
+                break;
+            }
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * 请求头结束位置（\r\n\r\n之后的第一个字节）
+     */
+    public int requestEnd() {
+        return requestEnd;
+    }
+
+    /**
+     * 当前请求在Buffer中的起始位置
+     */
+    public int requestStart() {
+        return methodStart;
+    }
+
+    /**
+     * 丢弃当前请求，准备从Buffer开头解析下一个请求
+     */
+    public void reset() {
+        reset(0);
+    }
+
+    /**
+     * 丢弃当前请求，准备从指定位置解析下一个请求（HTTP流水线）
+     */
+    public void reset(int start) {
+        state = S_METHOD;
+        pos = start;
+        methodStart = start;
+        headerCount = 0;
+        requestEnd = start;
+    }
+
+    /**
+     * 在下一个请求之前先跳过length字节的请求Body（在reset之后调用）
+     */
+    public void skipBody(long length) {
+        bodyRemaining = length;
+    }
+
+    /**
+     * Content-Length的值；没有这个Header时返回-1，不是合法的非负整数时返回-2
+     */
+    public long contentLength() {
+        int index = indexOfHeader("Content-Length");
+        if (index < 0) {
+            return -1;
+        }
+        int start = headers[index * 4 + 2];
+        int end = headers[index * 4 + 3];
+        if (start == end || end - start > 18) {
+            return -2;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                return -2;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    public boolean hasHeader(String name) {
+        return indexOfHeader(name) >= 0;
+    }
+
+    /**
+     * 调用方从Buffer头部丢弃了count个字节（compact）后，把已记录的下标整体前移
+     */
+    public void shift(int count) {
+        pos -= count;
+        methodStart -= count;
+        methodEnd -= count;
+        uriStart -= count;
+        uriEnd -= count;
+        versionStart -= count;
+        versionEnd -= count;
+        requestEnd -= count;
+        // 包括正在解析、尚未计入headerCount的那个Header
+        int used = Math.min(headers.length, (headerCount + 1) * 4);
+        for (int i = 0; i < used; i++) {
+            headers[i] -= count;
+        }
+    }
+
+    public boolean methodEquals(String method) {
+        return regionEqualsIgnoreCase(methodStart, methodEnd, method);
+    }
+
+    public String method() {
+        return decode(methodStart, methodEnd);
+    }
+
+    public String uri() {
+        return decode(uriStart, uriEnd);
+    }
+
+    public String version() {
+        return decode(versionStart, versionEnd);
+    }
+
+    public boolean versionEquals(String version) {
+        return regionEqualsIgnoreCase(versionStart, versionEnd, version);
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * 获取Header值（名称不区分大小写），只有调用时才生成String
+     */
+    public String header(String name) {
+        int index = indexOfHeader(name);
+        if (index < 0) {
+            return null;
+        }
+        return decode(headers[index * 4 + 2], headers[index * 4 + 3]);
+    }
+
+    /**
+     * 判断Header值是否等于给定值（均不区分大小写），不产生任何对象
+     */
+    public boolean headerEqualsIgnoreCase(String name, String value) {
+        int index = indexOfHeader(name);
+        return index >= 0 && regionEqualsIgnoreCase(headers[index * 4 + 2], headers[index * 4 + 3], value);
+    }
+
+    private int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(headers[i * 4], headers[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            int a = buffer.get(start + i);
+            int b = s.charAt(i);
+            if (a != b && toLower(a) != toLower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.ISO_8859_1);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
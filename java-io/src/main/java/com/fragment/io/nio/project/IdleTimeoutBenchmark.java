@@ -0,0 +1,299 @@
+package com.fragment.io.nio.project;
+
+import com.fragment.io.nio.timer.HashedTimingWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * 空闲/半开连接超时测试（回环地址）
+ *
+ * <p>测试内容：
+ * <ul>
+ *   <li>时间轮容量：挂100万个定时器的内存占用、schedule和expire耗时，对比ScheduledThreadPoolExecutor</li>
+ *   <li>NIOHttpServer：建立大量连接后直接丢弃（不发数据、只发半个请求头、请求一次后空闲、请求大文件后不读），
+ *       检查所有连接是否按读空闲、写停滞、Keep-Alive超时被回收</li>
+ *   <li>NIOFileServer：空闲连接、上传到一半停住、下载后不读</li>
+ *   <li>NIOChatServer：连上不登录、登录后发半行消息</li>
+ * </ul>
+ *
+ * <p>服务端超时被调成1~2秒；客户端Socket一直不关闭，模拟对端掉线但没有FIN的半开连接。
+ *
+ * <p>启动方式：java IdleTimeoutBenchmark [每个服务器的连接数] [时间轮定时器数]
+ *
+ * @author fragment
+ */
+public class IdleTimeoutBenchmark {
+
+    private static final int HTTP_PORT = 18380;
+    private static final int FILE_PORT = 18390;
+    private static final int CHAT_PORT = 18391;
+
+    private static final long READ_IDLE = 1000;
+    private static final long WRITE_STALL = 1000;
+    private static final long KEEP_ALIVE = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int timers = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        System.out.println("=== 空闲连接超时测试 ===\n");
+
+        System.out.println("--- 时间轮容量测试 ---");
+        testTimingWheelCapacity(timers);
+
+        System.out.println("\n--- NIOHttpServer 丢弃连接回收 ---");
+        testHttpServer(connections);
+
+        System.out.println("\n--- NIOFileServer 丢弃连接回收 ---");
+        testFileServer(connections);
+
+        System.out.println("\n--- NIOChatServer 丢弃连接回收 ---");
+        testChatServer(connections);
+
+        System.out.println("\n=== 测试完成 ===");
+        System.exit(0);
+    }
+
+    /**
+     * 挂满N个定时器，统计内存和耗时；再用ScheduledThreadPoolExecutor挂同样数量的任务对比内存
+     */
+    private static void testTimingWheelCapacity(int timers) throws Exception {
+        HashedTimingWheel<Node> wheel = new HashedTimingWheel<>(100, 1024);
+
+        long before = usedMemory();
+        Node[] nodes = new Node[timers];
+        for (int i = 0; i < timers; i++) {
+            nodes[i] = new Node();
+        }
+        long start = System.nanoTime();
+        long now = wheel.now();
+        for (int i = 0; i < timers; i++) {
+            // 截止时间分散在未来60秒内，超过一圈（102.4秒之内）
+            wheel.schedule(nodes[i], now + 1000 + (i % 60_000));
+        }
+        long scheduleNanos = System.nanoTime() - start;
+        long wheelBytes = usedMemory() - before;
+
+        // 模拟活跃连接续期：全部重挂一次
+        start = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            wheel.schedule(nodes[i], now + 2000 + (i % 60_000));
+        }
+        long rescheduleNanos = System.nanoTime() - start;
+
+        // 推进到所有定时器到期
+        int[] expired = {0};
+        start = System.nanoTime();
+        wheel.expire(now + 70_000, node -> expired[0]++);
+        long expireNanos = System.nanoTime() - start;
+
+        System.out.println("定时器数: " + timers + ", 到期: " + expired[0] + ", 剩余: " + wheel.size());
+        System.out.println(String.format("%-32s %8.1f B/个", "时间轮（会话继承Timeout）内存", (double) wheelBytes / timers));
+        System.out.println(String.format("%-32s %8.1f ns/个", "schedule", (double) scheduleNanos / timers));
+        System.out.println(String.format("%-32s %8.1f ns/个", "重新schedule（续期）", (double) rescheduleNanos / timers));
+        System.out.println(String.format("%-32s %8.1f ns/个", "expire（推进700格）", (double) expireNanos / timers));
+        nodes = null;
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        before = usedMemory();
+        List<ScheduledFuture<?>> futures = new ArrayList<>(timers);
+        long futureListBytes = (long) timers * 4;
+        Runnable task = () -> { };
+        start = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            futures.add(executor.schedule(task, 60_000 + (i % 60_000), TimeUnit.MILLISECONDS));
+        }
+        long executorNanos = System.nanoTime() - start;
+        long executorBytes = usedMemory() - before - futureListBytes;
+        System.out.println(String.format("%-32s %8.1f B/个", "ScheduledFuture内存（不含会话）", (double) executorBytes / timers));
+        System.out.println(String.format("%-32s %8.1f ns/个", "ScheduledThreadPoolExecutor.schedule", (double) executorNanos / timers));
+        executor.shutdownNow();
+        futures.clear();
+    }
+
+    private static final class Node extends HashedTimingWheel.Timeout {
+    }
+
+    private static void testHttpServer(int connections) throws Exception {
+        Path webRoot = Files.createTempDirectory("nio-idle-webroot");
+        Files.write(webRoot.resolve("index.html"), "<html><body>idle</body></html>".getBytes(StandardCharsets.UTF_8));
+        // 超过缓存上限的大文件走transferTo，客户端不读时触发写停滞
+        Files.write(webRoot.resolve("big.bin"), new byte[8 * 1024 * 1024]);
+
+        NIOHttpServer server = new NIOHttpServer(webRoot.toString(), 0);
+        server.setLogEnabled(false);
+        server.setTimeouts(READ_IDLE, WRITE_STALL, KEEP_ALIVE);
+        startDaemon("http-server-idle", () -> server.start(HTTP_PORT));
+        NIOServerBenchmark.awaitPort(HTTP_PORT);
+
+        byte[] full = request("/index.html");
+        byte[] partial = "GET /index.html HTTP/1.1\r\nHost: loc".getBytes(StandardCharsets.US_ASCII);
+        byte[] big = request("/big.bin");
+
+        List<SocketChannel> abandoned = new ArrayList<>(connections);
+        NIOServerBenchmark.ResponseReader reader = new NIOServerBenchmark.ResponseReader();
+        int stalled = Math.min(20, connections / 4);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", HTTP_PORT));
+            abandoned.add(channel);
+            if (i < stalled) {
+                channel.write(ByteBuffer.wrap(big));            // 写停滞
+            } else if (i % 3 == 0) {
+                channel.write(ByteBuffer.wrap(partial));        // 读空闲（半个请求头）
+            } else if (i % 3 == 1) {
+                channel.write(ByteBuffer.wrap(full));           // Keep-Alive空闲
+                reader.readResponse(channel);
+                reader = new NIOServerBenchmark.ResponseReader();
+            }
+            // 其余连接什么也不发：读空闲
+        }
+
+        awaitDrained("NIOHttpServer", connections, server::getConnectionCount);
+        System.out.println(server.getTimeoutStats());
+
+        server.stop();
+        closeAll(abandoned);
+        try (Stream<Path> files = Files.list(webRoot)) {
+            files.forEach(path -> path.toFile().delete());
+        }
+        Files.delete(webRoot);
+    }
+
+    private static void testFileServer(int connections) throws Exception {
+        Path bigFile = Paths.get(NIOFileServer.FILE_DIR, "idle-timeout-test.bin");
+        Files.createDirectories(bigFile.getParent());
+        Files.write(bigFile, new byte[8 * 1024 * 1024]);
+
+        NIOFileServer server = new NIOFileServer();
+        server.setLogEnabled(false);
+        server.setTimeouts(READ_IDLE, WRITE_STALL, KEEP_ALIVE);
+        startDaemon("file-server-idle", () -> server.start(FILE_PORT));
+        NIOServerBenchmark.awaitPort(FILE_PORT);
+
+        List<SocketChannel> abandoned = new ArrayList<>(connections);
+        List<Path> uploads = new ArrayList<>();
+        int special = Math.min(20, connections / 4);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", FILE_PORT));
+            abandoned.add(channel);
+            if (i < special) {
+                // 下载后不读：写停滞
+                channel.write(ByteBuffer.wrap("DOWNLOAD|idle-timeout-test.bin\n".getBytes(StandardCharsets.UTF_8)));
+            } else if (i < special * 2) {
+                // 上传声明1MB，只发一半命令就停住：读空闲
+                String name = "idle-upload-" + i + ".bin";
+                uploads.add(Paths.get(NIOFileServer.FILE_DIR, name));
+                channel.write(ByteBuffer.wrap(("UPLOAD|" + name + "|1048576\n").getBytes(StandardCharsets.UTF_8)));
+            } else if (i % 2 == 0) {
+                channel.write(ByteBuffer.wrap("LI".getBytes(StandardCharsets.UTF_8)));   // 半行命令
+            }
+            // 其余连接只收了欢迎消息：空闲超时
+        }
+
+        awaitDrained("NIOFileServer", connections, server::getSessionCount);
+        System.out.println("Timeouts[total=" + server.getTimeoutCount() + "]");
+
+        closeAll(abandoned);
+        Files.deleteIfExists(bigFile);
+        for (Path upload : uploads) {
+            Files.deleteIfExists(upload);
+        }
+    }
+
+    private static void testChatServer(int connections) throws Exception {
+        NIOChatServer server = new NIOChatServer();
+        server.setLogEnabled(false);
+        server.setTimeouts(READ_IDLE, WRITE_STALL, KEEP_ALIVE);
+        startDaemon("chat-server-idle", () -> server.start(CHAT_PORT));
+        NIOServerBenchmark.awaitPort(CHAT_PORT);
+
+        List<SocketChannel> abandoned = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", CHAT_PORT));
+            abandoned.add(channel);
+            if (i % 2 == 0) {
+                // 登录后发半行消息；另一半连上后从不登录
+                channel.write(ByteBuffer.wrap(("user" + i + "\nhel").getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        awaitDrained("NIOChatServer", connections, server::getClientCount);
+        System.out.println("Timeouts[total=" + server.getTimeoutCount() + "]");
+
+        closeAll(abandoned);
+    }
+
+    /**
+     * 等待服务端连接数降为0，打印耗时
+     */
+    private static void awaitDrained(String name, int connections, IntSupplier openConnections)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        int initial = openConnections.getAsInt();
+        long limit = start + TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE * 5 + 5000);
+        int open;
+        while ((open = openConnections.getAsInt()) > 0 && System.nanoTime() < limit) {
+            Thread.sleep(50);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format("%s: 丢弃连接 %d, 开始等待时服务端连接 %d, 剩余 %d, 全部回收耗时 %d ms%s",
+                name, connections, initial, open, elapsed, open == 0 ? "" : "  <-- 未回收完"));
+    }
+
+    private static byte[] request(String uri) {
+        return ("GET " + uri + " HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private interface ServerStarter {
+        void start() throws IOException;
+    }
+
+    private static void startDaemon(String name, ServerStarter starter) {
+        Thread thread = new Thread(() -> {
+            try {
+                starter.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeAll(List<SocketChannel> channels) {
+        for (SocketChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // 服务端已经关闭
+            }
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -1,5 +1,8 @@
 package com.fragment.io.nio.project;
 
+import com.fragment.io.nio.buffer.DirectBufferPool;
+import com.fragment.io.nio.timer.HashedTimingWheel;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -12,6 +15,7 @@ import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * NIO聊天室服务器（实战项目）
@@ -36,6 +40,16 @@ import java.util.concurrent.ConcurrentHashMap;
  *       解决：使用换行符作为消息分隔符，每个Channel维护独立的Buffer</li>
  *   <li>问题4：如何优雅地处理客户端断开？
  *       解决：捕获异常，清理资源，通知其他用户</li>
+ *   <li>问题5：大量在线但不说话的用户，每人常驻一个读Buffer？
+ *       解决：读写Buffer从{@link DirectBufferPool}借出，读完一整行、写完一条消息后立即归还</li>
+ *   <li>问题6：客户端断网后TCP连接成了半开连接，用户一直显示在线？
+ *       解决：{@link HashedTimingWheel}由select(timeout)驱动：未登录或半行消息看读空闲，
+ *       登录后长时间不说话看空闲超时，超时后按正常退出通知其他用户</li>
+ *   <li>问题7：广播时每个接收者都重新编码一次，而且在Selector线程里同步写，一个不读数据的客户端就卡住整个聊天室？
+ *       解决：消息只编码一次到共享的直接内存（{@link SharedMessage}，引用计数归还到池），
+ *       写不完的部分进入每个客户端的有界发送队列，由OP_WRITE事件继续发送；
+ *       队列超过上限的慢客户端按{@link SlowConsumerPolicy}丢弃、合并或断开，并分别计数，
+ *       发送队列长时间没有进展则按写停滞超时断开</li>
  * </ul>
  * 
  * @author fragment
@@ -45,6 +59,36 @@ public class NIOChatServer {
     private static final int DEFAULT_PORT = 8888;
     private static final Charset CHARSET = StandardCharsets.UTF_8;
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("HH:mm:ss");
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 1024;
+    private static final int MAX_GATHER = 16;       // 一次聚集写最多的消息数
+    
+    // 超时时间（毫秒）
+    private long readIdleTimeout = 60_000;          // 未登录或半行消息：等待后续数据
+    private long writeStallTimeout = 30_000;        // 发送队列非空且一直发不出去
+    private long keepAliveTimeout = 30 * 60_000;    // 登录后不说话的时间
+    
+    /**
+     * 慢客户端（发送队列超过上限）的处理策略
+     */
+    public enum SlowConsumerPolicy {
+        /** 丢弃发给它的新消息 */
+        DROP,
+        /** 丢弃队列中最旧的消息腾出空间，恢复后提示省略了多少条 */
+        COALESCE,
+        /** 断开连接 */
+        DISCONNECT
+    }
+    
+    // 发送队列
+    private volatile int maxQueuedBytes = 256 * 1024;   // 每个客户端排队的最大字节数
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private volatile long droppedCount;
+    private volatile long coalescedCount;
+    private volatile long slowDisconnectCount;
+    private final List<ClientInfo> pendingDisconnects = new ArrayList<>();
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
     
     private Selector selector;
     private ServerSocketChannel serverChannel;
@@ -54,6 +98,18 @@ public class NIOChatServer {
     
     // 用户名索引：用户名 -> Channel
     private Map<String, SocketChannel> usernameIndex = new ConcurrentHashMap<>();
+    
+    // 单Selector线程，只需要一个Arena
+    private final DirectBufferPool bufferPool = new DirectBufferPool();
+    private final DirectBufferPool.Arena arena = bufferPool.newArena();
+    
+    // 超时管理：由事件循环驱动，无需定时线程
+    private final HashedTimingWheel<ClientInfo> timingWheel =
+            new HashedTimingWheel<>(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+    private final Consumer<ClientInfo> timeoutHandler = this::onTimeout;
+    private long now;
+    private volatile long timeoutCount;
+    private volatile boolean logEnabled = true;
 
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
@@ -88,9 +144,10 @@ public class NIOChatServer {
         System.out.println("╚════════════════════════════════════════╝");
         System.out.println();
         
-        // 事件循环
+        // 事件循环：最多阻塞到时间轮的下一格
         while (true) {
-            selector.select();
+            selector.select(timingWheel.millisUntilNextTick(timingWheel.now()));
+            now = timingWheel.now();
             
             Set<SelectionKey> selectedKeys = selector.selectedKeys();
             Iterator<SelectionKey> iterator = selectedKeys.iterator();
@@ -106,15 +163,72 @@ public class NIOChatServer {
                     
                     if (key.isAcceptable()) {
                         handleAccept(key);
-                    } else if (key.isReadable()) {
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        handleWrite(key);
+                    }
+                    if (key.isValid() && key.isReadable()) {
                         handleRead(key);
                     }
                 } catch (IOException e) {
                     handleException(key, e);
                 }
             }
+            
+            timingWheel.expire(now, timeoutHandler);
+            disconnectPending();
         }
     }
+    
+    /**
+     * 设置超时时间（毫秒），需在start()之前调用
+     */
+    public void setTimeouts(long readIdleTimeout, long writeStallTimeout, long keepAliveTimeout) {
+        this.readIdleTimeout = readIdleTimeout;
+        this.writeStallTimeout = writeStallTimeout;
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+    
+    /**
+     * 设置每个客户端发送队列的上限，以及超过上限时的处理策略
+     */
+    public void setOutboundLimit(int maxQueuedBytes, SlowConsumerPolicy policy) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.slowConsumerPolicy = policy;
+    }
+    
+    /**
+     * 慢客户端处理计数
+     */
+    public String getSlowConsumerStats() {
+        return String.format("SlowConsumers[dropped=%d, coalesced=%d, disconnected=%d]",
+                droppedCount, coalescedCount, slowDisconnectCount);
+    }
+    
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+    
+    public long getSlowDisconnectCount() {
+        return slowDisconnectCount;
+    }
+    
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+    
+    public int getClientCount() {
+        return clients.size();
+    }
+    
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
 
     /**
      * 处理连接事件
@@ -125,17 +239,25 @@ public class NIOChatServer {
         
         if (clientChannel != null) {
             clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
+            SelectionKey clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
             
             // 创建客户端信息
-            ClientInfo clientInfo = new ClientInfo(clientChannel);
+            ClientInfo clientInfo = new ClientInfo(clientChannel, arena);
+            clientInfo.key = clientKey;
             clients.put(clientChannel, clientInfo);
+            clientInfo.lastActivityTime = now;
+            scheduleTimeout(clientInfo);
             
             String address = clientChannel.getRemoteAddress().toString();
             log("新客户端连接: " + address);
             
-            // 发送欢迎消息
-            sendWelcomeMessage(clientChannel);
+            // 发送欢迎消息（客户端连上即断开时只关闭这个连接，不能让异常落到监听Channel上）
+            try {
+                sendWelcomeMessage(clientChannel);
+            } catch (IOException e) {
+                log("发送欢迎消息失败: " + e.getMessage());
+                handleClientDisconnect(clientChannel);
+            }
         }
     }
 
@@ -150,7 +272,7 @@ public class NIOChatServer {
             return;
         }
         
-        ByteBuffer buffer = clientInfo.getReadBuffer();
+        ByteBuffer buffer = clientInfo.acquireReadBuffer();
         int bytesRead = clientChannel.read(buffer);
         
         if (bytesRead == -1) {
@@ -159,7 +281,13 @@ public class NIOChatServer {
             return;
         }
         
+        if (bytesRead == 0) {
+            clientInfo.releaseDrainedReadBuffer();
+            return;
+        }
+        
         if (bytesRead > 0) {
+            clientInfo.lastActivityTime = now;
             buffer.flip();
             
             // 处理接收到的数据（可能包含多条消息）
@@ -177,8 +305,9 @@ public class NIOChatServer {
                 }
                 
                 if (lineEnd == -1) {
-                    // 没有完整的消息，等待更多数据
+                    // 没有完整的消息，等待更多数据（切换到读空闲超时）
                     buffer.compact();
+                    scheduleTimeout(clientInfo);
                     return;
                 }
                 
@@ -193,10 +322,73 @@ public class NIOChatServer {
                 // 处理消息
                 if (!message.isEmpty()) {
                     handleMessage(clientChannel, clientInfo, message);
+                    if (!clientChannel.isOpen()) {
+                        return;     // /quit：读Buffer已随连接归还
+                    }
                 }
             }
             
             buffer.compact();
+            clientInfo.releaseDrainedReadBuffer();
+            scheduleTimeout(clientInfo);
+        }
+    }
+
+    /**
+     * 处理写事件：继续发送队列中的消息
+     */
+    private void handleWrite(SelectionKey key) throws IOException {
+        ClientInfo clientInfo = clients.get((SocketChannel) key.channel());
+        if (clientInfo == null) {
+            return;
+        }
+        flushQueue(clientInfo);
+    }
+
+    /**
+     * 发送队列非空时看写停滞，未登录或读Buffer里有半行消息时看读空闲，否则看空闲超时
+     */
+    private long timeoutDeadline(ClientInfo clientInfo) {
+        if (!clientInfo.outbound.isEmpty()) {
+            return clientInfo.lastWriteTime + writeStallTimeout;
+        }
+        if (clientInfo.getUsername() == null || clientInfo.getReadBuffer() != null) {
+            return clientInfo.lastActivityTime + readIdleTimeout;
+        }
+        return clientInfo.lastActivityTime + keepAliveTimeout;
+    }
+
+    /**
+     * 截止时间变早时立即重挂，变晚时等定时器到期再续期
+     */
+    private void scheduleTimeout(ClientInfo clientInfo) {
+        if (!clientInfo.getChannel().isOpen()) {
+            return;
+        }
+        long deadline = timeoutDeadline(clientInfo);
+        if (!clientInfo.isScheduled() || deadline < clientInfo.deadline()) {
+            timingWheel.schedule(clientInfo, deadline);
+        }
+    }
+
+    /**
+     * 时间轮回调：重新计算截止时间，真正超时才断开
+     */
+    private void onTimeout(ClientInfo clientInfo) {
+        long deadline = timeoutDeadline(clientInfo);
+        if (now < deadline) {
+            timingWheel.schedule(clientInfo, deadline);
+            return;
+        }
+        
+        timeoutCount++;
+        SocketChannel channel = clientInfo.getChannel();
+        try {
+            log("客户端超时: " + (clientInfo.getUsername() != null ? clientInfo.getUsername() : channel.getRemoteAddress())
+                    + (clientInfo.outbound.isEmpty() ? "" : " (发送停滞)"));
+            handleClientDisconnect(channel);
+        } catch (IOException e) {
+            log("关闭超时连接时发生异常: " + e.getMessage());
         }
     }
 
@@ -339,20 +531,7 @@ public class NIOChatServer {
         String formattedMessage = String.format("[%s] %s: %s\n", timestamp, senderUsername, message);
         
         log("广播: " + senderUsername + ": " + message);
-        
-        for (Map.Entry<SocketChannel, ClientInfo> entry : clients.entrySet()) {
-            SocketChannel channel = entry.getKey();
-            ClientInfo info = entry.getValue();
-            
-            // 已登录的用户才能收到消息
-            if (info.getUsername() != null) {
-                try {
-                    sendMessage(channel, formattedMessage);
-                } catch (IOException e) {
-                    log("发送消息失败: " + info.getUsername());
-                }
-            }
-        }
+        broadcast(formattedMessage, null);
     }
 
     /**
@@ -363,19 +542,23 @@ public class NIOChatServer {
         String formattedMessage = String.format("[%s] 系统提示: %s\n", timestamp, message);
         
         log("系统消息: " + message);
-        
-        for (Map.Entry<SocketChannel, ClientInfo> entry : clients.entrySet()) {
-            SocketChannel channel = entry.getKey();
-            ClientInfo info = entry.getValue();
-            
-            // 排除指定的Channel，且只发送给已登录用户
-            if (channel != excludeChannel && info.getUsername() != null) {
-                try {
-                    sendMessage(channel, formattedMessage);
-                } catch (IOException e) {
-                    log("发送系统消息失败: " + info.getUsername());
+        broadcast(formattedMessage, excludeChannel);
+    }
+
+    /**
+     * 编码一次，发给所有已登录用户（排除excludeChannel）
+     */
+    private void broadcast(String formattedMessage, SocketChannel excludeChannel) {
+        SharedMessage message = encode(formattedMessage);
+        try {
+            for (ClientInfo info : clients.values()) {
+                // 排除指定的Channel，且只发送给已登录用户
+                if (info.getChannel() != excludeChannel && info.getUsername() != null) {
+                    send(info, message);
                 }
             }
+        } finally {
+            message.release();
         }
     }
 
@@ -439,6 +622,8 @@ public class NIOChatServer {
         ClientInfo clientInfo = clients.remove(channel);
         
         if (clientInfo != null) {
+            timingWheel.cancel(clientInfo);
+            clientInfo.close();
             String username = clientInfo.getUsername();
             
             if (username != null) {
@@ -472,36 +657,197 @@ public class NIOChatServer {
     }
 
     /**
-     * 发送消息到客户端
+     * 发送消息到单个客户端
      */
-    private void sendMessage(SocketChannel channel, String message) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(message.getBytes(CHARSET));
+    private void sendMessage(SocketChannel channel, String message) {
+        ClientInfo clientInfo = clients.get(channel);
+        if (clientInfo == null) {
+            return;
+        }
+        SharedMessage encoded = encode(message);
+        try {
+            send(clientInfo, encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * 把消息编码到池化的直接内存，调用方持有一个引用
+     */
+    private SharedMessage encode(String message) {
+        byte[] bytes = message.getBytes(CHARSET);
+        // 直接内存写Socket，避免JDK再拷贝一次到临时直接内存
+        ByteBuffer buffer = arena.acquire(bytes.length);
+        buffer.put(bytes);
+        return new SharedMessage(buffer, bytes.length, arena);
+    }
+
+    /**
+     * 发送一条（可能共享的）消息：队列为空时直接写，写不完的部分和之后的消息进入发送队列
+     * 
+     * <p>不会抛出异常：写失败或慢客户端需要断开时，记入待断开列表，在本轮事件处理结束后统一断开，
+     * 避免在遍历客户端广播的过程中修改在线列表、再触发一次广播。
+     */
+    private void send(ClientInfo client, SharedMessage message) {
+        if (client.closing) {
+            return;
+        }
+        
+        if (client.outbound.isEmpty()) {
+            // 快速路径：直接写共享Buffer，不分配任何对象
+            ByteBuffer buffer = message.view(0);
+            try {
+                client.getChannel().write(buffer);
+            } catch (IOException e) {
+                scheduleDisconnect(client);
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            client.enqueue(message, buffer.position());
+            client.lastWriteTime = now;
+            client.key.interestOps(client.key.interestOps() | SelectionKey.OP_WRITE);
+            scheduleTimeout(client);
+            return;
+        }
+        
+        if (client.queuedBytes + message.length <= maxQueuedBytes) {
+            client.enqueue(message, 0);
+            return;
+        }
+        
+        // 慢客户端
+        switch (slowConsumerPolicy) {
+            case DROP:
+                droppedCount++;
+                break;
+                
+            case COALESCE:
+                // 丢弃最旧的、还没开始发送的消息，直到放得下
+                while (client.queuedBytes + message.length > maxQueuedBytes && client.dropOldestUnsent()) {
+                    coalescedCount++;
+                }
+                if (client.queuedBytes + message.length <= maxQueuedBytes) {
+                    client.enqueue(message, 0);
+                } else {
+                    droppedCount++;
+                    client.skippedMessages++;
+                }
+                break;
+                
+            case DISCONNECT:
+                slowDisconnectCount++;
+                log("慢客户端被断开: " + client.getUsername() + "，排队" + client.queuedBytes + "字节");
+                scheduleDisconnect(client);
+                break;
+        }
+    }
+
+    /**
+     * OP_WRITE：把队列中的消息聚集写出；队列清空后取消OP_WRITE，并提示合并期间省略的消息数
+     */
+    private void flushQueue(ClientInfo client) throws IOException {
+        SocketChannel channel = client.getChannel();
+        ArrayDeque<QueuedMessage> outbound = client.outbound;
+        
+        while (!outbound.isEmpty()) {
+            int count = 0;
+            for (QueuedMessage queued : outbound) {
+                gatherBuffers[count++] = queued.message.view(queued.offset);
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            
+            long written;
+            try {
+                written = channel.write(gatherBuffers, 0, count);
+            } finally {
+                Arrays.fill(gatherBuffers, 0, count, null);
+            }
+            if (written > 0) {
+                client.lastWriteTime = now;
+                client.consume(written);
+            }
+            if (!outbound.isEmpty() && written == 0) {
+                return;     // Socket发送缓冲区已满，等待下一次OP_WRITE
+            }
+        }
+        
+        client.key.interestOps(SelectionKey.OP_READ);
+        scheduleTimeout(client);
         
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
+        if (client.skippedMessages > 0) {
+            int skipped = client.skippedMessages;
+            client.skippedMessages = 0;
+            sendMessage(channel, "系统提示: 网络较慢，省略了 " + skipped + " 条消息\n");
+        }
+    }
+
+    private void scheduleDisconnect(ClientInfo client) {
+        if (!client.closing) {
+            client.closing = true;
+            pendingDisconnects.add(client);
+        }
+    }
+
+    /**
+     * 断开本轮事件中写失败或被判定为慢客户端的连接（断开时的离开通知也可能产生新的待断开连接）
+     */
+    private void disconnectPending() {
+        for (int i = 0; i < pendingDisconnects.size(); i++) {
+            SocketChannel channel = pendingDisconnects.get(i).getChannel();
+            try {
+                handleClientDisconnect(channel);
+            } catch (IOException e) {
+                log("断开连接时发生异常: " + e.getMessage());
+            }
         }
+        pendingDisconnects.clear();
+    }
+    
+    /**
+     * 连接Buffer所在的池，用于观察借出量和峰值
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
     }
 
     /**
      * 日志输出
      */
     private void log(String message) {
+        if (!logEnabled) {
+            return;
+        }
         String timestamp = DATE_FORMAT.format(new Date());
         System.out.println("[" + timestamp + "] " + message);
     }
 
     /**
-     * 客户端信息
+     * 客户端信息（直接继承时间轮节点）
      */
-    static class ClientInfo {
+    static class ClientInfo extends HashedTimingWheel.Timeout {
         private SocketChannel channel;
         private String username;
-        private ByteBuffer readBuffer;
+        private final DirectBufferPool.Arena arena;
+        private ByteBuffer readBuffer;  // null表示未借出
         private long connectTime;
+        long lastActivityTime;          // 最近一次收到数据的时间（单调时钟，毫秒）
+        
+        // 发送队列
+        SelectionKey key;
+        final ArrayDeque<QueuedMessage> outbound = new ArrayDeque<>();
+        int queuedBytes;                // 队列中尚未发送的字节数
+        int skippedMessages;            // 合并策略下省略、尚未提示的消息数
+        long lastWriteTime;             // 最近一次发送有进展的时间
+        boolean closing;
         
-        public ClientInfo(SocketChannel channel) {
+        public ClientInfo(SocketChannel channel, DirectBufferPool.Arena arena) {
             this.channel = channel;
-            this.readBuffer = ByteBuffer.allocate(1024);
+            this.arena = arena;
             this.connectTime = System.currentTimeMillis();
         }
         
@@ -521,8 +867,140 @@ public class NIOChatServer {
             return readBuffer;
         }
         
+        /**
+         * 借出读Buffer；上次还留有半行消息时继续使用同一个Buffer
+         */
+        public ByteBuffer acquireReadBuffer() {
+            if (readBuffer == null) {
+                readBuffer = arena.acquire(READ_BUFFER_SIZE);
+                readBuffer.limit(READ_BUFFER_SIZE);
+            }
+            return readBuffer;
+        }
+        
+        /**
+         * 读Buffer中没有残留字节时归还，空闲连接不再占用Buffer
+         */
+        public void releaseDrainedReadBuffer() {
+            if (readBuffer != null && readBuffer.position() == 0) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+        
         public long getConnectTime() {
             return connectTime;
         }
+        
+        void enqueue(SharedMessage message, int offset) {
+            message.retain();
+            outbound.addLast(new QueuedMessage(message, offset));
+            queuedBytes += message.length - offset;
+        }
+        
+        /**
+         * 按已写出的字节数推进队列，发送完的消息释放引用
+         */
+        void consume(long written) {
+            while (written > 0) {
+                QueuedMessage head = outbound.peekFirst();
+                int remaining = head.message.length - head.offset;
+                if (written < remaining) {
+                    head.offset += (int) written;
+                    queuedBytes -= (int) written;
+                    return;
+                }
+                written -= remaining;
+                queuedBytes -= remaining;
+                outbound.pollFirst();
+                head.message.release();
+            }
+        }
+        
+        /**
+         * 丢弃最旧的一条未开始发送的消息（已发送了一部分的队首消息必须发完，否则对端收到半条）
+         */
+        boolean dropOldestUnsent() {
+            QueuedMessage head = outbound.peekFirst();
+            if (head == null) {
+                return false;
+            }
+            QueuedMessage victim;
+            if (head.offset == 0) {
+                victim = outbound.pollFirst();
+            } else {
+                if (outbound.size() < 2) {
+                    return false;
+                }
+                outbound.pollFirst();
+                victim = outbound.pollFirst();
+                outbound.addFirst(head);
+            }
+            queuedBytes -= victim.message.length;
+            victim.message.release();
+            skippedMessages++;
+            return true;
+        }
+        
+        public void close() {
+            if (readBuffer != null) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
+            QueuedMessage queued;
+            while ((queued = outbound.pollFirst()) != null) {
+                queued.message.release();
+            }
+            queuedBytes = 0;
+        }
+    }
+
+    /**
+     * 编码后的消息：广播时所有接收者共享同一块直接内存，最后一个引用释放时归还到池
+     * 
+     * <p>只在Selector线程中使用，引用计数不需要原子操作。
+     */
+    static final class SharedMessage {
+        private final ByteBuffer buffer;
+        final int length;
+        private final DirectBufferPool.Arena arena;
+        private int refCount = 1;
+        
+        SharedMessage(ByteBuffer buffer, int length, DirectBufferPool.Arena arena) {
+            this.buffer = buffer;
+            this.length = length;
+            this.arena = arena;
+        }
+        
+        /**
+         * 从offset开始的待发送视图；共享Buffer的position/limit每次写之前重新设置，不需要duplicate()
+         */
+        ByteBuffer view(int offset) {
+            buffer.limit(length).position(offset);
+            return buffer;
+        }
+        
+        void retain() {
+            refCount++;
+        }
+        
+        void release() {
+            if (--refCount == 0) {
+                arena.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * 发送队列中的一项：共享消息 + 这个接收者已发送到的位置
+     */
+    static final class QueuedMessage {
+        final SharedMessage message;
+        int offset;
+        
+        QueuedMessage(SharedMessage message, int offset) {
+            this.message = message;
+            this.offset = offset;
+        }
     }
 }
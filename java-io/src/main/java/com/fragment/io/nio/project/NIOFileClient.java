@@ -1,5 +1,8 @@
 package com.fragment.io.nio.project;
 
+import com.fragment.io.nio.checksum.Crc32c;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -9,12 +12,22 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
 
 /**
  * NIO文件传输客户端
  * 
+ * <p>PDOWNLOAD/PUPLOAD命令使用分段协议：开K个连接并行传输不同的段，每块校验CRC32C。
+ * 下载先写入预分配大小的.part文件并记录本地清单，中断后再次执行同一命令只补传缺失的块；
+ * 上传的进度记录在服务端，再次执行时先用RESUME查询缺失的块。
+ * 
  * @author fragment
  */
 public class NIOFileClient {
@@ -22,7 +35,12 @@ public class NIOFileClient {
     private static final String DEFAULT_HOST = "localhost";
     private static final int DEFAULT_PORT = 9999;
     private static final int BUFFER_SIZE = 8192;
+    private static final int DEFAULT_CONNECTIONS = 4;
+    private static final int MAX_SEGMENT_CHUNKS = 64;   // 单个段最多64块，段多于连接数时由空闲连接继续领取
+    private static final int MAX_ROUNDS = 3;            // 一次命令内的重试轮数（坏块、断线）
     
+    private String host;
+    private int port;
     private SocketChannel socketChannel;
     private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 
@@ -49,6 +67,8 @@ public class NIOFileClient {
      * 启动客户端
      */
     public void start(String host, int port) throws IOException {
+        this.host = host;
+        this.port = port;
         socketChannel = SocketChannel.open();
         socketChannel.connect(new InetSocketAddress(host, port));
         socketChannel.configureBlocking(true); // 使用阻塞模式简化客户端实现
@@ -71,7 +91,7 @@ public class NIOFileClient {
         
         try {
             while (true) {
-                System.out.print("\n请输入命令 (LIST/DOWNLOAD/UPLOAD/QUIT): ");
+                System.out.print("\n请输入命令 (LIST/DOWNLOAD/UPLOAD/PDOWNLOAD/PUPLOAD/QUIT): ");
                 String input = scanner.nextLine().trim();
                 
                 if (input.isEmpty()) {
@@ -81,34 +101,12 @@ public class NIOFileClient {
                 String[] parts = input.split("\\s+");
                 String command = parts[0].toUpperCase();
                 
-                switch (command) {
-                    case "LIST":
-                        handleListCommand();
-                        break;
-                        
-                    case "DOWNLOAD":
-                        if (parts.length < 2) {
-                            System.out.println("用法: DOWNLOAD <文件名>");
-                        } else {
-                            handleDownloadCommand(parts[1]);
-                        }
-                        break;
-                        
-                    case "UPLOAD":
-                        if (parts.length < 2) {
-                            System.out.println("用法: UPLOAD <本地文件路径>");
-                        } else {
-                            handleUploadCommand(parts[1]);
-                        }
-                        break;
-                        
-                    case "QUIT":
-                        sendCommand("QUIT\n");
-                        System.out.println("再见！");
+                try {
+                    if (!handleUserCommand(command, parts)) {
                         return;
-                        
-                    default:
-                        System.out.println("未知命令: " + command);
+                    }
+                } catch (IOException e) {
+                    System.out.println("命令执行失败: " + e.getMessage());
                 }
             }
         } finally {
@@ -117,6 +115,79 @@ public class NIOFileClient {
         }
     }
 
+    /**
+     * 执行一条用户命令
+     * 
+     * @return false表示退出
+     */
+    private boolean handleUserCommand(String command, String[] parts) throws IOException {
+        switch (command) {
+            case "LIST":
+                handleListCommand();
+                break;
+                
+            case "DOWNLOAD":
+                if (parts.length < 2) {
+                    System.out.println("用法: DOWNLOAD <文件名>");
+                } else {
+                    handleDownloadCommand(parts[1]);
+                }
+                break;
+                
+            case "UPLOAD":
+                if (parts.length < 2) {
+                    System.out.println("用法: UPLOAD <本地文件路径>");
+                } else {
+                    handleUploadCommand(parts[1]);
+                }
+                break;
+                
+            case "PDOWNLOAD": {
+                int connections = parseConnections(parts);
+                if (parts.length < 2 || connections <= 0) {
+                    System.out.println("用法: PDOWNLOAD <文件名> [连接数]");
+                } else {
+                    parallelDownload(host, port, parts[1], Paths.get("download_" + parts[1]), connections);
+                }
+                break;
+            }
+                
+            case "PUPLOAD": {
+                int connections = parseConnections(parts);
+                if (parts.length < 2 || connections <= 0) {
+                    System.out.println("用法: PUPLOAD <本地文件路径> [连接数]");
+                } else {
+                    parallelUpload(host, port, Paths.get(parts[1]), connections);
+                }
+                break;
+            }
+                
+            case "QUIT":
+                sendCommand("QUIT\n");
+                System.out.println("再见！");
+                return false;
+                
+            default:
+                System.out.println("未知命令: " + command);
+        }
+        return true;
+    }
+
+    /**
+     * 命令的第三个参数：连接数，没有时取默认值，不是正整数时返回-1
+     */
+    private static int parseConnections(String[] parts) {
+        if (parts.length < 3) {
+            return DEFAULT_CONNECTIONS;
+        }
+        try {
+            int connections = Integer.parseInt(parts[2]);
+            return connections > 0 ? connections : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * 处理LIST命令
      */
@@ -259,6 +330,353 @@ public class NIOFileClient {
         receiveResponse();
     }
 
+    /**
+     * 并行分段下载：K个连接各自领取段，块校验通过后定位写入.part文件并标记清单
+     * 
+     * <p>中断后再次调用会读取本地清单，只下载缺失的块。
+     */
+    public static void parallelDownload(String host, int port, String filename, Path localPath,
+                                        int connections) throws IOException {
+        long fileLength;
+        int chunkSize;
+        try (SegmentConnection control = new SegmentConnection(host, port)) {
+            String[] stat = control.command("STAT|" + filename);
+            fileLength = Long.parseLong(stat[1]);
+            chunkSize = Integer.parseInt(stat[2]);
+        }
+        
+        Path partPath = Paths.get(localPath + ".part");
+        FileChannel file = FileChannel.open(partPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        TransferManifest manifest;
+        try {
+            manifest = TransferManifest.openOrCreate(Paths.get(localPath + ".manifest"), file, fileLength, chunkSize);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        long start = System.nanoTime();
+        try {
+            if (file.size() != fileLength) {
+                file.truncate(fileLength);
+                if (fileLength > 0) {
+                    file.write(ByteBuffer.wrap(new byte[1]), fileLength - 1);  // 预分配
+                }
+            }
+            
+            for (int round = 1; round <= MAX_ROUNDS && !manifest.isComplete(); round++) {
+                Queue<int[]> segments = splitRuns(manifest.missingRuns(), connections);
+                System.out.println("[分段下载] 第" + round + "轮: 缺失" + manifest.missingCount() + "块, "
+                        + segments.size() + "段, " + connections + "个连接");
+                runWorkers(connections, () -> {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+                    Checksum crc = Crc32c.newChecksum();
+                    try (SegmentConnection conn = new SegmentConnection(host, port)) {
+                        int[] segment;
+                        while ((segment = segments.poll()) != null) {
+                            downloadSegment(conn, filename, manifest, file, segment, buffer, crc);
+                        }
+                    }
+                });
+            }
+            
+            if (!manifest.isComplete()) {
+                throw new IOException("仍有" + manifest.missingCount() + "块未完成，再次执行即可续传");
+            }
+            file.force(true);
+        } finally {
+            // 清单关闭时要force数据文件，先关清单
+            try {
+                manifest.close();
+            } finally {
+                file.close();
+            }
+        }
+        
+        Files.move(partPath, localPath, StandardCopyOption.REPLACE_EXISTING);
+        manifest.delete();
+        printThroughput("分段下载", localPath, fileLength, System.nanoTime() - start);
+    }
+
+    /**
+     * 下载一段：GETSEG后逐块读取帧头和数据，校验通过才写入
+     */
+    private static void downloadSegment(SegmentConnection conn, String filename, TransferManifest manifest,
+                                        FileChannel file, int[] segment, ByteBuffer buffer, Checksum crc)
+            throws IOException {
+        long offset = manifest.chunkStart(segment[0]);
+        long end = Math.min(manifest.getFileLength(), manifest.chunkStart(segment[1]));
+        conn.command("GETSEG|" + filename + "|" + offset + "|" + (end - offset));
+        
+        ByteBuffer header = ByteBuffer.allocate(NIOFileServer.FRAME_HEADER_SIZE);
+        for (int chunk = segment[0]; chunk < segment[1]; chunk++) {
+            header.clear();
+            conn.readFully(header);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length != manifest.chunkLength(chunk)) {
+                throw new IOException("块长度错误: " + length);
+            }
+            
+            buffer.clear().limit(length);
+            conn.readFully(buffer);
+            buffer.flip();
+            crc.reset();
+            Crc32c.update(crc, buffer.duplicate());
+            if ((int) crc.getValue() != expectedCrc) {
+                System.out.println("[分段下载] 第" + chunk + "块校验失败，稍后重传");
+                continue;
+            }
+            long position = manifest.chunkStart(chunk);
+            while (buffer.hasRemaining()) {
+                position += file.write(buffer, position);
+            }
+            manifest.markDone(chunk);
+        }
+        conn.readLine();    // OK|段完成
+    }
+
+    /**
+     * 并行分段上传：先RESUME查询服务端缺失的块，再由K个连接分别PUTSEG
+     * 
+     * <p>服务端在所有块都校验通过后才把.part文件改名为正式文件；中断后再次调用只上传缺失的块。
+     */
+    public static void parallelUpload(String host, int port, Path localPath, int connections) throws IOException {
+        String filename = localPath.getFileName().toString();
+        long fileLength = Files.size(localPath);
+        long start = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(Integer.MAX_VALUE);
+        
+        try (FileChannel file = FileChannel.open(localPath, StandardOpenOption.READ)) {
+            for (int round = 1; round <= MAX_ROUNDS; round++) {
+                String[] resume;
+                try (SegmentConnection control = new SegmentConnection(host, port)) {
+                    resume = control.command("RESUME|" + filename + "|" + fileLength);
+                }
+                int chunkSize = Integer.parseInt(resume[2]);
+                List<int[]> missing = TransferManifest.parseRuns(resume.length > 3 ? resume[3] : "");
+                if (missing.isEmpty()) {
+                    remaining.set(0);
+                    break;
+                }
+                
+                Queue<int[]> segments = splitRuns(missing, connections);
+                System.out.println("[分段上传] 第" + round + "轮: " + segments.size() + "段, " + connections + "个连接");
+                runWorkers(connections, () -> {
+                    ByteBuffer header = ByteBuffer.allocate(NIOFileServer.FRAME_HEADER_SIZE);
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+                    Checksum crc = Crc32c.newChecksum();
+                    try (SegmentConnection conn = new SegmentConnection(host, port)) {
+                        int[] segment;
+                        while ((segment = segments.poll()) != null) {
+                            int left = uploadSegment(conn, filename, file, fileLength, chunkSize,
+                                    segment, header, buffer, crc);
+                            remaining.accumulateAndGet(left, Math::min);
+                        }
+                    }
+                });
+                
+                // 服务端是单线程的，各段回复中最小的剩余块数就是最终状态
+                if (remaining.get() == 0) {
+                    break;
+                }
+            }
+        }
+        
+        if (remaining.get() != 0) {
+            throw new IOException("上传未完成，再次执行即可续传");
+        }
+        printThroughput("分段上传", localPath, fileLength, System.nanoTime() - start);
+    }
+
+    /**
+     * 上传一段：逐块读取本地文件、计算CRC32C，帧头和数据一次聚集写出
+     * 
+     * @return 服务端回复的剩余块数
+     */
+    private static int uploadSegment(SegmentConnection conn, String filename, FileChannel file, long fileLength,
+                                     int chunkSize, int[] segment, ByteBuffer header, ByteBuffer buffer,
+                                     Checksum crc) throws IOException {
+        long offset = (long) segment[0] * chunkSize;
+        long end = Math.min(fileLength, (long) segment[1] * chunkSize);
+        conn.command("PUTSEG|" + filename + "|" + fileLength + "|" + offset + "|" + (end - offset));
+        
+        ByteBuffer[] frame = {header, buffer};
+        for (long position = offset; position < end; position += chunkSize) {
+            int length = (int) Math.min(chunkSize, end - position);
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (file.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("本地文件在上传过程中被截断");
+                }
+            }
+            buffer.flip();
+            crc.reset();
+            Crc32c.update(crc, buffer.duplicate());
+            
+            header.clear();
+            header.putInt(length).putInt((int) crc.getValue()).flip();
+            conn.write(frame);
+        }
+        
+        // OK|段完成|坏块数|剩余块数
+        String[] done = conn.readLine().trim().split("\\|");
+        return Integer.parseInt(done[3]);
+    }
+
+    /**
+     * 把缺失的块区间切成段：段数不少于连接数，单段不超过{@link #MAX_SEGMENT_CHUNKS}块
+     */
+    private static Queue<int[]> splitRuns(List<int[]> runs, int connections) {
+        int missing = 0;
+        for (int[] run : runs) {
+            missing += run[1] - run[0];
+        }
+        int perSegment = Math.max(1, Math.min(MAX_SEGMENT_CHUNKS, (missing + connections - 1) / connections));
+        
+        Queue<int[]> segments = new ConcurrentLinkedQueue<>();
+        for (int[] run : runs) {
+            for (int chunk = run[0]; chunk < run[1]; chunk += perSegment) {
+                segments.add(new int[]{chunk, Math.min(run[1], chunk + perSegment)});
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 启动K个传输线程并等待结束；单个连接失败只结束该线程，缺失的块由下一轮补传
+     */
+    private static void runWorkers(int connections, SegmentWorker worker) throws IOException {
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    worker.run();
+                } catch (IOException e) {
+                    System.out.println("[分段传输] 连接中断: " + e.getMessage());
+                }
+            }, "segment-worker-" + i);
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("传输被中断");
+        }
+    }
+
+    private static void printThroughput(String action, Path path, long bytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("[%s] 完成: %s (%d 字节, %.2fs, %.1f MB/s)",
+                action, path.toAbsolutePath(), bytes, seconds, bytes / 1024.0 / 1024 / Math.max(seconds, 1e-9)));
+    }
+
+    private interface SegmentWorker {
+        void run() throws IOException;
+    }
+
+    /**
+     * 分段传输用的阻塞连接：按行读取响应，多读到的字节留给后续的块数据
+     */
+    static class SegmentConnection implements Closeable {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        
+        SegmentConnection(String host, int port) throws IOException {
+            channel = SocketChannel.open(new InetSocketAddress(host, port));
+            in.flip();
+            readLine();     // 欢迎消息
+            readLine();
+        }
+        
+        /**
+         * 发送一条命令并读取一行响应
+         * 
+         * @return 以|分隔的响应字段；ERROR响应抛出异常
+         */
+        String[] command(String command) throws IOException {
+            write(new ByteBuffer[]{ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.UTF_8))});
+            String line = readLine().trim();
+            if (!line.startsWith("OK|")) {
+                throw new IOException(line);
+            }
+            return line.split("\\|");
+        }
+        
+        /**
+         * 底层连接，供调用方直接transferTo（此时缓存中不能还有未消费的字节）
+         */
+        SocketChannel channel() {
+            return channel;
+        }
+        
+        String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int length = 0;
+            while (true) {
+                while (in.hasRemaining()) {
+                    byte b = in.get();
+                    if (b == '\n') {
+                        line.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                        return line.toString();
+                    }
+                    if (length == bytes.length) {
+                        line.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+                        length = 0;
+                    }
+                    bytes[length++] = b;
+                }
+                fill();
+            }
+        }
+        
+        /**
+         * 读满dst：先消费已缓存的字节，剩下的直接读入dst
+         */
+        void readFully(ByteBuffer dst) throws IOException {
+            while (in.hasRemaining() && dst.hasRemaining()) {
+                dst.put(in.get());
+            }
+            while (dst.hasRemaining()) {
+                if (channel.read(dst) < 0) {
+                    throw new IOException("连接被服务器关闭");
+                }
+            }
+        }
+        
+        void write(ByteBuffer[] buffers) throws IOException {
+            ByteBuffer last = buffers[buffers.length - 1];
+            while (last.hasRemaining()) {
+                channel.write(buffers);
+            }
+        }
+        
+        private void fill() throws IOException {
+            in.clear();
+            int n = channel.read(in);
+            in.flip();
+            if (n < 0) {
+                throw new IOException("连接被服务器关闭");
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                write(new ByteBuffer[]{ByteBuffer.wrap("QUIT\n".getBytes(StandardCharsets.UTF_8))});
+            } catch (IOException e) {
+                // 连接已断开
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
     /**
      * 发送命令
      */
@@ -1,5 +1,9 @@
 package com.fragment.io.nio.project;
 
+import com.fragment.io.nio.buffer.DirectBufferPool;
+import com.fragment.io.nio.checksum.Crc32c;
+import com.fragment.io.nio.timer.HashedTimingWheel;
+
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -9,9 +13,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.Checksum;
 
 /**
  * NIO文件传输服务器（实战项目）
@@ -21,6 +28,7 @@ import java.util.*;
  *   <li>支持文件上传和下载</li>
  *   <li>使用零拷贝技术（transferTo）传输文件</li>
  *   <li>支持断点续传</li>
+ *   <li>支持多连接并行分段传输（每块CRC32C校验）</li>
  *   <li>支持文件列表查询</li>
  *   <li>支持多客户端并发传输</li>
  *   <li>传输进度显示</li>
@@ -36,6 +44,14 @@ import java.util.*;
  * - UPLOAD|文件名|文件大小  : 上传文件
  * - QUIT                    : 断开连接
  * 
+ * 分段传输命令（客户端可同时开多个连接，各自传输不同的段）：
+ * - STAT|文件名                          : 查询文件大小 -> OK|文件大小|块大小
+ * - GETSEG|文件名|起始位置|长度          : 下载一段 -> OK|SEG|起始位置|长度，随后是块帧，最后OK|段完成
+ * - RESUME|文件名|文件大小               : 查询上传进度 -> OK|缺失|块大小|未完成的块区间（如0-4,7-8）
+ * - PUTSEG|文件名|文件大小|起始位置|长度 : 上传一段 -> OK|准备接收，客户端发送块帧，最后OK|段完成|坏块数|剩余块数
+ * 
+ * 块帧：长度(4字节) + CRC32C(4字节) + 数据；段的起始位置必须按块大小对齐
+ * 
  * 响应格式：
  * - OK|数据                 : 成功
  * - ERROR|错误信息          : 失败
@@ -51,6 +67,20 @@ import java.util.*;
  *       解决：记录传输位置，支持从指定位置开始传输</li>
  *   <li>问题4：如何保证文件传输的完整性？
  *       解决：传输前发送文件大小，接收方验证</li>
+ *   <li>问题5：每个连接常驻命令Buffer和上传Buffer，空闲连接也占内存？
+ *       解决：Buffer从{@link DirectBufferPool}借出，只在一次读/写期间持有（命令Buffer中留有半行命令时除外）</li>
+ *   <li>问题6：客户端上传/下载到一半掉线，或者连上后再也不说话，连接一直占着文件句柄？
+ *       解决：{@link HashedTimingWheel}由select(timeout)驱动：上传或半行命令看读空闲，
+ *       下载看写停滞，命令之间看空闲超时</li>
+ *   <li>问题7：单个TCP流的吞吐受限于窗口/RTT，高延迟链路上传大文件很慢，断线还要从头再来？
+ *       解决：文件按{@link #CHUNK_SIZE}分块，客户端开K个连接并行传输不同的段；
+ *       每块带CRC32C，校验通过才在{@link TransferManifest}中标记完成，断线后只补传缺失的块。
+ *       上传先写到预分配大小的.part文件，各连接用{@code FileChannel.write(buf, pos)}定位写，
+ *       全部块完成后才改名为正式文件</li>
+ *   <li>问题8：上传的每个字节都先读进Buffer再写文件；而且从不force，宕机丢数据，每次写都force又太慢？
+ *       解决：UPLOAD默认用{@code FileChannel.transferFrom(socket, pos, n)}把Socket数据直接交给文件，
+ *       按宣告的大小预分配文件（force(false)不必再同步文件长度等元数据），
+ *       并按{@link #setForceInterval 字节数/时间间隔}批量force</li>
  * </ul>
  * 
  * @author fragment
@@ -58,15 +88,51 @@ import java.util.*;
 public class NIOFileServer {
 
     private static final int DEFAULT_PORT = 9999;
-    private static final String FILE_DIR = System.getProperty("user.home") + "/nio_file_server";
+    static final String FILE_DIR = System.getProperty("user.home") + "/nio_file_server";
     private static final int BUFFER_SIZE = 8192;
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 1024;
+    
+    // 分段传输
+    static final int CHUNK_SIZE = 1024 * 1024;      // 块大小（CRC32C校验和续传的单位）
+    static final int FRAME_HEADER_SIZE = 8;         // 块帧头：长度(4) + CRC32C(4)
+    private static final int TRANSFER_FROM_SIZE = 1024 * 1024;  // 每次transferFrom最多传输的字节数
+    private static final String PART_SUFFIX = ".part";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    
+    // 超时时间（毫秒）
+    private long readIdleTimeout = 30_000;          // 上传中或半行命令：等待后续数据
+    private long writeStallTimeout = 30_000;        // 下载中：数据一直发不出去
+    private long keepAliveTimeout = 5 * 60_000;     // 两条命令之间的空闲
+    
+    // 上传落盘方式（运行期间可修改，对之后的UPLOAD生效）
+    private volatile boolean transferFromUpload = true;
+    private volatile long forceIntervalBytes = 64L * 1024 * 1024;  // 累计写入多少字节force一次，0表示不按字节
+    private volatile long forceIntervalMillis = 1000;              // 距上次force多久force一次，0表示不按时间
     
     private Selector selector;
     private ServerSocketChannel serverChannel;
     private Path fileDirectory;
     
+    // 单Selector线程，只需要一个Arena
+    private final DirectBufferPool bufferPool = new DirectBufferPool();
+    private final DirectBufferPool.Arena arena = bufferPool.newArena();
+    
+    // 超时管理：由事件循环驱动，无需定时线程
+    private final HashedTimingWheel<ClientSession> timingWheel =
+            new HashedTimingWheel<>(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+    private final Consumer<ClientSession> timeoutHandler = this::onTimeout;
+    private long now;
+    private volatile int sessionCount;
+    private volatile long timeoutCount;
+    private volatile boolean logEnabled = true;
+    
     // 客户端会话管理
     private Map<SocketChannel, ClientSession> sessions = new HashMap<>();
+    
+    // 进行中的分段上传（多个连接共享同一个目标文件）
+    private final Map<String, UploadTarget> uploadTargets = new HashMap<>();
+    private final Checksum downloadChecksum = Crc32c.newChecksum();
 
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
@@ -108,9 +174,10 @@ public class NIOFileServer {
         System.out.println("╚════════════════════════════════════════╝");
         System.out.println();
         
-        // 事件循环
+        // 事件循环：最多阻塞到时间轮的下一格
         while (true) {
-            selector.select();
+            selector.select(timingWheel.millisUntilNextTick(timingWheel.now()));
+            now = timingWheel.now();
             
             Set<SelectionKey> selectedKeys = selector.selectedKeys();
             Iterator<SelectionKey> iterator = selectedKeys.iterator();
@@ -135,8 +202,49 @@ public class NIOFileServer {
                     handleException(key, e);
                 }
             }
+            
+            timingWheel.expire(now, timeoutHandler);
         }
     }
+    
+    /**
+     * 设置超时时间（毫秒），需在start()之前调用
+     */
+    public void setTimeouts(long readIdleTimeout, long writeStallTimeout, long keepAliveTimeout) {
+        this.readIdleTimeout = readIdleTimeout;
+        this.writeStallTimeout = writeStallTimeout;
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+    
+    /**
+     * @param transferFrom true：transferFrom从Socket直接写文件；false：读入直接内存Buffer再写文件
+     */
+    public void setUploadMode(boolean transferFrom) {
+        this.transferFromUpload = transferFrom;
+    }
+    
+    /**
+     * 上传时批量force的间隔：满足任一条件即force一次，上传结束时总会force；两者都为0时从不force
+     * 
+     * @param bytes  累计写入的字节数，1表示每次写入都force
+     * @param millis 距上次force的时间
+     */
+    public void setForceInterval(long bytes, long millis) {
+        this.forceIntervalBytes = bytes;
+        this.forceIntervalMillis = millis;
+    }
+    
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
+    }
+    
+    public int getSessionCount() {
+        return sessionCount;
+    }
+    
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
 
     /**
      * 处理连接事件
@@ -150,14 +258,22 @@ public class NIOFileServer {
             clientChannel.register(selector, SelectionKey.OP_READ);
             
             // 创建客户端会话
-            ClientSession session = new ClientSession(clientChannel);
+            ClientSession session = new ClientSession(clientChannel, arena);
             sessions.put(clientChannel, session);
+            sessionCount = sessions.size();
+            session.lastActivityTime = now;
+            scheduleTimeout(session);
             
             log("新客户端连接: " + clientChannel.getRemoteAddress());
             
-            // 发送欢迎消息
-            sendResponse(clientChannel, "OK|欢迎使用NIO文件传输服务器\n");
-            sendResponse(clientChannel, "OK|支持的命令: LIST, DOWNLOAD|文件名, UPLOAD|文件名|文件大小, QUIT\n");
+            // 发送欢迎消息（客户端连上即断开时只关闭这个连接，不能让异常落到监听Channel上）
+            try {
+                sendResponse(clientChannel, "OK|欢迎使用NIO文件传输服务器\n");
+                sendResponse(clientChannel, "OK|支持的命令: LIST, DOWNLOAD|文件名, UPLOAD|文件名|文件大小, QUIT\n");
+            } catch (IOException e) {
+                log("发送欢迎消息失败: " + e.getMessage());
+                handleClientDisconnect(clientChannel);
+            }
         }
     }
 
@@ -175,11 +291,12 @@ public class NIOFileServer {
         // 如果正在接收文件数据
         if (session.isUploading()) {
             handleFileUpload(key, session);
+            scheduleTimeout(session);
             return;
         }
         
         // 读取命令
-        ByteBuffer buffer = session.getReadBuffer();
+        ByteBuffer buffer = session.acquireReadBuffer();
         int bytesRead = clientChannel.read(buffer);
         
         if (bytesRead == -1) {
@@ -187,7 +304,13 @@ public class NIOFileServer {
             return;
         }
         
+        if (bytesRead == 0) {
+            session.releaseDrainedReadBuffer();
+            return;
+        }
+        
         if (bytesRead > 0) {
+            session.lastActivityTime = now;
             buffer.flip();
             
             // 查找命令结束符（换行符）
@@ -204,8 +327,9 @@ public class NIOFileServer {
                 }
                 
                 if (lineEnd == -1) {
-                    // 没有完整的命令，等待更多数据
+                    // 没有完整的命令，等待更多数据（切换到读空闲超时）
                     buffer.compact();
+                    scheduleTimeout(session);
                     return;
                 }
                 
@@ -220,10 +344,15 @@ public class NIOFileServer {
                 // 处理命令
                 if (!command.isEmpty()) {
                     handleCommand(key, session, command);
+                    if (!clientChannel.isOpen()) {
+                        return;     // QUIT：读Buffer已随会话归还
+                    }
                 }
             }
             
             buffer.compact();
+            session.releaseDrainedReadBuffer();
+            scheduleTimeout(session);
         }
     }
 
@@ -244,6 +373,53 @@ public class NIOFileServer {
         }
     }
 
+    /**
+     * 会话状态下的超时截止时间：下载看写停滞，上传或半行命令看读空闲，否则看命令间空闲
+     */
+    private long timeoutDeadline(ClientSession session) {
+        if (session.isDownloading()) {
+            return session.lastActivityTime + writeStallTimeout;
+        }
+        if (session.isUploading() || session.getReadBuffer() != null) {
+            return session.lastActivityTime + readIdleTimeout;
+        }
+        return session.lastActivityTime + keepAliveTimeout;
+    }
+
+    /**
+     * 截止时间变早时立即重挂，变晚时等定时器到期再续期
+     */
+    private void scheduleTimeout(ClientSession session) {
+        if (!session.getChannel().isOpen()) {
+            return;
+        }
+        long deadline = timeoutDeadline(session);
+        if (!session.isScheduled() || deadline < session.deadline()) {
+            timingWheel.schedule(session, deadline);
+        }
+    }
+
+    /**
+     * 时间轮回调：重新计算截止时间，真正超时才断开
+     */
+    private void onTimeout(ClientSession session) {
+        long deadline = timeoutDeadline(session);
+        if (now < deadline) {
+            timingWheel.schedule(session, deadline);
+            return;
+        }
+        
+        timeoutCount++;
+        SocketChannel channel = session.getChannel();
+        try {
+            log("客户端超时: " + channel.getRemoteAddress()
+                    + (session.isDownloading() ? " (下载停滞)" : session.isUploading() ? " (上传停滞)" : " (空闲)"));
+            handleClientDisconnect(channel);
+        } catch (IOException e) {
+            log("关闭超时连接时发生异常: " + e.getMessage());
+        }
+    }
+
     /**
      * 处理命令
      */
@@ -277,6 +453,40 @@ public class NIOFileServer {
                 }
                 break;
                 
+            case "STAT":
+                if (parts.length < 2) {
+                    sendResponse(clientChannel, "ERROR|命令格式错误，正确格式：STAT|文件名\n");
+                } else {
+                    handleStatCommand(clientChannel, parts[1]);
+                }
+                break;
+                
+            case "GETSEG":
+                if (parts.length < 4) {
+                    sendResponse(clientChannel, "ERROR|命令格式错误，正确格式：GETSEG|文件名|起始位置|长度\n");
+                } else {
+                    handleSegmentDownloadCommand(key, session, parts[1],
+                            Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+                }
+                break;
+                
+            case "RESUME":
+                if (parts.length < 3) {
+                    sendResponse(clientChannel, "ERROR|命令格式错误，正确格式：RESUME|文件名|文件大小\n");
+                } else {
+                    handleResumeCommand(clientChannel, parts[1], Long.parseLong(parts[2]));
+                }
+                break;
+                
+            case "PUTSEG":
+                if (parts.length < 5) {
+                    sendResponse(clientChannel, "ERROR|命令格式错误，正确格式：PUTSEG|文件名|文件大小|起始位置|长度\n");
+                } else {
+                    handleSegmentUploadCommand(session, parts[1], Long.parseLong(parts[2]),
+                            Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+                }
+                break;
+                
             case "QUIT":
                 handleClientDisconnect(clientChannel);
                 break;
@@ -334,6 +544,8 @@ public class NIOFileServer {
         long fileSize = fileChannel.size();
         
         session.startDownload(fileChannel, filename, fileSize);
+        session.lastActivityTime = now;
+        scheduleTimeout(session);
         
         // 发送文件信息
         sendResponse(session.getChannel(), "OK|开始下载|" + filename + "|" + fileSize + "\n");
@@ -348,6 +560,11 @@ public class NIOFileServer {
      * 处理文件下载（零拷贝传输）
      */
     private void handleFileDownload(SelectionKey key, ClientSession session) throws IOException {
+        if (session.isSegment()) {
+            handleSegmentDownload(key, session);
+            return;
+        }
+        
         FileChannel fileChannel = session.getDownloadFileChannel();
         SocketChannel socketChannel = session.getChannel();
         
@@ -358,6 +575,7 @@ public class NIOFileServer {
             // 传输完成
             session.finishDownload();
             key.interestOps(SelectionKey.OP_READ);
+            session.lastActivityTime = now;
             
             log("文件发送完成: " + session.getDownloadFilename());
             sendResponse(socketChannel, "OK|下载完成\n");
@@ -369,6 +587,7 @@ public class NIOFileServer {
         long transferred = fileChannel.transferTo(position, chunkSize, socketChannel);
         
         if (transferred > 0) {
+            session.lastActivityTime = now;
             session.updateDownloadPosition(position + transferred);
             
             // 显示进度
@@ -388,30 +607,48 @@ public class NIOFileServer {
         
         Path filePath = fileDirectory.resolve(filename);
         
-        // 创建文件
+        // 创建文件，并按宣告的大小预分配
         FileChannel fileChannel = FileChannel.open(
             filePath,
             StandardOpenOption.CREATE,
             StandardOpenOption.WRITE,
             StandardOpenOption.TRUNCATE_EXISTING
         );
+        preallocate(fileChannel, fileSize);
         
         session.startUpload(fileChannel, filename, fileSize);
+        session.lastActivityTime = now;
+        session.lastForceTime = now;
         
         sendResponse(session.getChannel(), "OK|准备接收文件|" + filename + "\n");
         
-        log("开始接收文件: " + filename + " (" + fileSize + " 字节)");
+        log("开始接收文件: " + filename + " (" + fileSize + " 字节)"
+                + (transferFromUpload ? " [transferFrom]" : ""));
+        
+        if (fileSize == 0) {
+            session.finishUpload();
+            sendResponse(session.getChannel(), "OK|上传完成\n");
+        }
     }
 
     /**
      * 处理文件上传
      */
     private void handleFileUpload(SelectionKey key, ClientSession session) throws IOException {
+        if (session.isSegment()) {
+            handleSegmentUpload(session);
+            return;
+        }
+        
         FileChannel fileChannel = session.getUploadFileChannel();
         SocketChannel socketChannel = session.getChannel();
         
-        ByteBuffer buffer = session.getUploadBuffer();
-        int bytesRead = socketChannel.read(buffer);
+        // 最多读到文件末尾，不吞掉其后的命令
+        long position = session.getUploadReceived();
+        long remaining = session.getUploadFileSize() - position;
+        long bytesRead = transferFromUpload
+                ? transferFromSocket(fileChannel, socketChannel, position, remaining)
+                : copyFromSocket(fileChannel, socketChannel, position, remaining);
         
         if (bytesRead == -1) {
             handleClientDisconnect(socketChannel);
@@ -419,18 +656,17 @@ public class NIOFileServer {
         }
         
         if (bytesRead > 0) {
-            buffer.flip();
+            session.lastActivityTime = now;
+            long received = position + bytesRead;
+            session.setUploadReceived(received);
+            session.unforcedBytes += bytesRead;
             
-            // 写入文件
-            while (buffer.hasRemaining()) {
-                fileChannel.write(buffer);
+            if (received < session.getUploadFileSize() && isForceDue(session)) {
+                fileChannel.force(false);
+                session.unforcedBytes = 0;
+                session.lastForceTime = now;
             }
             
-            buffer.clear();
-            
-            long received = session.getUploadReceived() + bytesRead;
-            session.setUploadReceived(received);
-            
             // 显示进度
             int progress = (int) ((received * 100) / session.getUploadFileSize());
             if (progress % 10 == 0 && progress != session.getLastProgress()) {
@@ -438,8 +674,11 @@ public class NIOFileServer {
                 session.setLastProgress(progress);
             }
             
-            // 检查是否接收完成
+            // 检查是否接收完成（完成时总会force一次，除非配置为从不force）
             if (received >= session.getUploadFileSize()) {
+                if (forceIntervalBytes > 0 || forceIntervalMillis > 0) {
+                    fileChannel.force(false);
+                }
                 session.finishUpload();
                 
                 log("文件接收完成: " + session.getUploadFilename());
@@ -448,6 +687,389 @@ public class NIOFileServer {
         }
     }
 
+    /**
+     * 上传数据经由池化的直接内存Buffer写入文件（一次读、一次写）
+     * 
+     * @return 本次写入的字节数，连接关闭时返回-1
+     */
+    private long copyFromSocket(FileChannel fileChannel, SocketChannel socketChannel,
+                                long position, long remaining) throws IOException {
+        // 上传Buffer只在本次读写期间借出
+        ByteBuffer buffer = arena.acquire(BUFFER_SIZE);
+        try {
+            buffer.limit((int) Math.min(BUFFER_SIZE, remaining));
+            int bytesRead = socketChannel.read(buffer);
+            if (bytesRead > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += fileChannel.write(buffer, position);
+                }
+            }
+            return bytesRead;
+        } finally {
+            arena.release(buffer);
+        }
+    }
+
+    /**
+     * 上传数据用transferFrom交给文件，一次调用内循环读写，不经过本服务的Buffer
+     * 
+     * <p>transferFrom在Socket没有数据和对端关闭时都返回0；可读事件下返回0时再读1个字节区分两者。
+     * 
+     * @return 本次写入的字节数，连接关闭时返回-1
+     */
+    private long transferFromSocket(FileChannel fileChannel, SocketChannel socketChannel,
+                                    long position, long remaining) throws IOException {
+        long transferred = fileChannel.transferFrom(socketChannel, position, Math.min(remaining, TRANSFER_FROM_SIZE));
+        if (transferred > 0) {
+            return transferred;
+        }
+        
+        ByteBuffer probe = arena.acquire(1);
+        try {
+            probe.limit(1);
+            int n = socketChannel.read(probe);
+            if (n > 0) {
+                probe.flip();
+                fileChannel.write(probe, position);
+            }
+            return n;
+        } finally {
+            arena.release(probe);
+        }
+    }
+
+    /**
+     * 是否到了批量force的时机
+     */
+    private boolean isForceDue(ClientSession session) {
+        long bytes = forceIntervalBytes;
+        long millis = forceIntervalMillis;
+        return (bytes > 0 && session.unforcedBytes >= bytes)
+                || (millis > 0 && now - session.lastForceTime >= millis);
+    }
+
+    /**
+     * 处理STAT命令
+     */
+    private void handleStatCommand(SocketChannel clientChannel, String filename) throws IOException {
+        Path filePath = fileDirectory.resolve(filename);
+        if (!Files.isRegularFile(filePath)) {
+            sendResponse(clientChannel, "ERROR|文件不存在: " + filename + "\n");
+            return;
+        }
+        sendResponse(clientChannel, "OK|" + Files.size(filePath) + "|" + CHUNK_SIZE + "\n");
+    }
+
+    /**
+     * 处理GETSEG命令：发送文件的[offset, offset+length)，按块加帧头
+     */
+    private void handleSegmentDownloadCommand(SelectionKey key, ClientSession session, String filename,
+                                              long offset, long length) throws IOException {
+        Path filePath = fileDirectory.resolve(filename);
+        if (!Files.isRegularFile(filePath)) {
+            sendResponse(session.getChannel(), "ERROR|文件不存在: " + filename + "\n");
+            return;
+        }
+        
+        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        long fileSize = fileChannel.size();
+        if (!isValidSegment(fileSize, offset, length)) {
+            fileChannel.close();
+            sendResponse(session.getChannel(), "ERROR|无效的分段: " + offset + "+" + length + "\n");
+            return;
+        }
+        
+        session.startSegmentDownload(fileChannel, filename, offset, offset + length);
+        session.lastActivityTime = now;
+        scheduleTimeout(session);
+        
+        sendResponse(session.getChannel(), "OK|SEG|" + offset + "|" + length + "\n");
+        log("开始发送分段: " + filename + " [" + offset + ", " + (offset + length) + ")");
+        
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * 发送分段：每块先发帧头（长度 + CRC32C），再用transferTo零拷贝发送块数据
+     */
+    private void handleSegmentDownload(SelectionKey key, ClientSession session) throws IOException {
+        SocketChannel socketChannel = session.getChannel();
+        FileChannel fileChannel = session.getDownloadFileChannel();
+        
+        while (true) {
+            ByteBuffer header = session.frameHeader;
+            if (header != null) {
+                if (socketChannel.write(header) > 0) {
+                    session.lastActivityTime = now;
+                }
+                if (header.hasRemaining()) {
+                    return;     // Socket发送缓冲区已满，等待OP_WRITE
+                }
+                arena.release(header);
+                session.frameHeader = null;
+            }
+            
+            long position = session.getDownloadPosition();
+            if (position < session.chunkEnd) {
+                long transferred = fileChannel.transferTo(position, session.chunkEnd - position, socketChannel);
+                if (transferred > 0) {
+                    session.lastActivityTime = now;
+                    session.updateDownloadPosition(position + transferred);
+                }
+                if (position + transferred < session.chunkEnd) {
+                    return;
+                }
+                continue;
+            }
+            
+            if (position >= session.getDownloadFileSize()) {
+                // 段发送完成
+                session.finishDownload();
+                key.interestOps(SelectionKey.OP_READ);
+                log("分段发送完成: " + session.getDownloadFilename());
+                sendResponse(socketChannel, "OK|段完成\n");
+                return;
+            }
+            
+            // 下一块：先算校验和，再渲染帧头
+            int length = (int) Math.min(CHUNK_SIZE, session.getDownloadFileSize() - position);
+            int crc = checksum(fileChannel, position, length);
+            header = arena.acquire(FRAME_HEADER_SIZE);
+            header.putInt(length).putInt(crc).flip();
+            session.frameHeader = header;
+            session.chunkEnd = position + length;
+        }
+    }
+
+    /**
+     * 计算文件中一块的CRC32C（经由池化的直接内存读取，数据不进入堆）
+     */
+    private int checksum(FileChannel fileChannel, long position, int length) throws IOException {
+        downloadChecksum.reset();
+        ByteBuffer buffer = arena.acquire(DirectBufferPool.MAX_SIZE_CLASS);
+        try {
+            long end = position + length;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int n = fileChannel.read(buffer, position);
+                if (n < 0) {
+                    throw new IOException("文件在传输过程中被截断");
+                }
+                buffer.flip();
+                Crc32c.update(downloadChecksum, buffer);
+                position += n;
+            }
+        } finally {
+            arena.release(buffer);
+        }
+        return (int) downloadChecksum.getValue();
+    }
+
+    /**
+     * 处理RESUME命令：返回上传目标中未完成的块
+     */
+    private void handleResumeCommand(SocketChannel clientChannel, String filename, long fileSize) throws IOException {
+        UploadTarget target = acquireUploadTarget(filename, fileSize);
+        if (target == null) {
+            sendResponse(clientChannel, "ERROR|文件大小与进行中的上传不一致: " + filename + "\n");
+            return;
+        }
+        String missing = TransferManifest.formatRuns(target.manifest.missingRuns());
+        releaseUploadTarget(target);
+        sendResponse(clientChannel, "OK|缺失|" + CHUNK_SIZE + "|" + missing + "\n");
+    }
+
+    /**
+     * 处理PUTSEG命令：之后的块帧定位写入.part文件
+     */
+    private void handleSegmentUploadCommand(ClientSession session, String filename, long fileSize,
+                                            long offset, long length) throws IOException {
+        if (!isValidSegment(fileSize, offset, length)) {
+            sendResponse(session.getChannel(), "ERROR|无效的分段: " + offset + "+" + length + "\n");
+            return;
+        }
+        UploadTarget target = acquireUploadTarget(filename, fileSize);
+        if (target == null) {
+            sendResponse(session.getChannel(), "ERROR|文件大小与进行中的上传不一致: " + filename + "\n");
+            return;
+        }
+        
+        session.startSegmentUpload(target, offset, offset + length);
+        session.lastActivityTime = now;
+        
+        sendResponse(session.getChannel(), "OK|准备接收|" + offset + "|" + length + "\n");
+        log("开始接收分段: " + filename + " [" + offset + ", " + (offset + length) + ")");
+    }
+
+    /**
+     * 接收分段：读帧头，再把块数据边校验边定位写入；每次读取不超过当前块的剩余字节
+     */
+    private void handleSegmentUpload(ClientSession session) throws IOException {
+        SocketChannel socketChannel = session.getChannel();
+        
+        if (session.uploadPosition >= session.chunkEnd) {
+            // 帧头阶段（可能分多次读到）
+            if (session.frameHeader == null) {
+                session.frameHeader = arena.acquire(FRAME_HEADER_SIZE);
+                session.frameHeader.limit(FRAME_HEADER_SIZE);
+            }
+            ByteBuffer header = session.frameHeader;
+            int n = socketChannel.read(header);
+            if (n == -1) {
+                handleClientDisconnect(socketChannel);
+                return;
+            }
+            if (n > 0) {
+                session.lastActivityTime = now;
+            }
+            if (header.hasRemaining()) {
+                return;
+            }
+            header.flip();
+            int length = header.getInt();
+            session.expectedCrc = header.getInt();
+            arena.release(header);
+            session.frameHeader = null;
+            
+            int expected = (int) Math.min(CHUNK_SIZE, session.segmentEnd - session.uploadPosition);
+            if (length != expected) {
+                sendResponse(socketChannel, "ERROR|块长度错误: " + length + "，应为" + expected + "\n");
+                handleClientDisconnect(socketChannel);
+                return;
+            }
+            session.chunkEnd = session.uploadPosition + length;
+            session.checksum().reset();
+        }
+        
+        // 块数据阶段
+        UploadTarget target = session.uploadTarget;
+        ByteBuffer buffer = arena.acquire(DirectBufferPool.MAX_SIZE_CLASS);
+        int bytesRead;
+        try {
+            buffer.limit((int) Math.min(buffer.capacity(), session.chunkEnd - session.uploadPosition));
+            bytesRead = socketChannel.read(buffer);
+            if (bytesRead > 0) {
+                buffer.flip();
+                Crc32c.update(session.checksum(), buffer.duplicate());
+                long position = session.uploadPosition;
+                while (buffer.hasRemaining()) {
+                    position += target.channel.write(buffer, position);
+                }
+            }
+        } finally {
+            arena.release(buffer);
+        }
+        
+        if (bytesRead == -1) {
+            handleClientDisconnect(socketChannel);
+            return;
+        }
+        if (bytesRead == 0) {
+            return;
+        }
+        
+        session.lastActivityTime = now;
+        session.uploadPosition += bytesRead;
+        
+        if (session.uploadPosition == session.chunkEnd) {
+            int chunk = (int) ((session.chunkEnd - 1) / CHUNK_SIZE);
+            if ((int) session.checksum().getValue() == session.expectedCrc) {
+                target.manifest.markDone(chunk);
+            } else {
+                session.badChunks++;
+                log("块校验失败: " + target.filename + " 第" + chunk + "块");
+            }
+        }
+        
+        if (session.uploadPosition >= session.segmentEnd) {
+            int badChunks = session.badChunks;
+            int remaining = target.manifest.missingCount();
+            session.finishSegmentUpload();
+            releaseUploadTarget(target);
+            
+            log("分段接收完成: " + target.filename + "，坏块" + badChunks + "，剩余" + remaining + "块");
+            sendResponse(socketChannel, "OK|段完成|" + badChunks + "|" + remaining + "\n");
+        }
+    }
+
+    /**
+     * 段必须按块对齐，且除最后一段外长度是块大小的整数倍
+     */
+    private static boolean isValidSegment(long fileSize, long offset, long length) {
+        return offset >= 0 && length > 0 && offset + length <= fileSize
+                && offset % CHUNK_SIZE == 0
+                && (offset + length == fileSize || length % CHUNK_SIZE == 0);
+    }
+
+    /**
+     * 打开（或复用已打开的）上传目标：预分配大小的.part文件 + 续传清单
+     * 
+     * @return 文件大小与进行中的上传不一致时返回null
+     */
+    private UploadTarget acquireUploadTarget(String filename, long fileSize) throws IOException {
+        UploadTarget target = uploadTargets.get(filename);
+        if (target == null) {
+            Path partPath = fileDirectory.resolve(filename + PART_SUFFIX);
+            FileChannel channel = FileChannel.open(partPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            TransferManifest manifest;
+            try {
+                preallocate(channel, fileSize);
+                manifest = TransferManifest.openOrCreate(
+                        fileDirectory.resolve(filename + MANIFEST_SUFFIX), channel, fileSize, CHUNK_SIZE);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            target = new UploadTarget(filename, partPath, channel, manifest);
+            uploadTargets.put(filename, target);
+        } else if (target.manifest.getFileLength() != fileSize) {
+            return null;
+        }
+        target.refCount++;
+        return target;
+    }
+
+    /**
+     * 释放上传目标；最后一个使用者释放时，全部块已完成则改名为正式文件，否则关闭等待续传
+     */
+    private void releaseUploadTarget(UploadTarget target) throws IOException {
+        if (--target.refCount > 0) {
+            return;
+        }
+        uploadTargets.remove(target.filename);
+        
+        if (!target.manifest.isComplete()) {
+            // 清单关闭时要force数据文件，先关清单
+            try {
+                target.manifest.close();
+            } finally {
+                target.channel.close();
+            }
+            return;
+        }
+        
+        target.channel.force(true);
+        target.channel.close();
+        Files.move(target.partPath, fileDirectory.resolve(target.filename), StandardCopyOption.REPLACE_EXISTING);
+        target.manifest.delete();
+        log("分段上传完成: " + target.filename + " (" + target.manifest.getFileLength() + " 字节)");
+    }
+
+    /**
+     * 一次性把文件设为最终大小（在末尾写一个字节），多个连接定位写时文件不再反复扩展
+     */
+    private static void preallocate(FileChannel channel, long fileSize) throws IOException {
+        long size = channel.size();
+        if (size > fileSize) {
+            channel.truncate(fileSize);
+        } else if (size < fileSize) {
+            channel.write(ByteBuffer.wrap(new byte[1]), fileSize - 1);
+        }
+    }
+
     /**
      * 处理客户端断开连接
      */
@@ -455,6 +1077,14 @@ public class NIOFileServer {
         ClientSession session = sessions.remove(channel);
         
         if (session != null) {
+            timingWheel.cancel(session);
+            sessionCount = sessions.size();
+            if (session.uploadTarget != null) {
+                // 上传到一半断开：已校验的块保留在清单中，等待续传
+                UploadTarget target = session.uploadTarget;
+                session.finishSegmentUpload();
+                releaseUploadTarget(target);
+            }
             session.close();
             log("客户端断开连接: " + channel.getRemoteAddress());
         }
@@ -482,26 +1112,45 @@ public class NIOFileServer {
      * 发送响应
      */
     private void sendResponse(SocketChannel channel, String response) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
         
-        while (buffer.hasRemaining()) {
-            channel.write(buffer);
+        // 直接内存写Socket，避免JDK再拷贝一次到临时直接内存
+        ByteBuffer buffer = arena.acquire(bytes.length);
+        try {
+            buffer.put(bytes);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            arena.release(buffer);
         }
     }
+    
+    /**
+     * 连接Buffer所在的池，用于观察借出量和峰值
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
 
     /**
      * 日志输出
      */
     private void log(String message) {
+        if (!logEnabled) {
+            return;
+        }
         System.out.println("[" + new Date() + "] " + message);
     }
 
     /**
-     * 客户端会话
+     * 客户端会话（直接继承时间轮节点）
      */
-    static class ClientSession {
+    static class ClientSession extends HashedTimingWheel.Timeout {
         private SocketChannel channel;
-        private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final DirectBufferPool.Arena arena;
+        private ByteBuffer readBuffer;  // 命令Buffer，null表示未借出
         
         // 下载相关
         private boolean downloading = false;
@@ -516,12 +1165,29 @@ public class NIOFileServer {
         private String uploadFilename;
         private long uploadFileSize;
         private long uploadReceived;
-        private ByteBuffer uploadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
         
         private int lastProgress = -1;
         
-        public ClientSession(SocketChannel channel) {
+        // 分段传输相关（下载复用downloadPosition/downloadFileSize作为当前位置和段结束位置）
+        private boolean segment = false;
+        ByteBuffer frameHeader;         // 正在发送或接收的块帧头
+        long chunkEnd;                  // 当前块的结束位置
+        UploadTarget uploadTarget;
+        long uploadPosition;
+        long segmentEnd;
+        int expectedCrc;
+        int badChunks;
+        private Checksum checksum;
+        
+        // 批量force
+        long unforcedBytes;             // 上次force之后写入的字节数
+        long lastForceTime;
+        
+        long lastActivityTime;          // 最近一次读写有进展的时间（单调时钟，毫秒）
+        
+        public ClientSession(SocketChannel channel, DirectBufferPool.Arena arena) {
             this.channel = channel;
+            this.arena = arena;
         }
         
         public SocketChannel getChannel() {
@@ -532,6 +1198,27 @@ public class NIOFileServer {
             return readBuffer;
         }
         
+        /**
+         * 借出读Buffer；上次还留有半行命令时继续使用同一个Buffer
+         */
+        public ByteBuffer acquireReadBuffer() {
+            if (readBuffer == null) {
+                readBuffer = arena.acquire(BUFFER_SIZE);
+                readBuffer.limit(BUFFER_SIZE);
+            }
+            return readBuffer;
+        }
+        
+        /**
+         * 读Buffer中没有残留字节时归还，空闲连接不再占用Buffer
+         */
+        public void releaseDrainedReadBuffer() {
+            if (readBuffer != null && readBuffer.position() == 0) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+        
         // 下载相关方法
         public void startDownload(FileChannel fileChannel, String filename, long fileSize) {
             this.downloading = true;
@@ -542,8 +1229,16 @@ public class NIOFileServer {
             this.lastProgress = -1;
         }
         
+        public void startSegmentDownload(FileChannel fileChannel, String filename, long start, long end) {
+            startDownload(fileChannel, filename, end);
+            this.segment = true;
+            this.downloadPosition = start;
+            this.chunkEnd = start;
+        }
+        
         public void finishDownload() throws IOException {
             this.downloading = false;
+            this.segment = false;
             if (downloadFileChannel != null) {
                 downloadFileChannel.close();
                 downloadFileChannel = null;
@@ -581,6 +1276,7 @@ public class NIOFileServer {
             this.uploadFilename = filename;
             this.uploadFileSize = fileSize;
             this.uploadReceived = 0;
+            this.unforcedBytes = 0;
             this.lastProgress = -1;
         }
         
@@ -592,6 +1288,43 @@ public class NIOFileServer {
             }
         }
         
+        public void startSegmentUpload(UploadTarget target, long start, long end) {
+            this.uploading = true;
+            this.segment = true;
+            this.uploadTarget = target;
+            this.uploadPosition = start;
+            this.chunkEnd = start;
+            this.segmentEnd = end;
+            this.badChunks = 0;
+        }
+        
+        /**
+         * 段接收结束（或中断）：调用方负责释放uploadTarget
+         */
+        public void finishSegmentUpload() {
+            this.uploading = false;
+            this.segment = false;
+            this.uploadTarget = null;
+            if (frameHeader != null) {
+                arena.release(frameHeader);
+                frameHeader = null;
+            }
+        }
+        
+        public boolean isSegment() {
+            return segment;
+        }
+        
+        /**
+         * 上传块的CRC32C校验器（跨多次读取累积，每个会话一个）
+         */
+        Checksum checksum() {
+            if (checksum == null) {
+                checksum = Crc32c.newChecksum();
+            }
+            return checksum;
+        }
+        
         public boolean isUploading() {
             return uploading;
         }
@@ -616,10 +1349,6 @@ public class NIOFileServer {
             this.uploadReceived = received;
         }
         
-        public ByteBuffer getUploadBuffer() {
-            return uploadBuffer;
-        }
-        
         public int getLastProgress() {
             return lastProgress;
         }
@@ -635,6 +1364,32 @@ public class NIOFileServer {
             if (uploadFileChannel != null) {
                 uploadFileChannel.close();
             }
+            if (readBuffer != null) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
+            if (frameHeader != null) {
+                arena.release(frameHeader);
+                frameHeader = null;
+            }
+        }
+    }
+
+    /**
+     * 进行中的分段上传目标：多个连接共享同一个.part文件和清单，最后一个连接释放时收尾
+     */
+    static class UploadTarget {
+        final String filename;
+        final Path partPath;
+        final FileChannel channel;
+        final TransferManifest manifest;
+        int refCount;
+        
+        UploadTarget(String filename, Path partPath, FileChannel channel, TransferManifest manifest) {
+            this.filename = filename;
+            this.partPath = partPath;
+            this.channel = channel;
+            this.manifest = manifest;
         }
     }
 }
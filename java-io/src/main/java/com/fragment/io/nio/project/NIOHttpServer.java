@@ -1,5 +1,10 @@
 package com.fragment.io.nio.project;
 
+import com.fragment.io.nio.buffer.DirectBufferPool;
+import com.fragment.io.nio.timer.HashedTimingWheel;
+import com.fragment.io.optimization.project.cache.StaticContentCache;
+import com.fragment.io.optimization.project.zerocopy.ByteRanges;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -13,8 +18,13 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * NIO HTTP服务器（实战项目）
@@ -25,7 +35,9 @@ import java.util.*;
  *   <li>支持GET和POST请求</li>
  *   <li>支持静态文件服务</li>
  *   <li>支持零拷贝传输文件</li>
+ *   <li>支持Range/If-Range断点续传和多区间（multipart/byteranges）响应</li>
  *   <li>支持Keep-Alive</li>
+ *   <li>支持HTTP/1.1流水线（pipelining）</li>
  *   <li>支持基本的路由功能</li>
  *   <li>使用主从Reactor模式</li>
  * </ul>
@@ -48,15 +60,37 @@ import java.util.*;
  * <p>设计要点：
  * <ul>
  *   <li>问题1：如何解析HTTP请求？
- *       解决：按行读取请求头，解析请求行和Header</li>
+ *       解决：{@link HttpRequestParser}状态机直接扫描读Buffer，跨多次read增量解析，
+ *       Header只记录下标，用到时才生成String</li>
  *   <li>问题2：如何处理不同的Content-Type？
  *       解决：根据文件扩展名返回对应的MIME类型</li>
  *   <li>问题3：如何支持Keep-Alive？
  *       解决：解析Connection头，保持连接不关闭</li>
  *   <li>问题4：如何高效传输大文件？
  *       解决：使用FileChannel.transferTo()零拷贝</li>
+ *   <li>问题5：客户端流水线（pipelining）一次发来多个请求怎么办？
+ *       解决：一次解析读Buffer中所有完整的请求，响应按顺序排队，
+ *       连续的响应头和小Body用一次gathering write(ByteBuffer[])发出，大文件仍走transferTo</li>
+ *   <li>问题6：热点静态文件每次请求都要open()/stat()、重新拼响应头怎么办？
+ *       解决：{@link StaticContentCache}把小文件和预渲染的响应头放在直接内存中，
+ *       WatchService负责失效，ETag/If-Modified-Since命中时直接返回304</li>
+ *   <li>问题7：单个Selector线程打满一个核，其它核空闲怎么办？
+ *       解决：主从Reactor，主Reactor只accept，连接轮询分发给N个从Reactor，
+ *       每个从Reactor独占一个Selector和一张会话表，无需加锁</li>
+ *   <li>问题8：每个连接常驻8KB读Buffer和响应Buffer，大量空闲长连接浪费内存？
+ *       解决：读写Buffer从所属从Reactor的{@link DirectBufferPool.Arena}借出，
+ *       读Buffer中没有半个请求、响应发送完毕后立即归还，空闲连接不持有Buffer；
+ *       池中是直接内存，Socket读写不再有堆到直接内存的拷贝</li>
+ *   <li>问题9：客户端掉线、只发半个请求或者不读响应，连接永远不会被回收？
+ *       解决：每个从Reactor一个{@link HashedTimingWheel}，由select(timeout)驱动，
+ *       按会话状态分别执行读空闲（等待请求头）、写停滞（响应发不出去）和Keep-Alive空闲超时</li>
+ *   <li>问题10：拖动视频进度、断点续传时整个文件重新传一遍？
+ *       解决：{@link ByteRanges}解析Range/If-Range，返回206；多区间时逐段写分段头，
+ *       每个区间都用transferTo从文件直接发送，不进入用户态</li>
  * </ul>
  * 
+ * <p>启动方式：java NIOHttpServer [port] [从Reactor数量，0为单Reactor模式]
+ * 
  * @author fragment
  */
 public class NIOHttpServer {
@@ -64,13 +98,46 @@ public class NIOHttpServer {
     private static final int DEFAULT_PORT = 8080;
     private static final String WEB_ROOT = System.getProperty("user.home") + "/nio_http_server/webroot";
     private static final int BUFFER_SIZE = 8192;
+    private static final int HEADER_BUFFER_SIZE = 512;
+    private static final int SMALL_BODY_LIMIT = 8192;      // 不超过该大小的Body随响应头一起gathering write
+    private static final int MAX_PIPELINED = 16;           // 每个连接最多排队的响应数
+    private static final long MAX_REQUEST_BODY = 1024 * 1024;  // 请求Body只跳过不处理，超过的直接413
+    private static final long CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int CACHE_MAX_FILE_SIZE = 1024 * 1024;
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 1024;
+    private static final long DEFAULT_READ_IDLE_TIMEOUT = 10_000;     // 等待(剩余的)请求头
+    private static final long DEFAULT_WRITE_STALL_TIMEOUT = 30_000;   // 响应发送没有任何进展
+    private static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 15_000;    // 两个请求之间的空闲
+    
+    // 会话当前适用的超时类型
+    private static final int TIMEOUT_READ_IDLE = 0;
+    private static final int TIMEOUT_WRITE_STALL = 1;
+    private static final int TIMEOUT_KEEP_ALIVE = 2;
     
-    private Selector selector;
+    private final String webRootDir;
+    private final int workerCount;          // 从Reactor数量，0表示单Reactor模式
+    
+    private Selector bossSelector;          // 主Reactor的Selector（仅主从模式）
     private ServerSocketChannel serverChannel;
+    private SubReactor[] subReactors;
+    private int next = 0;                   // 轮询索引
     private Path webRoot;
+    private StaticContentCache contentCache;
+    private DirectBufferPool bufferPool;
+    
+    private volatile boolean running;
+    private volatile boolean logEnabled = true;
+    private volatile HttpDate httpDate;     // 缓存的Date响应头（秒级）
+    private final String rangeBoundary = ByteRanges.newBoundary();  // multipart/byteranges分隔符
     
-    // 客户端会话管理
-    private Map<SocketChannel, HttpSession> sessions = new HashMap<>();
+    private volatile long readIdleTimeout = DEFAULT_READ_IDLE_TIMEOUT;
+    private volatile long writeStallTimeout = DEFAULT_WRITE_STALL_TIMEOUT;
+    private volatile long keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    
+    // 连接与超时统计
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong[] timeoutCounts = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
     
     // MIME类型映射
     private static final Map<String, String> MIME_TYPES = new HashMap<>();
@@ -92,14 +159,31 @@ public class NIOHttpServer {
         MIME_TYPES.put("zip", "application/zip");
     }
 
+    public NIOHttpServer() {
+        this(WEB_ROOT, 0);
+    }
+
+    /**
+     * @param webRootDir  Web根目录
+     * @param workerCount 从Reactor数量；&lt;=0时退化为单Reactor单线程模式
+     */
+    public NIOHttpServer(String webRootDir, int workerCount) {
+        this.webRootDir = webRootDir;
+        this.workerCount = workerCount;
+    }
+
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
         if (args.length > 0) {
             port = Integer.parseInt(args[0]);
         }
+        if (args.length > 1) {
+            workers = Integer.parseInt(args[1]);
+        }
         
         try {
-            new NIOHttpServer().start(port);
+            new NIOHttpServer(WEB_ROOT, workers).start(port);
         } catch (IOException e) {
             System.err.println("服务器启动失败: " + e.getMessage());
             e.printStackTrace();
@@ -107,210 +191,616 @@ public class NIOHttpServer {
     }
 
     /**
-     * 启动HTTP服务器
+     * 启动HTTP服务器（阻塞直到stop()被调用）
      */
     public void start(int port) throws IOException {
         // 创建Web根目录
-        webRoot = Paths.get(WEB_ROOT);
+        webRoot = Paths.get(webRootDir);
         if (!Files.exists(webRoot)) {
             Files.createDirectories(webRoot);
             createDefaultIndexPage();
         }
         
-        selector = Selector.open();
+        contentCache = new StaticContentCache(webRoot, CACHE_MAX_BYTES, CACHE_MAX_FILE_SIZE, this::getContentType);
+        bufferPool = new DirectBufferPool();
         
         serverChannel = ServerSocketChannel.open();
         serverChannel.bind(new InetSocketAddress(port));
         serverChannel.configureBlocking(false);
-        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        
+        if (workerCount <= 0) {
+            // 单Reactor：accept与读写都在当前线程的同一个Selector上
+            subReactors = new SubReactor[]{new SubReactor(0)};
+            serverChannel.register(subReactors[0].selector, SelectionKey.OP_ACCEPT);
+            printBanner(port, "单Reactor单线程");
+            subReactors[0].run();
+            return;
+        }
         
-        System.out.println("╔════════════════════════════════════════╗");
-        System.out.println("║      NIO HTTP服务器启动成功            ║");
-        System.out.println("╠════════════════════════════════════════╣");
-        System.out.println("║  监听端口: " + port + "                        ║");
-        System.out.println("║  Web根目录: " + WEB_ROOT);
-        System.out.println("║  访问地址: http://localhost:" + port + "/       ║");
-        System.out.println("╚════════════════════════════════════════╝");
-        System.out.println();
+        // 主从Reactor：主Reactor只负责accept，连接轮询分发给从Reactor
+        bossSelector = Selector.open();
+        serverChannel.register(bossSelector, SelectionKey.OP_ACCEPT);
         
-        // 事件循环
-        while (true) {
-            selector.select();
+        subReactors = new SubReactor[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            subReactors[i] = new SubReactor(i);
+            new Thread(subReactors[i], "http-sub-reactor-" + i).start();
+        }
+        printBanner(port, "主从Reactor(1 + " + workerCount + ")");
+        
+        // 主Reactor事件循环
+        while (running) {
+            bossSelector.select();
             
-            Set<SelectionKey> selectedKeys = selector.selectedKeys();
+            Set<SelectionKey> selectedKeys = bossSelector.selectedKeys();
             Iterator<SelectionKey> iterator = selectedKeys.iterator();
             
             while (iterator.hasNext()) {
                 SelectionKey key = iterator.next();
                 iterator.remove();
                 
-                try {
-                    if (!key.isValid()) {
-                        continue;
-                    }
-                    
-                    if (key.isAcceptable()) {
-                        handleAccept(key);
-                    } else if (key.isReadable()) {
-                        handleRead(key);
-                    } else if (key.isWritable()) {
-                        handleWrite(key);
-                    }
-                } catch (IOException e) {
-                    handleException(key, e);
+                if (key.isValid() && key.isAcceptable()) {
+                    dispatchConnection();
                 }
             }
         }
+        
+        bossSelector.close();
+    }
+
+    /**
+     * 停止服务器
+     */
+    public void stop() {
+        running = false;
+        
+        if (bossSelector != null) {
+            bossSelector.wakeup();
+        }
+        if (subReactors != null) {
+            for (SubReactor subReactor : subReactors) {
+                subReactor.selector.wakeup();
+            }
+        }
+        
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (contentCache != null) {
+                log(contentCache.getStats());
+                contentCache.close();
+            }
+            if (bufferPool != null) {
+                log(bufferPool.getStats());
+            }
+            log(getTimeoutStats());
+        } catch (IOException e) {
+            log("关闭服务端Channel时发生异常: " + e.getMessage());
+        }
+    }
+
+    public void setLogEnabled(boolean logEnabled) {
+        this.logEnabled = logEnabled;
     }
 
     /**
-     * 处理连接事件
+     * 设置超时时间（毫秒），需在start()之前调用
+     * 
+     * @param readIdleTimeout   新连接或请求头只到了一半时，等待后续字节的时间
+     * @param writeStallTimeout 有待发送的响应但一直写不出去的时间
+     * @param keepAliveTimeout  响应发完后等待下一个请求的时间
      */
-    private void handleAccept(SelectionKey key) throws IOException {
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+    public void setTimeouts(long readIdleTimeout, long writeStallTimeout, long keepAliveTimeout) {
+        this.readIdleTimeout = readIdleTimeout;
+        this.writeStallTimeout = writeStallTimeout;
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * 当前打开的连接数
+     */
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public String getTimeoutStats() {
+        return String.format("Timeouts[readIdle=%d, writeStall=%d, keepAlive=%d]",
+                timeoutCounts[TIMEOUT_READ_IDLE].get(), timeoutCounts[TIMEOUT_WRITE_STALL].get(),
+                timeoutCounts[TIMEOUT_KEEP_ALIVE].get());
+    }
+
+    /**
+     * 会话读写Buffer所在的池（start()之后可用），用于观察借出量和峰值
+     */
+    public DirectBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    private void printBanner(int port, String threadModel) {
+        if (!logEnabled) {
+            return;
+        }
+        System.out.println("╔════════════════════════════════════════╗");
+        System.out.println("║      NIO HTTP服务器启动成功            ║");
+        System.out.println("╠════════════════════════════════════════╣");
+        System.out.println("║  监听端口: " + port + "                        ║");
+        System.out.println("║  线程模型: " + threadModel);
+        System.out.println("║  Web根目录: " + webRootDir);
+        System.out.println("║  访问地址: http://localhost:" + port + "/       ║");
+        System.out.println("╚════════════════════════════════════════╝");
+        System.out.println();
+    }
+
+    /**
+     * 主Reactor：接收连接并轮询分发到从Reactor
+     */
+    private void dispatchConnection() throws IOException {
         SocketChannel clientChannel = serverChannel.accept();
         
         if (clientChannel != null) {
-            clientChannel.configureBlocking(false);
-            clientChannel.register(selector, SelectionKey.OP_READ);
-            
-            // 创建HTTP会话
-            HttpSession session = new HttpSession(clientChannel);
-            sessions.put(clientChannel, session);
-            
-            log("新连接: " + clientChannel.getRemoteAddress());
+            SubReactor subReactor = subReactors[next];
+            next = (next + 1) % subReactors.length;
+            subReactor.registerChannel(clientChannel);
         }
     }
 
     /**
-     * 处理读事件
+     * 从Reactor：一个线程 + 一个Selector + 一张会话表
+     * 
+     * <p>会话表、Buffer Arena、时间轮和gathering write数组都只被所属线程访问，因此无需加锁；
+     * 主Reactor通过pendingChannels队列 + wakeup()把新连接交给从Reactor注册。
      */
-    private void handleRead(SelectionKey key) throws IOException {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        HttpSession session = sessions.get(clientChannel);
+    class SubReactor implements Runnable {
+        private final int id;
+        private final Selector selector;
+        private final DirectBufferPool.Arena arena;
+        private final Map<SocketChannel, HttpSession> sessions = new HashMap<>();
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_PIPELINED * 2];
+        private final HashedTimingWheel<HttpSession> timingWheel =
+                new HashedTimingWheel<>(TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+        private final Consumer<HttpSession> timeoutHandler = this::onTimeout;
+        private long now;                   // 本轮事件循环的时间（单调时钟，毫秒）
+        
+        SubReactor(int id) throws IOException {
+            this.id = id;
+            this.selector = Selector.open();
+            this.arena = bufferPool.newArena();
+        }
         
-        if (session == null) {
-            return;
+        /**
+         * 注册Channel（由主Reactor线程调用）
+         */
+        void registerChannel(SocketChannel channel) {
+            pendingChannels.offer(channel);
+            selector.wakeup();
         }
         
-        ByteBuffer buffer = session.getReadBuffer();
-        int bytesRead = clientChannel.read(buffer);
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    now = timingWheel.now();
+                    registerPendingChannels();
+                    
+                    // 最多阻塞到时间轮的下一格
+                    selector.select(timingWheel.millisUntilNextTick(now));
+                    now = timingWheel.now();
+                    
+                    Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                    Iterator<SelectionKey> iterator = selectedKeys.iterator();
+                    
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            
+                            if (key.isAcceptable()) {
+                                handleAccept(key);
+                            } else if (key.isReadable()) {
+                                handleRead(key);
+                            } else if (key.isWritable()) {
+                                handleWrite(key);
+                            }
+                        } catch (IOException e) {
+                            handleException(key, e);
+                        }
+                    }
+                    
+                    timingWheel.expire(now, timeoutHandler);
+                } catch (IOException e) {
+                    log("[SubReactor-" + id + "] 事件循环异常: " + e.getMessage());
+                }
+            }
+            
+            shutdown();
+        }
         
-        if (bytesRead == -1) {
-            closeConnection(clientChannel);
-            return;
+        private void registerPendingChannels() throws IOException {
+            SocketChannel channel;
+            while ((channel = pendingChannels.poll()) != null) {
+                register(channel);
+            }
         }
         
-        if (bytesRead > 0) {
-            buffer.flip();
+        private void register(SocketChannel clientChannel) throws IOException {
+            clientChannel.configureBlocking(false);
+            clientChannel.register(selector, SelectionKey.OP_READ);
             
-            // 解析HTTP请求
-            if (parseHttpRequest(session, buffer)) {
-                // 请求解析完成，处理请求
-                handleHttpRequest(key, session);
+            // 创建HTTP会话
+            HttpSession session = new HttpSession(clientChannel, arena);
+            sessions.put(clientChannel, session);
+            connectionCount.incrementAndGet();
+            
+            // 新连接在读空闲超时内必须发来第一个请求
+            session.lastReadTime = now;
+            session.lastWriteTime = now;
+            scheduleTimeout(session);
+            
+            log("新连接: " + clientChannel.getRemoteAddress() + " -> SubReactor-" + id);
+        }
+
+        /**
+         * 处理连接事件（仅单Reactor模式）
+         */
+        private void handleAccept(SelectionKey key) throws IOException {
+            ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+            SocketChannel clientChannel = serverChannel.accept();
+            
+            if (clientChannel != null) {
+                register(clientChannel);
             }
+        }
+
+        /**
+         * 处理读事件
+         */
+        private void handleRead(SelectionKey key) throws IOException {
+            SocketChannel clientChannel = (SocketChannel) key.channel();
+            HttpSession session = sessions.get(clientChannel);
             
-            buffer.compact();
+            if (session == null) {
+                return;
+            }
+            
+            // 读Buffer只在读期间借出（或者其中还留着半个请求）
+            int bytesRead = clientChannel.read(session.acquireReadBuffer());
+            
+            if (bytesRead == -1) {
+                closeConnection(clientChannel);
+                return;
+            }
+            
+            if (bytesRead > 0) {
+                session.lastReadTime = now;
+                serve(key, session);
+            } else {
+                session.releaseDrainedReadBuffer();
+            }
         }
-    }
 
-    /**
-     * 处理写事件
-     */
-    private void handleWrite(SelectionKey key) throws IOException {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        HttpSession session = sessions.get(clientChannel);
+        /**
+         * 处理写事件
+         */
+        private void handleWrite(SelectionKey key) throws IOException {
+            SocketChannel clientChannel = (SocketChannel) key.channel();
+            HttpSession session = sessions.get(clientChannel);
+            
+            if (session == null) {
+                return;
+            }
+            
+            serve(key, session);
+        }
+
+        /**
+         * 解析读Buffer中所有完整的请求、按顺序发送响应，并根据队列状态调整关注的事件
+         */
+        private void serve(SelectionKey key, HttpSession session) throws IOException {
+            while (true) {
+                int handled = processRequests(session);
+                
+                if (flush(session)) {
+                    return;     // 连接已关闭
+                }
+                
+                // 响应全部发完后，Buffer里可能还有因队列已满而暂未解析的请求
+                if (handled == 0 || session.hasPendingResponses()) {
+                    break;
+                }
+            }
+            
+            session.releaseDrainedReadBuffer();
+            
+            int ops = 0;
+            if (session.hasPendingResponses()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!session.isClosing() && !session.isResponseQueueFull()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+            
+            scheduleTimeout(session);
+        }
         
-        if (session == null) {
-            return;
+        /**
+         * 会话状态变化后更新定时器
+         * 
+         * <p>只记录活跃时间、不在每次读写时重挂定时器：截止时间变晚时等定时器到期再续期，
+         * 只有截止时间变早（例如从Keep-Alive空闲进入半个请求头的状态）才立即重挂。
+         */
+        private void scheduleTimeout(HttpSession session) {
+            long deadline = timeoutDeadline(session);
+            if (!session.isScheduled() || deadline < session.deadline()) {
+                timingWheel.schedule(session, deadline);
+            }
         }
         
-        // 如果正在发送文件
-        if (session.isTransferringFile()) {
-            transferFile(key, session);
-        } else {
-            // 发送响应头和Body
-            ByteBuffer writeBuffer = session.getWriteBuffer();
+        /**
+         * 时间轮回调：重新计算截止时间，真正超时才关闭连接
+         */
+        private void onTimeout(HttpSession session) {
+            long deadline = timeoutDeadline(session);
+            if (now < deadline) {
+                timingWheel.schedule(session, deadline);
+                return;
+            }
             
-            if (writeBuffer.hasRemaining()) {
-                clientChannel.write(writeBuffer);
+            int kind = session.timeoutKind();
+            timeoutCounts[kind].incrementAndGet();
+            try {
+                log("连接超时(" + (kind == TIMEOUT_READ_IDLE ? "读空闲" : kind == TIMEOUT_WRITE_STALL ? "写停滞" : "Keep-Alive")
+                        + "): " + session.getChannel().getRemoteAddress());
+                closeConnection(session.getChannel());
+            } catch (IOException e) {
+                log("关闭超时连接时发生异常: " + e.getMessage());
+            }
+        }
+
+        /**
+         * 解析读Buffer中所有完整的请求（HTTP流水线），每个请求的响应按顺序进入发送队列
+         * 
+         * @return 本次处理的请求数
+         */
+        private int processRequests(HttpSession session) throws IOException {
+            ByteBuffer buffer = session.getReadBuffer();
+            if (buffer == null) {
+                return 0;       // 没有尚未解析的字节
             }
+            HttpRequestParser parser = session.getParser();
+            int handled = 0;
             
-            if (!writeBuffer.hasRemaining()) {
-                // 写完成
-                if (session.isKeepAlive()) {
-                    // Keep-Alive，继续读取下一个请求
-                    session.reset();
-                    key.interestOps(SelectionKey.OP_READ);
+            while (!session.isClosing() && !session.isResponseQueueFull()) {
+                // 增量解析HTTP请求（读Buffer保持写模式，只扫描新到达的字节）
+                int result = parser.parse(buffer);
+                
+                if (result == HttpRequestParser.COMPLETE) {
+                    session.requestCount++;
+                    // 流水线里Body后面才是下一个请求：长度不确定或太长就回错误并关连接
+                    long bodyLength = parser.contentLength();
+                    if (parser.hasHeader("Transfer-Encoding")) {
+                        sendErrorResponse(session, 411, "Length Required");
+                    } else if (bodyLength == -2) {
+                        sendErrorResponse(session, 400, "Bad Request");
+                    } else if (bodyLength > MAX_REQUEST_BODY) {
+                        sendErrorResponse(session, 413, "Payload Too Large");
+                    } else {
+                        handleHttpRequest(session);
+                        parser.reset(parser.requestEnd());
+                        if (bodyLength > 0) {
+                            parser.skipBody(bodyLength);
+                        }
+                    }
+                    handled++;
+                } else if (result == HttpRequestParser.BAD_REQUEST) {
+                    sendErrorResponse(session, 400, "Bad Request");
+                    handled++;
                 } else {
-                    // 关闭连接
-                    closeConnection(clientChannel);
+                    if (parser.requestStart() == 0 && !buffer.hasRemaining()) {
+                        // 读Buffer已被一个未完成的请求头占满
+                        sendErrorResponse(session, 431, "Request Header Fields Too Large");
+                        handled++;
+                    }
+                    break;
                 }
             }
+            
+            session.discardParsedBytes();
+            return handled;
         }
-    }
 
-    /**
-     * 解析HTTP请求
-     */
-    private boolean parseHttpRequest(HttpSession session, ByteBuffer buffer) {
-        while (buffer.hasRemaining()) {
-            byte b = buffer.get();
-            session.appendRequestData((char) b);
+        /**
+         * 按顺序发送队列中的响应
+         * 
+         * <p>连续的响应头和小Body合并成一次gathering write；遇到大文件时，
+         * 先把它的响应头一起写出，Body再单独走transferTo零拷贝。
+         * 
+         * @return 连接是否已关闭
+         */
+        private boolean flush(HttpSession session) throws IOException {
+            SocketChannel channel = session.getChannel();
+            ByteBuffer[] gather = gatherBuffers;
             
-            // 检查是否读取完请求头（遇到\r\n\r\n）
-            String requestData = session.getRequestData();
-            if (requestData.endsWith("\r\n\r\n")) {
-                // 解析请求行和请求头
-                String[] lines = requestData.split("\r\n");
+            while (session.hasPendingResponses()) {
+                HttpResponse head = session.peekResponse();
                 
-                // 解析请求行：GET /index.html HTTP/1.1
-                String[] requestLine = lines[0].split(" ");
-                if (requestLine.length >= 3) {
-                    session.setMethod(requestLine[0]);
-                    session.setUri(requestLine[1]);
-                    session.setProtocol(requestLine[2]);
-                }
-                
-                // 解析请求头
-                for (int i = 1; i < lines.length; i++) {
-                    String line = lines[i];
-                    if (line.isEmpty()) {
-                        break;
+                if (head.isHeaderWritten() && head.hasFileBody()) {
+                    if (head.partHeader != null && head.partHeader.hasRemaining()) {
+                        // multipart/byteranges的分段头或结束分隔符
+                        if (channel.write(head.partHeader) > 0) {
+                            session.lastWriteTime = now;
+                        }
+                        if (head.partHeader.hasRemaining()) {
+                            return false;
+                        }
+                    } else if (head.fileRemaining() > 0) {
+                        // 文件Body（或其中一个区间）：零拷贝，每次最多传输1MB
+                        long chunkSize = Math.min(head.fileRemaining(), 1024 * 1024);
+                        long transferred = head.file.transferTo(head.filePosition, chunkSize, channel);
+                        head.filePosition += transferred;
+                        if (transferred > 0) {
+                            session.lastWriteTime = now;
+                        }
+                        if (transferred == 0) {
+                            return false;   // Socket发送缓冲区已满，等待OP_WRITE
+                        }
+                    } else {
+                        // 当前区间发完：准备下一个分段头（或结束分隔符）
+                        head.nextPart();
+                    }
+                } else {
+                    // 收集连续的响应头和小Body，直到遇到一个大文件响应
+                    int count = 0;
+                    long expected = 0;
+                    for (int i = 0; i < session.pendingResponses(); i++) {
+                        HttpResponse response = session.responseAt(i);
+                        if (response.header.hasRemaining()) {
+                            gather[count++] = response.header;
+                            expected += response.header.remaining();
+                        }
+                        if (response.body != null && response.body.hasRemaining()) {
+                            gather[count++] = response.body;
+                            expected += response.body.remaining();
+                        }
+                        if (response.hasFileBody()) {
+                            break;
+                        }
                     }
                     
-                    int colonIndex = line.indexOf(':');
-                    if (colonIndex > 0) {
-                        String headerName = line.substring(0, colonIndex).trim();
-                        String headerValue = line.substring(colonIndex + 1).trim();
-                        session.addHeader(headerName, headerValue);
+                    long written = channel.write(gather, 0, count);
+                    Arrays.fill(gather, 0, count, null);
+                    if (written > 0) {
+                        session.lastWriteTime = now;
+                    }
+                    if (written < expected) {
+                        popCompleted(session);
+                        return false;   // Socket发送缓冲区已满，等待OP_WRITE
                     }
                 }
                 
-                // 检查是否Keep-Alive
-                String connection = session.getHeader("Connection");
-                session.setKeepAlive("keep-alive".equalsIgnoreCase(connection));
+                if (popCompleted(session)) {
+                    return true;
+                }
+            }
+            
+            return false;
+        }
+
+        /**
+         * 移除队首已发送完的响应
+         * 
+         * @return 是否因Connection: close而关闭了连接
+         */
+        private boolean popCompleted(HttpSession session) throws IOException {
+            while (session.hasPendingResponses() && session.peekResponse().isDone()) {
+                boolean close = session.peekResponse().close;
+                session.popResponse();
                 
-                return true;
+                if (close) {
+                    closeConnection(session.getChannel());
+                    return true;
+                }
             }
+            return false;
+        }
+
+        /**
+         * 关闭连接
+         */
+        private void closeConnection(SocketChannel channel) throws IOException {
+            HttpSession session = sessions.remove(channel);
+            
+            if (session != null) {
+                timingWheel.cancel(session);
+                connectionCount.decrementAndGet();
+                session.close();
+            }
+            
+            channel.close();
+        }
+
+        /**
+         * 处理异常
+         */
+        private void handleException(SelectionKey key, IOException e) {
+            log("处理请求时发生异常: " + e.getMessage());
+            
+            try {
+                if (key.channel() instanceof SocketChannel) {
+                    closeConnection((SocketChannel) key.channel());
+                }
+            } catch (IOException ex) {
+                log("关闭连接时发生异常: " + ex.getMessage());
+            }
+            
+            key.cancel();
         }
         
-        return false;
+        /**
+         * 退出事件循环后释放所有连接
+         */
+        private void shutdown() {
+            for (SocketChannel channel : new ArrayList<>(sessions.keySet())) {
+                try {
+                    closeConnection(channel);
+                } catch (IOException e) {
+                    log("关闭连接时发生异常: " + e.getMessage());
+                }
+            }
+            
+            arena.close();
+            
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log("关闭Selector时发生异常: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 会话当前状态下的超时截止时间
+     */
+    private long timeoutDeadline(HttpSession session) {
+        long lastActivity = Math.max(session.lastReadTime, session.lastWriteTime);
+        switch (session.timeoutKind()) {
+            case TIMEOUT_WRITE_STALL:
+                return lastActivity + writeStallTimeout;
+            case TIMEOUT_READ_IDLE:
+                return session.lastReadTime + readIdleTimeout;
+            default:
+                return lastActivity + keepAliveTimeout;
+        }
     }
 
     /**
      * 处理HTTP请求
      */
-    private void handleHttpRequest(SelectionKey key, HttpSession session) throws IOException {
-        String method = session.getMethod();
-        String uri = session.getUri();
+    private void handleHttpRequest(HttpSession session) throws IOException {
+        HttpRequestParser request = session.getParser();
         
-        log(method + " " + uri + " [" + session.getChannel().getRemoteAddress() + "]");
+        // 检查是否Keep-Alive（直接比较Buffer中的字节，不生成String）：
+        // HTTP/1.1默认长连接，除非Connection: close；HTTP/1.0默认短连接，除非Connection: keep-alive
+        session.setKeepAlive(request.versionEquals("HTTP/1.1")
+                ? !request.headerEqualsIgnoreCase("Connection", "close")
+                : request.headerEqualsIgnoreCase("Connection", "keep-alive"));
+        
+        String uri = request.uri();
+        
+        if (logEnabled) {
+            log(request.method() + " " + uri + " [" + session.getChannel().getRemoteAddress() + "]");
+        }
         
         // 只支持GET请求
-        if (!"GET".equalsIgnoreCase(method)) {
+        if (!request.methodEquals("GET")) {
             sendErrorResponse(session, 405, "Method Not Allowed");
-            key.interestOps(SelectionKey.OP_WRITE);
             return;
         }
         
@@ -319,124 +809,179 @@ public class NIOHttpServer {
             uri = "/index.html";
         }
         
+        // 热点文件：内容和响应头都在内存中，不再open()/stat()（Range请求走文件，按区间零拷贝）
+        if (request.header("Range") == null) {
+            StaticContentCache.Entry entry = contentCache.get(uri);
+            if (entry != null) {
+                sendCachedResponse(session, entry);
+                return;
+            }
+        }
+        
         // 构建文件路径
         Path filePath = webRoot.resolve(uri.substring(1)); // 去掉开头的/
         
         // 检查文件是否存在
         if (!Files.exists(filePath)) {
             sendErrorResponse(session, 404, "Not Found");
-            key.interestOps(SelectionKey.OP_WRITE);
             return;
         }
         
         // 检查是否是文件
         if (!Files.isRegularFile(filePath)) {
             sendErrorResponse(session, 403, "Forbidden");
-            key.interestOps(SelectionKey.OP_WRITE);
             return;
         }
         
         // 发送文件
         sendFileResponse(session, filePath);
-        key.interestOps(SelectionKey.OP_WRITE);
     }
 
     /**
-     * 发送文件响应
+     * 发送文件响应（整文件200，或按Range返回206）
      */
     private void sendFileResponse(HttpSession session, Path filePath) throws IOException {
-        long fileSize = Files.size(filePath);
+        HttpRequestParser request = session.getParser();
+        BasicFileAttributes attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
+        long fileSize = attrs.size();
+        long lastModifiedMillis = attrs.lastModifiedTime().toMillis();
+        String etag = StaticContentCache.etag(fileSize, lastModifiedMillis);
+        String lastModified = StaticContentCache.httpDate(lastModifiedMillis);
         String contentType = getContentType(filePath);
         
-        // 构建响应头
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 200 OK\r\n");
-        response.append("Content-Type: ").append(contentType).append("\r\n");
-        response.append("Content-Length: ").append(fileSize).append("\r\n");
-        
-        if (session.isKeepAlive()) {
-            response.append("Connection: keep-alive\r\n");
-        } else {
-            response.append("Connection: close\r\n");
+        // If-Range不匹配（文件已变化）时忽略Range，返回整文件
+        ByteRanges ranges = null;
+        String range = request.header("Range");
+        if (range != null && ByteRanges.ifRangeMatches(request.header("If-Range"), etag, lastModified)) {
+            ranges = ByteRanges.parse(range, fileSize);
         }
-        
-        response.append("Server: NIO-HTTP-Server/1.0\r\n");
-        response.append("Date: ").append(getHttpDate()).append("\r\n");
-        response.append("\r\n");
-        
-        // 将响应头写入Buffer
-        ByteBuffer writeBuffer = session.getWriteBuffer();
-        writeBuffer.clear();
-        writeBuffer.put(response.toString().getBytes(StandardCharsets.UTF_8));
-        writeBuffer.flip();
-        
-        // 打开文件准备传输
-        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
-        session.startFileTransfer(fileChannel, fileSize);
-    }
-
-    /**
-     * 传输文件（零拷贝）
-     */
-    private void transferFile(SelectionKey key, HttpSession session) throws IOException {
-        // 先发送响应头
-        ByteBuffer writeBuffer = session.getWriteBuffer();
-        if (writeBuffer.hasRemaining()) {
-            session.getChannel().write(writeBuffer);
+        if (ranges == ByteRanges.UNSATISFIABLE) {
+            sendRangeNotSatisfiable(session, fileSize);
             return;
         }
         
-        // 使用零拷贝传输文件
-        FileChannel fileChannel = session.getFileChannel();
-        SocketChannel socketChannel = session.getChannel();
-        
-        long position = session.getFilePosition();
-        long remaining = session.getFileSize() - position;
+        HttpResponse response = session.addResponse(!session.isKeepAlive());
+        
+        // 响应头直接写入Buffer，不经过StringBuilder/String/byte[]
+        ByteBuffer header = response.header;
+        if (ranges == null) {
+            putAscii(header, "HTTP/1.1 200 OK\r\nContent-Type: ");
+            putAscii(header, contentType);
+            putAscii(header, "\r\nContent-Length: ");
+            putLong(header, fileSize);
+        } else if (!ranges.isMultipart()) {
+            putAscii(header, "HTTP/1.1 206 Partial Content\r\nContent-Type: ");
+            putAscii(header, contentType);
+            putAscii(header, "\r\nContent-Range: ");
+            putAscii(header, ranges.contentRange(0, fileSize));
+            putAscii(header, "\r\nContent-Length: ");
+            putLong(header, ranges.length(0));
+        } else {
+            putAscii(header, "HTTP/1.1 206 Partial Content\r\nContent-Type: multipart/byteranges; boundary=");
+            putAscii(header, rangeBoundary);
+            putAscii(header, "\r\nContent-Length: ");
+            putLong(header, ranges.multipartLength(rangeBoundary, contentType, fileSize));
+        }
+        putAscii(header, "\r\nAccept-Ranges: bytes\r\nETag: ");
+        putAscii(header, etag);
+        putAscii(header, "\r\nLast-Modified: ");
+        putAscii(header, lastModified);
+        putAscii(header, session.isKeepAlive() ? "\r\nConnection: keep-alive" : "\r\nConnection: close");
+        putAscii(header, "\r\nServer: NIO-HTTP-Server/1.0\r\nDate: ");
+        header.put(getHttpDate());
+        putAscii(header, "\r\n\r\n");
+        header.flip();
         
-        if (remaining <= 0) {
-            // 传输完成
-            session.finishFileTransfer();
-            
-            if (session.isKeepAlive()) {
-                session.reset();
-                key.interestOps(SelectionKey.OP_READ);
+        FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ);
+        if (ranges != null) {
+            // 区间响应：无论大小都走transferTo，文件内容不进入用户态
+            if (ranges.isMultipart()) {
+                response.setMultipartBody(fileChannel, ranges, rangeBoundary, contentType, fileSize);
             } else {
-                closeConnection(socketChannel);
+                response.setFileBody(fileChannel, ranges.start(0), ranges.end(0));
             }
             return;
         }
+        if (fileSize > SMALL_BODY_LIMIT) {
+            // 大文件：响应头发送完后走transferTo零拷贝
+            response.setFileBody(fileChannel, 0, fileSize);
+            return;
+        }
         
-        // 每次最多传输1MB
-        long chunkSize = Math.min(remaining, 1024 * 1024);
-        long transferred = fileChannel.transferTo(position, chunkSize, socketChannel);
-        
-        if (transferred > 0) {
-            session.updateFilePosition(position + transferred);
+        // 小文件：读入内存，和前后响应的响应头一起用一次gathering write发出
+        try {
+            ByteBuffer body = response.allocateBody((int) fileSize);
+            while (body.hasRemaining() && fileChannel.read(body) >= 0) {
+                // 读取文件内容
+            }
+            body.flip();
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+    /**
+     * 发送缓存中的文件：预渲染的响应头 + 共享的只读Body，条件请求命中时直接返回304
+     */
+    private void sendCachedResponse(HttpSession session, StaticContentCache.Entry entry) {
+        HttpRequestParser request = session.getParser();
+        boolean notModified = entry.isNotModified(
+                request.header("If-None-Match"), request.header("If-Modified-Since"));
+        
+        HttpResponse response = session.addResponse(!session.isKeepAlive());
+        
+        ByteBuffer header = response.header;
+        header.put(notModified ? entry.notModifiedHeader() : entry.okHeader());
+        putAscii(header, session.isKeepAlive() ? "Connection: keep-alive" : "Connection: close");
+        putAscii(header, "\r\nServer: NIO-HTTP-Server/1.0\r\nDate: ");
+        header.put(getHttpDate());
+        putAscii(header, "\r\n\r\n");
+        header.flip();
+        
+        if (!notModified) {
+            response.body = entry.content();
         }
     }
 
+    /**
+     * 416：所有区间都超出文件长度（连接保持，客户端通常会改用整文件请求）
+     */
+    private void sendRangeNotSatisfiable(HttpSession session, long fileSize) {
+        HttpResponse response = session.addResponse(!session.isKeepAlive());
+        
+        ByteBuffer header = response.header;
+        putAscii(header, "HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: ");
+        putAscii(header, ByteRanges.unsatisfiedContentRange(fileSize));
+        putAscii(header, "\r\nContent-Length: 0");
+        putAscii(header, session.isKeepAlive() ? "\r\nConnection: keep-alive" : "\r\nConnection: close");
+        putAscii(header, "\r\nServer: NIO-HTTP-Server/1.0\r\nDate: ");
+        header.put(getHttpDate());
+        putAscii(header, "\r\n\r\n");
+        header.flip();
+    }
+
     /**
      * 发送错误响应
      */
     private void sendErrorResponse(HttpSession session, int statusCode, String statusMessage) {
         String body = "<html><body><h1>" + statusCode + " " + statusMessage + "</h1></body></html>";
         
-        StringBuilder response = new StringBuilder();
-        response.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusMessage).append("\r\n");
-        response.append("Content-Type: text/html\r\n");
-        response.append("Content-Length: ").append(body.length()).append("\r\n");
-        response.append("Connection: close\r\n");
-        response.append("Server: NIO-HTTP-Server/1.0\r\n");
-        response.append("Date: ").append(getHttpDate()).append("\r\n");
-        response.append("\r\n");
-        response.append(body);
-        
-        ByteBuffer writeBuffer = session.getWriteBuffer();
-        writeBuffer.clear();
-        writeBuffer.put(response.toString().getBytes(StandardCharsets.UTF_8));
-        writeBuffer.flip();
-        
+        // 错误响应后关闭连接，流水线中其后的请求不再处理
         session.setKeepAlive(false);
+        HttpResponse response = session.addResponse(true);
+        
+        ByteBuffer header = response.header;
+        putAscii(header, "HTTP/1.1 ");
+        putLong(header, statusCode);
+        putAscii(header, " ");
+        putAscii(header, statusMessage);
+        putAscii(header, "\r\nContent-Type: text/html\r\nContent-Length: ");
+        putLong(header, body.length());
+        putAscii(header, "\r\nConnection: close\r\nServer: NIO-HTTP-Server/1.0\r\nDate: ");
+        header.put(getHttpDate());
+        putAscii(header, "\r\n\r\n");
+        putAscii(header, body);
+        header.flip();
     }
 
     /**
@@ -456,40 +1001,59 @@ public class NIOHttpServer {
 
     /**
      * 获取HTTP日期格式
+     * 
+     * <p>Date头精度只到秒，每秒最多格式化一次，其余请求直接复用缓存的字节
      */
-    private String getHttpDate() {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
-        return dateFormat.format(new Date());
+    private byte[] getHttpDate() {
+        long second = System.currentTimeMillis() / 1000;
+        HttpDate date = httpDate;
+        
+        if (date == null || date.second != second) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z", Locale.US);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+            String formatted = dateFormat.format(new Date(second * 1000));
+            date = new HttpDate(second, formatted.getBytes(StandardCharsets.US_ASCII));
+            httpDate = date;
+        }
+        
+        return date.bytes;
     }
 
     /**
-     * 关闭连接
+     * 把ASCII字符串逐字节写入Buffer
      */
-    private void closeConnection(SocketChannel channel) throws IOException {
-        HttpSession session = sessions.remove(channel);
-        
-        if (session != null) {
-            session.close();
+    private static void putAscii(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte) value.charAt(i));
         }
-        
-        channel.close();
     }
 
     /**
-     * 处理异常
+     * 把非负整数以十进制写入Buffer（先倒序写入，再原地翻转）
      */
-    private void handleException(SelectionKey key, IOException e) {
-        log("处理请求时发生异常: " + e.getMessage());
-        
-        try {
-            SocketChannel channel = (SocketChannel) key.channel();
-            closeConnection(channel);
-        } catch (IOException ex) {
-            log("关闭连接时发生异常: " + ex.getMessage());
+    private static void putLong(ByteBuffer buffer, long value) {
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        
+        int end = buffer.position() - 1;
+        while (start < end) {
+            byte tmp = buffer.get(start);
+            buffer.put(start++, buffer.get(end));
+            buffer.put(end--, tmp);
         }
+    }
+
+    private static final class HttpDate {
+        final long second;
+        final byte[] bytes;
         
-        key.cancel();
+        HttpDate(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
     }
 
     /**
@@ -559,7 +1123,7 @@ public class NIOHttpServer {
                 "        \n" +
                 "        <div class=\"feature\">\n" +
                 "            <h3>📁 文件目录</h3>\n" +
-                "            <p>Web根目录: <code>" + WEB_ROOT + "</code></p>\n" +
+                "            <p>Web根目录: <code>" + webRootDir + "</code></p>\n" +
                 "            <p>将你的HTML、CSS、JS文件放到这个目录下即可访问。</p>\n" +
                 "        </div>\n" +
                 "        \n" +
@@ -587,34 +1151,43 @@ public class NIOHttpServer {
      * 日志输出
      */
     private void log(String message) {
+        if (!logEnabled) {
+            return;
+        }
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         System.out.println("[" + dateFormat.format(new Date()) + "] " + message);
     }
 
     /**
      * HTTP会话
+     * 
+     * <p>会话本身不常驻任何Buffer：读Buffer在读期间借出，解析完且没有残留字节时归还；
+     * 响应头和小Body的Buffer在响应入队时借出，发送完出队时归还。
+     * 会话直接继承时间轮节点，超时管理不额外分配对象。
      */
-    static class HttpSession {
+    static class HttpSession extends HashedTimingWheel.Timeout {
         private SocketChannel channel;
-        private ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-        private ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-        
-        // 请求信息
-        private StringBuilder requestData = new StringBuilder();
-        private String method;
-        private String uri;
-        private String protocol;
-        private Map<String, String> headers = new HashMap<>();
+        private final DirectBufferPool.Arena arena;
+        private ByteBuffer readBuffer;  // 写模式，有效数据位于[0, position)；null表示未借出
+        
+        // 请求信息（只记录下标，按需解码）
+        private final HttpRequestParser parser = new HttpRequestParser();
         private boolean keepAlive = false;
         
-        // 文件传输
-        private boolean transferringFile = false;
-        private FileChannel fileChannel;
-        private long fileSize;
-        private long filePosition;
+        // 响应队列（环形数组，按请求顺序发送；槽位和其中的Buffer会被复用）
+        private final HttpResponse[] responses = new HttpResponse[MAX_PIPELINED];
+        private int responseHead;
+        private int responseCount;
+        private boolean closing;        // 已排入Connection: close的响应，不再解析后续请求
+        
+        // 超时管理（单调时钟，毫秒）
+        long lastReadTime;
+        long lastWriteTime;
+        int requestCount;
         
-        public HttpSession(SocketChannel channel) {
+        public HttpSession(SocketChannel channel, DirectBufferPool.Arena arena) {
             this.channel = channel;
+            this.arena = arena;
         }
         
         public SocketChannel getChannel() {
@@ -625,102 +1198,251 @@ public class NIOHttpServer {
             return readBuffer;
         }
         
-        public ByteBuffer getWriteBuffer() {
-            return writeBuffer;
+        /**
+         * 借出读Buffer；上次还留有未解析完的字节时继续使用同一个Buffer
+         */
+        public ByteBuffer acquireReadBuffer() {
+            if (readBuffer == null) {
+                readBuffer = arena.acquire(BUFFER_SIZE);
+                readBuffer.limit(BUFFER_SIZE);
+                parser.reset();
+            }
+            return readBuffer;
         }
         
-        public void appendRequestData(char c) {
-            requestData.append(c);
+        /**
+         * 读Buffer中的请求都已处理完时归还，空闲的Keep-Alive连接不再占用Buffer
+         */
+        public void releaseDrainedReadBuffer() {
+            if (readBuffer != null && readBuffer.position() == 0) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
         }
         
-        public String getRequestData() {
-            return requestData.toString();
+        public HttpRequestParser getParser() {
+            return parser;
         }
         
-        public void setMethod(String method) {
-            this.method = method;
+        public String getUri() {
+            return parser.uri();
         }
         
-        public String getMethod() {
-            return method;
+        public String getHeader(String name) {
+            return parser.header(name);
         }
         
-        public void setUri(String uri) {
-            this.uri = uri;
+        public void setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
         }
         
-        public String getUri() {
-            return uri;
+        public boolean isKeepAlive() {
+            return keepAlive;
         }
         
-        public void setProtocol(String protocol) {
-            this.protocol = protocol;
+        public boolean isClosing() {
+            return closing;
         }
         
-        public void addHeader(String name, String value) {
-            headers.put(name, value);
+        /**
+         * 有响应没发完时看写停滞；还没收到过请求、或读Buffer里有半个请求时看读空闲；否则是Keep-Alive空闲
+         */
+        int timeoutKind() {
+            if (hasPendingResponses()) {
+                return TIMEOUT_WRITE_STALL;
+            }
+            if (requestCount == 0 || readBuffer != null) {
+                return TIMEOUT_READ_IDLE;
+            }
+            return TIMEOUT_KEEP_ALIVE;
         }
         
-        public String getHeader(String name) {
-            return headers.get(name);
+        /**
+         * 在队尾追加一个响应
+         */
+        public HttpResponse addResponse(boolean close) {
+            int index = (responseHead + responseCount) % responses.length;
+            HttpResponse response = responses[index];
+            if (response == null) {
+                response = new HttpResponse(arena);
+                responses[index] = response;
+            }
+            
+            response.acquireHeader();
+            response.close = close;
+            if (close) {
+                closing = true;
+            }
+            responseCount++;
+            return response;
         }
         
-        public void setKeepAlive(boolean keepAlive) {
-            this.keepAlive = keepAlive;
+        public HttpResponse peekResponse() {
+            return responses[responseHead];
         }
         
-        public boolean isKeepAlive() {
-            return keepAlive;
+        public HttpResponse responseAt(int i) {
+            return responses[(responseHead + i) % responses.length];
         }
         
-        public void startFileTransfer(FileChannel fileChannel, long fileSize) {
-            this.transferringFile = true;
-            this.fileChannel = fileChannel;
-            this.fileSize = fileSize;
-            this.filePosition = 0;
+        public void popResponse() throws IOException {
+            responses[responseHead].clear();
+            responseHead = (responseHead + 1) % responses.length;
+            responseCount--;
         }
         
-        public void finishFileTransfer() throws IOException {
-            this.transferringFile = false;
-            if (fileChannel != null) {
-                fileChannel.close();
-                fileChannel = null;
-            }
+        public int pendingResponses() {
+            return responseCount;
+        }
+        
+        public boolean hasPendingResponses() {
+            return responseCount > 0;
         }
         
-        public boolean isTransferringFile() {
-            return transferringFile;
+        public boolean isResponseQueueFull() {
+            return responseCount == responses.length;
         }
         
-        public FileChannel getFileChannel() {
-            return fileChannel;
+        /**
+         * 丢弃读Buffer头部已处理完的请求，保留其后已经到达的字节
+         */
+        public void discardParsedBytes() {
+            int consumed = parser.requestStart();
+            if (consumed > 0) {
+                readBuffer.flip();
+                readBuffer.position(consumed);
+                readBuffer.compact();
+                parser.shift(consumed);
+            }
+        }
+        
+        public void close() throws IOException {
+            while (hasPendingResponses()) {
+                popResponse();
+            }
+            if (readBuffer != null) {
+                arena.release(readBuffer);
+                readBuffer = null;
+            }
+        }
+    }
+
+    /**
+     * 一个待发送的HTTP响应：响应头 + 小Body（内存）或文件Body（零拷贝）
+     * 
+     * <p>文件Body是文件中的一个区间[filePosition, fileEnd)；multipart/byteranges响应依次切换区间，
+     * 每个区间之前先写出partHeader中的分段头，最后写结束分隔符。
+     * 
+     * <p>槽位对象随会话复用，其中的Buffer只在响应入队到发送完成期间从Arena借出。
+     */
+    static class HttpResponse {
+        private final DirectBufferPool.Arena arena;
+        ByteBuffer header;
+        private ByteBuffer bodyBuffer;  // 从Arena借出的小Body缓冲区（缓存命中时body直接指向缓存，不借）
+        ByteBuffer body;
+        FileChannel file;
+        long filePosition;
+        long fileEnd;
+        boolean close;
+        
+        // multipart/byteranges
+        private ByteRanges ranges;
+        private int partIndex;          // 下一个要渲染的分段
+        private String boundary;
+        private String partContentType;
+        private long partFileLength;
+        ByteBuffer partHeader;
+        
+        HttpResponse(DirectBufferPool.Arena arena) {
+            this.arena = arena;
         }
         
-        public long getFileSize() {
-            return fileSize;
+        void acquireHeader() {
+            header = arena.acquire(HEADER_BUFFER_SIZE);
+            header.limit(HEADER_BUFFER_SIZE);
         }
         
-        public long getFilePosition() {
-            return filePosition;
+        ByteBuffer allocateBody(int size) {
+            bodyBuffer = arena.acquire(size);
+            bodyBuffer.limit(size);
+            body = bodyBuffer;
+            return body;
         }
         
-        public void updateFilePosition(long position) {
+        void setFileBody(FileChannel file, long position, long end) {
+            this.file = file;
             this.filePosition = position;
+            this.fileEnd = end;
         }
         
-        public void reset() {
-            requestData.setLength(0);
-            method = null;
-            uri = null;
-            protocol = null;
-            headers.clear();
-            readBuffer.clear();
-            writeBuffer.clear();
+        void setMultipartBody(FileChannel file, ByteRanges ranges, String boundary,
+                              String contentType, long fileLength) {
+            setFileBody(file, 0, 0);
+            this.ranges = ranges;
+            this.partIndex = 0;
+            this.boundary = boundary;
+            this.partContentType = contentType;
+            this.partFileLength = fileLength;
         }
         
-        public void close() throws IOException {
-            if (fileChannel != null) {
-                fileChannel.close();
+        /**
+         * 切换到下一个区间并渲染它的分段头；所有区间发完后渲染结束分隔符
+         * 
+         * @return 是否还有内容要发送
+         */
+        boolean nextPart() {
+            if (ranges == null || partIndex > ranges.count()) {
+                return false;
+            }
+            if (partHeader == null) {
+                partHeader = arena.acquire(HEADER_BUFFER_SIZE);
+            }
+            partHeader.clear();
+            if (partIndex < ranges.count()) {
+                putAscii(partHeader, ranges.partHeader(partIndex, boundary, partContentType, partFileLength));
+                filePosition = ranges.start(partIndex);
+                fileEnd = ranges.end(partIndex);
+            } else {
+                putAscii(partHeader, ByteRanges.closeDelimiter(boundary));
+            }
+            partHeader.flip();
+            partIndex++;
+            return true;
+        }
+        
+        boolean isHeaderWritten() {
+            return !header.hasRemaining();
+        }
+        
+        boolean hasFileBody() {
+            return file != null;
+        }
+        
+        long fileRemaining() {
+            return fileEnd - filePosition;
+        }
+        
+        boolean isDone() {
+            return !header.hasRemaining()
+                    && (body == null || !body.hasRemaining())
+                    && (file == null || (filePosition >= fileEnd
+                        && (partHeader == null || !partHeader.hasRemaining())
+                        && (ranges == null || partIndex > ranges.count())));
+        }
+        
+        void clear() throws IOException {
+            arena.release(header);
+            arena.release(bodyBuffer);
+            arena.release(partHeader);
+            header = null;
+            bodyBuffer = null;
+            partHeader = null;
+            ranges = null;
+            body = null;
+            close = false;
+            if (file != null) {
+                file.close();
+                file = null;
             }
         }
     }
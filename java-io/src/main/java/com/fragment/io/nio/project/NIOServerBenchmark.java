@@ -0,0 +1,636 @@
+package com.fragment.io.nio.project;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * NIO实战项目性能基准测试（回环地址）
+ *
+ * <p>测试内容：
+ * <ul>
+ *   <li>NIOHttpServer：单Reactor vs 主从Reactor，Keep-Alive下的请求吞吐随从Reactor数量的变化</li>
+ *   <li>HTTP流水线：每个连接一次发出1/4/16个请求时的吞吐</li>
+ *   <li>HTTP请求解析：StringBuilder逐字节拼接 vs {@link HttpRequestParser}状态机，每个请求的耗时和分配字节数</li>
+ *   <li>空闲长连接：N个处理完一个请求后保持空闲的Keep-Alive连接，池中借出的Buffer字节数 vs 原先每连接常驻的Buffer</li>
+ *   <li>Range拖动：在64MB文件的不同位置读取1MB，整文件GET（读到目标位置为止）vs Range请求的首字节时间和传输字节数</li>
+ *   <li>NIOFileServer上传：读入Buffer再写 vs transferFrom，以及批量force、每次写都force的吞吐和服务端CPU/GB</li>
+ * </ul>
+ *
+ * <p>分配字节数通过HotSpot的{@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}统计，
+ * 服务端的B/req为所有Reactor线程的分配总量除以完成的请求数。
+ *
+ * <p>注意：压测客户端与服务器运行在同一台机器上，会互相争抢CPU，
+ * 结果只用于纵向对比（同一台机器、不同配置），不代表绝对性能。
+ *
+ * <p>启动方式：java NIOServerBenchmark [客户端连接数] [每轮秒数] [空闲连接数] [上传MB数]
+ *
+ * @author fragment
+ */
+public class NIOServerBenchmark {
+
+    private static final int BASE_PORT = 18080;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int idleConnections = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        int uploadMegabytes = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+
+        System.out.println("=== NIO实战项目性能基准测试 ===\n");
+
+        System.out.println("--- HTTP请求解析分配测试 ---");
+        testHttpParserAllocation();
+
+        System.out.println("\n--- NIOHttpServer Reactor扩展性测试 ---");
+        testHttpServerScaling(connections, seconds);
+
+        System.out.println("\n--- NIOHttpServer 流水线测试 ---");
+        testHttpPipelining(connections, seconds);
+
+        System.out.println("\n--- NIOHttpServer 空闲连接Buffer占用测试 ---");
+        testIdleConnectionBuffers(idleConnections);
+
+        System.out.println("\n--- NIOHttpServer Range拖动测试 ---");
+        testRangeSeek();
+
+        System.out.println("\n--- NIOFileServer 上传落盘方式测试 ---");
+        testUploadModes(uploadMegabytes);
+
+        System.out.println("\n=== 测试完成 ===");
+    }
+
+    /**
+     * 依次以单Reactor、1..N个从Reactor启动服务器，用固定数量的Keep-Alive连接压测
+     */
+    private static void testHttpServerScaling(int connections, int seconds) throws Exception {
+        Path webRoot = createWebRoot();
+
+        List<Integer> workerCounts = new ArrayList<>();
+        workerCounts.add(0);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int n = 1; n < cores; n *= 2) {
+            workerCounts.add(n);
+        }
+        workerCounts.add(cores);
+
+        System.out.println("CPU核数: " + cores + ", 客户端连接数: " + connections + ", 每轮: " + seconds + "s\n");
+        System.out.println(String.format("%-22s %12s %12s %10s", "线程模型", "请求数", "req/s", "B/req"));
+
+        double baseline = 0;
+        int port = BASE_PORT;
+        for (int workers : workerCounts) {
+            long[] result = runHttpLoad(webRoot, workers, port++, connections, 1, seconds);
+            long requests = result[0];
+            double rps = (double) requests / seconds;
+            if (baseline == 0) {
+                baseline = rps;
+            }
+            String model = workers == 0 ? "单Reactor" : "主从Reactor(1+" + workers + ")";
+            System.out.println(String.format("%-22s %12d %12.0f %10d  (%.2fx)", model, requests, rps,
+                    requests == 0 ? 0 : result[1] / requests, rps / baseline));
+        }
+
+        deleteWebRoot(webRoot);
+    }
+
+    /**
+     * 单Reactor下对比流水线深度：深度越大，每个请求分摊的read/write系统调用和Selector轮次越少
+     */
+    private static void testHttpPipelining(int connections, int seconds) throws Exception {
+        Path webRoot = createWebRoot();
+
+        System.out.println(String.format("%-22s %12s %12s", "流水线深度", "请求数", "req/s"));
+
+        double baseline = 0;
+        int port = BASE_PORT + 100;
+        for (int depth : new int[]{1, 4, 16}) {
+            long requests = runHttpLoad(webRoot, 0, port++, connections, depth, seconds)[0];
+            double rps = (double) requests / seconds;
+            if (baseline == 0) {
+                baseline = rps;
+            }
+            System.out.println(String.format("%-22s %12d %12.0f  (%.2fx)", "depth=" + depth, requests, rps, rps / baseline));
+        }
+
+        deleteWebRoot(webRoot);
+    }
+
+    /**
+     * 建立N个Keep-Alive连接，每个连接完成一个请求后保持空闲，观察DirectBufferPool的借出量
+     *
+     * <p>原先每个连接常驻一个8KB读Buffer和一个512B响应头Buffer（堆内存），
+     * 现在只有读写进行期间才从池中借出，空闲连接借出量应为0，峰值只取决于同时在读写的连接数。
+     */
+    private static void testIdleConnectionBuffers(int idleConnections) throws Exception {
+        Path webRoot = createWebRoot();
+        int port = BASE_PORT + 200;
+
+        NIOHttpServer server = new NIOHttpServer(webRoot.toString(), 0);
+        server.setLogEnabled(false);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "http-server-idle");
+        serverThread.start();
+        awaitPort(port);
+
+        byte[] request = ("GET /index.html HTTP/1.1\r\n" +
+                "Host: localhost:" + port + "\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+
+        List<SocketChannel> channels = new ArrayList<>(idleConnections);
+        try {
+            ResponseReader reader = new ResponseReader();
+            for (int i = 0; i < idleConnections; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+                channels.add(channel);
+                channel.write(ByteBuffer.wrap(request));
+                reader.readResponse(channel);
+            }
+
+            long legacyBytes = (long) idleConnections * (8192 + 512);
+            System.out.println("空闲Keep-Alive连接数: " + idleConnections);
+            System.out.println(String.format("%-22s %14s", "原方案常驻Buffer", legacyBytes + " 字节"));
+            System.out.println(String.format("%-22s %14s", "池当前借出", server.getBufferPool().getInUseBytes() + " 字节"));
+            System.out.println(String.format("%-22s %14s", "池借出峰值", server.getBufferPool().getHighWaterBytes() + " 字节"));
+            System.out.println(String.format("%-22s %14s", "池占用直接内存", server.getBufferPool().getReservedBytes() + " 字节"));
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            server.stop();
+            serverThread.join();
+            deleteWebRoot(webRoot);
+        }
+    }
+
+    /**
+     * 模拟视频拖动：在文件10%..90%的位置各读取1MB
+     *
+     * <p>不支持Range时客户端只能整文件GET，一直读到目标位置之后的1MB为止；
+     * Range请求只传输这1MB。TTFB为发出请求到收到目标位置第一个字节的时间。
+     */
+    private static void testRangeSeek() throws Exception {
+        Path webRoot = createWebRoot();
+        int port = BASE_PORT + 300;
+        long fileLength = 64L * 1024 * 1024;
+        int window = 1024 * 1024;
+
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(webRoot.resolve("video.bin"))) {
+            for (long written = 0; written < fileLength; written += block.length) {
+                out.write(block);
+            }
+        }
+
+        NIOHttpServer server = new NIOHttpServer(webRoot.toString(), 0);
+        server.setLogEnabled(false);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "http-server-range");
+        serverThread.start();
+        awaitPort(port);
+
+        try {
+            System.out.println("文件大小: " + fileLength / 1024 / 1024 + "MB, 每次读取: " + window / 1024 + "KB\n");
+            System.out.println(String.format("%-8s %14s %14s %14s %14s",
+                    "拖动位置", "整文件TTFB(ms)", "整文件字节", "Range TTFB(ms)", "Range字节"));
+
+            for (int percent = 10; percent <= 90; percent += 20) {
+                long offset = fileLength * percent / 100;
+
+                String full = "GET /video.bin HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+                long[] fullResult = timedGet(port, full, offset, offset + window);
+
+                String ranged = "GET /video.bin HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n" +
+                        "Range: bytes=" + offset + "-" + (offset + window - 1) + "\r\n\r\n";
+                long[] rangeResult = timedGet(port, ranged, 0, window);
+
+                System.out.println(String.format("%-8s %14.2f %14d %14.2f %14d",
+                        percent + "%", fullResult[0] / 1e6, fullResult[1], rangeResult[0] / 1e6, rangeResult[1]));
+            }
+        } finally {
+            server.stop();
+            serverThread.join();
+            deleteWebRoot(webRoot);
+        }
+    }
+
+    /**
+     * 用同一个文件依次测试各种上传落盘方式：吞吐和服务端线程的CPU时间（换算为每GB）
+     *
+     * <p>"每次写都force"只上传1/8的数据量，否则耗时过长；CPU/GB已按实际字节数换算。
+     */
+    private static void testUploadModes(int megabytes) throws Exception {
+        int port = BASE_PORT + 400;
+        Path source = Files.createTempFile("nio-bench-upload", ".bin");
+        byte[] block = new byte[1024 * 1024];
+        new Random(7).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(source)) {
+            for (int i = 0; i < megabytes; i++) {
+                out.write(block);
+            }
+        }
+
+        NIOFileServer server = new NIOFileServer();
+        server.setLogEnabled(false);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "file-server-upload");
+        serverThread.setDaemon(true);      // NIOFileServer没有stop()，随JVM退出
+        serverThread.start();
+        awaitPort(port);
+
+        String remoteName = "nio-bench-upload.bin";
+        long fileSize = Files.size(source);
+        try {
+            // 预热
+            server.setUploadMode(true);
+            server.setForceInterval(0, 0);
+            upload(port, source, remoteName, Math.min(fileSize, 32L * 1024 * 1024));
+            server.setUploadMode(false);
+            upload(port, source, remoteName, Math.min(fileSize, 32L * 1024 * 1024));
+
+            System.out.println("上传大小: " + megabytes + "MB\n");
+            System.out.println(String.format("%-30s %10s %14s %14s", "落盘方式", "MB/s", "服务端CPU(ms)", "CPU ms/GB"));
+
+            Object[][] modes = {
+                    {"读入Buffer再写，从不force（原方案）", false, 0L, 0L, fileSize},
+                    {"transferFrom，从不force", true, 0L, 0L, fileSize},
+                    {"transferFrom，每64MB/1s force", true, 64L * 1024 * 1024, 1000L, fileSize},
+                    {"读入Buffer再写，每次写都force", false, 1L, 0L, fileSize / 8},
+            };
+            for (Object[] mode : modes) {
+                server.setUploadMode((Boolean) mode[1]);
+                server.setForceInterval((Long) mode[2], (Long) mode[3]);
+                long bytes = (Long) mode[4];
+
+                long cpuBefore = threadMXBean().getThreadCpuTime(serverThread.getId());
+                long start = System.nanoTime();
+                upload(port, source, remoteName, bytes);
+                long elapsed = System.nanoTime() - start;
+                long cpu = threadMXBean().getThreadCpuTime(serverThread.getId()) - cpuBefore;
+
+                double gigabytes = bytes / (1024.0 * 1024 * 1024);
+                System.out.println(String.format("%-30s %10.1f %14.1f %14.1f", mode[0],
+                        bytes / 1024.0 / 1024 / (elapsed / 1e9), cpu / 1e6, cpu / 1e6 / gigabytes));
+            }
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(Paths.get(NIOFileServer.FILE_DIR, remoteName));
+        }
+    }
+
+    /**
+     * UPLOAD命令上传文件的前bytes个字节（客户端用transferTo发送）
+     */
+    private static void upload(int port, Path source, String remoteName, long bytes) throws IOException {
+        try (NIOFileClient.SegmentConnection conn = new NIOFileClient.SegmentConnection("localhost", port);
+             FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            conn.command("UPLOAD|" + remoteName + "|" + bytes);
+            long position = 0;
+            while (position < bytes) {
+                position += file.transferTo(position, bytes - position, conn.channel());
+            }
+            String done = conn.readLine();
+            if (!done.startsWith("OK|")) {
+                throw new IOException("上传失败: " + done);
+            }
+        }
+    }
+
+    /**
+     * 发送一个请求，读取响应体直到bodyLimit个字节
+     *
+     * @param firstByteOffset 响应体中"目标数据"开始的位置，到达它的时间记为TTFB
+     * @return [TTFB纳秒, 收到的字节数（含响应头）]
+     */
+    private static long[] timedGet(int port, String request, long firstByteOffset, long bodyLimit) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+            ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+            long start = System.nanoTime();
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+
+            long received = 0;
+            long headerLength = -1;
+            long ttfb = -1;
+            int match = 0;
+            while (headerLength < 0 || received - headerLength < bodyLimit) {
+                in.clear();
+                int n = channel.read(in);
+                if (n < 0) {
+                    break;
+                }
+                for (int i = 0; headerLength < 0 && i < n; i++) {
+                    byte b = in.get(i);
+                    match = (b == '\r' && (match == 0 || match == 2)) || (b == '\n' && (match == 1 || match == 3))
+                            ? match + 1 : (b == '\r' ? 1 : 0);
+                    if (match == 4) {
+                        headerLength = received + i + 1;
+                    }
+                }
+                received += n;
+                if (ttfb < 0 && headerLength >= 0 && received - headerLength > firstByteOffset) {
+                    ttfb = System.nanoTime() - start;
+                }
+            }
+            return new long[]{ttfb, received};
+        }
+    }
+
+    /**
+     * @param depth 每个连接一次性发出的请求数（HTTP流水线深度）
+     * @return [完成的请求数, 服务端Reactor线程分配的字节数]
+     */
+    private static long[] runHttpLoad(Path webRoot, int workers, int port,
+                                      int connections, int depth, int seconds) throws Exception {
+        NIOHttpServer server = new NIOHttpServer(webRoot.toString(), workers);
+        server.setLogEnabled(false);
+
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "http-server-" + workers);
+        serverThread.start();
+        awaitPort(port);
+
+        byte[] single = ("GET /index.html HTTP/1.1\r\n" +
+                "Host: localhost:" + port + "\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] request = new byte[single.length * depth];
+        for (int i = 0; i < depth; i++) {
+            System.arraycopy(single, 0, request, i * single.length, single.length);
+        }
+
+        long allocatedBefore = serverAllocatedBytes();
+        AtomicLong completed = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(connections);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        for (int i = 0; i < connections; i++) {
+            new Thread(() -> {
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+                    channel.socket().setTcpNoDelay(true);
+                    ResponseReader reader = new ResponseReader();
+                    long count = 0;
+                    while (System.nanoTime() < deadline) {
+                        channel.write(ByteBuffer.wrap(request));
+                        for (int r = 0; r < depth; r++) {
+                            reader.readResponse(channel);
+                        }
+                        count += depth;
+                    }
+                    completed.addAndGet(count);
+                } catch (IOException e) {
+                    System.err.println("压测连接异常: " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, "http-client-" + i).start();
+        }
+
+        done.await();
+        long allocated = serverAllocatedBytes() - allocatedBefore;
+        server.stop();
+        serverThread.join();
+        return new long[]{completed.get(), allocated};
+    }
+
+    /**
+     * 解析同一个典型请求若干次，对比两种解析方式的耗时和每次分配的字节数
+     */
+    private static void testHttpParserAllocation() {
+        byte[] request = ("GET /static/js/app.4f1c2a.js HTTP/1.1\r\n" +
+                "Host: www.example.com\r\n" +
+                "Connection: keep-alive\r\n" +
+                "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 Chrome/120.0 Safari/537.36\r\n" +
+                "Accept: */*\r\n" +
+                "Accept-Encoding: gzip, deflate, br\r\n" +
+                "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n" +
+                "Referer: https://www.example.com/index.html\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "\r\n").getBytes(StandardCharsets.US_ASCII);
+        int iterations = 20_000;
+
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        HttpRequestParser parser = new HttpRequestParser();
+
+        // 预热
+        for (int i = 0; i < iterations; i++) {
+            legacyParse(request);
+            stateMachineParse(parser, buffer, request);
+        }
+
+        long legacyBytes = currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += legacyParse(request);
+        }
+        long legacyNanos = System.nanoTime() - start;
+        legacyBytes = currentThreadAllocatedBytes() - legacyBytes;
+
+        long parserBytes = currentThreadAllocatedBytes();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += stateMachineParse(parser, buffer, request);
+        }
+        long parserNanos = System.nanoTime() - start;
+        parserBytes = currentThreadAllocatedBytes() - parserBytes;
+
+        System.out.println("请求大小: " + request.length + " 字节, 次数: " + iterations + " (校验值 " + sink + ")");
+        System.out.println(String.format("StringBuilder逐字节拼接:  %8d ns/req  %8d B/req",
+                legacyNanos / iterations, legacyBytes / iterations));
+        System.out.println(String.format("HttpRequestParser状态机: %8d ns/req  %8d B/req",
+                parserNanos / iterations, parserBytes / iterations));
+    }
+
+    /**
+     * 原NIOHttpServer.parseHttpRequest的解析方式：逐字节追加、每字节toString检查结尾、split成行、HashMap存Header
+     */
+    private static int legacyParse(byte[] request) {
+        StringBuilder requestData = new StringBuilder();
+        for (byte b : request) {
+            requestData.append((char) b);
+            String data = requestData.toString();
+            if (data.endsWith("\r\n\r\n")) {
+                String[] lines = data.split("\r\n");
+                String[] requestLine = lines[0].split(" ");
+                Map<String, String> headers = new HashMap<>();
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+                    }
+                }
+                boolean keepAlive = "keep-alive".equalsIgnoreCase(headers.get("Connection"));
+                return requestLine[1].length() + (keepAlive ? 1 : 0);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 新的解析方式：请求分两次到达，只解码处理器需要的URI
+     */
+    private static int stateMachineParse(HttpRequestParser parser, ByteBuffer buffer, byte[] request) {
+        buffer.clear();
+        parser.reset();
+        int half = request.length / 2;
+        buffer.put(request, 0, half);
+        parser.parse(buffer);
+        buffer.put(request, half, request.length - half);
+        parser.parse(buffer);
+        boolean keepAlive = parser.headerEqualsIgnoreCase("Connection", "keep-alive");
+        return parser.uri().length() + (keepAlive ? 1 : 0);
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return threadMXBean().getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * 统计服务端Reactor线程（主Reactor线程 + 所有从Reactor线程）已分配的字节数
+     */
+    private static long serverAllocatedBytes() {
+        long total = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            if (name.startsWith("http-server-") || name.startsWith("http-sub-reactor-")) {
+                total += threadMXBean().getThreadAllocatedBytes(thread.getId());
+            }
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * 按顺序读取HTTP响应（响应头 + Content-Length指定的Body），多个响应可以挤在同一次read里
+     */
+    static final class ResponseReader {
+        // 读模式：尚未消费的数据位于[position, limit)
+        private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+        ResponseReader() {
+            in.flip();
+        }
+
+        void readResponse(SocketChannel channel) throws IOException {
+            int headerEnd;
+            while ((headerEnd = indexOfHeaderEnd()) < 0) {
+                fill(channel);
+            }
+
+            long remaining = parseContentLength(in.position(), headerEnd);
+            in.position(headerEnd);
+            while (remaining > 0) {
+                if (!in.hasRemaining()) {
+                    fill(channel);
+                }
+                int n = (int) Math.min(remaining, in.remaining());
+                in.position(in.position() + n);
+                remaining -= n;
+            }
+        }
+
+        private void fill(SocketChannel channel) throws IOException {
+            in.compact();
+            int n = channel.read(in);
+            in.flip();
+            if (n < 0) {
+                throw new IOException("连接被服务器关闭");
+            }
+        }
+
+        private int indexOfHeaderEnd() {
+            for (int i = in.position() + 3; i < in.limit(); i++) {
+                if (in.get(i - 3) == '\r' && in.get(i - 2) == '\n'
+                        && in.get(i - 1) == '\r' && in.get(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private long parseContentLength(int start, int headerEnd) {
+            String headers = new String(in.array(), start, headerEnd - start, StandardCharsets.US_ASCII);
+            for (String line : headers.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && "Content-Length".equalsIgnoreCase(line.substring(0, colon).trim())) {
+                    return Long.parseLong(line.substring(colon + 1).trim());
+                }
+            }
+            return 0;
+        }
+    }
+
+    static void awaitPort(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                SocketChannel.open(new InetSocketAddress("localhost", port)).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("服务器未能在端口 " + port + " 启动");
+    }
+
+    private static Path createWebRoot() throws IOException {
+        Path webRoot = Files.createTempDirectory("nio-bench-webroot");
+        StringBuilder html = new StringBuilder("<html><body>");
+        while (html.length() < 1024) {
+            html.append("<p>NIO HTTP benchmark</p>");
+        }
+        html.append("</body></html>");
+        Files.write(webRoot.resolve("index.html"), html.toString().getBytes(StandardCharsets.UTF_8));
+        return webRoot;
+    }
+
+    private static void deleteWebRoot(Path webRoot) throws IOException {
+        try (Stream<Path> files = Files.list(webRoot)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(webRoot);
+    }
+}
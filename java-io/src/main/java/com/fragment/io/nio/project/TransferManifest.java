@@ -0,0 +1,244 @@
+package com.fragment.io.nio.project;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分段传输的断点续传清单（服务端上传、客户端下载共用）
+ *
+ * <p>文件按固定大小切成块，清单只记录"哪些块已经校验通过并写入"。
+ * 文件格式：
+ * <pre>
+ * +--------+------------+-----------+------------------------+
+ * | 魔数(4) | 文件长度(8) | 块大小(4) | 每块1字节：0未完成/1完成  |
+ * +--------+------------+-----------+------------------------+
+ * </pre>
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：连接断开后从头重传？
+ *       解决：重连后读取清单，只传输未完成的块（{@link #missingRuns()}）</li>
+ *   <li>问题2：每完成一块就重写整个清单？
+ *       解决：每块占1个字节，只写新完成的那一段标记</li>
+ *   <li>问题3：标记先于数据落盘，断电后续传出来的文件是坏的？
+ *       解决：块的CRC32C校验通过并写入数据文件之后，先只在内存中标记；
+ *       攒够{@link #SYNC_BYTES}的数据（以及close时）先force数据文件，再写入这批标记。
+ *       清单里记为完成的块，数据一定已经落盘；崩溃或断电时丢的只是最后一批标记，续传时重传这些块</li>
+ * </ul>
+ *
+ * <p>markDone可能被客户端的多个下载线程同时调用，相关方法都加了锁；服务端只有一个Selector线程，锁无竞争。
+ * 清单绑定数据文件的FileChannel，必须先关闭清单、再关闭数据文件。
+ *
+ * @author fragment
+ */
+public class TransferManifest {
+
+    private static final int MAGIC = 0x4E494F4D;    // "NIOM"
+    private static final int HEADER_SIZE = 16;
+    /** 每攒够这么多字节的已完成块，force一次数据文件并写入标记 */
+    static final long SYNC_BYTES = 64L * 1024 * 1024;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileChannel data;
+    private final long fileLength;
+    private final int chunkSize;
+    private final byte[] done;
+    private int doneCount;
+    // 内存中已标记、还没写入清单的块范围[pendingFrom, pendingTo)
+    private int pendingFrom = Integer.MAX_VALUE;
+    private int pendingTo;
+    private int pendingCount;
+
+    private TransferManifest(Path path, FileChannel channel, FileChannel data,
+                             long fileLength, int chunkSize, byte[] done) {
+        this.path = path;
+        this.channel = channel;
+        this.data = data;
+        this.fileLength = fileLength;
+        this.chunkSize = chunkSize;
+        this.done = done;
+        for (byte b : done) {
+            doneCount += b;
+        }
+    }
+
+    /**
+     * 打开已有清单；不存在或与文件长度、块大小不符时新建
+     *
+     * @param data 块数据写入的文件，写入标记前先force它
+     */
+    public static TransferManifest openOrCreate(Path path, FileChannel data, long fileLength, int chunkSize)
+            throws IOException {
+        int chunkCount = (int) ((fileLength + chunkSize - 1) / chunkSize);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            byte[] done = new byte[chunkCount];
+            if (channel.size() == HEADER_SIZE + chunkCount) {
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() == MAGIC && header.getLong() == fileLength && header.getInt() == chunkSize) {
+                    ByteBuffer bitmap = ByteBuffer.wrap(done);
+                    while (bitmap.hasRemaining() && channel.read(bitmap, HEADER_SIZE + bitmap.position()) > 0) {
+                        // 读满为止
+                    }
+                    return new TransferManifest(path, channel, data, fileLength, chunkSize, done);
+                }
+                header.clear();
+            }
+
+            // 新建：写入头部和全0的块标记
+            channel.truncate(0);
+            header.putInt(MAGIC).putLong(fileLength).putInt(chunkSize).flip();
+            channel.write(header, 0);
+            ByteBuffer bitmap = ByteBuffer.wrap(done);
+            while (bitmap.hasRemaining()) {
+                channel.write(bitmap, HEADER_SIZE + bitmap.position());
+            }
+            return new TransferManifest(path, channel, data, fileLength, chunkSize, done);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int chunkCount() {
+        return done.length;
+    }
+
+    public long chunkStart(int chunk) {
+        return (long) chunk * chunkSize;
+    }
+
+    public int chunkLength(int chunk) {
+        return (int) Math.min(chunkSize, fileLength - chunkStart(chunk));
+    }
+
+    public synchronized boolean isDone(int chunk) {
+        return done[chunk] != 0;
+    }
+
+    /**
+     * 标记一块已完成：先记在内存中，攒够一批再随数据一起落盘
+     */
+    public synchronized void markDone(int chunk) throws IOException {
+        if (done[chunk] != 0) {
+            return;
+        }
+        done[chunk] = 1;
+        doneCount++;
+        pendingFrom = Math.min(pendingFrom, chunk);
+        pendingTo = Math.max(pendingTo, chunk + 1);
+        if (++pendingCount >= Math.max(1, SYNC_BYTES / chunkSize)) {
+            sync();
+        }
+    }
+
+    /**
+     * 先force数据文件，再写入这批标记；范围内的其它块要么已经写过，要么也在这一批里
+     */
+    public synchronized void sync() throws IOException {
+        if (pendingCount == 0) {
+            return;
+        }
+        data.force(true);
+        ByteBuffer marks = ByteBuffer.wrap(done, pendingFrom, pendingTo - pendingFrom);
+        while (marks.hasRemaining()) {
+            channel.write(marks, HEADER_SIZE + marks.position());
+        }
+        pendingFrom = Integer.MAX_VALUE;
+        pendingTo = 0;
+        pendingCount = 0;
+    }
+
+    public synchronized int missingCount() {
+        return done.length - doneCount;
+    }
+
+    public synchronized boolean isComplete() {
+        return doneCount == done.length;
+    }
+
+    /**
+     * 未完成块的连续区间，每个元素为[起始块, 结束块)
+     */
+    public synchronized List<int[]> missingRuns() {
+        List<int[]> runs = new ArrayList<>();
+        int i = 0;
+        while (i < done.length) {
+            if (done[i] != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < done.length && done[i] == 0) {
+                i++;
+            }
+            runs.add(new int[]{start, i});
+        }
+        return runs;
+    }
+
+    /**
+     * 区间列表的文本形式，如"0-4,7-8"（结束块不含），用于协议传输
+     */
+    public static String formatRuns(List<int[]> runs) {
+        StringBuilder sb = new StringBuilder();
+        for (int[] run : runs) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(run[0]).append('-').append(run[1]);
+        }
+        return sb.toString();
+    }
+
+    public static List<int[]> parseRuns(String text) {
+        List<int[]> runs = new ArrayList<>();
+        if (text == null || text.trim().isEmpty()) {
+            return runs;
+        }
+        for (String run : text.trim().split(",")) {
+            int dash = run.indexOf('-');
+            runs.add(new int[]{Integer.parseInt(run.substring(0, dash)), Integer.parseInt(run.substring(dash + 1))});
+        }
+        return runs;
+    }
+
+    /**
+     * 写入剩余的标记后关闭（数据文件此时必须还开着）
+     */
+    public synchronized void close() throws IOException {
+        try {
+            if (channel.isOpen()) {
+                sync();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 传输完成后关闭并删除清单（标记不再有用，不用写入）
+     */
+    public void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,219 @@
+package com.fragment.io.nio.timer;
+
+import java.util.function.Consumer;
+
+/**
+ * 单线程哈希时间轮（由Selector事件循环驱动）
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：每个连接一个ScheduledFuture，10万连接就是10万个任务对象 + 一个堆，每次活跃都要取消重建？
+ *       解决：超时节点{@link Timeout}直接嵌入会话对象（会话继承Timeout），挂在桶的双向链表上，
+ *       schedule/cancel都是O(1)的指针操作，不产生任何对象</li>
+ *   <li>问题2：需要单独的定时线程，超时回调和Selector线程之间要加锁？
+ *       解决：不启动任何线程，事件循环用{@code select(millisUntilNextTick())}阻塞，
+ *       醒来后调用{@link #expire}推进指针，回调就在Selector线程中执行</li>
+ *   <li>问题3：每次读写都重新挂一次定时器也是开销？
+ *       解决：调用方只在读写时记录最后活跃时间；定时器到期时再算一次真正的截止时间，
+ *       未到期就按新的截止时间重新挂上（惰性续期），只有截止时间变短时才需要立即重挂</li>
+ *   <li>问题4：超时时间超过一圈怎么办？
+ *       解决：节点记录剩余圈数，指针每经过一次所在桶减1，减到0才到期</li>
+ * </ul>
+ *
+ * <p>内存是可预测的：每个定时器只是嵌入在会话对象中的7个字段（压缩指针下约36字节），
+ * 时间轮本身只有一个固定大小的桶数组，与定时器数量无关。
+ *
+ * <p>时间轮不是线程安全的，所有方法必须在同一个线程（Selector线程）中调用；
+ * 时间单位为毫秒，统一使用{@link #now()}返回的单调时钟。
+ *
+ * @author fragment
+ */
+public class HashedTimingWheel<T extends HashedTimingWheel.Timeout> {
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int EXPIRING = 2;
+
+    private final long tickMillis;
+    private final int mask;
+    private final Timeout[] buckets;
+    private final long startTime;
+
+    private long tick;          // 下一个待处理的刻度
+    private int size;
+
+    /**
+     * @param tickMillis    每一格的时间跨度（超时精度）
+     * @param ticksPerWheel 一圈的格数，向上取整为2的幂
+     */
+    public HashedTimingWheel(long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be > 0: " + tickMillis);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException("ticksPerWheel out of range: " + ticksPerWheel);
+        }
+        int wheelSize = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        if (ticksPerWheel == 1) {
+            wheelSize = 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = new Timeout[wheelSize];
+        this.startTime = now();
+    }
+
+    /**
+     * 单调时钟（毫秒），不受系统时间调整影响
+     */
+    public long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * 在绝对时间deadline到期；已挂在轮上的节点会先摘下再重新挂（O(1)）
+     */
+    public void schedule(T node, long deadline) {
+        Timeout timeout = node;
+        if (timeout.state == SCHEDULED) {
+            unlink(timeout);
+        }
+
+        long deadlineTick = Math.max(ceilDiv(deadline - startTime, tickMillis), tick);
+        timeout.deadline = deadline;
+        timeout.rounds = (deadlineTick - tick) >>> Integer.numberOfTrailingZeros(buckets.length);
+        timeout.bucket = (int) (deadlineTick & mask);
+        timeout.state = SCHEDULED;
+
+        Timeout head = buckets[timeout.bucket];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        size++;
+    }
+
+    /**
+     * 取消定时器；未挂在轮上时什么也不做
+     */
+    public void cancel(T node) {
+        Timeout timeout = node;
+        if (timeout.state == SCHEDULED) {
+            unlink(timeout);
+        }
+        timeout.state = IDLE;
+    }
+
+    /**
+     * 距离下一格还有多少毫秒，作为select(timeout)的参数；轮上没有定时器时返回0（无限期阻塞）
+     */
+    public long millisUntilNextTick(long now) {
+        if (size == 0) {
+            return 0;
+        }
+        long nextTickTime = startTime + tick * tickMillis;
+        return Math.max(1, nextTickTime - now);
+    }
+
+    /**
+     * 把指针推进到now，对到期的节点调用handler
+     *
+     * <p>handler中可以重新schedule或cancel任意节点（包括当前节点）。
+     *
+     * @return 到期的节点数
+     */
+    @SuppressWarnings("unchecked")
+    public int expire(long now, Consumer<? super T> handler) {
+        long targetTick = (now - startTime) / tickMillis;
+        if (size == 0) {
+            // 空轮直接跳到当前刻度，避免长时间空闲后逐格空转
+            tick = Math.max(tick, targetTick + 1);
+            return 0;
+        }
+
+        int expired = 0;
+        while (tick <= targetTick) {
+            // 先把本格到期的节点摘到一条单独的链上，再逐个回调，回调里修改轮不会影响遍历
+            Timeout expiring = null;
+            Timeout node = buckets[(int) (tick & mask)];
+            while (node != null) {
+                Timeout next = node.next;
+                if (node.rounds > 0) {
+                    node.rounds--;
+                } else {
+                    unlink(node);
+                    node.state = EXPIRING;
+                    node.nextExpiring = expiring;
+                    expiring = node;
+                }
+                node = next;
+            }
+            tick++;
+
+            while (expiring != null) {
+                Timeout current = expiring;
+                expiring = current.nextExpiring;
+                current.nextExpiring = null;
+                // 被前面的回调取消或重新调度过的节点不再回调
+                if (current.state == EXPIRING) {
+                    current.state = IDLE;
+                    expired++;
+                    handler.accept((T) current);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 当前挂在轮上的定时器数量
+     */
+    public int size() {
+        return size;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.state = IDLE;
+        size--;
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return x <= 0 ? 0 : (x + y - 1) / y;
+    }
+
+    /**
+     * 嵌入式定时器节点，需要超时管理的对象（如会话）直接继承它
+     */
+    public static class Timeout {
+        private Timeout prev;
+        private Timeout next;
+        private Timeout nextExpiring;
+        private long deadline;
+        private long rounds;
+        private int bucket;
+        private int state = IDLE;
+
+        /**
+         * 最近一次schedule的截止时间
+         */
+        public long deadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return state == SCHEDULED;
+        }
+    }
+}
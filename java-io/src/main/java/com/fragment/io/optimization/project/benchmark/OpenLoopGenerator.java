@@ -0,0 +1,176 @@
+package com.fragment.io.optimization.project.benchmark;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 开环压测：按固定到达率发请求，不等响应
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：闭环压测（N个线程各自"发一个、等一个"）在服务端变慢时自动少发请求，
+ *       排队的时间根本没被测到（coordinated omission），p99看起来很好看？
+ *       解决：第i个请求的计划发送时间固定为 start + i * 间隔，到点就发，不管前面的响应回来没有；
+ *       延迟从计划发送时间算起，发送线程落后时，落后的时间也算进延迟</li>
+ *   <li>问题2：服务端扛不住时在途请求无限增长，把客户端内存撑爆？
+ *       解决：在途请求达到上限时不再发送，这些请求记为丢弃（dropped），和失败分开统计；
+ *       出现丢弃说明目标速率已超过系统容量</li>
+ *   <li>问题3：每个请求一个定时任务开销太大？
+ *       解决：一个发送线程按计划时间parkNanos，落后时连续发送追上计划</li>
+ * </ul>
+ *
+ * @author fragment
+ */
+public class OpenLoopGenerator {
+
+    /**
+     * 被压测的调用：立即返回，调用完成时完成返回的CompletionStage
+     */
+    public interface Target {
+        CompletionStage<?> call(long sequence);
+    }
+
+    private final Target target;
+    private final int ratePerSecond;
+    private final int maxOutstanding;
+
+    public OpenLoopGenerator(Target target, int ratePerSecond, int maxOutstanding) {
+        if (ratePerSecond <= 0 || maxOutstanding <= 0) {
+            throw new IllegalArgumentException("ratePerSecond=" + ratePerSecond + ", maxOutstanding=" + maxOutstanding);
+        }
+        this.target = target;
+        this.ratePerSecond = ratePerSecond;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * 在当前线程上按固定速率发送seconds秒，等在途请求全部完成（最多再等drainMillis毫秒）后返回
+     */
+    public Result run(int seconds, long drainMillis) throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicInteger outstanding = new AtomicInteger();
+        LongAdder completed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long dropped = 0;
+        long sent = 0;
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        long total = (long) ratePerSecond * seconds;
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * interval;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (outstanding.get() >= maxOutstanding) {
+                dropped++;
+                continue;
+            }
+            outstanding.incrementAndGet();
+            sent++;
+            CompletionStage<?> stage;
+            try {
+                stage = target.call(i);
+            } catch (RuntimeException e) {
+                outstanding.decrementAndGet();
+                failed.increment();
+                continue;
+            }
+            stage.whenComplete((result, error) -> {
+                if (error == null) {
+                    histogram.record(System.nanoTime() - intended);
+                    completed.increment();
+                } else {
+                    failed.increment();
+                }
+                outstanding.decrementAndGet();
+            });
+        }
+        long sendEnd = System.nanoTime();
+
+        long drainDeadline = sendEnd + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        long end = System.nanoTime();
+        return new Result(histogram, sent, completed.sum(), failed.sum(), dropped, outstanding.get(),
+            sendEnd - start, end - start);
+    }
+
+    /**
+     * 一轮压测的结果
+     */
+    public static class Result {
+        private final LatencyHistogram histogram;
+        private final long sent;
+        private final long completed;
+        private final long failed;
+        private final long dropped;
+        private final long unfinished;
+        private final long sendNanos;
+        private final long totalNanos;
+
+        Result(LatencyHistogram histogram, long sent, long completed, long failed, long dropped, long unfinished,
+               long sendNanos, long totalNanos) {
+            this.histogram = histogram;
+            this.sent = sent;
+            this.completed = completed;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.unfinished = unfinished;
+            this.sendNanos = sendNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * 等待结束时仍未完成的请求
+         */
+        public long getUnfinished() {
+            return unfinished;
+        }
+
+        /**
+         * 完成的调用数 / 总耗时（含等待在途请求完成的时间）
+         */
+        public double getThroughput() {
+            return totalNanos == 0 ? 0 : completed * 1e9 / totalNanos;
+        }
+
+        /**
+         * 发送阶段实际达到的速率，明显低于目标速率时说明发送线程本身跟不上
+         */
+        public double getSendRate() {
+            return sendNanos == 0 ? 0 : (sent + dropped) * 1e9 / sendNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("吞吐%,.0f/s（发送%,.0f/s） %s 失败%d 丢弃%d 未完成%d",
+                getThroughput(), getSendRate(), histogram, failed, dropped, unfinished);
+        }
+    }
+}
@@ -33,6 +33,9 @@ import java.util.concurrent.atomic.AtomicLong;
  * 5. 并发性能测试
  * 6. 详细的性能报告
  *
+ * Netty测试是每次请求新建连接、闭环计时的粗略测试；RPC框架的负载测试
+ * （开环到达率、p50/p99/p999）见{@link RpcLoadBenchmark}。
+ *
  * @author fragment
  */
 public class PerformanceBenchmark {
@@ -0,0 +1,230 @@
+package com.fragment.io.optimization.project.benchmark;
+
+import com.fragment.io.netty.project.rpc.ExecutionPolicy;
+import com.fragment.io.netty.project.rpc.RpcClient;
+import com.fragment.io.netty.project.rpc.RpcServer;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 两套RPC实现的负载测试：本机回环、开环到达率、延迟直方图
+ *
+ * <p>对每种实现（{@link CustomProtocolRpcFramework}、{@code netty.project.rpc}）、每个payload大小、
+ * 每个连接数：在进程内启动服务端，客户端用{@link OpenLoopGenerator}以固定速率调用
+ * {@link EchoService#echo}（服务端原样返回参数，内联执行），输出吞吐和p50/p99/p999。
+ * 每组先预热再测量，测量结果是一次完整运行的直方图。
+ *
+ * <p>和{@link PerformanceBenchmark#main}里的Netty回显测试不同：那里每次请求新建一个TCP连接、
+ * 闭环计时，只能看个大概；这里连接复用、按计划时间算延迟，结果可以在版本之间对比，用来发现性能回退。
+ * 结果最后以表格输出，可以保存下来和上一个版本比较。
+ *
+ * <p>启动方式：java RpcLoadBenchmark [每秒请求数] [秒数] [payload字节,逗号分隔] [连接数,逗号分隔]
+ *
+ * @author fragment
+ */
+public class RpcLoadBenchmark {
+
+    public interface EchoService {
+        CompletableFuture<byte[]> echo(byte[] payload);
+    }
+
+    public static class EchoServiceImpl implements EchoService {
+        @Override
+        public CompletableFuture<byte[]> echo(byte[] payload) {
+            return CompletableFuture.completedFuture(payload);
+        }
+    }
+
+    private static final int WARMUP_SECONDS = 3;
+    private static final int MAX_OUTSTANDING = 10_000;
+    private static final long DRAIN_MILLIS = 10_000;
+
+    /**
+     * 一种RPC实现：启动服务端、建立客户端
+     */
+    interface Stack extends AutoCloseable {
+        String name();
+
+        /**
+         * 建立connections条连接，返回可以并发调用的代理（每个元素对应一条连接，或共享一个连接池）
+         */
+        List<EchoService> connect(int connections) throws Exception;
+
+        void disconnect();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int[] payloads = parse(args.length > 2 ? args[2] : "64,1024,16384");
+        int[] connectionCounts = parse(args.length > 3 ? args[3] : "1,4");
+
+        System.out.println("=== RPC负载测试：本机回环，目标" + rate + "次/秒，每组" + seconds + "秒 ===\n");
+        List<String> rows = new ArrayList<>();
+        for (Stack stack : new Stack[]{new CustomStack(), new NettyStack()}) {
+            try {
+                for (int connections : connectionCounts) {
+                    List<EchoService> services = stack.connect(connections);
+                    try {
+                        for (int payload : payloads) {
+                            OpenLoopGenerator.Result result = run(services, rate, seconds, new byte[payload]);
+                            String row = String.format("%-8s %8d %6d  %s", stack.name(), payload, connections, result);
+                            System.out.println(row);
+                            rows.add(row);
+                        }
+                    } finally {
+                        stack.disconnect();
+                    }
+                }
+            } finally {
+                stack.close();
+            }
+        }
+
+        System.out.println("\n=== 汇总（延迟从计划发送时间算起） ===");
+        System.out.println(String.format("%-8s %8s %6s  %s", "实现", "payload", "连接数", "结果"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static OpenLoopGenerator.Result run(List<EchoService> services, int rate, int seconds, byte[] payload)
+            throws InterruptedException {
+        int n = services.size();
+        OpenLoopGenerator generator = new OpenLoopGenerator(
+            sequence -> services.get((int) (sequence % n)).echo(payload), rate, MAX_OUTSTANDING);
+        generator.run(WARMUP_SECONDS, DRAIN_MILLIS);
+        return generator.run(seconds, DRAIN_MILLIS);
+    }
+
+    private static int[] parse(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void startDaemon(String name, Runnable server) throws InterruptedException {
+        Thread thread = new Thread(server, name);
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(1000);
+    }
+
+    /**
+     * 自定义协议：每条连接一个RpcClient，按序号轮流使用
+     */
+    static class CustomStack implements Stack {
+        private final int port;
+        private final CustomProtocolRpcFramework.RpcServer server;
+        private final List<CustomProtocolRpcFramework.RpcClient> clients = new ArrayList<>();
+
+        CustomStack() throws Exception {
+            port = freePort();
+            server = new CustomProtocolRpcFramework.RpcServer(port);
+            // 服务端每次调用都打日志，压测时关掉
+            server.setLogEnabled(false);
+            server.registerService(EchoService.class, new EchoServiceImpl(), ExecutionPolicy.inline());
+            startDaemon("custom-rpc-server", () -> {
+                try {
+                    server.start();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        @Override
+        public String name() {
+            return "custom";
+        }
+
+        @Override
+        public List<EchoService> connect(int connections) throws Exception {
+            List<EchoService> services = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                CustomProtocolRpcFramework.RpcClient client = new CustomProtocolRpcFramework.RpcClient("localhost", port);
+                client.connect();
+                clients.add(client);
+                services.add(client.createProxy(EchoService.class));
+            }
+            return services;
+        }
+
+        @Override
+        public void disconnect() {
+            for (CustomProtocolRpcFramework.RpcClient client : clients) {
+                client.close();
+            }
+            clients.clear();
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+            server.shutdown();
+        }
+    }
+
+    /**
+     * netty.project.rpc：一个RpcClient，连接池里connections条连接（选在途最少的连接）
+     */
+    static class NettyStack implements Stack {
+        private final int port;
+        private final RpcServer server = new RpcServer();
+        private RpcClient client;
+
+        NettyStack() throws Exception {
+            port = freePort();
+            server.setLogEnabled(false);
+            server.registerService(EchoService.class, new EchoServiceImpl(), ExecutionPolicy.inline());
+            startDaemon("netty-rpc-server", () -> {
+                try {
+                    server.start(port);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        @Override
+        public String name() {
+            return "netty";
+        }
+
+        @Override
+        public List<EchoService> connect(int connections) throws Exception {
+            client = new RpcClient(connections);
+            client.connect("localhost", port);
+            List<EchoService> services = new ArrayList<>();
+            services.add(client.create(EchoService.class));
+            return services;
+        }
+
+        @Override
+        public void disconnect() {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.fragment.io.optimization.project.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * 静态资源热点缓存
+ *
+ * 功能特性：
+ * 1. 小文件内容常驻直接内存（DirectByteBuffer），命中时不再open()/stat()/read()
+ * 2. 响应头（状态行、Content-Type、Content-Length、ETag、Last-Modified）预先渲染成字节
+ * 3. ETag / If-None-Match / If-Modified-Since 直接在内存中判断，命中返回304
+ * 4. 总字节预算 + LRU淘汰（按访问顺序排列的LinkedHashMap，每次淘汰O(1)）
+ * 5. WatchService监听已缓存文件所在目录，文件修改/删除后立即失效
+ * 6. 命中率、淘汰次数等统计
+ * 7. 不缓存的结果（目录、超过大小限制的文件）也记下来，同一个URI不再每次请求都stat()
+ *
+ * 设计要点：
+ * - 只监听"有缓存条目的目录"，而不是递归监听整个根目录，根目录再大也不会耗尽inotify句柄
+ * - 加载文件前先注册目录监听并记录失效代数，读完后代数未变才放入缓存，
+ *   避免"读文件期间文件被修改"导致旧内容被长期缓存
+ * - 查找走ConcurrentHashMap，多个Reactor/EventLoop线程并发读不加锁；只有放入和淘汰时加锁
+ * - 淘汰顺序另存在访问顺序的LinkedHashMap里（由锁保护），命中时不是每次都加锁调整顺序：
+ *   距上次调整超过{@link #PROMOTE_INTERVAL_NANOS}才调整，热点条目每秒最多加一次锁
+ * - 不缓存的结果和条目一样由目录监听失效，文件变小、目录被换成文件后能重新缓存
+ *
+ * 同时被 {@code nio.project.NIOHttpServer} 和 {@code netty.project.http.HttpFileServerHandler} 使用。
+ *
+ * @author fragment
+ */
+public class StaticContentCache implements Closeable {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    // 命中后距上次调整LRU顺序超过这么久才再调整一次
+    static final long PROMOTE_INTERVAL_NANOS = 1_000_000_000L;
+    // 不缓存结果的最大条数，满了整体清空
+    static final int MAX_UNCACHEABLE = 10_000;
+
+    private final Path root;
+    private final long maxBytes;
+    private final int maxFileSize;
+    private final Function<Path, String> contentTypeResolver;
+
+    // 缓存条目：key为请求路径（如 /css/app.css）
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // 和entries内容相同，按访问顺序排列，最久未访问的在最前；由this锁保护
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong usedBytes = new AtomicLong();
+    // 不缓存的结果：请求路径 -> 文件
+    private final Map<String, Path> uncacheable = new ConcurrentHashMap<>();
+
+    // 目录监听
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> watchedDirs = new ConcurrentHashMap<>();
+    private final AtomicLong invalidationGeneration = new AtomicLong();
+    private final Thread watcherThread;
+    private volatile boolean closed = false;
+
+    // 统计信息
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong uncacheableHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param root                Web根目录
+     * @param maxBytes            缓存内容总字节预算
+     * @param maxFileSize         单个文件超过该大小不缓存（交给transferTo/FileRegion零拷贝发送）
+     * @param contentTypeResolver 文件 -> Content-Type
+     */
+    public StaticContentCache(Path root, long maxBytes, int maxFileSize,
+                              Function<Path, String> contentTypeResolver) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.contentTypeResolver = contentTypeResolver;
+        this.watchService = this.root.getFileSystem().newWatchService();
+
+        this.watcherThread = new Thread(this::watchLoop, "static-cache-watcher");
+        this.watcherThread.setDaemon(true);
+        this.watcherThread.start();
+    }
+
+    /**
+     * 查找缓存条目，未命中时尝试加载
+     *
+     * @param uri 请求路径（以/开头，不含查询参数）
+     * @return 缓存条目；文件不存在、不是普通文件、超过大小限制或越出根目录时返回null，由调用方走原有流程
+     */
+    public Entry get(String uri) {
+        Entry entry = entries.get(uri);
+        if (entry != null) {
+            long now = System.nanoTime();
+            if (now - entry.lastPromoted > PROMOTE_INTERVAL_NANOS) {
+                entry.lastPromoted = now;
+                synchronized (this) {
+                    lru.get(uri);   // 移到队尾（最近访问）
+                }
+            }
+            hits.incrementAndGet();
+            return entry;
+        }
+        if (uncacheable.containsKey(uri)) {
+            uncacheableHits.incrementAndGet();
+            return null;
+        }
+
+        misses.incrementAndGet();
+        try {
+            return load(uri);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private Entry load(String uri) throws IOException {
+        if (closed) {
+            return null;
+        }
+
+        String relative = uri.startsWith("/") ? uri.substring(1) : uri;
+        Path file = root.resolve(relative).normalize();
+        if (!file.startsWith(root)) {
+            return null;        // 目录遍历
+        }
+
+        // 先注册监听、记录代数，再读文件
+        watchDirectory(file.getParent());
+        long generation = invalidationGeneration.get();
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (!attrs.isRegularFile() || attrs.size() > maxFileSize || attrs.size() > maxBytes) {
+            synchronized (this) {
+                if (generation == invalidationGeneration.get()) {
+                    if (uncacheable.size() >= MAX_UNCACHEABLE) {
+                        uncacheable.clear();
+                    }
+                    uncacheable.put(uri, file);
+                }
+            }
+            return null;
+        }
+
+        ByteBuffer content = ByteBuffer.allocateDirect((int) attrs.size());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // 读取文件内容
+            }
+        }
+        content.flip();
+
+        Entry entry = new Entry(file, content.asReadOnlyBuffer(), contentTypeResolver.apply(file),
+                attrs.lastModifiedTime().toMillis());
+
+        synchronized (this) {
+            if (generation != invalidationGeneration.get()) {
+                return entry;   // 读取期间有文件变化，本次照常返回，但不放入缓存
+            }
+            Entry existing = entries.putIfAbsent(uri, entry);
+            if (existing != null) {
+                return existing;
+            }
+            lru.put(uri, entry);
+            usedBytes.addAndGet(entry.length);
+            evictIfNecessary(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * 超出字节预算时，从LRU队头淘汰最久未访问的条目（调用方持有this锁）
+     */
+    private void evictIfNecessary(Entry justAdded) {
+        Iterator<Map.Entry<String, Entry>> iterator = lru.entrySet().iterator();
+        while (usedBytes.get() > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            Entry entry = eldest.getValue();
+            if (entry == justAdded) {
+                return;
+            }
+            iterator.remove();
+            entries.remove(eldest.getKey(), entry);
+            usedBytes.addAndGet(-entry.length);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void watchDirectory(Path dir) throws IOException {
+        if (dir == null || watchedDirs.containsKey(dir)) {
+            return;
+        }
+        synchronized (watchedDirs) {
+            if (!watchedDirs.containsKey(dir)) {
+                WatchKey key = dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(dir, key);
+            }
+        }
+    }
+
+    /**
+     * 后台线程：处理目录变化事件，使对应缓存条目失效
+     */
+    private void watchLoop() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // 事件丢失，无法知道哪些文件变了，整个目录失效
+                    invalidateUnder(dir);
+                } else {
+                    invalidate(dir.resolve((Path) event.context()));
+                }
+            }
+
+            if (!key.reset()) {
+                // 目录已被删除
+                watchedDirs.remove(dir);
+                invalidateUnder(dir);
+            }
+        }
+    }
+
+    private void invalidate(Path file) {
+        invalidationGeneration.incrementAndGet();
+        removeIf(file, false);
+    }
+
+    private void invalidateUnder(Path dir) {
+        invalidationGeneration.incrementAndGet();
+        removeIf(dir, true);
+    }
+
+    private synchronized void removeIf(Path path, boolean prefix) {
+        Iterator<Map.Entry<String, Entry>> iterator = lru.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> e = iterator.next();
+            Entry entry = e.getValue();
+            if (prefix ? entry.path.startsWith(path) : entry.path.equals(path)) {
+                iterator.remove();
+                entries.remove(e.getKey(), entry);
+                usedBytes.addAndGet(-entry.length);
+                invalidations.incrementAndGet();
+            }
+        }
+        uncacheable.values().removeIf(file -> prefix ? file.startsWith(path) : file.equals(path));
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        invalidateUnder(root);
+    }
+
+    public String getStats() {
+        long total = hits.get() + misses.get();
+        return String.format("StaticContentCache[entries=%d, used=%d/%d bytes, hits=%d, misses=%d, " +
+                        "hitRate=%.2f%%, evictions=%d, invalidations=%d, uncacheable=%d(hits=%d), watchedDirs=%d]",
+                entries.size(), usedBytes.get(), maxBytes, hits.get(), misses.get(),
+                total == 0 ? 0.0 : hits.get() * 100.0 / total,
+                evictions.get(), invalidations.get(), uncacheable.size(), uncacheableHits.get(),
+                watchedDirs.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        watcherThread.interrupt();
+        synchronized (this) {
+            entries.clear();
+            lru.clear();
+            uncacheable.clear();
+            usedBytes.set(0);
+        }
+    }
+
+    /**
+     * 文件的强ETag：长度 + 修改时间，未缓存的大文件也用同样的算法，保证同一文件的ETag一致
+     */
+    public static String etag(long length, long lastModifiedMillis) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+    }
+
+    /**
+     * RFC 1123格式的HTTP日期（精度为秒）
+     */
+    public static String httpDate(long millis) {
+        return HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis / 1000 * 1000), ZoneOffset.UTC));
+    }
+
+    /**
+     * 缓存条目：只读的文件内容 + 预先渲染好的响应头
+     */
+    public static class Entry {
+        private final Path path;
+        private final ByteBuffer content;
+        private final int length;
+        private final String contentType;
+        private final long lastModifiedMillis;
+        private final String lastModified;
+        private final String etag;
+        private final byte[] okHeader;
+        private final byte[] notModifiedHeader;
+        volatile long lastPromoted = System.nanoTime();
+
+        Entry(Path path, ByteBuffer content, String contentType, long lastModifiedMillis) {
+            this.path = path;
+            this.content = content;
+            this.length = content.remaining();
+            this.contentType = contentType;
+            // HTTP日期精度为秒
+            this.lastModifiedMillis = lastModifiedMillis / 1000 * 1000;
+            this.lastModified = httpDate(lastModifiedMillis);
+            this.etag = StaticContentCache.etag(length, lastModifiedMillis);
+
+            String validators = "ETag: " + etag + "\r\n" +
+                    "Last-Modified: " + lastModified + "\r\n";
+            this.okHeader = ("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Length: " + length + "\r\n" +
+                    "Accept-Ranges: bytes\r\n" +
+                    validators).getBytes(StandardCharsets.US_ASCII);
+            this.notModifiedHeader = ("HTTP/1.1 304 Not Modified\r\n" +
+                    validators).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /**
+         * 文件内容（每次返回独立的position/limit，可直接交给write/gathering write）
+         */
+        public ByteBuffer content() {
+            return content.duplicate();
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        /**
+         * HTTP日期格式的Last-Modified
+         */
+        public String lastModified() {
+            return lastModified;
+        }
+
+        /**
+         * 预渲染的200响应头：状态行、Content-Type、Content-Length、ETag、Last-Modified，
+         * 每行以\r\n结尾，但不包含结束空行，调用方可继续追加Connection、Date等头
+         */
+        public byte[] okHeader() {
+            return okHeader;
+        }
+
+        /**
+         * 预渲染的304响应头（格式同{@link #okHeader()}）
+         */
+        public byte[] notModifiedHeader() {
+            return notModifiedHeader;
+        }
+
+        /**
+         * 条件请求判断：If-None-Match优先，其次If-Modified-Since
+         */
+        public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                return matchesEtag(ifNoneMatch);
+            }
+            if (ifModifiedSince != null) {
+                if (ifModifiedSince.equals(lastModified)) {
+                    return true;    // 浏览器通常原样回传Last-Modified，直接字符串比较
+                }
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().toEpochMilli();
+                    return lastModifiedMillis <= since;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesEtag(String ifNoneMatch) {
+            if (ifNoneMatch.equals(etag)) {
+                return true;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);     // 弱比较
+                }
+                if (candidate.equals("*") || candidate.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.fragment.io.optimization.project.zerocopy;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * HTTP Range请求解析（RFC 7233），NIO和Netty文件服务器共用
+ *
+ * <p>只负责计算"发文件的哪几段"，每一段仍由调用方用transferTo / DefaultFileRegion零拷贝发送，
+ * 文件内容不会进入用户态。
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：拖动视频进度条、断点续传时整文件重新传输？
+ *       解决：解析Range头，返回206和Content-Range，只发送请求的字节区间</li>
+ *   <li>问题2：一次请求多个区间？
+ *       解决：multipart/byteranges，每个分段前写一个小的分段头，分段本身仍走零拷贝</li>
+ *   <li>问题3：断点续传期间文件被替换了？
+ *       解决：If-Range携带的ETag/Last-Modified不匹配时忽略Range，返回200整文件</li>
+ *   <li>问题4：恶意请求用成千上万个小区间放大开销？
+ *       解决：区间排序后合并重叠/相邻的部分，合并后仍超过{@link #MAX_RANGES}个则忽略Range</li>
+ * </ul>
+ *
+ * @author fragment
+ */
+public final class ByteRanges {
+
+    public static final int MAX_RANGES = 16;
+
+    /** 所有区间都超出文件长度，应返回416 */
+    public static final ByteRanges UNSATISFIABLE = new ByteRanges(new long[0], 0);
+
+    private final long[] bounds;    // 每个区间两个元素：起始位置（含）、结束位置（不含）
+    private final int count;
+
+    private ByteRanges(long[] bounds, int count) {
+        this.bounds = bounds;
+        this.count = count;
+    }
+
+    /**
+     * 解析Range头
+     *
+     * @return 可满足的区间；不是bytes单位、语法错误或区间过多时返回null（按整文件处理）；
+     *         所有区间都不可满足时返回{@link #UNSATISFIABLE}
+     */
+    public static ByteRanges parse(String range, long fileLength) {
+        if (range == null) {
+            return null;
+        }
+        range = range.trim();
+        if (!range.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = range.substring(6).split(",");
+        if (specs.length > MAX_RANGES * 4) {
+            return null;
+        }
+        long[] bounds = new long[specs.length * 2];
+        int count = 0;
+
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // 后缀区间：最后N个字节
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, fileLength - suffix);
+                    end = fileLength;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash).trim());
+                    String last = spec.substring(dash + 1).trim();
+                    if (last.isEmpty()) {
+                        end = fileLength;
+                    } else {
+                        long lastPos = Long.parseLong(last);
+                        if (lastPos < start) {
+                            return null;    // last-byte-pos < first-byte-pos：语法无效
+                        }
+                        end = Math.min(fileLength - 1, lastPos) + 1;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            if (start >= fileLength) {
+                continue;       // 不可满足的区间
+            }
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = end;
+            count++;
+        }
+
+        if (count == 0) {
+            return UNSATISFIABLE;
+        }
+        count = coalesce(bounds, count);
+        if (count > MAX_RANGES) {
+            return null;
+        }
+        return new ByteRanges(bounds, count);
+    }
+
+    /**
+     * 按起始位置排序，合并重叠或相邻的区间
+     */
+    private static int coalesce(long[] bounds, int count) {
+        if (count == 1) {
+            return 1;
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(bounds[a * 2], bounds[b * 2]));
+
+        long[] sorted = new long[count * 2];
+        for (int i = 0; i < count; i++) {
+            sorted[i * 2] = bounds[order[i] * 2];
+            sorted[i * 2 + 1] = bounds[order[i] * 2 + 1];
+        }
+
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            long start = sorted[i * 2];
+            long end = sorted[i * 2 + 1];
+            if (merged > 0 && start <= bounds[merged * 2 - 1]) {
+                bounds[merged * 2 - 1] = Math.max(bounds[merged * 2 - 1], end);
+            } else {
+                bounds[merged * 2] = start;
+                bounds[merged * 2 + 1] = end;
+                merged++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * If-Range判断：没有If-Range头，或者它等于当前的强ETag / Last-Modified时，Range才有效
+     */
+    public static boolean ifRangeMatches(String ifRange, String etag, String lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("W/")) {
+            return false;       // If-Range只能用强比较
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        return ifRange.equals(lastModified);
+    }
+
+    /**
+     * 生成multipart/byteranges的分隔符
+     */
+    public static String newBoundary() {
+        return "BYTERANGES_" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public boolean isMultipart() {
+        return count > 1;
+    }
+
+    public long start(int i) {
+        return bounds[i * 2];
+    }
+
+    /**
+     * 区间结束位置（不含）
+     */
+    public long end(int i) {
+        return bounds[i * 2 + 1];
+    }
+
+    public long length(int i) {
+        return end(i) - start(i);
+    }
+
+    /**
+     * Content-Range头的值：bytes first-last/complete-length
+     */
+    public String contentRange(int i, long fileLength) {
+        return "bytes " + start(i) + "-" + (end(i) - 1) + "/" + fileLength;
+    }
+
+    /**
+     * 416响应的Content-Range头的值
+     */
+    public static String unsatisfiedContentRange(long fileLength) {
+        return "bytes */" + fileLength;
+    }
+
+    /**
+     * 第i个分段之前的分段头（以CRLF开头，作为前一部分的结束）
+     */
+    public String partHeader(int i, String boundary, String contentType, long fileLength) {
+        return "\r\n--" + boundary + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Range: " + contentRange(i, fileLength) + "\r\n" +
+                "\r\n";
+    }
+
+    /**
+     * multipart结束分隔符
+     */
+    public static String closeDelimiter(String boundary) {
+        return "\r\n--" + boundary + "--\r\n";
+    }
+
+    /**
+     * multipart/byteranges响应体的总长度（分段头 + 各区间 + 结束分隔符），用于Content-Length
+     */
+    public long multipartLength(String boundary, String contentType, long fileLength) {
+        long total = closeDelimiter(boundary).length();
+        for (int i = 0; i < count; i++) {
+            total += partHeader(i, boundary, contentType, fileLength).length() + length(i);
+        }
+        return total;
+    }
+}
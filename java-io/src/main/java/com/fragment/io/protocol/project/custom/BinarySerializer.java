@@ -0,0 +1,503 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcRequest;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制序列化（默认）
+ *
+ * <p>请求格式：
+ * <pre>
+ * 已登记的方法：varlong请求ID | 0x01 | 方法ID(4) | 参数值...（按声明类型编码）
+ * 未登记的方法：varlong请求ID | 0x00 | 接口名 | 方法名 | varint参数个数 | 参数类型名... | 参数值...
+ * </pre>
+ * 响应格式：varlong请求ID | 0x00 + 带类型标记的结果 / 0x01 + 带类型标记的异常
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：getUserAge(int)这样的调用，Java序列化也要几百字节？
+ *       解决：接口名、方法名、参数类型名换成4字节的方法ID（{@link RpcSchema}），
+ *       int/long用zigzag varint，小整数只占1个字节</li>
+ *   <li>问题2：先序列化到byte[]再拷贝进ByteBuf？
+ *       解决：直接写出站ByteBuf，字符串用ByteBufUtil.writeUtf8直接编码，不产生中间的byte[]</li>
+ *   <li>问题3：参数是自定义的复杂对象？
+ *       解决：基本类型、包装类型、String、byte[]、ArrayList、HashMap用紧凑编码，
+ *       其它Serializable对象带长度嵌入Java序列化的结果，异常也走这条路</li>
+ * </ul>
+ *
+ * @author fragment
+ */
+public final class BinarySerializer implements Serializer {
+
+    public static final BinarySerializer INSTANCE = new BinarySerializer();
+
+    private static final byte FORM_LITERAL = 0;
+    private static final byte FORM_METHOD_ID = 1;
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    // 值的类型标记
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_FLOAT = 7;
+    private static final byte TAG_BYTES = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_MAP = 10;
+    private static final byte TAG_BYTE = 11;
+    private static final byte TAG_SHORT = 12;
+    private static final byte TAG_CHAR = 13;
+    private static final byte TAG_OBJECT = 14;
+
+    private static final int MAX_ELEMENTS = 1 << 24;
+
+    private static final Map<String, Class<?>> CLASS_CACHE = new ConcurrentHashMap<>();
+
+    static {
+        for (Class<?> primitive : new Class<?>[]{boolean.class, byte.class, short.class, char.class,
+                int.class, long.class, float.class, double.class, void.class}) {
+            CLASS_CACHE.put(primitive.getName(), primitive);
+        }
+    }
+
+    private BinarySerializer() {
+    }
+
+    @Override
+    public byte id() {
+        return BINARY;
+    }
+
+    @Override
+    public void serialize(Object message, ByteBuf out) throws IOException {
+        if (message instanceof RpcRequest) {
+            writeRequest((RpcRequest) message, out);
+        } else if (message instanceof RpcResponse) {
+            writeResponse((RpcResponse) message, out);
+        } else {
+            throw new IOException("不支持的消息类型: " + (message == null ? null : message.getClass().getName()));
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> type) throws IOException {
+        try {
+            if (type == RpcRequest.class) {
+                return type.cast(readRequest(in));
+            }
+            if (type == RpcResponse.class) {
+                return type.cast(readResponse(in));
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("消息体不完整", e);
+        }
+        throw new IOException("不支持的消息类型: " + type.getName());
+    }
+
+    // ==================== 请求 / 响应 ====================
+
+    private static void writeRequest(RpcRequest request, ByteBuf out) throws IOException {
+        writeVarLong(out, request.getRequestId());
+
+        Object[] parameters = request.getParameters();
+        Class<?>[] types;
+        RpcSchema.MethodSchema schema = request.getMethodId() != 0 ? RpcSchema.method(request.getMethodId()) : null;
+        if (schema != null) {
+            out.writeByte(FORM_METHOD_ID);
+            out.writeInt(schema.getId());
+            types = schema.getParameterTypes();
+        } else {
+            out.writeByte(FORM_LITERAL);
+            writeString(out, request.getInterfaceName());
+            writeString(out, request.getMethodName());
+            types = request.getParameterTypes() != null ? request.getParameterTypes() : new Class<?>[0];
+            writeVarInt(out, types.length);
+            for (Class<?> t : types) {
+                writeString(out, t.getName());
+            }
+        }
+
+        int count = parameters != null ? parameters.length : 0;
+        if (count != types.length) {
+            throw new IOException("参数个数与方法签名不一致: " + count + " / " + types.length);
+        }
+        for (int i = 0; i < count; i++) {
+            writeValue(out, types[i], parameters[i]);
+        }
+    }
+
+    private static RpcRequest readRequest(ByteBuf in) throws IOException {
+        RpcRequest request = new RpcRequest();
+        request.setRequestId(readVarLong(in));
+
+        Class<?>[] types;
+        byte form = in.readByte();
+        if (form == FORM_METHOD_ID) {
+            int id = in.readInt();
+            RpcSchema.MethodSchema schema = RpcSchema.method(id);
+            if (schema == null) {
+                throw new IOException("未登记的方法ID: " + id);
+            }
+            request.setMethodId(id);
+            request.setInterfaceName(schema.getInterfaceName());
+            request.setMethodName(schema.getMethodName());
+            types = schema.getParameterTypes();
+        } else if (form == FORM_LITERAL) {
+            request.setInterfaceName(readString(in));
+            request.setMethodName(readString(in));
+            types = new Class<?>[readLength(in)];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = resolveClass(readString(in));
+            }
+        } else {
+            throw new IOException("未知的请求格式: " + form);
+        }
+
+        Object[] parameters = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            parameters[i] = readValue(in, types[i]);
+        }
+        request.setParameterTypes(types);
+        request.setParameters(parameters);
+        return request;
+    }
+
+    private static void writeResponse(RpcResponse response, ByteBuf out) throws IOException {
+        writeVarLong(out, response.getRequestId());
+        if (response.getError() != null) {
+            out.writeByte(STATUS_ERROR);
+            writeTagged(out, Object.class, response.getError());
+        } else {
+            out.writeByte(STATUS_OK);
+            writeTagged(out, Object.class, response.getResult());
+        }
+    }
+
+    private static RpcResponse readResponse(ByteBuf in) throws IOException {
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(readVarLong(in));
+        byte status = in.readByte();
+        Object value = readTagged(in);
+        if (status == STATUS_ERROR) {
+            if (!(value instanceof Throwable)) {
+                throw new IOException("异常响应的内容不是Throwable");
+            }
+            response.setError((Throwable) value);
+        } else {
+            response.setResult(value);
+        }
+        return response;
+    }
+
+    // ==================== 值 ====================
+
+    /**
+     * 按声明类型写值：基本类型不带类型标记，引用类型带标记（可能为null，也可能是子类）
+     */
+    private static void writeValue(ByteBuf out, Class<?> type, Object value) throws IOException {
+        if (!type.isPrimitive()) {
+            writeTagged(out, type, value);
+        } else if (type == int.class) {
+            writeVarInt(out, zigzag((Integer) value));
+        } else if (type == long.class) {
+            writeVarLong(out, zigzag((Long) value));
+        } else if (type == boolean.class) {
+            out.writeBoolean((Boolean) value);
+        } else if (type == double.class) {
+            out.writeDouble((Double) value);
+        } else if (type == float.class) {
+            out.writeFloat((Float) value);
+        } else if (type == byte.class) {
+            out.writeByte((Byte) value);
+        } else if (type == short.class) {
+            writeVarInt(out, zigzag((Short) value));
+        } else if (type == char.class) {
+            writeVarInt(out, (Character) value);
+        } else {
+            throw new IOException("不支持的参数类型: " + type.getName());
+        }
+    }
+
+    private static Object readValue(ByteBuf in, Class<?> type) throws IOException {
+        if (!type.isPrimitive()) {
+            return readTagged(in);
+        } else if (type == int.class) {
+            return unzigzag(readVarInt(in));
+        } else if (type == long.class) {
+            return unzigzag(readVarLong(in));
+        } else if (type == boolean.class) {
+            return in.readBoolean();
+        } else if (type == double.class) {
+            return in.readDouble();
+        } else if (type == float.class) {
+            return in.readFloat();
+        } else if (type == byte.class) {
+            return in.readByte();
+        } else if (type == short.class) {
+            return (short) unzigzag(readVarInt(in));
+        } else if (type == char.class) {
+            return (char) readVarInt(in);
+        }
+        throw new IOException("不支持的参数类型: " + type.getName());
+    }
+
+    /**
+     * 写带类型标记的值
+     *
+     * <p>TAG_LIST/TAG_MAP读回来固定是ArrayList/LinkedHashMap，所以只用于读回来类型不变的实现类，
+     * 或者声明类型就是List/Map接口的参数；LinkedList、TreeMap这类实现走Java序列化，
+     * 否则派发时参数类型对不上，有序Map也会丢掉顺序。
+     *
+     * @param declared 值的声明类型，结果、异常和容器里的元素不知道声明类型时传Object.class
+     */
+    private static void writeTagged(ByteBuf out, Class<?> declared, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TAG_INT);
+            writeVarInt(out, zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, zigzag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TAG_BYTES);
+            writeVarInt(out, bytes.length);
+            out.writeBytes(bytes);
+        } else if (value instanceof List && (value.getClass() == ArrayList.class || declared == List.class)) {
+            List<?> list = (List<?>) value;
+            out.writeByte(TAG_LIST);
+            writeVarInt(out, list.size());
+            for (Object element : list) {
+                writeTagged(out, Object.class, element);
+            }
+        } else if (value instanceof Map && (value.getClass() == HashMap.class
+                || value.getClass() == LinkedHashMap.class || declared == Map.class)) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeTagged(out, Object.class, entry.getKey());
+                writeTagged(out, Object.class, entry.getValue());
+            }
+        } else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            writeVarInt(out, zigzag((Short) value));
+        } else if (value instanceof Character) {
+            out.writeByte(TAG_CHAR);
+            writeVarInt(out, (Character) value);
+        } else {
+            writeObject(out, value);
+        }
+    }
+
+    private static Object readTagged(ByteBuf in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_INT:
+                return unzigzag(readVarInt(in));
+            case TAG_LONG:
+                return unzigzag(readVarLong(in));
+            case TAG_STRING:
+                return readString(in);
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_BYTES: {
+                byte[] bytes = new byte[readLength(in)];
+                in.readBytes(bytes);
+                return bytes;
+            }
+            case TAG_LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(Math.min(size, in.readableBytes()));
+                for (int i = 0; i < size; i++) {
+                    list.add(readTagged(in));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                int size = readLength(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = readTagged(in);
+                    map.put(key, readTagged(in));
+                }
+                return map;
+            }
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SHORT:
+                return (short) unzigzag(readVarInt(in));
+            case TAG_CHAR:
+                return (char) readVarInt(in);
+            case TAG_OBJECT:
+                return readObject(in);
+            default:
+                throw new IOException("未知的类型标记: " + tag);
+        }
+    }
+
+    /**
+     * 兜底：长度(4) + Java序列化结果，长度在写完之后回填
+     */
+    private static void writeObject(ByteBuf out, Object value) throws IOException {
+        out.writeByte(TAG_OBJECT);
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+            oos.writeObject(value);
+        }
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+    }
+
+    private static Object readObject(ByteBuf in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.readableBytes()) {
+            throw new IOException("对象长度错误: " + length);
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(in, length))) {
+            return ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("反序列化失败: " + e.getMessage(), e);
+        }
+    }
+
+    // ==================== 基础编码 ====================
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) throws IOException {
+        int length = readLength(in);
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    private static Class<?> resolveClass(String name) throws IOException {
+        Class<?> cached = CLASS_CACHE.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            Class<?> resolved = Class.forName(name, false, BinarySerializer.class.getClassLoader());
+            CLASS_CACHE.put(name, resolved);
+            return resolved;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("找不到参数类型: " + name, e);
+        }
+    }
+
+    /**
+     * 长度 / 元素个数：不能为负，也不能超过剩余字节数太多（防止恶意的超大长度）
+     */
+    private static int readLength(ByteBuf in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_ELEMENTS || length > in.readableBytes() * 8L + 8) {
+            throw new IOException("长度错误: " + length);
+        }
+        return length;
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 无符号varint：每字节7位，最高位表示后面还有
+     */
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint过长");
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuf in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("varlong过长");
+    }
+}
@@ -0,0 +1,172 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.netty.project.rpc.ExecutionPolicy;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcClient;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcServer;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩的收益和代价：省下的字节 vs 花掉的CPU
+ *
+ * <p>第一部分只测算法：一段重复度很高的记录列表（典型的批量查询结果）和一段随机字节，
+ * 分别用Deflate-1和LZ压缩、解压，输出压缩率和每MB耗时。只用JDK，不走网络。
+ *
+ * <p>第二部分走127.0.0.1的真实连接：服务方法返回records条记录的List，客户端分别以
+ * 不压缩 / Deflate-1 / LZ 连接，调用calls次，输出耗时和服务端的压缩统计（响应方向省下的字节、压缩耗时）。
+ * 本机回环的带宽远高于真实网络，这一部分看的是CPU代价，省下的字节在慢链路上才换成时间。
+ *
+ * <p>启动方式：java CompressionBenchmark [记录数] [调用次数]
+ *
+ * @author fragment
+ */
+public class CompressionBenchmark {
+
+    public interface ReportService {
+        List<String> query(int records);
+    }
+
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<String> rows = rows(records);
+        byte[] text = String.join("\n", rows).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[text.length];
+        new Random(42).nextBytes(random);
+
+        System.out.println("=== 算法：" + records + "条记录，" + text.length + "字节 ===\n");
+        codec("记录列表", text);
+        codec("随机字节", random);
+
+        System.out.println("\n=== 本机回环RPC：每次返回" + records + "条记录，调用" + calls + "次 ===\n");
+        rpc(Compression.NONE, records, calls);
+        rpc(Compression.DEFLATE, records, calls);
+        rpc(Compression.LZ, records, calls);
+    }
+
+    /**
+     * 一批用户记录：字段名和大部分值重复，和真实的列表查询结果类似
+     */
+    static List<String> rows(int count) {
+        String[] cities = {"北京市朝阳区", "上海市浦东新区", "广州市天河区", "深圳市南山区"};
+        String[] statuses = {"ACTIVE", "INACTIVE", "LOCKED"};
+        Random random = new Random(7);
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add("{\"id\":" + (100000 + i) + ",\"name\":\"user" + random.nextInt(100000)
+                + "\",\"city\":\"" + cities[random.nextInt(cities.length)]
+                + "\",\"status\":\"" + statuses[random.nextInt(statuses.length)]
+                + "\",\"balance\":" + random.nextInt(1000000) / 100.0 + "}");
+        }
+        return rows;
+    }
+
+    private static void codec(String name, byte[] data) throws Exception {
+        int[] table = new int[LzCodec.HASH_TABLE_SIZE];
+        byte[] compressed = new byte[LzCodec.maxCompressedLength(data.length)];
+        byte[] restored = new byte[data.length];
+        Deflater deflater = new Deflater(1, true);
+        Inflater inflater = new Inflater(true);
+
+        int deflated = 0;
+        long deflateNanos = 0;
+        long inflateNanos = 0;
+        int lz = 0;
+        long lzNanos = 0;
+        long unlzNanos = 0;
+        // 第一轮预热，不计时
+        for (int round = 0; round <= ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            deflated = 0;
+            while (!deflater.finished()) {
+                deflated += deflater.deflate(compressed, deflated, compressed.length - deflated);
+            }
+            long t1 = System.nanoTime();
+            inflater.reset();
+            inflater.setInput(compressed, 0, deflated);
+            int n = 0;
+            while (n < data.length) {
+                n += inflater.inflate(restored, n, data.length - n);
+            }
+            long t2 = System.nanoTime();
+            lz = LzCodec.compress(data, 0, data.length, compressed, 0, table);
+            long t3 = System.nanoTime();
+            LzCodec.decompress(compressed, 0, lz, restored, 0, data.length);
+            long t4 = System.nanoTime();
+            if (round > 0) {
+                deflateNanos += t1 - t0;
+                inflateNanos += t2 - t1;
+                lzNanos += t3 - t2;
+                unlzNanos += t4 - t3;
+            }
+        }
+        deflater.end();
+        inflater.end();
+
+        print(name, "Deflate-1", data.length, deflated, deflateNanos, inflateNanos);
+        print(name, "LZ", data.length, lz, lzNanos, unlzNanos);
+    }
+
+    private static void print(String data, String codec, int original, int compressed,
+                              long compressNanos, long decompressNanos) {
+        double mb = original * (double) ROUNDS / (1024 * 1024);
+        System.out.println(String.format("[%s/%s] %,d -> %,d字节（%.1f%%），压缩%.2fms/MB，解压%.2fms/MB",
+            data, codec, original, compressed, 100.0 * compressed / original,
+            compressNanos / 1e6 / mb, decompressNanos / 1e6 / mb));
+    }
+
+    private static void rpc(byte codec, int records, int calls) throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        List<String> rows = rows(records);
+        RpcServer server = new RpcServer(port);
+        // 服务端每次调用都打日志，压测时关掉
+        server.setLogEnabled(false);
+        server.registerService(ReportService.class, n -> rows.subList(0, Math.min(n, rows.size())),
+            ExecutionPolicy.inline());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "compression-benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+
+        RpcClient client = new RpcClient("localhost", port);
+        client.setCompression(codec);
+        try {
+            client.connect();
+            ReportService service = client.createProxy(ReportService.class);
+            service.query(records);     // 预热
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                service.query(records);
+            }
+            double elapsed = (System.nanoTime() - start) / 1e6;
+            System.out.println(String.format("[%s] %d次调用%.0fms，平均%.2fms", Compression.name(codec),
+                calls, elapsed, elapsed / calls));
+            System.out.println("  服务端: " + server.getCompressionStats());
+            System.out.println("  客户端: " + client.getCompressionStats());
+        } finally {
+            client.close();
+            server.shutdown();
+        }
+    }
+}
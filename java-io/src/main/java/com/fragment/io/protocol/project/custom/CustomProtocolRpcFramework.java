@@ -1,8 +1,16 @@
 package com.fragment.io.protocol.project.custom;
 
+import com.fragment.io.netty.project.rpc.Bulkhead;
+import com.fragment.io.netty.project.rpc.ExecutionPolicy;
+import com.fragment.io.netty.project.rpc.MethodDispatcher;
+import com.fragment.io.netty.project.rpc.MethodStats;
+import com.fragment.io.netty.project.rpc.PendingRequests;
+import com.fragment.io.netty.project.rpc.ServiceBusyException;
+import com.fragment.io.nio.checksum.Crc32c;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -10,46 +18,82 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.*;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.zip.CRC32;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.Checksum;
 
 /**
  * 自定义协议RPC框架
  * 
  * 功能特性：
  * 1. 自定义二进制协议
- * 2. 支持同步/异步调用
+ * 2. 支持同步/异步调用（sendAsync、返回CompletableFuture的接口方法；服务端方法也可以返回CompletableFuture）
  * 3. 服务注册与发现
  * 4. 请求响应匹配（通过requestId）
- * 5. 序列化/反序列化（Java原生）
+ * 5. 可插拔序列化（{@link Serializer}）：紧凑二进制为默认，Java原生作为兜底
  * 6. 异常传播
- * 7. 超时控制
+ * 7. 超时控制（时间轮统一处理，超时的请求从在途表中移除）
+ * 8. 按服务的执行策略内联执行或交给服务的隔舱线程池，隔舱满时回BUSY（{@link ExecutionPolicy}）
+ * 9. 批量调用：一帧携带多个请求，服务端全部完成后用一帧批量响应；客户端可选合并flush
+ * 10. 大消息压缩：握手协商算法（{@link Compression}），超过阈值的消息体才压缩
  * 
  * 协议格式：
- * +-------+-------+-------+----------+----------+----------+----------+
- * | 魔数  | 版本  | 类型  | 请求ID   | 长度     | 数据     | 校验码   |
- * | 2字节 | 1字节 | 1字节 | 8字节    | 4字节    | N字节    | 4字节    |
- * +-------+-------+-------+----------+----------+----------+----------+
+ * +-------+-------+-------+--------+-------+----------+----------+----------+-------------+
+ * | 魔数  | 版本  | 类型  | 序列化 | 标志  | 请求ID   | 长度     | 数据     | 校验码      |
+ * | 2字节 | 1字节 | 1字节 | 1字节  | 1字节 | 8字节    | 4字节    | N字节    | 4字节(可选) |
+ * +-------+-------+-------+--------+-------+----------+----------+----------+-------------+
+ * 
+ * 序列化字节选择消息体的编码方式（{@link Serializers}），服务端用请求的方式编码响应；
+ * 编码器直接把对象序列化进出站ByteBuf，再回填长度。
+ * 
+ * 标志位FLAG_CHECKSUM表示帧尾带CRC32C校验码（覆盖头部和数据）。连接建立后客户端发送握手消息，
+ * 协商本连接是否校验；解码器输出的消息体是入站缓冲区的retainedSlice，不拷贝，处理器用完后释放。
+ * 
+ * 标志位{@link Compression#DEFLATE}/{@link Compression#LZ}表示消息体已压缩，格式为"原始长度(4) + 压缩数据"，
+ * 长度字段和校验码都针对压缩后的字节；同一次握手协商使用哪种算法，每帧是否压缩由发送方按阈值决定。
+ * 
+ * 批量消息（TYPE_BATCH_REQUEST / TYPE_BATCH_RESPONSE）的消息体是"条数(4) + 每条的长度(4)和序列化结果"，
+ * 每条请求/响应自带请求ID，帧头中的请求ID不使用。
  * 
  * @author fragment
  */
 public class CustomProtocolRpcFramework {
     
     // 协议常量
-    private static final short MAGIC_NUMBER = (short) 0xABCD;
-    private static final byte VERSION = 1;
-    private static final byte TYPE_REQUEST = 1;
-    private static final byte TYPE_RESPONSE = 2;
+    static final short MAGIC_NUMBER = (short) 0xABCD;
+    static final byte VERSION = 3;
+    static final byte TYPE_REQUEST = 1;
+    static final byte TYPE_RESPONSE = 2;
+    static final byte TYPE_HANDSHAKE = 3;
+    static final byte TYPE_BUSY = 4;                // 隔舱已满，请求未执行；没有消息体
+    static final byte TYPE_BATCH_REQUEST = 5;       // 一帧多个请求
+    static final byte TYPE_BATCH_RESPONSE = 6;      // 一帧多个响应，与批量请求一一对应
+    static final byte FLAG_CHECKSUM = 0x01;         // 帧尾带CRC32C校验码
+    static final byte SUPPORTED_FEATURES = FLAG_CHECKSUM | Compression.MASK;
+    static final int HEADER_LENGTH = 18;            // 2+1+1+1+1+8+4
+    static final int CHECKSUM_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 10 * 1024 * 1024;
     
     /**
      * RPC请求
@@ -62,6 +106,7 @@ public class CustomProtocolRpcFramework {
         private String methodName;
         private Class<?>[] parameterTypes;
         private Object[] parameters;
+        private int methodId;           // RpcSchema登记的方法ID，0表示没有
         
         public RpcRequest() {}
         
@@ -85,6 +130,8 @@ public class CustomProtocolRpcFramework {
         public void setParameterTypes(Class<?>[] parameterTypes) { this.parameterTypes = parameterTypes; }
         public Object[] getParameters() { return parameters; }
         public void setParameters(Object[] parameters) { this.parameters = parameters; }
+        public int getMethodId() { return methodId; }
+        public void setMethodId(int methodId) { this.methodId = methodId; }
     }
     
     /**
@@ -116,48 +163,154 @@ public class CustomProtocolRpcFramework {
     
     /**
      * 协议消息
+     * 
+     * <p>出站消息携带未序列化的body，由编码器直接写入ByteBuf；入站消息的data是入站缓冲区的
+     * retainedSlice，不拷贝。所以入站消息用完要释放：SimpleChannelInboundHandler在channelRead0
+     * 返回后自动release，其他地方持有消息时自己负责。
      */
-    static class ProtocolMessage {
+    static class ProtocolMessage implements ReferenceCounted {
         private short magicNumber;
         private byte version;
         private byte type;
+        private byte serializer;
+        private byte flags;
         private long requestId;
         private int length;
-        private byte[] data;
-        private int checksum;
+        private ByteBuf data;
+        private Object body;
         
         public ProtocolMessage() {
             this.magicNumber = MAGIC_NUMBER;
             this.version = VERSION;
         }
         
-        public ProtocolMessage(byte type, long requestId, byte[] data) {
+        public ProtocolMessage(byte type, byte serializer, long requestId, Object body) {
             this();
             this.type = type;
+            this.serializer = serializer;
             this.requestId = requestId;
-            this.data = data;
-            this.length = data != null ? data.length : 0;
-            this.checksum = calculateChecksum();
-        }
-        
-        private int calculateChecksum() {
-            CRC32 crc32 = new CRC32();
-            crc32.update(magicNumber);
-            crc32.update(version);
-            crc32.update(type);
-            crc32.update((int) (requestId >> 32));
-            crc32.update((int) requestId);
-            crc32.update(length);
+            this.body = body;
+        }
+        
+        /**
+         * 握手消息：消息体是请求方想用（或应答方同意）的标志位
+         */
+        static ProtocolMessage handshake(byte features) {
+            return new ProtocolMessage(TYPE_HANDSHAKE, Serializer.JAVA, 0, features);
+        }
+        
+        /**
+         * BUSY响应：只有消息头
+         */
+        static ProtocolMessage busy(long requestId) {
+            return new ProtocolMessage(TYPE_BUSY, Serializer.JAVA, requestId, null);
+        }
+        
+        /**
+         * 批量消息：body是请求或响应的List
+         */
+        static ProtocolMessage batch(byte type, byte serializer, List<?> items) {
+            return new ProtocolMessage(type, serializer, 0, items);
+        }
+        
+        boolean isBatch() {
+            return type == TYPE_BATCH_REQUEST || type == TYPE_BATCH_RESPONSE;
+        }
+        
+        /**
+         * 握手和BUSY是控制消息，消息体不经过序列化
+         */
+        boolean isControl() {
+            return type == TYPE_HANDSHAKE || type == TYPE_BUSY;
+        }
+        
+        /**
+         * 用buf的[index, index + length)更新校验和，直接读ByteBuf的NIO视图，不拷贝
+         */
+        static void updateChecksum(Checksum checksum, ByteBuf buf, int index, int length) {
+            if (buf.nioBufferCount() == 1) {
+                Crc32c.update(checksum, buf.nioBuffer(index, length));
+                return;
+            }
+            for (ByteBuffer component : buf.nioBuffers(index, length)) {
+                Crc32c.update(checksum, component);
+            }
+        }
+        
+        /**
+         * 用消息头中的序列化方式解析data（读data的副本，不改变data的读索引）
+         */
+        public <T> T readBody(Class<T> clazz) throws IOException {
+            Serializer s = Serializers.get(serializer);
+            if (s == null) {
+                throw new IOException("不支持的序列化方式: " + serializer);
+            }
+            return s.deserialize(data != null ? data.duplicate() : Unpooled.EMPTY_BUFFER, clazz);
+        }
+        
+        /**
+         * 解析批量消息：每条都是data的一个切片，按消息头中的序列化方式解析
+         */
+        public <T> List<T> readBatch(Class<T> clazz) throws IOException {
+            Serializer s = Serializers.get(serializer);
+            if (s == null) {
+                throw new IOException("不支持的序列化方式: " + serializer);
+            }
+            ByteBuf in = data != null ? data.duplicate() : Unpooled.EMPTY_BUFFER;
+            int count = in.readableBytes() >= 4 ? in.readInt() : -1;
+            if (count < 0 || count > in.readableBytes() / 4) {
+                throw new IOException("批量消息条数不正确: " + count);
+            }
+            List<T> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int itemLength = in.readableBytes() >= 4 ? in.readInt() : -1;
+                if (itemLength < 0 || itemLength > in.readableBytes()) {
+                    throw new IOException("批量消息第" + i + "条长度不正确: " + itemLength);
+                }
+                items.add(s.deserialize(in.readSlice(itemLength), clazz));
+            }
+            return items;
+        }
+        
+        /**
+         * 握手消息的标志位
+         */
+        public byte readFeatures() {
+            return data != null && data.isReadable() ? data.getByte(data.readerIndex()) : 0;
+        }
+        
+        // 引用计数委托给data；出站消息没有data，引用计数恒为1，release不做任何事
+        @Override
+        public int refCnt() { return data != null ? data.refCnt() : 1; }
+        
+        @Override
+        public ProtocolMessage retain() { return retain(1); }
+        
+        @Override
+        public ProtocolMessage retain(int increment) {
             if (data != null) {
-                crc32.update(data);
+                data.retain(increment);
             }
-            return (int) crc32.getValue();
+            return this;
         }
         
-        public boolean verifyChecksum() {
-            return this.checksum == calculateChecksum();
+        @Override
+        public ProtocolMessage touch() { return touch(null); }
+        
+        @Override
+        public ProtocolMessage touch(Object hint) {
+            if (data != null) {
+                data.touch(hint);
+            }
+            return this;
         }
         
+        @Override
+        public boolean release() { return release(1); }
+        
+        @Override
+        public boolean release(int decrement) { return data != null && data.release(decrement); }
+        
         // Getters and Setters
         public short getMagicNumber() { return magicNumber; }
         public void setMagicNumber(short magicNumber) { this.magicNumber = magicNumber; }
@@ -165,39 +318,168 @@ public class CustomProtocolRpcFramework {
         public void setVersion(byte version) { this.version = version; }
         public byte getType() { return type; }
         public void setType(byte type) { this.type = type; }
+        public byte getSerializer() { return serializer; }
+        public void setSerializer(byte serializer) { this.serializer = serializer; }
+        public byte getFlags() { return flags; }
+        public void setFlags(byte flags) { this.flags = flags; }
         public long getRequestId() { return requestId; }
         public void setRequestId(long requestId) { this.requestId = requestId; }
         public int getLength() { return length; }
         public void setLength(int length) { this.length = length; }
-        public byte[] getData() { return data; }
-        public void setData(byte[] data) { this.data = data; this.length = data != null ? data.length : 0; }
-        public int getChecksum() { return checksum; }
-        public void setChecksum(int checksum) { this.checksum = checksum; }
+        public ByteBuf getData() { return data; }
+        public void setData(ByteBuf data) { this.data = data; this.length = data != null ? data.readableBytes() : 0; }
+        public Object getBody() { return body; }
     }
     
     /**
-     * 协议编码器
+     * 连接级别的协商结果：同一个连接的编码器、解码器和处理器共享一份
+     * 
+     * <p>握手完成前双方都带校验码、都不压缩。标志位逐帧写在头部，切换前后在途的帧都能正确解码。
+     */
+    static class ConnectionConfig {
+        private volatile byte features = FLAG_CHECKSUM;
+        private final CountDownLatch handshake = new CountDownLatch(1);
+        private final int compressionThreshold;
+        private final Compression.Stats compressionStats;
+        
+        ConnectionConfig() {
+            this(Compression.DEFAULT_THRESHOLD, new Compression.Stats());
+        }
+        
+        ConnectionConfig(int compressionThreshold, Compression.Stats compressionStats) {
+            this.compressionThreshold = compressionThreshold;
+            this.compressionStats = compressionStats;
+        }
+        
+        boolean isChecksum() {
+            return (features & FLAG_CHECKSUM) != 0;
+        }
+        
+        /**
+         * 协商好的压缩算法，{@link Compression#NONE}表示不压缩
+         */
+        byte compression() {
+            return (byte) (features & Compression.MASK);
+        }
+        
+        int getCompressionThreshold() {
+            return compressionThreshold;
+        }
+        
+        Compression.Stats getCompressionStats() {
+            return compressionStats;
+        }
+        
+        /**
+         * 应用握手的结果
+         */
+        void apply(byte agreed) {
+            features = agreed;
+            handshake.countDown();
+        }
+        
+        boolean awaitHandshake(long timeoutMillis) throws InterruptedException {
+            return handshake.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * 协议编码器：消息体直接序列化进out，再回填长度；超过阈值的消息体原地替换为压缩结果，
+     * 连接要求校验时在帧尾追加CRC32C
      */
     static class ProtocolEncoder extends MessageToByteEncoder<ProtocolMessage> {
+        private final ConnectionConfig config;
+        private final Checksum crc = Crc32c.newChecksum();
+        
+        public ProtocolEncoder(ConnectionConfig config) {
+            this.config = config;
+        }
+        
         @Override
-        protected void encode(ChannelHandlerContext ctx, ProtocolMessage msg, ByteBuf out) {
+        protected void encode(ChannelHandlerContext ctx, ProtocolMessage msg, ByteBuf out) throws Exception {
+            Serializer serializer = null;
+            if (!msg.isControl()) {
+                serializer = Serializers.get(msg.getSerializer());
+                if (serializer == null) {
+                    throw new IOException("不支持的序列化方式: " + msg.getSerializer());
+                }
+            }
+            boolean checksum = config.isChecksum();
+            
+            int start = out.writerIndex();
             out.writeShort(msg.getMagicNumber());
             out.writeByte(msg.getVersion());
             out.writeByte(msg.getType());
+            out.writeByte(msg.getSerializer());
+            out.writeByte(0);       // 标志位，消息体写完后回填
             out.writeLong(msg.getRequestId());
-            out.writeInt(msg.getLength());
-            if (msg.getData() != null && msg.getData().length > 0) {
-                out.writeBytes(msg.getData());
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            
+            int bodyStart = out.writerIndex();
+            try {
+                if (msg.getType() == TYPE_HANDSHAKE) {
+                    out.writeByte((Byte) msg.getBody());
+                } else if (msg.isBatch()) {
+                    List<?> items = (List<?>) msg.getBody();
+                    out.writeInt(items.size());
+                    for (Object item : items) {
+                        int itemLengthIndex = out.writerIndex();
+                        out.writeInt(0);
+                        serializer.serialize(item, out);
+                        out.setInt(itemLengthIndex, out.writerIndex() - itemLengthIndex - 4);
+                    }
+                } else if (serializer != null) {
+                    serializer.serialize(msg.getBody(), out);
+                }
+            } catch (IOException | RuntimeException e) {
+                out.writerIndex(start);
+                throw e;
+            }
+            int length = out.writerIndex() - bodyStart;
+            if (length > MAX_FRAME_LENGTH) {
+                out.writerIndex(start);
+                throw new IOException("消息过大: " + length);
+            }
+            
+            byte flags = checksum ? FLAG_CHECKSUM : 0;
+            byte codec = config.compression();
+            if (codec != Compression.NONE && !msg.isControl() && length >= config.getCompressionThreshold()) {
+                long begin = System.nanoTime();
+                int compressed = Compression.compress(codec, out, bodyStart, length);
+                config.getCompressionStats().recordCompress(length, compressed, System.nanoTime() - begin);
+                if (compressed >= 0) {
+                    length = compressed;
+                    flags |= codec;
+                }
+            }
+            out.setByte(start + 5, flags);
+            out.setInt(lengthIndex, length);
+            msg.setLength(length);
+            
+            if (checksum) {
+                crc.reset();
+                ProtocolMessage.updateChecksum(crc, out, start, HEADER_LENGTH + length);
+                out.writeInt((int) crc.getValue());
             }
-            out.writeInt(msg.getChecksum());
         }
     }
     
     /**
      * 协议解码器
+     * 
+     * <p>消息体是入站缓冲区的retainedSlice，不拷贝；校验码随数据到达增量计算，
+     * 大消息分多次到达时每个字节只过一遍CRC32C，且在它还在缓存里时就算掉。
+     * 压缩的消息体在校验通过后解压到新分配的缓冲区，切片随即释放。
      */
     static class ProtocolDecoder extends ByteToMessageDecoder {
-        private static final int HEADER_LENGTH = 20; // 2+1+1+8+4+4
+        private final ConnectionConfig config;
+        private final Checksum crc = Crc32c.newChecksum();
+        private int checkedBytes;   // 当前帧已计入校验和的字节数（相对帧起始位置）
+        
+        public ProtocolDecoder(ConnectionConfig config) {
+            this.config = config;
+        }
         
         @Override
         protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
@@ -205,54 +487,91 @@ public class CustomProtocolRpcFramework {
                 return;
             }
             
-            in.markReaderIndex();
-            
-            short magicNumber = in.readShort();
+            // 头部只看不读，整帧到齐后再移动读索引
+            int start = in.readerIndex();
+            short magicNumber = in.getShort(start);
             if (magicNumber != MAGIC_NUMBER) {
-                in.resetReaderIndex();
                 in.skipBytes(1);
                 return;
             }
             
-            byte version = in.readByte();
-            byte type = in.readByte();
-            long requestId = in.readLong();
-            int length = in.readInt();
-            
-            if (length < 0 || length > 10 * 1024 * 1024) {
-                ctx.close();
+            byte flags = in.getByte(start + 5);
+            int length = in.getInt(start + 14);
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                reject(ctx, in);
                 return;
             }
             
-            if (in.readableBytes() < length + 4) {
-                in.resetReaderIndex();
+            if ((flags & Compression.MASK) == Compression.MASK) {
+                // 两种压缩算法不能同时使用
+                reject(ctx, in);
                 return;
             }
             
-            byte[] data = null;
-            if (length > 0) {
-                data = new byte[length];
-                in.readBytes(data);
+            boolean hasChecksum = (flags & FLAG_CHECKSUM) != 0;
+            if (!hasChecksum && config.isChecksum()) {
+                // 本连接要求校验
+                reject(ctx, in);
+                return;
             }
             
-            int checksum = in.readInt();
+            int frameLength = HEADER_LENGTH + length;
+            if (hasChecksum) {
+                int available = Math.min(in.readableBytes(), frameLength);
+                if (available > checkedBytes) {
+                    ProtocolMessage.updateChecksum(crc, in, start + checkedBytes, available - checkedBytes);
+                    checkedBytes = available;
+                }
+                if (in.readableBytes() < frameLength + CHECKSUM_LENGTH) {
+                    return;
+                }
+                int checksum = (int) crc.getValue();
+                crc.reset();
+                checkedBytes = 0;
+                if (in.getInt(start + frameLength) != checksum) {
+                    reject(ctx, in);
+                    return;
+                }
+            } else if (in.readableBytes() < frameLength) {
+                return;
+            }
             
             ProtocolMessage message = new ProtocolMessage();
             message.setMagicNumber(magicNumber);
-            message.setVersion(version);
-            message.setType(type);
-            message.setRequestId(requestId);
-            message.setLength(length);
-            message.setData(data);
-            message.setChecksum(checksum);
+            message.setVersion(in.getByte(start + 2));
+            message.setType(in.getByte(start + 3));
+            message.setSerializer(in.getByte(start + 4));
+            message.setFlags(flags);
+            message.setRequestId(in.getLong(start + 6));
+            ByteBuf data = in.retainedSlice(start + HEADER_LENGTH, length);
+            in.skipBytes(frameLength + (hasChecksum ? CHECKSUM_LENGTH : 0));
             
-            if (!message.verifyChecksum()) {
-                ctx.close();
-                return;
+            byte codec = (byte) (flags & Compression.MASK);
+            if (codec != Compression.NONE) {
+                long begin = System.nanoTime();
+                ByteBuf compressed = data;
+                try {
+                    data = Compression.decompress(codec, compressed, ctx.alloc(), MAX_FRAME_LENGTH);
+                } catch (IOException e) {
+                    System.err.println("解压失败，关闭连接: " + e.getMessage());
+                    reject(ctx, in);
+                    return;
+                } finally {
+                    compressed.release();
+                }
+                config.getCompressionStats().recordDecompress(data.readableBytes(), System.nanoTime() - begin);
             }
+            message.setData(data);
             
             out.add(message);
         }
+        
+        private void reject(ChannelHandlerContext ctx, ByteBuf in) {
+            in.skipBytes(in.readableBytes());
+            crc.reset();
+            checkedBytes = 0;
+            ctx.close();
+        }
     }
     
     /**
@@ -260,7 +579,11 @@ public class CustomProtocolRpcFramework {
      */
     public static class RpcServer {
         private final int port;
-        private final Map<String, Object> serviceMap = new ConcurrentHashMap<>();
+        private final MethodDispatcher dispatcher = new MethodDispatcher();
+        private volatile boolean checksumRequired;
+        private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+        private volatile boolean logEnabled = true;
+        private final Compression.Stats compressionStats = new Compression.Stats();
         private EventLoopGroup bossGroup;
         private EventLoopGroup workerGroup;
         
@@ -269,11 +592,61 @@ public class CustomProtocolRpcFramework {
         }
         
         /**
-         * 注册服务
+         * 要求所有连接都做CRC32C校验；默认由客户端在握手时决定
+         */
+        public void setChecksumRequired(boolean checksumRequired) {
+            this.checksumRequired = checksumRequired;
+        }
+        
+        /**
+         * 响应消息体达到多少字节才压缩（算法由客户端在握手时选择）
+         */
+        public void setCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+        
+        /**
+         * 关闭日志（压测时每个请求打印两行会成为瓶颈），错误仍然输出
+         */
+        public void setLogEnabled(boolean logEnabled) {
+            this.logEnabled = logEnabled;
+        }
+        
+        /**
+         * 所有连接的压缩统计：响应方向省下的字节和压缩耗时，请求方向的解压耗时
+         */
+        public Compression.Stats getCompressionStats() {
+            return compressionStats;
+        }
+        
+        /**
+         * 注册服务：使用默认的隔舱（{@link ExecutionPolicy#defaultPolicy()}），不占用I/O线程
          */
         public <T> void registerService(Class<T> interfaceClass, T serviceImpl) {
-            serviceMap.put(interfaceClass.getName(), serviceImpl);
-            System.out.println("[服务器] 注册服务: " + interfaceClass.getName());
+            registerService(interfaceClass, serviceImpl, ExecutionPolicy.defaultPolicy());
+        }
+        
+        /**
+         * 注册服务，指定执行策略
+         */
+        public <T> void registerService(Class<T> interfaceClass, T serviceImpl, ExecutionPolicy policy) {
+            // 方法ID与RpcSchema一致（同一签名、同一哈希），派发表直接按请求里的方法ID查找
+            RpcSchema.register(interfaceClass);
+            dispatcher.register(interfaceClass, serviceImpl, policy);
+            if (logEnabled) {
+                System.out.println("[服务器] 注册服务: " + interfaceClass.getName() + "，执行策略: " + policy);
+            }
+        }
+        
+        /**
+         * 每个方法的调用统计（排队时间、执行时间、拒绝次数）
+         */
+        public List<MethodStats> getMethodStats() {
+            List<MethodStats> stats = new ArrayList<>();
+            for (MethodDispatcher.Invoker invoker : dispatcher.getInvokers()) {
+                stats.add(invoker.getStats());
+            }
+            return stats;
         }
         
         /**
@@ -290,14 +663,17 @@ public class CustomProtocolRpcFramework {
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
+                            ConnectionConfig config = new ConnectionConfig(compressionThreshold, compressionStats);
                             ChannelPipeline pipeline = ch.pipeline();
-                            pipeline.addLast(new ProtocolDecoder());
-                            pipeline.addLast(new ProtocolEncoder());
-                            pipeline.addLast(new RpcServerHandler(serviceMap));
+                            pipeline.addLast(new ProtocolDecoder(config));
+                            pipeline.addLast(new ProtocolEncoder(config));
+                            pipeline.addLast(new RpcServerHandler(dispatcher, config, checksumRequired, logEnabled));
                         }
                     });
                 
-                System.out.println("[服务器] RPC服务器启动在端口: " + port);
+                if (logEnabled) {
+                    System.out.println("[服务器] RPC服务器启动在端口: " + port);
+                }
                 ChannelFuture future = bootstrap.bind(port).sync();
                 future.channel().closeFuture().sync();
             } finally {
@@ -312,6 +688,7 @@ public class CustomProtocolRpcFramework {
             if (bossGroup != null) {
                 bossGroup.shutdownGracefully();
             }
+            dispatcher.shutdown();
         }
     }
     
@@ -319,50 +696,152 @@ public class CustomProtocolRpcFramework {
      * RPC服务器处理器
      */
     static class RpcServerHandler extends SimpleChannelInboundHandler<ProtocolMessage> {
-        private final Map<String, Object> serviceMap;
+        private final MethodDispatcher dispatcher;
+        private final ConnectionConfig config;
+        private final boolean checksumRequired;
+        private final boolean logEnabled;
         
-        public RpcServerHandler(Map<String, Object> serviceMap) {
-            this.serviceMap = serviceMap;
+        public RpcServerHandler(MethodDispatcher dispatcher, ConnectionConfig config, boolean checksumRequired,
+                                boolean logEnabled) {
+            this.dispatcher = dispatcher;
+            this.config = config;
+            this.checksumRequired = checksumRequired;
+            this.logEnabled = logEnabled;
         }
         
+        /**
+         * msg的消息体引用入站缓冲区，方法返回后由SimpleChannelInboundHandler释放
+         */
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ProtocolMessage msg) {
-            if (msg.getType() != TYPE_REQUEST) {
+            if (msg.getType() == TYPE_HANDSHAKE) {
+                handshake(ctx, msg);
                 return;
             }
             
-            // 反序列化请求
-            RpcRequest request = deserialize(msg.getData(), RpcRequest.class);
-            System.out.println("[服务器] 收到RPC请求: " + request.getInterfaceName() + 
-                "." + request.getMethodName());
+            // 用请求的序列化方式响应（不认识时退回Java序列化），由编码器直接写入ByteBuf
+            byte serializer = Serializers.get(msg.getSerializer()) != null ? msg.getSerializer() : Serializer.JAVA;
+            if (msg.getType() == TYPE_REQUEST) {
+                // 在I/O线程反序列化：之后msg就会被释放，交给隔舱的只有反序列化好的请求
+                long requestId = msg.getRequestId();
+                RpcRequest request;
+                try {
+                    request = msg.readBody(RpcRequest.class);
+                } catch (IOException e) {
+                    System.err.println("[服务器] RPC调用失败: " + e.getMessage());
+                    ctx.writeAndFlush(new ProtocolMessage(TYPE_RESPONSE, serializer, requestId,
+                        new RpcResponse(requestId, null, e)));
+                    return;
+                }
+                if (logEnabled) {
+                    System.out.println("[服务器] 收到RPC请求: " + request.getInterfaceName() + 
+                        "." + request.getMethodName());
+                }
+                dispatch(request,
+                    response -> ctx.writeAndFlush(new ProtocolMessage(TYPE_RESPONSE, serializer, requestId, response)),
+                    () -> ctx.writeAndFlush(ProtocolMessage.busy(requestId)));
+            } else if (msg.getType() == TYPE_BATCH_REQUEST) {
+                List<RpcRequest> requests;
+                try {
+                    requests = msg.readBatch(RpcRequest.class);
+                } catch (IOException e) {
+                    // 不知道里面有哪些请求ID，无法逐个回复；断开连接，客户端的在途请求立即失败
+                    System.err.println("[服务器] 批量请求解析失败: " + e.getMessage());
+                    ctx.close();
+                    return;
+                }
+                BatchReply reply = new BatchReply(ctx, serializer, requests.size());
+                for (int i = 0; i < requests.size(); i++) {
+                    int slot = i;
+                    RpcRequest request = requests.get(i);
+                    dispatch(request, response -> reply.set(slot, response),
+                        () -> reply.set(slot, new RpcResponse(request.getRequestId(), null,
+                            new ServiceBusyException("服务端繁忙，请求未执行"))));
+                }
+            }
+        }
+        
+        /**
+         * 查派发表，内联执行或交给服务的隔舱；隔舱满了立刻调用busy，不在I/O线程上等
+         */
+        private void dispatch(RpcRequest request, Consumer<RpcResponse> done, Runnable busy) {
+            // 按方法ID查派发表，MethodHandle调用（不再每次getMethod + 反射invoke）
+            MethodDispatcher.Invoker invoker = dispatcher.find(request.getMethodId(),
+                request.getInterfaceName(), request.getMethodName(), request.getParameterTypes());
+            if (invoker == null) {
+                // 方法ID未登记、参数类型不存在等也作为调用失败返回给客户端
+                RuntimeException e = new RuntimeException("服务或方法不存在: " + request.getInterfaceName() + 
+                    "." + request.getMethodName());
+                System.err.println("[服务器] RPC调用失败: " + e.getMessage());
+                done.accept(new RpcResponse(request.getRequestId(), null, e));
+                return;
+            }
             
-            // 处理请求
+            Bulkhead bulkhead = invoker.getBulkhead();
+            if (bulkhead == null) {
+                invoke(invoker, request, System.nanoTime(), done);
+                return;
+            }
+            long enqueueTime = System.nanoTime();
+            if (!bulkhead.tryExecute(() -> invoke(invoker, request, enqueueTime, done))) {
+                invoker.getStats().recordRejected();
+                busy.run();
+            }
+        }
+        
+        /**
+         * 调用目标方法，记录排队和执行时间；方法返回CompletionStage时在它完成后再响应
+         */
+        private void invoke(MethodDispatcher.Invoker invoker, RpcRequest request, long enqueueTime,
+                            Consumer<RpcResponse> done) {
+            long startTime = System.nanoTime();
+            Object result;
+            try {
+                result = invoker.invoke(request.getParameters());
+            } catch (Throwable e) {
+                reply(invoker, request, null, e, enqueueTime, startTime, done);
+                return;
+            }
+            if (result instanceof CompletionStage) {
+                ((CompletionStage<?>) result).whenComplete((value, error) -> reply(invoker, request, value,
+                    error instanceof CompletionException && error.getCause() != null ? error.getCause() : error,
+                    enqueueTime, startTime, done));
+            } else {
+                reply(invoker, request, result, null, enqueueTime, startTime, done);
+            }
+        }
+        
+        private void reply(MethodDispatcher.Invoker invoker, RpcRequest request, Object result,
+                           Throwable error, long enqueueTime, long startTime, Consumer<RpcResponse> done) {
+            invoker.getStats().record(startTime - enqueueTime, System.nanoTime() - startTime);
             RpcResponse response = new RpcResponse();
             response.setRequestId(request.getRequestId());
-            
-            try {
-                Object service = serviceMap.get(request.getInterfaceName());
-                if (service == null) {
-                    throw new RuntimeException("服务不存在: " + request.getInterfaceName());
-                }
-                
-                Method method = service.getClass().getMethod(
-                    request.getMethodName(), request.getParameterTypes());
-                Object result = method.invoke(service, request.getParameters());
-                
+            if (error == null) {
                 response.setResult(result);
-                System.out.println("[服务器] RPC调用成功，返回结果: " + result);
-                
-            } catch (Exception e) {
-                response.setError(e);
-                System.err.println("[服务器] RPC调用失败: " + e.getMessage());
+                if (logEnabled) {
+                    System.out.println("[服务器] RPC调用成功，返回结果: " + result);
+                }
+            } else {
+                response.setError(error);
+                System.err.println("[服务器] RPC调用失败: " + error.getMessage());
             }
-            
-            // 序列化响应
-            byte[] data = serialize(response);
-            ProtocolMessage responseMsg = new ProtocolMessage(TYPE_RESPONSE, request.getRequestId(), data);
-            
-            ctx.writeAndFlush(responseMsg);
+            done.accept(response);
+        }
+        
+        /**
+         * 回复双方同意的标志位；应答本身在事件循环里立即编码，仍按握手前的设置带校验码、不压缩，写出后再切换
+         */
+        private void handshake(ChannelHandlerContext ctx, ProtocolMessage msg) {
+            byte agreed = (byte) (msg.readFeatures() & SUPPORTED_FEATURES);
+            if (checksumRequired) {
+                agreed |= FLAG_CHECKSUM;
+            }
+            if ((agreed & Compression.MASK) == Compression.MASK) {
+                // 客户端两种都支持时选更快的LZ
+                agreed &= ~Compression.DEFLATE;
+            }
+            ctx.writeAndFlush(ProtocolMessage.handshake(agreed));
+            config.apply(agreed);
         }
         
         @Override
@@ -372,6 +851,42 @@ public class CustomProtocolRpcFramework {
         }
     }
     
+    /**
+     * 批量请求的响应收集：各条请求可能在I/O线程、不同的隔舱线程或异步完成，最后一条完成时写出一帧批量响应
+     */
+    static class BatchReply {
+        private final ChannelHandlerContext ctx;
+        private final byte serializer;
+        private final RpcResponse[] responses;
+        private final AtomicInteger remaining;
+        
+        BatchReply(ChannelHandlerContext ctx, byte serializer, int size) {
+            this.ctx = ctx;
+            this.serializer = serializer;
+            this.responses = new RpcResponse[size];
+            this.remaining = new AtomicInteger(size);
+            if (size == 0) {
+                flush();
+            }
+        }
+        
+        void set(int slot, RpcResponse response) {
+            // 数组元素的写入对最后完成的线程可见：decrementAndGet之前写，之后读
+            responses[slot] = response;
+            if (remaining.decrementAndGet() == 0) {
+                flush();
+            }
+        }
+        
+        private void flush() {
+            List<RpcResponse> items = new ArrayList<>(responses.length);
+            for (RpcResponse response : responses) {
+                items.add(response);
+            }
+            ctx.writeAndFlush(ProtocolMessage.batch(TYPE_BATCH_RESPONSE, serializer, items));
+        }
+    }
+    
     /**
      * RPC客户端
      */
@@ -380,18 +895,75 @@ public class CustomProtocolRpcFramework {
         private final int port;
         private EventLoopGroup group;
         private Channel channel;
-        private final Map<Long, RpcFuture> futureMap = new ConcurrentHashMap<>();
+        private final HashedWheelTimer timer = new HashedWheelTimer(
+            new DefaultThreadFactory("rpc-timeout", true), 10, TimeUnit.MILLISECONDS, 512);
+        private final PendingRequests<RpcResponse> pending = new PendingRequests<>(timer);
+        private final AtomicLong nextRequestId = new AtomicLong();
+        private volatile byte serializer = Serializer.BINARY;
+        private volatile boolean checksumEnabled = true;
+        private volatile int flushConsolidation;
+        private volatile byte compression = Compression.NONE;
+        private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+        private final Compression.Stats compressionStats = new Compression.Stats();
         
         public RpcClient(String host, int port) {
             this.host = host;
             this.port = port;
         }
         
+        /**
+         * 选择请求的序列化方式（{@link Serializer#BINARY}或{@link Serializer#JAVA}），服务端按同样的方式响应
+         */
+        public void setSerializer(byte serializer) {
+            if (Serializers.get(serializer) == null) {
+                throw new IllegalArgumentException("未注册的序列化方式: " + serializer);
+            }
+            this.serializer = serializer;
+        }
+        
+        /**
+         * 是否对本连接的帧做CRC32C校验（connect前设置，握手时告诉服务端；服务端要求校验时仍然校验）
+         */
+        public void setChecksumEnabled(boolean checksumEnabled) {
+            this.checksumEnabled = checksumEnabled;
+        }
+        
+        /**
+         * 合并flush（connect前设置）：每次调用的writeAndFlush先不真正flush，积累到n次、
+         * 或EventLoop处理完当前这批任务时才flush一次，一串小请求合并成一次系统调用；0表示不合并
+         */
+        public void setFlushConsolidation(int explicitFlushAfterFlushes) {
+            this.flushConsolidation = explicitFlushAfterFlushes;
+        }
+        
+        /**
+         * 希望使用的压缩算法（connect前设置，握手时协商）：{@link Compression#LZ}、{@link Compression#DEFLATE}，
+         * 两者都支持时传{@code (byte) (LZ | DEFLATE)}，由服务端选择；默认{@link Compression#NONE}
+         */
+        public void setCompression(byte compression) {
+            if ((compression & ~Compression.MASK) != 0) {
+                throw new IllegalArgumentException("不支持的压缩算法: " + compression);
+            }
+            this.compression = compression;
+        }
+        
+        /**
+         * 请求消息体达到多少字节才压缩（connect前设置）
+         */
+        public void setCompressionThreshold(int compressionThreshold) {
+            this.compressionThreshold = compressionThreshold;
+        }
+        
+        public Compression.Stats getCompressionStats() {
+            return compressionStats;
+        }
+        
         /**
          * 连接服务器
          */
         public void connect() throws Exception {
             group = new NioEventLoopGroup();
+            ConnectionConfig config = new ConnectionConfig(compressionThreshold, compressionStats);
             
             Bootstrap bootstrap = new Bootstrap();
             bootstrap.group(group)
@@ -400,16 +972,28 @@ public class CustomProtocolRpcFramework {
                     @Override
                     protected void initChannel(SocketChannel ch) {
                         ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast(new ProtocolDecoder());
-                        pipeline.addLast(new ProtocolEncoder());
-                        pipeline.addLast(new RpcClientHandler(futureMap));
+                        if (flushConsolidation > 0) {
+                            // 没有读事件进行中时也合并：客户端的flush来自业务线程提交的任务
+                            pipeline.addLast(new FlushConsolidationHandler(flushConsolidation, true));
+                        }
+                        pipeline.addLast(new ProtocolDecoder(config));
+                        pipeline.addLast(new ProtocolEncoder(config));
+                        pipeline.addLast(new RpcClientHandler(pending, config));
                     }
                 });
             
             System.out.println("[客户端] 连接RPC服务器: " + host + ":" + port);
             ChannelFuture future = bootstrap.connect(host, port).sync();
             channel = future.channel();
-            System.out.println("[客户端] 连接成功");
+            
+            // 握手：协商本连接是否校验、用哪种压缩（超时则保持校验、不压缩，总是安全的）
+            byte features = (byte) ((checksumEnabled ? FLAG_CHECKSUM : 0) | compression);
+            channel.writeAndFlush(ProtocolMessage.handshake(features));
+            if (!config.awaitHandshake(5000)) {
+                System.out.println("[客户端] 握手超时，继续使用校验码");
+            }
+            System.out.println("[客户端] 连接成功，校验码: " + (config.isChecksum() ? "CRC32C" : "关闭")
+                + "，压缩: " + Compression.name(config.compression()));
         }
         
         /**
@@ -425,24 +1009,83 @@ public class CustomProtocolRpcFramework {
         }
         
         /**
-         * 发送RPC请求
+         * 异步发送RPC请求（请求ID由客户端分配），返回调用结果的future
+         * 
+         * <p>future在I/O线程上完成：服务端异常、BUSY（{@link ServiceBusyException}）、
+         * 超时（{@link TimeoutException}）、连接断开都以异常完成；回调里不要做阻塞操作。
          */
-        public Object sendRequest(RpcRequest request, long timeout) throws Exception {
-            // 序列化请求
-            byte[] data = serialize(request);
-            ProtocolMessage message = new ProtocolMessage(TYPE_REQUEST, request.getRequestId(), data);
+        public CompletableFuture<Object> sendAsync(RpcRequest request, long timeout) {
+            long requestId = nextRequestId.incrementAndGet();
+            request.setRequestId(requestId);
+            // 请求由编码器直接序列化进ByteBuf
+            ProtocolMessage message = new ProtocolMessage(TYPE_REQUEST, serializer, requestId, request);
             
-            // 创建Future
-            RpcFuture future = new RpcFuture();
-            futureMap.put(request.getRequestId(), future);
+            // 先登记再发送，响应不会早于登记到达
+            CompletableFuture<RpcResponse> future = pending.register(requestId, timeout);
+            channel.writeAndFlush(message).addListener((ChannelFutureListener) f -> {
+                if (!f.isSuccess()) {
+                    pending.fail(requestId, f.cause());
+                }
+            });
             
-            // 发送请求
-            channel.writeAndFlush(message);
-            System.out.println("[客户端] 发送RPC请求: " + request.getInterfaceName() + 
-                "." + request.getMethodName());
+            return future.thenApply(RpcClient::result);
+        }
+        
+        /**
+         * 批量发送：所有请求编码进一帧，服务端全部执行完后用一帧返回；每个请求仍有自己的future和超时
+         */
+        public List<CompletableFuture<Object>> sendBatchAsync(List<RpcRequest> requests, long timeout) {
+            List<CompletableFuture<Object>> results = new ArrayList<>(requests.size());
+            long[] requestIds = new long[requests.size()];
+            for (int i = 0; i < requests.size(); i++) {
+                long requestId = nextRequestId.incrementAndGet();
+                requests.get(i).setRequestId(requestId);
+                requestIds[i] = requestId;
+                results.add(pending.register(requestId, timeout).thenApply(RpcClient::result));
+            }
             
-            // 等待响应
-            return future.get(timeout);
+            channel.writeAndFlush(ProtocolMessage.batch(TYPE_BATCH_REQUEST, serializer, requests))
+                .addListener((ChannelFutureListener) f -> {
+                    if (!f.isSuccess()) {
+                        for (long requestId : requestIds) {
+                            pending.fail(requestId, f.cause());
+                        }
+                    }
+                });
+            return results;
+        }
+        
+        private static Object result(RpcResponse response) {
+            if (response.getError() != null) {
+                throw new CompletionException(response.getError());
+            }
+            return response.getResult();
+        }
+        
+        /**
+         * 同步发送RPC请求
+         */
+        public Object sendRequest(RpcRequest request, long timeout) throws Exception {
+            try {
+                return sendAsync(request, timeout).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ServiceBusyException) {
+                    // 请求没有执行，调用方可以安全地重试或降级
+                    throw (ServiceBusyException) cause;
+                }
+                if (cause instanceof TimeoutException) {
+                    throw new RuntimeException("RPC调用超时", cause);
+                }
+                throw new RuntimeException("RPC调用失败", cause);
+            }
+        }
+        
+        /**
+         * 当前在途请求数
+         */
+        public int getPendingCount() {
+            return pending.size();
         }
         
         public void close() {
@@ -452,6 +1095,8 @@ public class CustomProtocolRpcFramework {
             if (group != null) {
                 group.shutdownGracefully();
             }
+            pending.failAll(new IllegalStateException("客户端已关闭"));
+            timer.stop();
         }
     }
     
@@ -459,27 +1104,64 @@ public class CustomProtocolRpcFramework {
      * RPC客户端处理器
      */
     static class RpcClientHandler extends SimpleChannelInboundHandler<ProtocolMessage> {
-        private final Map<Long, RpcFuture> futureMap;
+        private final PendingRequests<RpcResponse> pending;
+        private final ConnectionConfig config;
         
-        public RpcClientHandler(Map<Long, RpcFuture> futureMap) {
-            this.futureMap = futureMap;
+        public RpcClientHandler(PendingRequests<RpcResponse> pending, ConnectionConfig config) {
+            this.pending = pending;
+            this.config = config;
         }
         
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ProtocolMessage msg) {
-            if (msg.getType() != TYPE_RESPONSE) {
+            if (msg.getType() == TYPE_HANDSHAKE) {
+                // 解码器逐条交付消息，后续的帧在这之后才解码，不会用错设置
+                config.apply(msg.readFeatures());
+                return;
+            }
+            if (msg.getType() == TYPE_BATCH_RESPONSE) {
+                List<RpcResponse> responses;
+                try {
+                    responses = msg.readBatch(RpcResponse.class);
+                } catch (IOException e) {
+                    // 不知道是哪些请求的响应，断开连接让在途请求立即失败
+                    System.err.println("[客户端] 批量响应解析失败: " + e.getMessage());
+                    ctx.close();
+                    return;
+                }
+                for (RpcResponse response : responses) {
+                    pending.complete(response.getRequestId(), response);
+                }
+                return;
+            }
+            if (msg.getType() != TYPE_RESPONSE && msg.getType() != TYPE_BUSY) {
                 return;
             }
             
             // 反序列化响应
-            RpcResponse response = deserialize(msg.getData(), RpcResponse.class);
-            
-            // 获取对应的Future
-            RpcFuture future = futureMap.remove(response.getRequestId());
-            if (future != null) {
-                future.setResponse(response);
-                System.out.println("[客户端] 收到RPC响应");
+            RpcResponse response;
+            if (msg.getType() == TYPE_BUSY) {
+                response = new RpcResponse(msg.getRequestId(), null,
+                    new ServiceBusyException("服务端繁忙，请求未执行"));
+            } else {
+                try {
+                    response = msg.readBody(RpcResponse.class);
+                } catch (IOException e) {
+                    response = new RpcResponse(msg.getRequestId(), null, e);
+                }
             }
+            
+            // 已超时的请求不在表中，迟到的响应直接丢弃
+            pending.complete(response.getRequestId(), response);
+        }
+        
+        /**
+         * 连接断开：在途请求立即失败，不用等到超时
+         */
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            pending.failAll(new IOException("连接已断开"));
+            super.channelInactive(ctx);
         }
         
         @Override
@@ -495,80 +1177,35 @@ public class CustomProtocolRpcFramework {
     static class RpcInvocationHandler implements InvocationHandler {
         private final Class<?> interfaceClass;
         private final RpcClient client;
-        private static long requestIdGenerator = 0;
+        private final Map<Method, RpcSchema.MethodSchema> schemas;
         
         public RpcInvocationHandler(Class<?> interfaceClass, RpcClient client) {
             this.interfaceClass = interfaceClass;
             this.client = client;
+            this.schemas = RpcSchema.register(interfaceClass);
         }
         
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
             // 构建请求
             RpcRequest request = new RpcRequest(
-                ++requestIdGenerator,
+                0,                      // 请求ID由sendAsync分配
                 interfaceClass.getName(),
                 method.getName(),
                 method.getParameterTypes(),
                 args
             );
-            
-            // 发送请求并等待响应
-            return client.sendRequest(request, 5000);
-        }
-    }
-    
-    /**
-     * RPC Future
-     */
-    static class RpcFuture {
-        private RpcResponse response;
-        private final CountDownLatch latch = new CountDownLatch(1);
-        
-        public void setResponse(RpcResponse response) {
-            this.response = response;
-            latch.countDown();
-        }
-        
-        public Object get(long timeout) throws Exception {
-            if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
-                throw new RuntimeException("RPC调用超时");
+            RpcSchema.MethodSchema schema = schemas.get(method);
+            if (schema != null) {
+                request.setMethodId(schema.getId());
             }
             
-            if (response.getError() != null) {
-                throw new RuntimeException("RPC调用失败", response.getError());
+            // 异步方法直接返回future；其他方法等待响应
+            Class<?> returnType = method.getReturnType();
+            if (returnType == CompletableFuture.class || returnType == CompletionStage.class) {
+                return client.sendAsync(request, 5000);
             }
-            
-            return response.getResult();
-        }
-    }
-    
-    /**
-     * 序列化
-     */
-    private static byte[] serialize(Object obj) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
-            oos.writeObject(obj);
-            oos.close();
-            return baos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException("序列化失败", e);
-        }
-    }
-    
-    /**
-     * 反序列化
-     */
-    @SuppressWarnings("unchecked")
-    private static <T> T deserialize(byte[] data, Class<T> clazz) {
-        try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            ObjectInputStream ois = new ObjectInputStream(bais);
-            return (T) ois.readObject();
-        } catch (Exception e) {
-            throw new RuntimeException("反序列化失败", e);
+            return client.sendRequest(request, 5000);
         }
     }
     
@@ -581,6 +1218,7 @@ public class CustomProtocolRpcFramework {
         String getUserName(int userId);
         int getUserAge(int userId);
         boolean updateUser(int userId, String name, int age);
+        CompletableFuture<String> getUserNameAsync(int userId);
     }
     
     /**
@@ -602,6 +1240,11 @@ public class CustomProtocolRpcFramework {
             System.out.println("更新用户: userId=" + userId + ", name=" + name + ", age=" + age);
             return true;
         }
+        
+        @Override
+        public CompletableFuture<String> getUserNameAsync(int userId) {
+            return CompletableFuture.supplyAsync(() -> "用户" + userId);
+        }
     }
     
     /**
@@ -614,7 +1257,9 @@ public class CustomProtocolRpcFramework {
         Thread serverThread = new Thread(() -> {
             try {
                 RpcServer server = new RpcServer(8084);
-                server.registerService(UserService.class, new UserServiceImpl());
+                // 查询很快，留在I/O线程；updateUser走4个线程的隔舱
+                server.registerService(UserService.class, new UserServiceImpl(),
+                    ExecutionPolicy.bulkhead(4, 64).inlineMethods("getUserName", "getUserAge"));
                 server.start();
             } catch (Exception e) {
                 e.printStackTrace();
@@ -648,6 +1293,15 @@ public class CustomProtocolRpcFramework {
         boolean result = userService.updateUser(1, "张三", 25);
         System.out.println("结果: " + result);
         
+        // 异步调用：一个线程同时发出多个请求，不等响应
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int userId = 1; userId <= 100; userId++) {
+            futures.add(userService.getUserNameAsync(userId));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        System.out.println("异步结果: " + futures.size() + "个, 最后一个: " + futures.get(99).join()
+            + ", 在途请求: " + client.getPendingCount());
+        
         Thread.sleep(2000);
         
         // 关闭客户端
@@ -0,0 +1,186 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ConnectionConfig;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolDecoder;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolEncoder;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolMessage;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.ResourceLeakDetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.CHECKSUM_LENGTH;
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.FLAG_CHECKSUM;
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.HEADER_LENGTH;
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.TYPE_RESPONSE;
+
+/**
+ * 大响应的解码开销：拷贝 + CRC32（改造前） vs retainedSlice + CRC32C vs retainedSlice不校验
+ *
+ * <p>响应帧按64KB分块写入EmbeddedChannel，模拟多次read到达；每条消息readBody后释放。
+ *
+ * <p>开启PARANOID级别的泄漏检测；另外用非池化缓冲区跑一轮，结束后检查所有入站ByteBuf的引用计数
+ * 都已归零，消息体是入站缓冲区的切片，少释放一次会留下整块缓冲区，多释放一次会在这里抛异常。
+ *
+ * <p>启动方式：java FrameDecodeBenchmark [迭代次数] [响应大小KB]
+ *
+ * @author fragment
+ */
+public class FrameDecodeBenchmark {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int payloadSize = (args.length > 1 ? Integer.parseInt(args[1]) : 1024) * 1024;
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+
+        byte[] payload = new byte[payloadSize];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] checkedFrame = encode(payload, true);
+        byte[] plainFrame = encode(payload, false);
+
+        checkRefCounts(new ProtocolDecoder(config(true)), checkedFrame, payloadSize);
+        checkRefCounts(new ProtocolDecoder(config(false)), plainFrame, payloadSize);
+        System.out.println("引用计数检查通过：所有入站ByteBuf均已释放\n");
+
+        System.out.println("=== 解码 " + payloadSize / 1024 + "KB 响应（迭代 " + iterations + " 次）===\n");
+        String[] names = {"拷贝到byte[] + CRC32（改造前）", "retainedSlice + CRC32C", "retainedSlice，不校验"};
+        double[] nanos = new double[3];
+        for (int round = 0; round < 3; round++) {
+            nanos[0] = run(new CopyingDecoder(), checkedFrame, payloadSize, iterations);
+            nanos[1] = run(new ProtocolDecoder(config(true)), checkedFrame, payloadSize, iterations);
+            nanos[2] = run(new ProtocolDecoder(config(false)), plainFrame, payloadSize, iterations);
+        }
+        for (int i = 0; i < names.length; i++) {
+            double perMessage = nanos[i] / iterations;
+            System.out.println(String.format("%-32s %10.1f us/条 %10.0f MB/s",
+                    names[i], perMessage / 1000, payloadSize / perMessage * 1e9 / (1024 * 1024)));
+        }
+        System.out.println("\n（三种方式都包含readBody把结果拷贝出byte[]的一次拷贝）");
+    }
+
+    private static ConnectionConfig config(boolean checksum) {
+        ConnectionConfig config = new ConnectionConfig();
+        config.apply(checksum ? FLAG_CHECKSUM : 0);
+        return config;
+    }
+
+    private static byte[] encode(byte[] payload, boolean checksum) throws Exception {
+        ByteBuf out = Unpooled.buffer(payload.length + 64);
+        try {
+            new ProtocolEncoder(config(checksum)).encode(null,
+                    new ProtocolMessage(TYPE_RESPONSE, Serializer.BINARY, 1L, new RpcResponse(1L, payload, null)), out);
+            byte[] frame = new byte[out.readableBytes()];
+            out.readBytes(frame);
+            return frame;
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * @return 总耗时ns
+     */
+    private static long run(ByteToMessageDecoder decoder, byte[] frame, int payloadSize, int iterations)
+            throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (int offset = 0; offset < frame.length; offset += CHUNK_SIZE) {
+                int n = Math.min(CHUNK_SIZE, frame.length - offset);
+                ByteBuf chunk = PooledByteBufAllocator.DEFAULT.directBuffer(n);
+                chunk.writeBytes(frame, offset, n);
+                channel.writeInbound(chunk);
+            }
+            readResponse(channel, payloadSize);
+        }
+        long elapsed = System.nanoTime() - start;
+        channel.finishAndReleaseAll();
+        return elapsed;
+    }
+
+    private static void checkRefCounts(ByteToMessageDecoder decoder, byte[] frame, int payloadSize) throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(decoder);
+        List<ByteBuf> inputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            for (int offset = 0; offset < frame.length; offset += CHUNK_SIZE) {
+                int n = Math.min(CHUNK_SIZE, frame.length - offset);
+                ByteBuf chunk = Unpooled.directBuffer(n);
+                chunk.writeBytes(frame, offset, n);
+                inputs.add(chunk);
+                channel.writeInbound(chunk);
+            }
+            readResponse(channel, payloadSize);
+        }
+        if (channel.finish()) {
+            throw new IllegalStateException("还有未读取的消息");
+        }
+        for (ByteBuf input : inputs) {
+            if (input.refCnt() != 0) {
+                throw new IllegalStateException("入站ByteBuf未释放，refCnt=" + input.refCnt());
+            }
+        }
+    }
+
+    private static void readResponse(EmbeddedChannel channel, int payloadSize) throws Exception {
+        ProtocolMessage message = channel.readInbound();
+        if (message == null) {
+            throw new IllegalStateException("没有解码出消息");
+        }
+        try {
+            byte[] result = (byte[]) message.readBody(RpcResponse.class).getResult();
+            if (result.length != payloadSize) {
+                throw new IllegalStateException("结果长度不正确: " + result.length);
+            }
+        } finally {
+            message.release();
+        }
+    }
+
+    /**
+     * 改造前的解码方式：消息体拷贝到byte[]，再对拷贝算CRC32
+     * （帧是按CRC32C编码的，这里只计算不比较，开销相同）
+     */
+    static class CopyingDecoder extends ByteToMessageDecoder {
+        private long sink;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (in.readableBytes() < HEADER_LENGTH) {
+                return;
+            }
+            int length = in.getInt(in.readerIndex() + 14);
+            if (in.readableBytes() < HEADER_LENGTH + length + CHECKSUM_LENGTH) {
+                return;
+            }
+
+            ProtocolMessage message = new ProtocolMessage();
+            byte[] header = new byte[HEADER_LENGTH];
+            in.readBytes(header);
+            message.setType(header[3]);
+            message.setSerializer(header[4]);
+            byte[] data = new byte[length];
+            in.readBytes(data);
+            sink += in.readInt();
+
+            CRC32 crc32 = new CRC32();
+            crc32.update(header);
+            crc32.update(data);
+            sink += crc32.getValue();
+
+            message.setData(Unpooled.wrappedBuffer(data));
+            out.add(message);
+        }
+    }
+}
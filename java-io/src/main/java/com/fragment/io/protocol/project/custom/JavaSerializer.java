@@ -0,0 +1,48 @@
+package com.fragment.io.protocol.project.custom;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Java原生序列化
+ *
+ * <p>每条消息都带完整的类描述信息，getUserAge(int)这样的调用也要几百字节，
+ * 只作为兜底：对端不支持{@link BinarySerializer}，或者参数是二进制编码不认识的复杂对象时使用。
+ *
+ * <p>经由ByteBufOutputStream / ByteBufInputStream直接读写ByteBuf，不再经过中间的byte[]。
+ *
+ * @author fragment
+ */
+public final class JavaSerializer implements Serializer {
+
+    public static final JavaSerializer INSTANCE = new JavaSerializer();
+
+    private JavaSerializer() {
+    }
+
+    @Override
+    public byte id() {
+        return JAVA;
+    }
+
+    @Override
+    public void serialize(Object message, ByteBuf out) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out))) {
+            oos.writeObject(message);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(ByteBuf in, Class<T> type) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteBufInputStream(in))) {
+            return type.cast(ois.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("反序列化失败: " + e.getMessage(), e);
+        }
+    }
+}
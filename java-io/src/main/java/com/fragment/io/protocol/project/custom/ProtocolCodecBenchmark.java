@@ -0,0 +1,123 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ConnectionConfig;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolDecoder;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolEncoder;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.ProtocolMessage;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.FLAG_CHECKSUM;
+import static com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.TYPE_REQUEST;
+
+/**
+ * 自定义协议编解码器的JMH微基准：一个请求帧的编码、解码（含反序列化）各要多少纳秒
+ *
+ * <p>参数：序列化方式、payload（byte[]参数）大小、压缩算法。连接状态是握手后的样子：带CRC32C，
+ * 按参数协商压缩；压缩阈值是默认的4KB，所以小payload即使协商了压缩也不压缩。
+ * payload是重复的文本，压缩率接近真实的列表数据。
+ *
+ * <p>编码器、解码器直接调用，不经过pipeline；ctx取自EmbeddedChannel，只用来分配解压缓冲区。
+ *
+ * <p>启动方式：java ProtocolCodecBenchmark
+ *
+ * @author fragment
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtocolCodecBenchmark {
+
+    public interface EchoService {
+        byte[] echo(byte[] payload);
+    }
+
+    @Param({"BINARY", "JAVA"})
+    public String serializer;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    @Param({"NONE", "LZ", "DEFLATE"})
+    public String compression;
+
+    private ProtocolEncoder encoder;
+    private ProtocolDecoder decoder;
+    private ChannelHandlerContext ctx;
+    private ProtocolMessage message;
+    private ByteBuf out;
+    private ByteBuf frame;
+    private final List<Object> decoded = new ArrayList<>(1);
+
+    @Setup
+    public void setup() throws Exception {
+        byte codec = "LZ".equals(compression) ? Compression.LZ
+            : "DEFLATE".equals(compression) ? Compression.DEFLATE : Compression.NONE;
+        ConnectionConfig config = new ConnectionConfig();
+        config.apply((byte) (FLAG_CHECKSUM | codec));
+        encoder = new ProtocolEncoder(config);
+        decoder = new ProtocolDecoder(config);
+        ctx = new EmbeddedChannel(decoder).pipeline().context(decoder);
+
+        byte[] payload = new byte[payloadSize];
+        byte[] text = "{\"id\":100042,\"name\":\"user7\",\"status\":\"ACTIVE\"}".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = text[i % text.length];
+        }
+        RpcRequest request = new RpcRequest(1, EchoService.class.getName(), "echo",
+            new Class<?>[]{byte[].class}, new Object[]{payload});
+        request.setMethodId(RpcSchema.register(EchoService.class)
+            .get(EchoService.class.getMethod("echo", byte[].class)).getId());
+        message = new ProtocolMessage(TYPE_REQUEST,
+            "JAVA".equals(serializer) ? Serializer.JAVA : Serializer.BINARY, 1, request);
+
+        out = PooledByteBufAllocator.DEFAULT.heapBuffer(payloadSize * 2 + 1024);
+        frame = PooledByteBufAllocator.DEFAULT.heapBuffer(payloadSize * 2 + 1024);
+        encoder.encode(ctx, message, frame);
+    }
+
+    @TearDown
+    public void tearDown() {
+        out.release();
+        frame.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() throws Exception {
+        out.clear();
+        encoder.encode(ctx, message, out);
+        return out;
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        frame.readerIndex(0);
+        decoded.clear();
+        decoder.decode(ctx, frame, decoded);
+        ProtocolMessage decodedMessage = (ProtocolMessage) decoded.get(0);
+        try {
+            return decodedMessage.readBody(RpcRequest.class);
+        } finally {
+            decodedMessage.release();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProtocolCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,134 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.netty.project.rpc.ExecutionPolicy;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcClient;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcRequest;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcServer;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本机回环上的小请求吞吐：逐条flush vs 合并flush vs 批量帧
+ *
+ * <p>服务端和客户端在同一进程，走127.0.0.1的真实TCP连接。一个线程用sendAsync发请求，
+ * 在途请求数保持在window个（响应回来一个再发一个），统计每秒完成的调用数：
+ * <ul>
+ *   <li>逐条flush：每次调用一个writeAndFlush，一次系统调用、一个TCP段</li>
+ *   <li>合并flush：客户端加FlushConsolidationHandler，EventLoop处理完一批写任务才flush一次</li>
+ *   <li>批量帧：每batch个请求编码进一帧，服务端全部执行完回一帧</li>
+ * </ul>
+ * 参数是payload字节的byte[]，服务方法内联执行、只返回长度，测的是协议和I/O的开销。
+ * 服务端关闭日志（{@link RpcServer#setLogEnabled}），每次调用的打印不在测量路径上。
+ *
+ * <p>启动方式：java RpcBatchBenchmark [秒数] [payload字节] [window] [batch]
+ *
+ * @author fragment
+ */
+public class RpcBatchBenchmark {
+
+    public interface EchoService {
+        int size(byte[] payload);
+    }
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int payloadSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        if (batch > window) {
+            throw new IllegalArgumentException("batch不能大于window: " + batch + " > " + window);
+        }
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        RpcServer server = new RpcServer(port);
+        // 服务端每次调用都打日志，压测时关掉
+        server.setLogEnabled(false);
+        server.registerService(EchoService.class, payload -> payload.length, ExecutionPolicy.inline());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "rpc-benchmark-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(1000);
+
+        System.out.println("=== 本机回环，" + payloadSize + "字节参数，在途" + window + "个，每轮" + seconds + "秒 ===\n");
+        byte[] payload = new byte[payloadSize];
+        run("逐条flush", port, 0, 1, payload, window, seconds);
+        run("合并flush（64次）", port, 64, 1, payload, window, seconds);
+        run("批量帧（每帧" + batch + "个）", port, 0, batch, payload, window, seconds);
+
+        server.shutdown();
+    }
+
+    private static void run(String name, int port, int flushConsolidation, int batch, byte[] payload,
+                            int window, int seconds) throws Exception {
+        RpcClient client = new RpcClient("localhost", port);
+        client.setFlushConsolidation(flushConsolidation);
+        client.connect();
+
+        String interfaceName = EchoService.class.getName();
+        int methodId = RpcSchema.register(EchoService.class)
+                .get(EchoService.class.getMethod("size", byte[].class)).getId();
+        Class<?>[] types = {byte[].class};
+
+        try {
+            drive(client, interfaceName, methodId, types, payload, batch, window, 1);   // 预热
+            long start = System.nanoTime();
+            long calls = drive(client, interfaceName, methodId, types, payload, batch, window, seconds);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("[%s] %,d 次调用，%,.0f 次/秒", name, calls, calls / elapsed));
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * 保持window个在途请求，持续seconds秒，等在途请求全部完成后返回成功的调用数
+     */
+    private static long drive(RpcClient client, String interfaceName, int methodId, Class<?>[] types,
+                              byte[] payload, int batch, int window, int seconds) throws InterruptedException {
+        Semaphore permits = new Semaphore(window);
+        LongAdder completed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < deadline) {
+            permits.acquire(batch);
+            List<RpcRequest> requests = new ArrayList<>(batch);
+            for (int i = 0; i < batch; i++) {
+                RpcRequest request = new RpcRequest(0, interfaceName, "size", types, new Object[]{payload});
+                request.setMethodId(methodId);
+                requests.add(request);
+            }
+            List<CompletableFuture<Object>> futures = batch == 1
+                    ? Collections.singletonList(client.sendAsync(requests.get(0), TIMEOUT_MILLIS))
+                    : client.sendBatchAsync(requests, TIMEOUT_MILLIS);
+            for (CompletableFuture<Object> future : futures) {
+                future.whenComplete((result, error) -> {
+                    (error == null ? completed : failed).increment();
+                    permits.release();
+                });
+            }
+        }
+        permits.acquire(window);
+        if (failed.sum() > 0) {
+            System.err.println("失败的调用: " + failed.sum());
+        }
+        return completed.sum();
+    }
+}
@@ -0,0 +1,100 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.netty.project.rpc.MethodDispatcher;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务接口的方法表：给每个方法一个32位的方法ID
+ *
+ * <p>方法ID是方法签名（接口名#方法名(参数类型...)）的哈希，客户端创建代理、服务端注册服务时各自算出，
+ * 不需要额外的协商；签名和ID都由{@link MethodDispatcher}计算，和服务端派发表用的是同一份实现。
+ * {@link BinarySerializer}用它代替请求里的接口名、方法名和参数类型名，并按参数的声明类型编码参数值。
+ *
+ * <p>两个不同的签名算出同一个ID时，注册直接失败，而不是在运行时把请求派发到错误的方法。
+ *
+ * @author fragment
+ */
+public final class RpcSchema {
+
+    private static final Map<Integer, MethodSchema> METHODS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Map<Method, MethodSchema>> INTERFACES = new ConcurrentHashMap<>();
+
+    private RpcSchema() {
+    }
+
+    /**
+     * 方法描述
+     */
+    public static final class MethodSchema {
+        private final int id;
+        private final String signature;
+        private final String interfaceName;
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+
+        MethodSchema(int id, String signature, String interfaceName, String methodName, Class<?>[] parameterTypes) {
+            this.id = id;
+            this.signature = signature;
+            this.interfaceName = interfaceName;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+        }
+
+        public int getId() { return id; }
+        public String getSignature() { return signature; }
+        public String getInterfaceName() { return interfaceName; }
+        public String getMethodName() { return methodName; }
+
+        /**
+         * 共享数组，调用方不能修改
+         */
+        public Class<?>[] getParameterTypes() { return parameterTypes; }
+    }
+
+    /**
+     * 登记接口的所有方法，返回Method到方法描述的映射（重复登记返回同一个映射）
+     */
+    public static Map<Method, MethodSchema> register(Class<?> interfaceClass) {
+        Map<Method, MethodSchema> registered = INTERFACES.get(interfaceClass);
+        if (registered != null) {
+            return registered;
+        }
+
+        synchronized (RpcSchema.class) {
+            registered = INTERFACES.get(interfaceClass);
+            if (registered != null) {
+                return registered;
+            }
+            Map<Method, MethodSchema> schemas = new HashMap<>();
+            Map<Integer, MethodSchema> byId = new HashMap<>();
+            for (Method method : interfaceClass.getMethods()) {
+                String signature = MethodDispatcher.signature(interfaceClass, method);
+                int id = MethodDispatcher.methodId(signature);
+                MethodSchema existing = byId.containsKey(id) ? byId.get(id) : METHODS.get(id);
+                if (existing != null && !existing.signature.equals(signature)) {
+                    throw new IllegalStateException("方法ID冲突: " + signature + " 与 " + existing.signature);
+                }
+                MethodSchema schema = existing != null ? existing : new MethodSchema(id, signature,
+                        interfaceClass.getName(), method.getName(), method.getParameterTypes());
+                schemas.put(method, schema);
+                byId.put(id, schema);
+            }
+            METHODS.putAll(byId);
+            registered = Collections.unmodifiableMap(schemas);
+            INTERFACES.put(interfaceClass, registered);
+            return registered;
+        }
+    }
+
+    /**
+     * 按方法ID查找，未登记时返回null
+     */
+    public static MethodSchema method(int id) {
+        return METHODS.get(id);
+    }
+}
@@ -0,0 +1,39 @@
+package com.fragment.io.protocol.project.custom;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * 序列化SPI
+ *
+ * <p>协议头中有1个字节表示消息体的序列化方式，编码器按这个字节从{@link Serializers}取出实现，
+ * 直接把对象写进出站的ByteBuf；服务端用请求所用的序列化方式编码响应。
+ *
+ * <p>实现必须是线程安全的：同一个实例会被所有连接、所有EventLoop同时使用。
+ *
+ * @author fragment
+ */
+public interface Serializer {
+
+    /** Java原生序列化：兼容任意Serializable对象，作为兜底 */
+    byte JAVA = 0;
+
+    /** 紧凑二进制：varint + 方法ID，默认方式 */
+    byte BINARY = 1;
+
+    /**
+     * 协议头中的序列化方式编号（0~127）
+     */
+    byte id();
+
+    /**
+     * 把消息（RpcRequest / RpcResponse）写入out的writerIndex处
+     */
+    void serialize(Object message, ByteBuf out) throws IOException;
+
+    /**
+     * 从in中读出一个消息，in只包含这个消息体
+     */
+    <T> T deserialize(ByteBuf in, Class<T> type) throws IOException;
+}
@@ -0,0 +1,118 @@
+package com.fragment.io.protocol.project.custom;
+
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcRequest;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.RpcResponse;
+import com.fragment.io.protocol.project.custom.CustomProtocolRpcFramework.UserService;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 序列化方式对比：消息体大小、编码/解码耗时（ns/op）
+ *
+ * <p>测试内容（RpcRequest / RpcResponse，不含21字节协议头和4字节校验码）：
+ * <ul>
+ *   <li>getUserAge(int)、getUserName(int)、updateUser(int, String, int)的请求</li>
+ *   <li>int结果、String结果、100个字符串的List结果的响应</li>
+ *   <li>未登记方法ID的请求（二进制编码退回到写接口名、方法名、参数类型名）</li>
+ * </ul>
+ *
+ * <p>编码写入复用的池化直接内存ByteBuf，和ProtocolEncoder的写法一致。
+ *
+ * <p>启动方式：java SerializerBenchmark [每项迭代次数]
+ *
+ * @author fragment
+ */
+public class SerializerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        Map<Method, RpcSchema.MethodSchema> schemas = RpcSchema.register(UserService.class);
+        Method getUserAge = UserService.class.getMethod("getUserAge", int.class);
+        Method getUserName = UserService.class.getMethod("getUserName", int.class);
+        Method updateUser = UserService.class.getMethod("updateUser", int.class, String.class, int.class);
+
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("用户" + i);
+        }
+
+        Object[][] cases = {
+                {"getUserAge(1) 请求", request(schemas, getUserAge, 1L, 1), RpcRequest.class},
+                {"getUserName(42) 请求", request(schemas, getUserName, 2L, 42), RpcRequest.class},
+                {"updateUser(1,\"张三\",25) 请求", request(schemas, updateUser, 3L, 1, "张三", 25), RpcRequest.class},
+                {"updateUser 请求（未登记ID）", literal(request(schemas, updateUser, 4L, 1, "张三", 25)), RpcRequest.class},
+                {"int 响应", new RpcResponse(1L, 21, null), RpcResponse.class},
+                {"String 响应", new RpcResponse(2L, "用户42", null), RpcResponse.class},
+                {"List<String>(100) 响应", new RpcResponse(5L, names, null), RpcResponse.class},
+        };
+        Serializer[] serializers = {JavaSerializer.INSTANCE, BinarySerializer.INSTANCE};
+
+        System.out.println("=== 序列化方式对比（迭代 " + iterations + " 次）===\n");
+        System.out.println(String.format("%-30s %-8s %10s %14s %14s", "消息", "方式", "字节", "编码 ns/op", "解码 ns/op"));
+
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer(64 * 1024);
+        try {
+            for (Object[] c : cases) {
+                for (Serializer serializer : serializers) {
+                    String name = (String) c[0];
+                    Object message = c[1];
+                    Class<?> type = (Class<?>) c[2];
+
+                    // 预热
+                    run(serializer, message, type, buf, iterations / 4);
+                    long[] result = run(serializer, message, type, buf, iterations);
+                    System.out.println(String.format("%-30s %-8s %10d %14.0f %14.0f",
+                            name, serializer == JavaSerializer.INSTANCE ? "Java" : "Binary",
+                            result[0], (double) result[1] / iterations, (double) result[2] / iterations));
+                }
+            }
+        } finally {
+            buf.release();
+        }
+    }
+
+    /**
+     * @return {消息体字节数, 编码总耗时ns, 解码总耗时ns}
+     */
+    private static long[] run(Serializer serializer, Object message, Class<?> type, ByteBuf buf, int iterations)
+            throws Exception {
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        int size = 0;
+        Object sink = null;
+        for (int i = 0; i < iterations; i++) {
+            buf.clear();
+            long t0 = System.nanoTime();
+            serializer.serialize(message, buf);
+            long t1 = System.nanoTime();
+            size = buf.readableBytes();
+            sink = serializer.deserialize(buf, type);
+            long t2 = System.nanoTime();
+            encodeNanos += t1 - t0;
+            decodeNanos += t2 - t1;
+        }
+        if (sink == null) {
+            throw new IllegalStateException();
+        }
+        return new long[]{size, encodeNanos, decodeNanos};
+    }
+
+    private static RpcRequest request(Map<Method, RpcSchema.MethodSchema> schemas, Method method,
+                                      long requestId, Object... args) {
+        RpcRequest request = new RpcRequest(requestId, UserService.class.getName(), method.getName(),
+                method.getParameterTypes(), args);
+        request.setMethodId(schemas.get(method).getId());
+        return request;
+    }
+
+    private static RpcRequest literal(RpcRequest request) {
+        request.setMethodId(0);
+        return request;
+    }
+}
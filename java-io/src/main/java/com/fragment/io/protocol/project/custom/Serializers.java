@@ -0,0 +1,43 @@
+package com.fragment.io.protocol.project.custom;
+
+/**
+ * 序列化方式注册表：按协议头中的编号查找{@link Serializer}
+ *
+ * <p>查找是数组下标访问，每条消息都要查一次；注册很少发生，采用写时复制。
+ *
+ * @author fragment
+ */
+public final class Serializers {
+
+    private static final int MAX_ID = 127;
+
+    private static volatile Serializer[] serializers = new Serializer[MAX_ID + 1];
+
+    static {
+        register(JavaSerializer.INSTANCE);
+        register(BinarySerializer.INSTANCE);
+    }
+
+    private Serializers() {
+    }
+
+    /**
+     * 注册（或替换）一种序列化方式，两端都要注册
+     */
+    public static synchronized void register(Serializer serializer) {
+        int id = serializer.id();
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("序列化方式编号必须在0~" + MAX_ID + "之间: " + id);
+        }
+        Serializer[] copy = serializers.clone();
+        copy[id] = serializer;
+        serializers = copy;
+    }
+
+    /**
+     * 按编号查找，未注册时返回null
+     */
+    public static Serializer get(byte id) {
+        return id < 0 ? null : serializers[id];
+    }
+}
@@ -0,0 +1,810 @@
+package com.fragment.io.protocol.project.http;
+
+import com.fragment.io.nio.checksum.Crc32c;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Checksum;
+
+/**
+ * 嵌入式日志结构存储：只追加的记录文件 + 内存哈希索引（key -> 记录在文件里的位置）
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：数据放在内存Map里，重启就没了；每个请求各写一次文件再force，吞吐只剩磁盘的fsync次数？
+ *       解决：写请求只在调用线程里编码好记录，交给唯一的写线程；写线程把排队的记录拼成一批，
+ *       一次write写进文件，{@link Durability#BATCH}时整批只force一次（group commit），
+ *       并发越高，每次force分摊的写越多</li>
+ *   <li>问题2：读的时候要扫文件？
+ *       解决：索引只存key和记录的位置、长度，读是一次定位读（pread）；
+ *       索引在写进文件之后才更新，读者不会读到还没写进文件的位置</li>
+ *   <li>问题3：进程崩溃时最后一批可能只写了一半？
+ *       解决：每条记录带长度和CRC32C，启动时顺序扫描（1MB一块）重建索引，
+ *       遇到不完整或校验失败的记录就从那里截断</li>
+ *   <li>问题4：只追加，覆盖和删除留下的旧记录越积越多？
+ *       解决：后台定期检查，垃圾超过一半时压缩：先在后台线程把存活的记录按文件顺序拷进新文件，
+ *       再到写线程上把这期间追加的尾部原样拷过去、force、rename替换旧文件、更新索引，
+ *       写线程只停顿拷尾部的这一小段</li>
+ * </ul>
+ *
+ * <p>记录格式：{@code 长度(4) + CRC32C(4) + 类型(1) + key长度(2) + key + value}，
+ * 长度和校验码覆盖类型之后的所有字节；类型1是写入，2是删除（墓碑，没有value）。
+ *
+ * <p>put/delete会阻塞到这一批写完（BATCH时是force完），不要在EventLoop上直接调用。
+ *
+ * @author fragment
+ */
+public class LogStore implements Closeable {
+
+    /**
+     * 持久化级别
+     */
+    public enum Durability {
+        /**
+         * 写进操作系统页缓存就返回，不force：进程崩溃不丢，机器掉电可能丢最近的写
+         */
+        NONE,
+        /**
+         * 每批force一次，返回时已经落盘；同一批里的写共用一次force
+         */
+        BATCH
+    }
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_LENGTH = 4 + 4 + 1 + 2;
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    private static final int MAX_BATCH = 4096;
+    private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+    private static final long COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final File compactFile;
+    private final Durability durability;
+    private final long groupCommitWindowNanos;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ScheduledExecutorService compactor;
+    private final Object compactionLock = new Object();
+    private final Stats stats = new Stats();
+
+    private volatile Segment active;
+    private volatile long writePosition;    // 只在写线程上修改
+    private volatile long liveBytes;        // 只在写线程上修改
+    private volatile boolean closed;
+    private boolean stopped;                // 只在写线程上访问
+    private ByteBuffer batchBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    public LogStore(File file, Durability durability) throws IOException {
+        this(file, durability, 0, 60);
+    }
+
+    /**
+     * @param groupCommitWindowMicros 攒批窗口：第一条写到达后最多再等多久凑同一批，0表示只合并已经在排队的
+     * @param compactionIntervalSeconds 多久检查一次是否需要压缩，0表示不自动压缩
+     */
+    public LogStore(File file, Durability durability, long groupCommitWindowMicros,
+                    long compactionIntervalSeconds) throws IOException {
+        this.file = file;
+        this.compactFile = new File(file.getPath() + ".compact");
+        this.durability = durability;
+        this.groupCommitWindowNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitWindowMicros);
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("无法创建目录: " + parent);
+        }
+        // 上次压缩没做完：旧文件还是完整的，丢掉半成品
+        Files.deleteIfExists(compactFile.toPath());
+        this.active = Segment.open(file, false);
+        recover();
+
+        this.writer = new Thread(this::writeLoop, "log-store-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        if (compactionIntervalSeconds > 0) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "log-store-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.compactor = null;
+        }
+    }
+
+    public void put(String key, String value) throws IOException {
+        submit(new Write(PUT, key, encode(PUT, key, value), null));
+    }
+
+    /**
+     * 删除，key不存在时返回false（不写墓碑）
+     */
+    public boolean delete(String key) throws IOException {
+        if (!index.containsKey(key)) {
+            return false;
+        }
+        submit(new Write(DELETE, key, encode(DELETE, key, null), null));
+        return true;
+    }
+
+    public String get(String key) throws IOException {
+        while (true) {
+            Location location = index.get(key);
+            if (location == null) {
+                return null;
+            }
+            try {
+                ByteBuffer record = read(location);
+                int keyLength = record.getShort(9) & 0xFFFF;
+                int valueOffset = HEADER_LENGTH + keyLength;
+                return new String(record.array(), valueOffset, record.limit() - valueOffset, StandardCharsets.UTF_8);
+            } catch (ClosedChannelException e) {
+                if (closed) {
+                    throw e;
+                }
+                Location current = index.get(key);
+                if (current != null && current.segment == location.segment) {
+                    throw e;
+                }
+                // 压缩刚换了文件，索引里已经是新位置，重读
+            }
+        }
+    }
+
+    public boolean containsKey(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * 所有key的只读视图（弱一致，遍历时可以并发写）
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 文件当前大小
+     */
+    public long fileBytes() {
+        return writePosition;
+    }
+
+    /**
+     * 存活记录占的字节数，fileBytes - liveBytes是可以被压缩回收的部分
+     */
+    public long liveBytes() {
+        return liveBytes;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * 立即压缩，返回回收的字节数
+     */
+    public long compact() throws IOException {
+        synchronized (compactionLock) {
+            if (closed) {
+                throw new IOException("存储已关闭: " + file);
+            }
+            long before = writePosition;
+            Segment old = active;
+            long end = before;
+
+            // 第一步（当前线程）：存活的记录按文件顺序拷进新文件
+            List<Location> live = new ArrayList<>(index.size());
+            for (Location location : index.values()) {
+                if (location.segment == old && location.position < end) {
+                    live.add(location);
+                }
+            }
+            live.sort((a, b) -> Long.compare(a.position, b.position));
+            long[] oldPositions = new long[live.size()];
+            long[] newPositions = new long[live.size()];
+            Segment target = Segment.open(compactFile, true);
+            long copied = 0;
+            try {
+                ByteBuffer out = ByteBuffer.allocateDirect(SCAN_BUFFER_SIZE);
+                for (int i = 0; i < live.size(); i++) {
+                    Location location = live.get(i);
+                    ByteBuffer record = read(location);
+                    if (out.remaining() < record.remaining()) {
+                        drain(target.channel, out);
+                    }
+                    if (out.remaining() < record.remaining()) {
+                        writeFully(target.channel, record);
+                    } else {
+                        out.put(record);
+                    }
+                    oldPositions[i] = location.position;
+                    newPositions[i] = copied;
+                    copied += location.length;
+                }
+                drain(target.channel, out);
+            } catch (IOException | RuntimeException e) {
+                target.close();
+                Files.deleteIfExists(compactFile.toPath());
+                throw e;
+            }
+
+            // 第二步（写线程）：拷尾部、替换文件、更新索引
+            long base = copied;
+            submit(new Write((byte) 0, null, null,
+                () -> finishCompaction(old, end, target, base, oldPositions, newPositions)));
+            long reclaimed = before - base;
+            stats.compactions.increment();
+            stats.reclaimedBytes.add(reclaimed);
+            return reclaimed;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+        synchronized (compactionLock) {
+            closed = true;
+        }
+        Write stop = new Write((byte) 0, null, null, () -> stopped = true);
+        queue.add(stop);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // close之后才入队的写不会再被处理
+        Write pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(new IOException("存储已关闭: " + file));
+        }
+        Segment segment = active;
+        segment.channel.force(true);
+        segment.close();
+    }
+
+    private void compactIfNeeded() {
+        long total = writePosition;
+        if (total >= COMPACTION_MIN_BYTES && total - liveBytes > total / 2) {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("压缩失败: " + file + ", " + e.getMessage());
+            }
+        }
+    }
+
+    private void submit(Write write) throws IOException {
+        if (closed && write.task == null) {
+            throw new IOException("存储已关闭: " + file);
+        }
+        queue.add(write);
+        try {
+            if (closed) {
+                // 检查和入队之间close()可能已经停掉写线程、清空了队列：等写线程结束，
+                // 它没处理到的这条直接失败，不会永远等下去（已经完成的不受影响）
+                writer.join();
+                write.done.completeExceptionally(new IOException("存储已关闭: " + file));
+            }
+            write.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待写入时被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+                if (groupCommitWindowNanos > 0) {
+                    long deadline = System.nanoTime() + groupCommitWindowNanos;
+                    long left;
+                    while (batch.size() < MAX_BATCH && (left = deadline - System.nanoTime()) > 0) {
+                        Write write = queue.poll(left, TimeUnit.NANOSECONDS);
+                        if (write == null) {
+                            break;
+                        }
+                        batch.add(write);
+                    }
+                }
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                commit(batch);
+            } catch (InterruptedException e) {
+                // 只有close能停下写线程
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在写线程上提交一批：一次write，BATCH时一次force，成功后才更新索引
+     */
+    private void commit(List<Write> batch) {
+        Segment segment = active;
+        long start = writePosition;
+        ByteBuffer buffer = batchBuffer;
+        buffer.clear();
+        int records = 0;
+        for (Write write : batch) {
+            if (write.record == null) {
+                continue;
+            }
+            if (buffer.remaining() < write.record.length) {
+                ByteBuffer bigger = ByteBuffer.allocateDirect(
+                    Math.max(buffer.capacity() * 2, buffer.position() + write.record.length));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+                batchBuffer = bigger;
+            }
+            buffer.put(write.record);
+            records++;
+        }
+
+        IOException error = null;
+        if (records > 0) {
+            buffer.flip();
+            try {
+                long position = start;
+                while (buffer.hasRemaining()) {
+                    position += segment.channel.write(buffer, position);
+                }
+                if (durability == Durability.BATCH) {
+                    segment.channel.force(false);
+                    stats.forces.increment();
+                }
+            } catch (IOException e) {
+                error = e;
+                // 写了一半：截掉，保持文件末尾是完整的记录
+                try {
+                    segment.channel.truncate(start);
+                } catch (IOException ignored) {
+                    // 启动时的扫描会截掉不完整的尾部
+                }
+            }
+        }
+
+        long position = start;
+        for (Write write : batch) {
+            if (write.record == null) {
+                continue;
+            }
+            if (error != null) {
+                write.done.completeExceptionally(error);
+                continue;
+            }
+            apply(write.type, write.key, new Location(segment, position, write.record.length));
+            position += write.record.length;
+            write.done.complete(null);
+        }
+        if (error == null && records > 0) {
+            writePosition = position;
+            stats.writes.add(records);
+            stats.batches.increment();
+            stats.bytes.add(position - start);
+        }
+
+        // 任务（压缩的收尾、关闭）在这一批写完之后执行
+        for (Write write : batch) {
+            if (write.task != null) {
+                try {
+                    write.task.run();
+                    write.done.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    write.done.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 压缩的收尾，在写线程上执行，这时没有并发的写
+     */
+    private void finishCompaction(Segment old, long end, Segment target, long base,
+                                  long[] oldPositions, long[] newPositions) throws IOException {
+        try {
+            long tail = writePosition - end;
+            long transferred = 0;
+            while (transferred < tail) {
+                transferred += old.channel.transferTo(end + transferred, tail - transferred, target.channel);
+            }
+            target.channel.force(false);
+            Segment.replace(old, target, compactFile, file);
+        } catch (IOException e) {
+            target.close();
+            Files.deleteIfExists(compactFile.toPath());
+            throw e;
+        }
+
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            long position;
+            if (location.position >= end) {
+                position = base + (location.position - end);
+            } else {
+                position = newPositions[Arrays.binarySearch(oldPositions, location.position)];
+            }
+            entry.setValue(new Location(target, position, location.length));
+        }
+        active = target;
+        writePosition = base + (writePosition - end);
+        old.close();
+    }
+
+    private void apply(byte type, String key, Location location) {
+        Location old = type == PUT ? index.put(key, location) : index.remove(key);
+        long live = liveBytes;
+        if (old != null) {
+            live -= old.length;
+        }
+        if (type == PUT) {
+            live += location.length;
+        }
+        liveBytes = live;
+    }
+
+    /**
+     * 启动时顺序扫描整个文件重建索引，从第一条不完整或校验失败的记录处截断
+     */
+    private void recover() throws IOException {
+        long startNanos = System.nanoTime();
+        FileChannel channel = active.channel;
+        Checksum crc = Crc32c.newChecksum();
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        buffer.flip();
+        long bufferStart = 0;
+        long position = 0;
+        long records = 0;
+        while (true) {
+            int offset = (int) (position - bufferStart);
+            if (buffer.limit() - offset < HEADER_LENGTH) {
+                buffer = fill(channel, buffer, offset, position, HEADER_LENGTH);
+                bufferStart = position;
+                offset = 0;
+                if (buffer.limit() < HEADER_LENGTH) {
+                    break;
+                }
+            }
+            int length = buffer.getInt(offset);
+            if (length < HEADER_LENGTH - 8 || length > MAX_RECORD_LENGTH) {
+                break;
+            }
+            int total = 8 + length;
+            if (buffer.limit() - offset < total) {
+                buffer = fill(channel, buffer, offset, position, total);
+                bufferStart = position;
+                offset = 0;
+                if (buffer.limit() < total) {
+                    break;
+                }
+            }
+            crc.reset();
+            crc.update(buffer.array(), offset + 8, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            byte type = buffer.get(offset + 8);
+            int keyLength = buffer.getShort(offset + 9) & 0xFFFF;
+            if ((type != PUT && type != DELETE) || HEADER_LENGTH + keyLength > total) {
+                break;
+            }
+            String key = new String(buffer.array(), offset + HEADER_LENGTH, keyLength, StandardCharsets.UTF_8);
+            apply(type, key, new Location(active, position, total));
+            position += total;
+            records++;
+        }
+
+        long size = channel.size();
+        if (position < size) {
+            System.err.println(String.format("%s：位置%d之后的%d字节不完整或校验失败，已截断",
+                file, position, size - position));
+            channel.truncate(position);
+        }
+        writePosition = position;
+        stats.recoveredRecords = records;
+        stats.recoveryNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * 把buffer里从offset开始的未解析字节挪到开头，再从文件读满（或读到文件末尾）
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int offset,
+                                   long position, int needed) throws IOException {
+        buffer.position(offset);
+        buffer.compact();
+        if (buffer.capacity() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(needed);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 定位读出一整条记录并校验
+     *
+     * <p>FileChannel可以被中断：读者线程被中断时，JDK会关掉它正在用的通道。读走的是段的读通道，
+     * 不会连累写线程；被中断的线程换一个新的读通道后照样抛出中断，其他碰上通道被关的读者换了通道重读。
+     * 段已经被压缩替换或者存储已关闭时，ClosedChannelException交给调用方处理。
+     */
+    private static ByteBuffer read(Location location) throws IOException {
+        Segment segment = location.segment;
+        while (true) {
+            FileChannel reader = segment.reader();
+            try {
+                return read(location, reader);
+            } catch (ClosedByInterruptException e) {
+                segment.reopenReader(reader);
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (!segment.reopenReader(reader)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static ByteBuffer read(Location location, FileChannel reader) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(location.length);
+        while (record.hasRemaining()) {
+            if (reader.read(record, location.position + record.position()) < 0) {
+                throw new EOFException("记录不完整: 位置" + location.position);
+            }
+        }
+        record.flip();
+        Checksum crc = Crc32c.newChecksum();
+        crc.update(record.array(), 8, location.length - 8);
+        if ((int) crc.getValue() != record.getInt(4)) {
+            throw new IOException("记录校验失败: 位置" + location.position);
+        }
+        return record;
+    }
+
+    private static byte[] encode(byte type, String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        if (keyBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("key太长: " + keyBytes.length + "字节");
+        }
+        byte[] valueBytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_LENGTH - 8 + keyBytes.length + valueBytes.length;
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IllegalArgumentException("记录太长: " + length + "字节");
+        }
+        ByteBuffer record = ByteBuffer.allocate(8 + length);
+        record.putInt(length).putInt(0).put(type).putShort((short) keyBytes.length)
+            .put(keyBytes).put(valueBytes);
+        Checksum crc = Crc32c.newChecksum();
+        crc.update(record.array(), 8, length);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        writeFully(channel, out);
+        out.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 一个记录文件：写通道只给写线程（和恢复、压缩）用，读者走单独的读通道
+     */
+    static final class Segment {
+        final FileChannel channel;
+        private volatile FileChannel reader;
+        /**
+         * 这个段现在所在的文件；被压缩替换或关闭后为null，读通道不能再重新打开
+         */
+        private File path;
+
+        private Segment(FileChannel channel, File path) throws IOException {
+            this.channel = channel;
+            this.path = path;
+            this.reader = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+        }
+
+        static Segment open(File file, boolean truncate) throws IOException {
+            FileChannel channel = truncate
+                ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                return new Segment(channel, file);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 压缩的新文件rename成正式文件；两个段都锁住，重新打开读通道的读者不会打开到换过的文件
+         */
+        static void replace(Segment old, Segment target, File from, File to) throws IOException {
+            synchronized (old) {
+                synchronized (target) {
+                    Files.move(from.toPath(), to.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    old.path = null;
+                    target.path = to;
+                }
+            }
+        }
+
+        FileChannel reader() {
+            return reader;
+        }
+
+        /**
+         * 读通道failed被关掉了：还是它的话按路径重新打开一个，已经有人换过就直接用新的
+         *
+         * @return false表示段已经被替换或关闭，不能再读
+         */
+        synchronized boolean reopenReader(FileChannel failed) throws IOException {
+            if (reader != failed) {
+                return true;
+            }
+            if (path == null) {
+                return false;
+            }
+            reader = FileChannel.open(path.toPath(), StandardOpenOption.READ);
+            return true;
+        }
+
+        void close() throws IOException {
+            synchronized (this) {
+                path = null;
+            }
+            try {
+                reader.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 记录的位置：哪个文件、从哪开始、一共多长
+     */
+    static final class Location {
+        final Segment segment;
+        final long position;
+        final int length;
+
+        Location(Segment segment, long position, int length) {
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 交给写线程的一条记录，或者一个要在写线程上执行的任务
+     */
+    private static final class Write {
+        final byte type;
+        final String key;
+        final byte[] record;
+        final IoTask task;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Write(byte type, String key, byte[] record, IoTask task) {
+            this.type = type;
+            this.key = key;
+            this.record = record;
+            this.task = task;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * 写入统计
+     */
+    public static final class Stats {
+        private final LongAdder writes = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder forces = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder compactions = new LongAdder();
+        private final LongAdder reclaimedBytes = new LongAdder();
+        private volatile long recoveredRecords;
+        private volatile long recoveryNanos;
+
+        public long getWrites() {
+            return writes.sum();
+        }
+
+        public long getBatches() {
+            return batches.sum();
+        }
+
+        public long getForces() {
+            return forces.sum();
+        }
+
+        public long getCompactions() {
+            return compactions.sum();
+        }
+
+        /**
+         * 启动时扫描了多少条记录
+         */
+        public long getRecoveredRecords() {
+            return recoveredRecords;
+        }
+
+        public long getRecoveryNanos() {
+            return recoveryNanos;
+        }
+
+        @Override
+        public String toString() {
+            long b = batches.sum();
+            return String.format("写入%d条/%d字节，%d批（平均%.1f条/批），force%d次，压缩%d次回收%d字节，启动扫描%d条耗时%.1fms",
+                writes.sum(), bytes.sum(), b, b == 0 ? 0.0 : (double) writes.sum() / b, forces.sum(),
+                compactions.sum(), reclaimedBytes.sum(), recoveredRecords, recoveryNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.fragment.io.protocol.project.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LogStore的写吞吐、启动恢复和压缩
+ *
+ * <p>第一部分：N个线程不停地写（key随机，value约200字节），每种做法跑固定时间，比较每秒写入数：
+ * <ul>
+ *   <li>每次写+force：每个请求自己加锁写文件再force，不合并（"直接每个请求写文件"的做法）</li>
+ *   <li>{@link LogStore.Durability#NONE}：合并写入，不force</li>
+ *   <li>{@link LogStore.Durability#BATCH}：合并写入，每批force一次</li>
+ * </ul>
+ *
+ * <p>第二部分：写入M条记录后重新打开，统计顺序扫描重建索引的耗时；
+ * 再把所有key覆盖两遍，压缩，比较文件大小。
+ *
+ * <p>纯JDK，不需要Netty。数字和磁盘关系很大（fsync在SSD上是几十微秒到毫秒级，tmpfs上几乎不花时间），
+ * 要测真实磁盘时把数据目录指到那块盘上。
+ *
+ * <p>启动方式：java LogStoreBenchmark [数据目录] [每种做法的秒数] [恢复测试的记录数]
+ *
+ * @author fragment
+ */
+public class LogStoreBenchmark {
+
+    private static final int[] THREADS = {1, 16, 64};
+    private static final int KEYS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "log-store-benchmark");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int records = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        String value = value();
+
+        System.out.println("=== 写吞吐：writes/s（数据目录 " + dir + "，每项" + seconds + "秒） ===\n");
+        System.out.println(String.format("%6s %16s %16s %16s   %s", "线程", "每次写+force", "NONE", "BATCH", "BATCH平均每批"));
+        for (int threads : THREADS) {
+            double naive = testNaive(new File(dir, "naive.log"), threads, seconds, value);
+            double none = testStore(new File(dir, "none.log"), LogStore.Durability.NONE, threads, seconds, value)[0];
+            double[] batch = testStore(new File(dir, "batch.log"), LogStore.Durability.BATCH, threads, seconds, value);
+            System.out.println(String.format("%6d %16.0f %16.0f %16.0f   %.1f条", threads, naive, none, batch[0], batch[1]));
+        }
+
+        System.out.println("\n=== 启动恢复与压缩：" + records + "条记录 ===\n");
+        testRecoveryAndCompaction(new File(dir, "recovery.log"), records, value);
+    }
+
+    private static String value() {
+        char[] chars = new char[200];
+        Arrays.fill(chars, 'x');
+        return "{\"name\":\"用户\",\"age\":30,\"email\":\"user@example.com\",\"note\":\"" + new String(chars) + "\"}";
+    }
+
+    /**
+     * 不合并：每个写自己加锁、写、force
+     */
+    private static double testNaive(File file, int threads, int seconds, String value) throws Exception {
+        Files.deleteIfExists(file.toPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            AtomicLong position = new AtomicLong();
+            return run(threads, seconds, key -> {
+                byte[] record = (key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+                synchronized (channel) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    long at = position.get();
+                    while (buffer.hasRemaining()) {
+                        at += channel.write(buffer, at);
+                    }
+                    channel.force(false);
+                    position.set(at);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * @return {每秒写入数, 平均每批条数}
+     */
+    private static double[] testStore(File file, LogStore.Durability durability, int threads, int seconds,
+                                      String value) throws Exception {
+        Files.deleteIfExists(file.toPath());
+        LogStore store = new LogStore(file, durability, 0, 0);
+        try {
+            double rate = run(threads, seconds, key -> store.put(key, value));
+            LogStore.Stats stats = store.getStats();
+            return new double[]{rate, (double) stats.getWrites() / Math.max(1, stats.getBatches())};
+        } finally {
+            store.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static void testRecoveryAndCompaction(File file, int records, String value) throws Exception {
+        Files.deleteIfExists(file.toPath());
+        // 多线程写，批次大一些，准备数据更快
+        LogStore store = new LogStore(file, LogStore.Durability.NONE, 0, 0);
+        fill(store, records, value, 0);
+        store.close();
+
+        store = new LogStore(file, LogStore.Durability.NONE, 0, 0);
+        LogStore.Stats stats = store.getStats();
+        System.out.println(String.format("重新打开：扫描%d条记录（%.1fMB），耗时%.1fms，%.2f百万条/秒",
+            stats.getRecoveredRecords(), store.fileBytes() / 1048576.0, stats.getRecoveryNanos() / 1e6,
+            stats.getRecoveredRecords() / (stats.getRecoveryNanos() / 1e9) / 1e6));
+
+        fill(store, records, value, 1);
+        fill(store, records, value, 2);
+        long before = store.fileBytes();
+        long start = System.nanoTime();
+        long reclaimed = store.compact();
+        long nanos = System.nanoTime() - start;
+        System.out.println(String.format("覆盖两遍后压缩：%.1fMB -> %.1fMB（回收%.1fMB），耗时%.1fms",
+            before / 1048576.0, store.fileBytes() / 1048576.0, reclaimed / 1048576.0, nanos / 1e6));
+
+        String expected = "2:" + value;
+        for (int i = 0; i < records; i += Math.max(1, records / 1000)) {
+            if (!expected.equals(store.get("user" + i))) {
+                throw new IllegalStateException("压缩后读到的值不对: user" + i);
+            }
+        }
+        store.close();
+
+        store = new LogStore(file, LogStore.Durability.NONE, 0, 0);
+        System.out.println(String.format("压缩后重新打开：%d个key，扫描%d条记录，耗时%.1fms",
+            store.size(), store.getStats().getRecoveredRecords(), store.getStats().getRecoveryNanos() / 1e6));
+        store.close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * 8个线程把user0..user(records-1)各写一遍，value前面加上轮次
+     */
+    private static void fill(LogStore store, int records, String value, int round) throws Exception {
+        int threads = 8;
+        Thread[] workers = new Thread[threads];
+        Exception[] error = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            int from = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int i = from; i < records; i += threads) {
+                        store.put("user" + i, round + ":" + value);
+                    }
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /**
+     * threads个线程不停地写seconds秒，返回每秒写入数
+     */
+    private static double run(int threads, int seconds, Writer writer) throws Exception {
+        AtomicLong writes = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        Exception[] error = new Exception[1];
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    long count = 0;
+                    int key = seed;
+                    while (System.nanoTime() < deadline[0]) {
+                        key = (key * 1103515245 + 12345) & 0x7FFFFFFF;
+                        writer.write("user" + key % KEYS);
+                        count++;
+                    }
+                    writes.addAndGet(count);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            });
+            workers[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        deadline[0] = start + seconds * 1_000_000_000L;
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return writes.get() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private interface Writer {
+        void write(String key) throws IOException;
+    }
+}
@@ -0,0 +1,403 @@
+package com.fragment.io.protocol.project.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于基数树（radix trie）的路由：启动时把路由模式编译成树，请求时按路径逐字符匹配
+ *
+ * <p>设计要点：
+ * <ul>
+ *   <li>问题1：一串startsWith / matches / split逐个试，路由越多越慢，matches每次还要编译正则？
+ *       解决：启动时把所有模式插入一棵基数树（公共前缀合并成一条边），匹配时沿着路径走一遍，
+ *       耗时只和路径长度有关，和注册了多少路由无关</li>
+ *   <li>问题2：取路径参数要substring、split，每个请求产生一堆临时字符串？
+ *       解决：匹配时只在{@link RouteMatch}里记下每个参数的起止下标，RouteMatch按连接复用；
+ *       处理器真正需要字符串时才调用{@link RouteMatch#param}，数字参数可以直接解析成long</li>
+ *   <li>问题3：/api/users/{id}和/api/users/me这类重叠的路由谁优先？
+ *       解决：静态片段优先于{name}参数，参数优先于{*name}通配；前面的分支走不通时回溯到后面的分支</li>
+ *   <li>问题4：路径对上了但方法不对，应该是405而不是404？
+ *       解决：每个节点按方法存处理器；路径匹配到了但没有这个方法的处理器时，
+ *       继续尝试其他分支，最后都不行就在RouteMatch上标记{@link RouteMatch#isMethodNotAllowed()}</li>
+ * </ul>
+ *
+ * <p>模式语法：{@code /api/users/{id}}，参数占一整段（两个'/'之间）；{@code /static/{*path}}匹配剩余的全部路径，
+ * 只能放在最后。路由表在启动时建好，之后只读，可以被多个线程同时使用；RouteMatch不是线程安全的，每个连接一个。
+ *
+ * @param <H> 处理器类型
+ * @author fragment
+ */
+public class Router<H> {
+
+    static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"};
+
+    private final Node<H> root = new Node<>("");
+    private int size;
+
+    /**
+     * 注册路由，同一方法、同一模式重复注册时抛出IllegalArgumentException
+     */
+    public Router<H> add(String method, String pattern, H handler) {
+        int methodIndex = methodIndex(method);
+        if (methodIndex < 0) {
+            throw new IllegalArgumentException("不支持的方法: " + method);
+        }
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            throw new IllegalArgumentException("路由必须以/开头: " + pattern);
+        }
+        List<String> names = new ArrayList<>();
+        Node<H> node = insert(pattern, names);
+        if (node.endpoints == null) {
+            node.endpoints = Endpoint.newArray(METHODS.length);
+        }
+        if (node.endpoints[methodIndex] != null) {
+            throw new IllegalArgumentException("路由重复: " + method + " " + pattern
+                + "（已有 " + node.endpoints[methodIndex].pattern + "）");
+        }
+        node.endpoints[methodIndex] = new Endpoint<>(handler, names.toArray(new String[0]), pattern);
+        size++;
+        return this;
+    }
+
+    /**
+     * 匹配path[start, end)，返回处理器；没有匹配时返回null（用{@link RouteMatch#isMethodNotAllowed()}区分404和405）
+     */
+    public H route(String method, CharSequence path, int start, int end, RouteMatch match) {
+        match.reset(path);
+        int methodIndex = methodIndex(method);
+        Node<H> node = methodIndex < 0 ? null : match(root, path, start, end, methodIndex, match);
+        if (node == null) {
+            if (methodIndex < 0) {
+                match.methodNotAllowed = match(root, path, start, end, 0, match) != null
+                    || match.methodNotAllowed;
+                match.count = 0;
+            }
+            return null;
+        }
+        Endpoint<H> endpoint = node.endpoints[methodIndex];
+        match.names = endpoint.names;
+        match.pattern = endpoint.pattern;
+        match.methodNotAllowed = false;
+        return endpoint.handler;
+    }
+
+    public H route(String method, CharSequence path, RouteMatch match) {
+        return route(method, path, 0, path.length(), match);
+    }
+
+    /**
+     * 注册的路由数（方法 + 模式）
+     */
+    public int size() {
+        return size;
+    }
+
+    private Node<H> match(Node<H> node, CharSequence path, int pos, int end, int methodIndex, RouteMatch match) {
+        if (pos == end && node.endpoints != null) {
+            if (node.endpoints[methodIndex] != null) {
+                return node;
+            }
+            match.methodNotAllowed = true;
+        }
+        if (pos < end) {
+            // 静态片段
+            Node<H> child = node.child(path.charAt(pos));
+            if (child != null && regionMatches(path, pos, end, child.prefix)) {
+                Node<H> found = match(child, path, pos + child.prefix.length(), end, methodIndex, match);
+                if (found != null) {
+                    return found;
+                }
+            }
+            // {name}：一整段
+            if (node.param != null) {
+                int segmentEnd = pos;
+                while (segmentEnd < end && path.charAt(segmentEnd) != '/') {
+                    segmentEnd++;
+                }
+                if (segmentEnd > pos) {
+                    int mark = match.count;
+                    match.push(pos, segmentEnd);
+                    Node<H> found = match(node.param, path, segmentEnd, end, methodIndex, match);
+                    if (found != null) {
+                        return found;
+                    }
+                    match.count = mark;
+                }
+            }
+        }
+        // {*name}：剩余的全部路径
+        Node<H> wildcard = node.wildcard;
+        if (wildcard != null && wildcard.endpoints != null) {
+            if (wildcard.endpoints[methodIndex] != null) {
+                match.push(pos, end);
+                return wildcard;
+            }
+            match.methodNotAllowed = true;
+        }
+        return null;
+    }
+
+    private Node<H> insert(String pattern, List<String> names) {
+        Node<H> node = root;
+        int pos = 0;
+        int length = pattern.length();
+        while (pos < length) {
+            if (pattern.charAt(pos) == '{') {
+                int close = pattern.indexOf('}', pos);
+                if (close < 0 || pattern.charAt(pos - 1) != '/') {
+                    throw new IllegalArgumentException("参数必须占一整段: " + pattern);
+                }
+                String name = pattern.substring(pos + 1, close);
+                if (name.startsWith("*")) {
+                    if (close != length - 1) {
+                        throw new IllegalArgumentException("{*name}只能放在最后: " + pattern);
+                    }
+                    names.add(name.substring(1));
+                    if (node.wildcard == null) {
+                        node.wildcard = new Node<>("");
+                    }
+                    return node.wildcard;
+                }
+                if (close + 1 < length && pattern.charAt(close + 1) != '/') {
+                    throw new IllegalArgumentException("参数必须占一整段: " + pattern);
+                }
+                names.add(name);
+                if (node.param == null) {
+                    node.param = new Node<>("");
+                }
+                node = node.param;
+                pos = close + 1;
+            } else {
+                int next = pattern.indexOf('{', pos);
+                if (next < 0) {
+                    next = length;
+                }
+                node = insertStatic(node, pattern.substring(pos, next));
+                pos = next;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 在node下插入一段静态文本，公共前缀不够长时把原来的边拆成两段
+     */
+    private Node<H> insertStatic(Node<H> node, String text) {
+        while (!text.isEmpty()) {
+            Node<H> child = node.child(text.charAt(0));
+            if (child == null) {
+                child = new Node<>(text);
+                node.addChild(child);
+                return child;
+            }
+            int common = 0;
+            int max = Math.min(child.prefix.length(), text.length());
+            while (common < max && child.prefix.charAt(common) == text.charAt(common)) {
+                common++;
+            }
+            if (common < child.prefix.length()) {
+                Node<H> split = new Node<>(child.prefix.substring(0, common));
+                child.prefix = child.prefix.substring(common);
+                split.addChild(child);
+                node.replaceChild(split);
+                child = split;
+            }
+            text = text.substring(common);
+            node = child;
+        }
+        return node;
+    }
+
+    private static boolean regionMatches(CharSequence path, int pos, int end, String prefix) {
+        int length = prefix.length();
+        if (end - pos < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (path.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int methodIndex(String method) {
+        switch (method) {
+            case "GET":
+                return 0;
+            case "HEAD":
+                return 1;
+            case "POST":
+                return 2;
+            case "PUT":
+                return 3;
+            case "DELETE":
+                return 4;
+            case "PATCH":
+                return 5;
+            case "OPTIONS":
+                return 6;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 树节点：进入节点时消耗prefix；静态子节点按首字符区分
+     */
+    static final class Node<H> {
+        String prefix;
+        private char[] firstChars = new char[0];
+        private Node<H>[] children = newArray(0);
+        Node<H> param;
+        Node<H> wildcard;
+        Endpoint<H>[] endpoints;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node<H> child(char c) {
+            char[] chars = firstChars;
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node<H> child) {
+            int n = children.length;
+            firstChars = Arrays.copyOf(firstChars, n + 1);
+            children = Arrays.copyOf(children, n + 1);
+            firstChars[n] = child.prefix.charAt(0);
+            children[n] = child;
+        }
+
+        void replaceChild(Node<H> child) {
+            char c = child.prefix.charAt(0);
+            for (int i = 0; i < firstChars.length; i++) {
+                if (firstChars[i] == c) {
+                    children[i] = child;
+                    return;
+                }
+            }
+            throw new IllegalStateException("没有以" + c + "开头的子节点");
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static <H> Node<H>[] newArray(int n) {
+            return new Node[n];
+        }
+    }
+
+    static final class Endpoint<H> {
+        final H handler;
+        final String[] names;
+        final String pattern;
+
+        Endpoint(H handler, String[] names, String pattern) {
+            this.handler = handler;
+            this.names = names;
+            this.pattern = pattern;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        static <H> Endpoint<H>[] newArray(int n) {
+            return new Endpoint[n];
+        }
+    }
+
+    /**
+     * 一次匹配的结果：路径参数的起止下标，按连接复用
+     */
+    public static final class RouteMatch {
+        private CharSequence path;
+        private int[] bounds = new int[8];
+        private int count;
+        private String[] names;
+        private String pattern;
+        private boolean methodNotAllowed;
+
+        void reset(CharSequence path) {
+            this.path = path;
+            this.count = 0;
+            this.names = null;
+            this.pattern = null;
+            this.methodNotAllowed = false;
+        }
+
+        void push(int start, int end) {
+            if (count * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = end;
+            count++;
+        }
+
+        /**
+         * 匹配到的路由模式
+         */
+        public String getPattern() {
+            return pattern;
+        }
+
+        /**
+         * 路径存在，但没有这个方法的路由
+         */
+        public boolean isMethodNotAllowed() {
+            return methodNotAllowed;
+        }
+
+        public int paramCount() {
+            return count;
+        }
+
+        /**
+         * 参数值（这时才创建字符串），没有这个参数时返回null
+         */
+        public String param(String name) {
+            int i = indexOf(name);
+            return i < 0 ? null : path.subSequence(bounds[i * 2], bounds[i * 2 + 1]).toString();
+        }
+
+        /**
+         * 按十进制非负整数解析参数，不创建字符串；不是数字、溢出或没有这个参数时返回-1
+         */
+        public long paramAsLong(String name) {
+            int i = indexOf(name);
+            if (i < 0) {
+                return -1;
+            }
+            int start = bounds[i * 2];
+            int end = bounds[i * 2 + 1];
+            if (end - start > 18) {
+                return -1;
+            }
+            long value = 0;
+            for (int p = start; p < end; p++) {
+                char c = path.charAt(p);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private int indexOf(String name) {
+            if (names == null) {
+                return -1;
+            }
+            for (int i = 0; i < count && i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.fragment.io.protocol.project.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 路由查找的开销和注册的路由数有没有关系
+ *
+ * <p>分别注册5、50、500个路由（一半是/api/v1/resourceN/{id}，一半是/api/v1/resourceN/{id}/items/{itemId}），
+ * 用随机命中各个路由的路径查找，并取出id参数，比较三种做法：
+ * <ul>
+ *   <li>matches链：原来handleApiRequest的写法，逐个String.matches，每次都编译正则</li>
+ *   <li>预编译正则：Pattern提前编译好，逐个试，group取参数</li>
+ *   <li>{@link Router}：基数树，参数按下标解析，不产生子串</li>
+ * </ul>
+ *
+ * <p>纯JDK，不需要Netty。启动方式：java RouterBenchmark
+ *
+ * @author fragment
+ */
+public class RouterBenchmark {
+
+    private static final int[] ROUTE_COUNTS = {5, 50, 500};
+    private static final int PATHS = 1024;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    /**
+     * 查找结果累加到这里，免得被JIT当成死代码消掉
+     */
+    private static volatile long blackhole;
+
+    public static void main(String[] args) {
+        System.out.println("=== 路由查找：ns/次（含取id参数） ===\n");
+        System.out.println(String.format("%8s %14s %14s %14s", "路由数", "matches链", "预编译正则", "Router"));
+        for (int routes : ROUTE_COUNTS) {
+            String[] paths = paths(routes);
+            double chain = testMatchesChain(routes, paths);
+            double compiled = testCompiledPatterns(routes, paths);
+            double trie = testRouter(routes, paths);
+            System.out.println(String.format("%8d %14.1f %14.1f %14.1f", routes, chain, compiled, trie));
+        }
+    }
+
+    private static String pattern(int i) {
+        return i % 2 == 0
+            ? "/api/v1/resource" + i + "/{id}"
+            : "/api/v1/resource" + i + "/{id}/items/{itemId}";
+    }
+
+    private static String regex(int i) {
+        return i % 2 == 0
+            ? "/api/v1/resource" + i + "/(\\d+)"
+            : "/api/v1/resource" + i + "/(\\d+)/items/(\\d+)";
+    }
+
+    /**
+     * 随机命中各个路由的请求路径
+     */
+    private static String[] paths(int routes) {
+        Random random = new Random(42);
+        String[] paths = new String[PATHS];
+        for (int p = 0; p < PATHS; p++) {
+            int i = random.nextInt(routes);
+            long id = random.nextInt(1_000_000);
+            paths[p] = i % 2 == 0
+                ? "/api/v1/resource" + i + "/" + id
+                : "/api/v1/resource" + i + "/" + id + "/items/" + random.nextInt(100);
+        }
+        return paths;
+    }
+
+    private static double testMatchesChain(int routes, String[] paths) {
+        String[] regexes = new String[routes];
+        for (int i = 0; i < routes; i++) {
+            regexes[i] = regex(i);
+        }
+        return measure(paths, path -> {
+            for (int i = 0; i < regexes.length; i++) {
+                if (path.matches(regexes[i])) {
+                    int start = "/api/v1/resource".length() + Integer.toString(i).length() + 1;
+                    int end = path.indexOf('/', start);
+                    return i + Long.parseLong(end < 0 ? path.substring(start) : path.substring(start, end));
+                }
+            }
+            return -1;
+        });
+    }
+
+    private static double testCompiledPatterns(int routes, String[] paths) {
+        List<Pattern> patterns = new ArrayList<>(routes);
+        for (int i = 0; i < routes; i++) {
+            patterns.add(Pattern.compile(regex(i)));
+        }
+        return measure(paths, path -> {
+            for (int i = 0; i < patterns.size(); i++) {
+                Matcher matcher = patterns.get(i).matcher(path);
+                if (matcher.matches()) {
+                    return i + Long.parseLong(matcher.group(1));
+                }
+            }
+            return -1;
+        });
+    }
+
+    private static double testRouter(int routes, String[] paths) {
+        Router<Integer> router = new Router<>();
+        for (int i = 0; i < routes; i++) {
+            router.add("GET", pattern(i), i);
+        }
+        Router.RouteMatch match = new Router.RouteMatch();
+        return measure(paths, path -> {
+            Integer route = router.route("GET", path, match);
+            return route == null ? -1 : route + match.paramAsLong("id");
+        });
+    }
+
+    /**
+     * 先预热一轮，再反复查找直到跑满测量时间，返回平均每次的纳秒数
+     */
+    private static double measure(String[] paths, Lookup lookup) {
+        run(paths, lookup);
+        return run(paths, lookup);
+    }
+
+    private static double run(String[] paths, Lookup lookup) {
+        long sum = 0;
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (String path : paths) {
+                long result = lookup.find(path);
+                if (result < 0) {
+                    throw new IllegalStateException("没有匹配: " + path);
+                }
+                sum += result;
+            }
+            count += paths.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        blackhole = sum;
+        return (double) elapsed / count;
+    }
+
+    private interface Lookup {
+        long find(String path);
+    }
+}
@@ -1,6 +1,9 @@
 package com.fragment.io.protocol.project.http;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -10,9 +13,11 @@ import io.netty.handler.codec.http.*;
 import io.netty.handler.stream.ChunkedFile;
 import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.IOException;
 import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -36,27 +41,31 @@ public class SimpleHttpServer {
     
     private final int port;
     private final String webRoot;
+    private final Router<Route> router;
+    // 用户数据：只追加的日志文件，重启后从文件恢复
+    private final LogStore userStore;
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
+    // 业务处理器在这里执行：写用户数据要等force，不能占着EventLoop
+    private EventExecutorGroup handlerGroup;
     
-    // 模拟数据库
-    private static final Map<String, User> userDatabase = new ConcurrentHashMap<>();
-    
-    static {
-        // 初始化测试数据
-        userDatabase.put("1", new User("1", "张三", 25, "zhangsan@example.com"));
-        userDatabase.put("2", new User("2", "李四", 30, "lisi@example.com"));
-        userDatabase.put("3", new User("3", "王五", 28, "wangwu@example.com"));
-    }
-    
-    public SimpleHttpServer(int port, String webRoot) {
+    public SimpleHttpServer(int port, String webRoot, File dataFile) throws IOException {
         this.port = port;
         this.webRoot = webRoot;
+        this.userStore = new LogStore(dataFile, LogStore.Durability.BATCH);
+        if (userStore.size() == 0) {
+            // 第一次启动，初始化测试数据
+            userStore.put("1", new User("1", "张三", 25, "zhangsan@example.com").toJson());
+            userStore.put("2", new User("2", "李四", 30, "lisi@example.com").toJson());
+            userStore.put("3", new User("3", "王五", 28, "wangwu@example.com").toJson());
+        }
+        this.router = HttpServerHandler.createRouter(new StaticFiles(webRoot), userStore);
     }
     
     public void start() throws Exception {
         bossGroup = new NioEventLoopGroup(1);
         workerGroup = new NioEventLoopGroup();
+        handlerGroup = new DefaultEventExecutorGroup(16);
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
@@ -76,13 +85,15 @@ public class SimpleHttpServer {
                         // 支持大文件传输
                         pipeline.addLast(new ChunkedWriteHandler());
                         // 自定义处理器
-                        pipeline.addLast(new HttpServerHandler(webRoot));
+                        pipeline.addLast(handlerGroup, new HttpServerHandler(router));
                     }
                 });
             
             System.out.println("HTTP服务器启动成功");
             System.out.println("访问地址: http://localhost:" + port);
             System.out.println("Web根目录: " + webRoot);
+            System.out.println("已注册路由: " + router.size());
+            System.out.println("用户数据: " + userStore.size() + "个用户，" + userStore.getStats());
             System.out.println("\nAPI端点:");
             System.out.println("  GET    /api/users       - 获取所有用户");
             System.out.println("  GET    /api/users/{id}  - 获取指定用户");
@@ -105,17 +116,73 @@ public class SimpleHttpServer {
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
+        if (handlerGroup != null) {
+            handlerGroup.shutdownGracefully();
+        }
+        try {
+            userStore.close();
+        } catch (IOException e) {
+            System.err.println("关闭用户数据失败: " + e.getMessage());
+        }
     }
     
     /**
      * HTTP服务器处理器
+     *
+     * <p>设计要点：
+     * <ul>
+     *   <li>问题1：原来的handleApiRequest用一串equals / matches逐个试，matches每次都要编译正则，路由越多越慢？
+     *       解决：启动时把所有路由编译进{@link Router}的基数树，请求时按路径走一遍树，和路由数无关；
+     *       路由树所有连接共用，{@link Router.RouteMatch}每个连接一个，匹配时不产生子串</li>
+     *   <li>问题2：响应先拼成String，再copiedBuffer拷贝一遍，缓冲区还要边写边扩容？
+     *       解决：处理器拿到{@link ResponseBuilder}，直接把内容写进按该路由上次响应大小预分配的ByteBuf</li>
+     *   <li>问题3：静态文件每个请求都要把web根目录重新getCanonicalPath一遍？
+     *       解决：{@link StaticFiles}启动时算好根目录的规范路径，解析过的请求路径缓存起来</li>
+     *   <li>问题4：用户数据放在static的ConcurrentHashMap里，重启就没了？
+     *       解决：存进{@link LogStore}，写请求并发时合并成一批、共用一次force；
+     *       本处理器跑在单独的EventExecutorGroup上，等待force时不占EventLoop</li>
+     * </ul>
      */
     static class HttpServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
         
-        private final String webRoot;
+        private final Router<Route> router;
+        private final Router.RouteMatch match = new Router.RouteMatch();
         
-        public HttpServerHandler(String webRoot) {
-            this.webRoot = webRoot;
+        public HttpServerHandler(Router<Route> router) {
+            this.router = router;
+        }
+        
+        /**
+         * 把所有路由编译成路由树，启动时调用一次
+         */
+        static Router<Route> createRouter(StaticFiles staticFiles, LogStore users) {
+            Router<Route> router = new Router<>();
+            router.add("GET", "/api/users", new Route((request, match, response) ->
+                handleGetUsers(users, response)));
+            router.add("GET", "/api/users/{id}", new Route((request, match, response) ->
+                isUserId(match) ? handleGetUser(users, match.param("id"), response) : apiNotFound(response)));
+            router.add("POST", "/api/users", new Route((request, match, response) ->
+                handleCreateUser(users, request.content().toString(CharsetUtil.UTF_8), response)));
+            router.add("PUT", "/api/users/{id}", new Route((request, match, response) ->
+                isUserId(match)
+                    ? handleUpdateUser(users, match.param("id"), request.content().toString(CharsetUtil.UTF_8), response)
+                    : apiNotFound(response)));
+            router.add("DELETE", "/api/users/{id}", new Route((request, match, response) ->
+                isUserId(match) ? handleDeleteUser(users, match.param("id"), response) : apiNotFound(response)));
+            
+            // 其余/api/路径：OPTIONS是CORS预检，其他方法统一返回API not found
+            Route preflight = new Route((request, match, response) -> response.json(HttpResponseStatus.OK, ""));
+            Route notFound = new Route((request, match, response) -> apiNotFound(response));
+            for (String method : Router.METHODS) {
+                router.add(method, "/api/{*path}", "OPTIONS".equals(method) ? preflight : notFound);
+            }
+            
+            // 静态文件
+            Route staticFile = new Route((request, match, response) ->
+                handleStaticFile(staticFiles, match.param("path"), response));
+            router.add("GET", "/{*path}", staticFile);
+            router.add("HEAD", "/{*path}", staticFile);
+            return router;
         }
         
         @Override
@@ -123,24 +190,42 @@ public class SimpleHttpServer {
             // 记录请求
             logRequest(request);
             
-            // 解码URI
-            String uri;
-            try {
-                uri = URLDecoder.decode(request.uri(), "UTF-8");
-            } catch (Exception e) {
-                sendError(ctx, HttpResponseStatus.BAD_REQUEST);
-                return;
+            // 去掉查询串，路径里有%编码时才解码
+            String uri = request.uri();
+            int query = uri.indexOf('?');
+            int end = query < 0 ? uri.length() : query;
+            String path = uri;
+            if (uri.lastIndexOf('%', end - 1) >= 0) {
+                try {
+                    path = URLDecoder.decode(uri.substring(0, end), "UTF-8");
+                    end = path.length();
+                } catch (Exception e) {
+                    sendError(ctx, HttpResponseStatus.BAD_REQUEST);
+                    return;
+                }
             }
             
             // 路由处理
             FullHttpResponse response;
-            
-            if (uri.startsWith("/api/")) {
-                // API请求
-                response = handleApiRequest(request, uri);
+            Route route = router.route(request.method().name(), path, 0, end, match);
+            if (route == null) {
+                ResponseBuilder builder = new ResponseBuilder(ctx.alloc(), Route.MIN_SIZE_HINT);
+                response = match.isMethodNotAllowed()
+                    ? builder.text(HttpResponseStatus.METHOD_NOT_ALLOWED, "405 Method Not Allowed")
+                    : builder.text(HttpResponseStatus.NOT_FOUND, "404 Not Found");
             } else {
-                // 静态文件请求
-                response = handleStaticFile(request, uri);
+                ResponseBuilder builder = new ResponseBuilder(ctx.alloc(), route.sizeHint);
+                try {
+                    response = route.handler.handle(request, match, builder);
+                } catch (IOException e) {
+                    builder.release();
+                    response = new ResponseBuilder(ctx.alloc(), Route.MIN_SIZE_HINT)
+                        .json(HttpResponseStatus.INTERNAL_SERVER_ERROR, "{\"error\":\"Storage error\"}");
+                } catch (RuntimeException e) {
+                    builder.release();
+                    throw e;
+                }
+                route.sizeHint = Math.max(Route.MIN_SIZE_HINT, response.content().readableBytes());
             }
             
             // 添加CORS头
@@ -161,218 +246,135 @@ public class SimpleHttpServer {
         }
         
         /**
-         * 处理API请求
+         * 用户ID只能是数字（原来的正则是/api/users/\d+）
          */
-        private FullHttpResponse handleApiRequest(FullHttpRequest request, String uri) {
-            HttpMethod method = request.method();
-            
-            // OPTIONS请求（CORS预检）
-            if (method.equals(HttpMethod.OPTIONS)) {
-                return createJsonResponse(HttpResponseStatus.OK, "");
-            }
-            
-            // 路由匹配
-            if (uri.equals("/api/users") && method.equals(HttpMethod.GET)) {
-                return handleGetUsers();
-            } else if (uri.matches("/api/users/\\d+") && method.equals(HttpMethod.GET)) {
-                String id = uri.substring(uri.lastIndexOf('/') + 1);
-                return handleGetUser(id);
-            } else if (uri.equals("/api/users") && method.equals(HttpMethod.POST)) {
-                String body = request.content().toString(CharsetUtil.UTF_8);
-                return handleCreateUser(body);
-            } else if (uri.matches("/api/users/\\d+") && method.equals(HttpMethod.PUT)) {
-                String id = uri.substring(uri.lastIndexOf('/') + 1);
-                String body = request.content().toString(CharsetUtil.UTF_8);
-                return handleUpdateUser(id, body);
-            } else if (uri.matches("/api/users/\\d+") && method.equals(HttpMethod.DELETE)) {
-                String id = uri.substring(uri.lastIndexOf('/') + 1);
-                return handleDeleteUser(id);
-            } else {
-                return createJsonResponse(HttpResponseStatus.NOT_FOUND, 
-                    "{\"error\":\"API not found\"}");
-            }
+        private static boolean isUserId(Router.RouteMatch match) {
+            return match.paramAsLong("id") >= 0;
+        }
+        
+        private static FullHttpResponse apiNotFound(ResponseBuilder response) {
+            return response.json(HttpResponseStatus.NOT_FOUND, "{\"error\":\"API not found\"}");
         }
         
         /**
          * 获取所有用户
          */
-        private FullHttpResponse handleGetUsers() {
-            StringBuilder json = new StringBuilder("[");
+        private static FullHttpResponse handleGetUsers(LogStore users, ResponseBuilder response) throws IOException {
+            response.append("[");
             int count = 0;
-            for (User user : userDatabase.values()) {
-                if (count > 0) json.append(",");
-                json.append(user.toJson());
+            for (String id : users.keys()) {
+                // 存的就是JSON，原样输出；遍历时被并发删除的跳过
+                String json = users.get(id);
+                if (json == null) continue;
+                if (count > 0) response.append(",");
+                response.append(json);
                 count++;
             }
-            json.append("]");
+            response.append("]");
             
-            return createJsonResponse(HttpResponseStatus.OK, json.toString());
+            return response.json(HttpResponseStatus.OK);
         }
         
         /**
          * 获取指定用户
          */
-        private FullHttpResponse handleGetUser(String id) {
-            User user = userDatabase.get(id);
-            if (user == null) {
-                return createJsonResponse(HttpResponseStatus.NOT_FOUND, 
+        private static FullHttpResponse handleGetUser(LogStore users, String id, ResponseBuilder response)
+                throws IOException {
+            String json = users.get(id);
+            if (json == null) {
+                return response.json(HttpResponseStatus.NOT_FOUND, 
                     "{\"error\":\"User not found\"}");
             }
-            return createJsonResponse(HttpResponseStatus.OK, user.toJson());
+            return response.json(HttpResponseStatus.OK, json);
         }
         
         /**
          * 创建用户
          */
-        private FullHttpResponse handleCreateUser(String body) {
+        private static FullHttpResponse handleCreateUser(LogStore users, String body, ResponseBuilder response)
+                throws IOException {
+            User user;
             try {
-                User user = User.fromJson(body);
-                user.setId(String.valueOf(System.currentTimeMillis()));
-                userDatabase.put(user.getId(), user);
-                
-                return createJsonResponse(HttpResponseStatus.CREATED, user.toJson());
+                user = User.fromJson(body);
             } catch (Exception e) {
-                return createJsonResponse(HttpResponseStatus.BAD_REQUEST, 
+                return response.json(HttpResponseStatus.BAD_REQUEST, 
                     "{\"error\":\"Invalid JSON\"}");
             }
+            user.setId(String.valueOf(System.currentTimeMillis()));
+            String json = user.toJson();
+            users.put(user.getId(), json);
+            
+            return response.json(HttpResponseStatus.CREATED, json);
         }
         
         /**
          * 更新用户
          */
-        private FullHttpResponse handleUpdateUser(String id, String body) {
-            User existingUser = userDatabase.get(id);
-            if (existingUser == null) {
-                return createJsonResponse(HttpResponseStatus.NOT_FOUND, 
+        private static FullHttpResponse handleUpdateUser(LogStore users, String id, String body,
+                                                         ResponseBuilder response) throws IOException {
+            if (!users.containsKey(id)) {
+                return response.json(HttpResponseStatus.NOT_FOUND, 
                     "{\"error\":\"User not found\"}");
             }
             
+            User user;
             try {
-                User user = User.fromJson(body);
-                user.setId(id);
-                userDatabase.put(id, user);
-                
-                return createJsonResponse(HttpResponseStatus.OK, user.toJson());
+                user = User.fromJson(body);
             } catch (Exception e) {
-                return createJsonResponse(HttpResponseStatus.BAD_REQUEST, 
+                return response.json(HttpResponseStatus.BAD_REQUEST, 
                     "{\"error\":\"Invalid JSON\"}");
             }
+            user.setId(id);
+            String json = user.toJson();
+            users.put(id, json);
+            
+            return response.json(HttpResponseStatus.OK, json);
         }
         
         /**
          * 删除用户
          */
-        private FullHttpResponse handleDeleteUser(String id) {
-            User user = userDatabase.remove(id);
-            if (user == null) {
-                return createJsonResponse(HttpResponseStatus.NOT_FOUND, 
+        private static FullHttpResponse handleDeleteUser(LogStore users, String id, ResponseBuilder response)
+                throws IOException {
+            if (!users.delete(id)) {
+                return response.json(HttpResponseStatus.NOT_FOUND, 
                     "{\"error\":\"User not found\"}");
             }
             
-            return createJsonResponse(HttpResponseStatus.OK, 
+            return response.json(HttpResponseStatus.OK, 
                 "{\"message\":\"User deleted successfully\"}");
         }
         
         /**
-         * 处理静态文件请求
+         * 处理静态文件请求，path是去掉开头/之后的路径
          */
-        private FullHttpResponse handleStaticFile(FullHttpRequest request, String uri) {
+        private static FullHttpResponse handleStaticFile(StaticFiles staticFiles, String path,
+                                                         ResponseBuilder response) {
             // 默认首页
-            if (uri.equals("/") || uri.equals("/index.html")) {
-                return createHtmlResponse(getIndexHtml());
+            if (path.isEmpty() || path.equals("index.html")) {
+                return response.html(getIndexHtml());
             }
             
-            // 构建文件路径
-            String filePath = webRoot + uri;
-            File file = new File(filePath);
-            
             // 安全检查：防止目录遍历攻击
+            File file;
             try {
-                String canonicalPath = file.getCanonicalPath();
-                String canonicalRoot = new File(webRoot).getCanonicalPath();
-                if (!canonicalPath.startsWith(canonicalRoot)) {
-                    return createTextResponse(HttpResponseStatus.FORBIDDEN, "Forbidden");
-                }
+                file = staticFiles.resolve(path);
             } catch (Exception e) {
-                return createTextResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, 
+                return response.text(HttpResponseStatus.INTERNAL_SERVER_ERROR, 
                     "Internal Server Error");
             }
-            
-            // 文件不存在
-            if (!file.exists() || !file.isFile()) {
-                return createTextResponse(HttpResponseStatus.NOT_FOUND, "404 Not Found");
+            if (file == null) {
+                return response.text(HttpResponseStatus.FORBIDDEN, "Forbidden");
             }
             
-            // 读取文件
-            try {
-                RandomAccessFile raf = new RandomAccessFile(file, "r");
-                long fileLength = raf.length();
-                
-                DefaultHttpResponse response = new DefaultHttpResponse(
-                    HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-                
-                // 设置Content-Type
-                String contentType = getContentType(file.getName());
-                response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
-                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, fileLength);
-                
-                // 使用零拷贝传输文件
-                DefaultFileRegion fileRegion = new DefaultFileRegion(
-                    raf.getChannel(), 0, fileLength);
-                
-                // 注意：这里简化处理，实际应该使用ChunkedFile
-                raf.close();
-                
-                // 返回简单的文本响应（实际项目中应该使用ChunkedFile）
-                return createTextResponse(HttpResponseStatus.OK, 
-                    "File: " + file.getName() + " (" + fileLength + " bytes)");
-                
-            } catch (Exception e) {
-                return createTextResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, 
-                    "Error reading file");
+            // 文件不存在
+            if (!file.isFile()) {
+                return response.text(HttpResponseStatus.NOT_FOUND, "404 Not Found");
             }
-        }
-        
-        /**
-         * 创建JSON响应
-         */
-        private FullHttpResponse createJsonResponse(HttpResponseStatus status, String json) {
-            FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, status,
-                Unpooled.copiedBuffer(json, CharsetUtil.UTF_8));
             
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json; charset=UTF-8");
-            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
-            
-            return response;
-        }
-        
-        /**
-         * 创建HTML响应
-         */
-        private FullHttpResponse createHtmlResponse(String html) {
-            FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
-                Unpooled.copiedBuffer(html, CharsetUtil.UTF_8));
-            
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
-            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
-            
-            return response;
-        }
-        
-        /**
-         * 创建文本响应
-         */
-        private FullHttpResponse createTextResponse(HttpResponseStatus status, String text) {
-            FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, status,
-                Unpooled.copiedBuffer(text, CharsetUtil.UTF_8));
-            
-            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
-            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
-            
-            return response;
+            // 返回简单的文本响应（实际项目中应该使用ChunkedFile）
+            return response.text(HttpResponseStatus.OK, 
+                "File: " + file.getName() + " (" + file.length() + " bytes)");
         }
         
         /**
@@ -399,7 +401,7 @@ public class SimpleHttpServer {
         /**
          * 获取Content-Type
          */
-        private String getContentType(String fileName) {
+        private static String getContentType(String fileName) {
             if (fileName.endsWith(".html") || fileName.endsWith(".htm")) {
                 return "text/html; charset=UTF-8";
             } else if (fileName.endsWith(".css")) {
@@ -434,7 +436,7 @@ public class SimpleHttpServer {
         /**
          * 获取首页HTML
          */
-        private String getIndexHtml() {
+        private static String getIndexHtml() {
             return "<!DOCTYPE html>\n" +
                 "<html>\n" +
                 "<head>\n" +
@@ -527,6 +529,125 @@ public class SimpleHttpServer {
         }
     }
     
+    /**
+     * 路由处理器
+     */
+    @FunctionalInterface
+    interface RouteHandler {
+        FullHttpResponse handle(FullHttpRequest request, Router.RouteMatch match, ResponseBuilder response)
+            throws IOException;
+    }
+    
+    /**
+     * 路由树里的一个处理器，记着这个路由上次响应的大小，用来预分配下一次的缓冲区
+     */
+    static final class Route {
+        static final int MIN_SIZE_HINT = 64;
+        
+        final RouteHandler handler;
+        volatile int sizeHint = 256;
+        
+        Route(RouteHandler handler) {
+            this.handler = handler;
+        }
+    }
+    
+    /**
+     * 响应构建器：内容直接写进预分配好的ByteBuf（第一次写入时才分配），build时包成FullHttpResponse
+     */
+    static final class ResponseBuilder {
+        private final ByteBufAllocator alloc;
+        private final int sizeHint;
+        private ByteBuf content;
+        
+        ResponseBuilder(ByteBufAllocator alloc, int sizeHint) {
+            this.alloc = alloc;
+            this.sizeHint = sizeHint;
+        }
+        
+        ResponseBuilder append(CharSequence text) {
+            if (content == null) {
+                content = alloc.buffer(sizeHint);
+            }
+            ByteBufUtil.writeUtf8(content, text);
+            return this;
+        }
+        
+        FullHttpResponse build(HttpResponseStatus status, String contentType) {
+            ByteBuf body = content != null ? content : Unpooled.EMPTY_BUFFER;
+            content = null;
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, body);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+            return response;
+        }
+        
+        FullHttpResponse json(HttpResponseStatus status) {
+            return build(status, "application/json; charset=UTF-8");
+        }
+        
+        FullHttpResponse json(HttpResponseStatus status, CharSequence json) {
+            return append(json).json(status);
+        }
+        
+        FullHttpResponse html(CharSequence html) {
+            return append(html).build(HttpResponseStatus.OK, "text/html; charset=UTF-8");
+        }
+        
+        FullHttpResponse text(HttpResponseStatus status, CharSequence text) {
+            return append(text).build(status, "text/plain; charset=UTF-8");
+        }
+        
+        /**
+         * 处理器异常、没有build时释放已经写了一半的缓冲区
+         */
+        void release() {
+            if (content != null) {
+                content.release();
+                content = null;
+            }
+        }
+    }
+    
+    /**
+     * 静态文件目录：根目录的规范路径启动时算一次，请求路径解析过一次就缓存起来
+     *
+     * <p>缓存的是"这个请求路径对应哪个文件、是否越界"，文件是否存在每次都会重新检查。
+     * 缓存超过上限时整个清空，避免被大量不同的路径撑大。
+     */
+    static final class StaticFiles {
+        private static final int MAX_CACHED = 1024;
+        private static final File FORBIDDEN = new File("");
+        
+        private final File root;
+        private final String canonicalRoot;
+        private final Map<String, File> resolved = new ConcurrentHashMap<>();
+        
+        StaticFiles(String webRoot) throws IOException {
+            this.root = new File(webRoot);
+            this.canonicalRoot = root.getCanonicalPath();
+        }
+        
+        /**
+         * 把相对路径解析成根目录下的文件，越出根目录时返回null
+         */
+        File resolve(String path) throws IOException {
+            File file = resolved.get(path);
+            if (file == null) {
+                File candidate = new File(root, path);
+                String canonicalPath = candidate.getCanonicalPath();
+                boolean inside = canonicalPath.equals(canonicalRoot)
+                    || canonicalPath.startsWith(canonicalRoot + File.separator);
+                file = inside ? candidate : FORBIDDEN;
+                if (resolved.size() >= MAX_CACHED) {
+                    resolved.clear();
+                }
+                resolved.put(path, file);
+            }
+            return file == FORBIDDEN ? null : file;
+        }
+    }
+    
     /**
      * 用户实体类
      */
@@ -601,7 +722,10 @@ public class SimpleHttpServer {
             webRootDir.mkdirs();
         }
         
-        SimpleHttpServer server = new SimpleHttpServer(port, webRoot);
+        // 用户数据文件
+        File dataFile = new File(System.getProperty("user.dir"), "data/users.log");
+        
+        SimpleHttpServer server = new SimpleHttpServer(port, webRoot, dataFile);
         server.start();
     }
 }
@@ -1,21 +1,21 @@
 package com.fragment.io.protocol.project.websocket;
 
+import com.fragment.io.netty.project.push.ConnectionRegistry;
+import com.fragment.io.netty.project.websocket.ChatRooms;
+import com.fragment.io.netty.project.websocket.ChatRooms.Room;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.websocketx.*;
 import io.netty.handler.stream.ChunkedWriteHandler;
-import io.netty.util.concurrent.GlobalEventExecutor;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 
 /**
  * WebSocket聊天服务器
@@ -28,6 +28,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * 5. 私聊功能
  * 6. 群发消息
  * 7. 心跳检测
+ * 8. 多房间（{@link ChatRooms}：群发消息只编码一次，由各EventLoop写给自己的连接）
  * 
  * @author fragment
  */
@@ -37,15 +38,6 @@ public class WebSocketChatServer {
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
     
-    // 所有连接的Channel
-    private static final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
-    
-    // Channel到用户名的映射
-    private static final Map<Channel, String> channelUserMap = new ConcurrentHashMap<>();
-    
-    // 用户名到Channel的映射
-    private static final Map<String, Channel> userChannelMap = new ConcurrentHashMap<>();
-    
     public WebSocketChatServer(int port) {
         this.port = port;
     }
@@ -53,6 +45,9 @@ public class WebSocketChatServer {
     public void start() throws Exception {
         bossGroup = new NioEventLoopGroup(1);
         workerGroup = new NioEventLoopGroup();
+        ChatRooms rooms = new ChatRooms(workerGroup, PooledByteBufAllocator.DEFAULT);
+        // 用户名和Channel的映射
+        ConnectionRegistry registry = new ConnectionRegistry();
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
@@ -69,7 +64,7 @@ public class WebSocketChatServer {
                         pipeline.addLast(new ChunkedWriteHandler());
                         
                         // WebSocket处理器
-                        pipeline.addLast(new WebSocketServerHandler());
+                        pipeline.addLast(new WebSocketServerHandler(rooms, registry));
                     }
                 });
             
@@ -79,6 +74,8 @@ public class WebSocketChatServer {
             System.out.println("  /name <昵称>    - 设置昵称");
             System.out.println("  /list           - 查看在线用户");
             System.out.println("  /to <用户> <消息> - 私聊");
+            System.out.println("  /join <房间>    - 切换房间");
+            System.out.println("  /rooms          - 查看房间");
             System.out.println("  其他消息        - 群发消息");
             System.out.println();
             
@@ -103,8 +100,15 @@ public class WebSocketChatServer {
      */
     static class WebSocketServerHandler extends SimpleChannelInboundHandler<Object> {
         
+        private final ChatRooms rooms;
+        private final ConnectionRegistry registry;
         private WebSocketServerHandshaker handshaker;
         
+        WebSocketServerHandler(ChatRooms rooms, ConnectionRegistry registry) {
+            this.rooms = rooms;
+            this.registry = registry;
+        }
+        
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, Object msg) {
             if (msg instanceof FullHttpRequest) {
@@ -139,31 +143,40 @@ public class WebSocketChatServer {
             if (handshaker == null) {
                 WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel());
             } else {
-                handshaker.handshake(ctx.channel(), request);
-                
-                // 添加到Channel组
-                channels.add(ctx.channel());
-                
-                // 分配默认用户名
-                String username = "用户" + ctx.channel().id().asShortText();
-                channelUserMap.put(ctx.channel(), username);
-                userChannelMap.put(username, ctx.channel());
-                
-                // 通知所有人有新用户加入
-                String message = formatSystemMessage(username + " 加入了聊天室");
-                broadcastMessage(message, null);
-                
-                // 发送欢迎消息
-                sendMessage(ctx.channel(), formatSystemMessage(
-                    "欢迎来到聊天室！你的昵称是: " + username + "\n" +
-                    "使用 /name <昵称> 可以修改昵称\n" +
-                    "使用 /list 查看在线用户\n" +
-                    "使用 /to <用户> <消息> 发送私聊"));
-                
-                System.out.println("[系统] " + username + " 加入聊天室");
+                // 握手响应发出、HTTP编解码器移除后才加入房间，之前写WebSocket帧会被HTTP编码器拒绝
+                handshaker.handshake(ctx.channel(), request).addListener((ChannelFutureListener) future -> {
+                    if (future.isSuccess()) {
+                        onHandshakeComplete(future.channel());
+                    }
+                });
             }
         }
         
+        /**
+         * 握手完成：分配用户名，加入大厅
+         */
+        private void onHandshakeComplete(Channel channel) {
+            // 分配默认用户名
+            String username = "用户" + channel.id().asShortText();
+            registry.register(channel);
+            registry.bindUser(channel, username);
+            rooms.join(channel, ChatRooms.LOBBY);
+            
+            // 通知房间里所有人有新用户加入
+            String message = formatSystemMessage(username + " 加入了聊天室");
+            broadcastMessage(channel, message, null);
+            
+            // 发送欢迎消息
+            sendMessage(channel, formatSystemMessage(
+                "欢迎来到聊天室！你的昵称是: " + username + "\n" +
+                "使用 /name <昵称> 可以修改昵称\n" +
+                "使用 /list 查看在线用户\n" +
+                "使用 /to <用户> <消息> 发送私聊\n" +
+                "使用 /join <房间> 切换房间，/rooms 查看房间"));
+            
+            System.out.println("[系统] " + username + " 加入聊天室");
+        }
+        
         /**
          * 处理WebSocket帧
          */
@@ -187,7 +200,7 @@ public class WebSocketChatServer {
             
             // 处理文本消息
             String message = ((TextWebSocketFrame) frame).text();
-            String username = channelUserMap.get(ctx.channel());
+            String username = registry.userOf(ctx.channel());
             
             System.out.println("[" + username + "] " + message);
             
@@ -195,9 +208,9 @@ public class WebSocketChatServer {
             if (message.startsWith("/")) {
                 handleCommand(ctx.channel(), username, message);
             } else {
-                // 群发消息
+                // 群发消息（当前房间）
                 String formattedMessage = formatUserMessage(username, message);
-                broadcastMessage(formattedMessage, ctx.channel());
+                broadcastMessage(ctx.channel(), formattedMessage, ctx.channel());
             }
         }
         
@@ -218,28 +231,24 @@ public class WebSocketChatServer {
                     
                     String newName = parts[1];
                     
-                    // 检查昵称是否已被使用
-                    if (userChannelMap.containsKey(newName)) {
+                    // 更新昵称，昵称已被其他人使用时失败
+                    if (!registry.bindUser(channel, newName)) {
                         sendMessage(channel, formatSystemMessage("昵称 " + newName + " 已被使用"));
                         return;
                     }
                     
-                    // 更新昵称
-                    userChannelMap.remove(username);
-                    channelUserMap.put(channel, newName);
-                    userChannelMap.put(newName, channel);
-                    
-                    // 通知所有人
+                    // 通知房间里所有人
                     String message = formatSystemMessage(username + " 改名为 " + newName);
-                    broadcastMessage(message, null);
+                    broadcastMessage(channel, message, null);
                     
                     System.out.println("[系统] " + username + " 改名为 " + newName);
                     break;
                     
                 case "/list":
                     // 查看在线用户列表
-                    StringBuilder userList = new StringBuilder("在线用户 (" + channelUserMap.size() + "):\n");
-                    for (String user : userChannelMap.keySet()) {
+                    List<String> users = registry.users();
+                    StringBuilder userList = new StringBuilder("在线用户 (" + users.size() + "):\n");
+                    for (String user : users) {
                         userList.append("  - ").append(user).append("\n");
                     }
                     sendMessage(channel, formatSystemMessage(userList.toString()));
@@ -255,7 +264,7 @@ public class WebSocketChatServer {
                     String targetUser = parts[1];
                     String privateMessage = parts[2];
                     
-                    Channel targetChannel = userChannelMap.get(targetUser);
+                    Channel targetChannel = registry.channelOf(targetUser);
                     if (targetChannel == null) {
                         sendMessage(channel, formatSystemMessage("用户 " + targetUser + " 不存在"));
                         return;
@@ -269,6 +278,32 @@ public class WebSocketChatServer {
                     System.out.println("[私聊] " + username + " -> " + targetUser + ": " + privateMessage);
                     break;
                     
+                case "/join":
+                    // 切换房间
+                    if (parts.length < 2) {
+                        sendMessage(channel, formatSystemMessage("用法: /join <房间>"));
+                        return;
+                    }
+                    
+                    String roomName = parts[1];
+                    Room oldRoom = rooms.leave(channel);
+                    if (oldRoom != null) {
+                        oldRoom.broadcast(formatSystemMessage(username + " 去了房间 " + roomName), null);
+                    }
+                    Room room = rooms.join(channel, roomName);
+                    room.broadcast(formatSystemMessage(
+                        username + " 进入房间 " + roomName + " (房间人数: " + room.size() + ")"), null);
+                    break;
+                    
+                case "/rooms":
+                    // 查看房间列表
+                    StringBuilder roomList = new StringBuilder("房间列表:\n");
+                    for (Room r : rooms.rooms()) {
+                        roomList.append("  - ").append(r).append("\n");
+                    }
+                    sendMessage(channel, formatSystemMessage(roomList.toString()));
+                    break;
+                    
                 default:
                     sendMessage(channel, formatSystemMessage("未知命令: " + cmd));
                     break;
@@ -276,13 +311,12 @@ public class WebSocketChatServer {
         }
         
         /**
-         * 广播消息
+         * 广播消息给member所在的房间
          */
-        private void broadcastMessage(String message, Channel excludeChannel) {
-            for (Channel channel : channels) {
-                if (channel != excludeChannel && channel.isActive()) {
-                    sendMessage(channel, message);
-                }
+        private void broadcastMessage(Channel member, String message, Channel excludeChannel) {
+            Room room = rooms.roomOf(member);
+            if (room != null) {
+                room.broadcast(message, excludeChannel);
             }
         }
         
@@ -354,14 +388,15 @@ public class WebSocketChatServer {
         @Override
         public void channelInactive(ChannelHandlerContext ctx) {
             // 用户离开
-            String username = channelUserMap.remove(ctx.channel());
+            String username = registry.userOf(ctx.channel());
+            registry.unregister(ctx.channel());
+            Room room = rooms.leave(ctx.channel());
             if (username != null) {
-                userChannelMap.remove(username);
-                channels.remove(ctx.channel());
                 
-                // 通知所有人
-                String message = formatSystemMessage(username + " 离开了聊天室");
-                broadcastMessage(message, null);
+                // 通知房间里的人
+                if (room != null) {
+                    room.broadcast(formatSystemMessage(username + " 离开了聊天室"), null);
+                }
                 
                 System.out.println("[系统] " + username + " 离开聊天室");
             }